@@ -0,0 +1,98 @@
+package telegram.files;
+
+/**
+ * AIMD controller for the download limit of one telegram account.
+ * <p>
+ * While all slots are in use, the limit is increased by one as long as throughput or completion rate keeps improving,
+ * and cut multiplicatively when throughput drops or downloads start failing. With free slots there is no signal, so the limit is held.
+ */
+public class AdaptiveDownloadLimit {
+
+    private static final double DECREASE_FACTOR = 0.7;
+
+    // Throughput change below this ratio is treated as noise
+    private static final double TOLERANCE = 0.05;
+
+    // Throughput drop over this ratio is treated as congestion
+    private static final double DROP_THRESHOLD = 0.2;
+
+    private int minLimit;
+
+    private int maxLimit;
+
+    private int limit;
+
+    private long lastThroughput = -1;
+
+    private double lastCompletionRate = -1;
+
+    private Action lastAction = Action.hold;
+
+    public enum Action {
+        increase, decrease, hold
+    }
+
+    public AdaptiveDownloadLimit(int initialLimit, int minLimit, int maxLimit) {
+        setBounds(minLimit, maxLimit);
+        this.limit = clamp(initialLimit);
+    }
+
+    public synchronized void setBounds(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = clamp(limit);
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized Action getLastAction() {
+        return lastAction;
+    }
+
+    /**
+     * @param throughput  bytes per second during the last window
+     * @param completed   files completed during the last window
+     * @param failed      files failed during the last window
+     * @param windowSecs  length of the last window in seconds
+     * @param saturated   whether all slots were in use during the last window
+     * @return the new limit
+     */
+    public synchronized int adjust(long throughput, int completed, int failed, int windowSecs, boolean saturated) {
+        double completionRate = (double) completed / Math.max(1, windowSecs);
+        Action action = Action.hold;
+        if (failed > 0 && failed >= completed) {
+            action = Action.decrease;
+        } else if (saturated) {
+            if (lastThroughput < 0) {
+                action = Action.increase;
+            } else if (throughput < lastThroughput * (1 - DROP_THRESHOLD) && completionRate <= lastCompletionRate) {
+                action = Action.decrease;
+            } else if (throughput > lastThroughput * (1 + TOLERANCE)
+                       || (completionRate > lastCompletionRate && throughput >= lastThroughput * (1 - TOLERANCE))) {
+                action = Action.increase;
+            } else if (lastAction == Action.increase && throughput < lastThroughput * (1 - TOLERANCE)) {
+                // The last increase did not pay off, step back
+                action = Action.decrease;
+            }
+        }
+
+        switch (action) {
+            case increase -> limit = clamp(limit + 1);
+            case decrease -> limit = clamp((int) Math.floor(limit * DECREASE_FACTOR));
+            default -> {
+            }
+        }
+        lastAction = action;
+        if (saturated || action == Action.decrease) {
+            lastThroughput = throughput;
+            lastCompletionRate = completionRate;
+        }
+        return limit;
+    }
+
+    private int clamp(int value) {
+        return Math.min(maxLimit, Math.max(minLimit, value));
+    }
+}
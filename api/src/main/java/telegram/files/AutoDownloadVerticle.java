@@ -12,20 +12,21 @@ import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import org.drinkless.tdlib.TdApi;
 import org.jooq.lambda.tuple.Tuple2;
+import telegram.files.repository.DownloadQueueRecord;
 import telegram.files.repository.FileRecord;
+import telegram.files.repository.SettingAdaptiveDownload;
 import telegram.files.repository.SettingAutoRecords;
+import telegram.files.repository.SettingHistoryScan;
+import telegram.files.repository.ScanThreadRecord;
 import telegram.files.repository.SettingKey;
 import telegram.files.repository.SettingTimeLimitedDownload;
 
 import java.time.LocalTime;
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Consumer;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AutoDownloadVerticle extends AbstractVerticle {
 
@@ -33,38 +34,71 @@ public class AutoDownloadVerticle extends AbstractVerticle {
 
     private static final int DEFAULT_LIMIT = 5;
 
-    private static final int HISTORY_SCAN_INTERVAL = 2 * 60 * 1000;
-
-    private static final int MAX_HISTORY_SCAN_TIME = 10 * 1000;
+    // Register new scan targets and resume idle scans, history is otherwise fed continuously by the scanner
+    private static final int HISTORY_SCAN_INTERVAL = 10 * 1000;
 
     private static final int MAX_WAITING_LENGTH = 30;
 
     private static final int DOWNLOAD_INTERVAL = 10 * 1000;
 
+    private static final int DOWNLOADING_RECONCILE_INTERVAL = 5 * 60 * 1000;
+
+    private static final int ADAPTIVE_LIMIT_INTERVAL = 30 * 1000;
+
+    // Coalesce bursts of status transitions into one slot refill
+    private static final int REFILL_DELAY = 200;
+
     private static final List<String> DEFAULT_FILE_TYPE_ORDER = List.of("photo", "video", "audio", "file");
 
     // telegramId -> messages
-    private final Map<Long, LinkedList<MessageWrapper>> waitingDownloadMessages = new ConcurrentHashMap<>();
+    private final Map<Long, DownloadQueue> waitingDownloadMessages = new ConcurrentHashMap<>();
 
     // telegramId -> waiting scan threads
-    private final Map<Long, LinkedList<WaitingScanThread>> waitingScanThreads = new ConcurrentHashMap<>();
+    private final Map<Long, List<WaitingScanThread>> waitingScanThreads = new ConcurrentHashMap<>();
+
+    // telegramId -> slot statistics
+    private final Map<Long, SlotStatistics> slotStatistics = new ConcurrentHashMap<>();
+
+    // telegramId -> time of the first transition waiting for refill
+    private final Map<Long, Long> pendingRefills = new ConcurrentHashMap<>();
 
     private final SettingAutoRecords autoRecords;
 
     private int limit = DEFAULT_LIMIT;
 
+    private List<DownloadQueue.Order> orders = DownloadQueue.DEFAULT_ORDERS;
+
+    private SettingAdaptiveDownload adaptive;
+
+    // telegramId -> adaptive limit, only used when adaptive is enabled
+    private final Map<Long, AdaptiveDownloadLimit> adaptiveLimits = new ConcurrentHashMap<>();
+
     private SettingTimeLimitedDownload timeLimited;
 
+    private SettingHistoryScan historyScan;
+
+    private HistoryScanner historyScanner;
+
     public AutoDownloadVerticle() {
         this.autoRecords = AutomationsHolder.INSTANCE.autoRecords();
-        AutomationsHolder.INSTANCE.registerOnRemoveListener(removedItems -> removedItems.forEach(item ->
-                waitingDownloadMessages.getOrDefault(item.telegramId, new LinkedList<>())
-                        .removeIf(m -> m.message.chatId == item.chatId)));
+        AutomationsHolder.INSTANCE.registerOnRemoveListener(removedItems -> removedItems.forEach(item -> {
+            DownloadQueue queue = waitingDownloadMessages.get(item.telegramId);
+            if (queue != null) {
+                queue.removeChat(item.chatId);
+            }
+            DataVerticle.downloadQueueRepository.deleteByChatId(item.telegramId, item.chatId);
+            if (historyScanner != null) {
+                historyScanner.unregisterChat(item.telegramId, item.chatId);
+            }
+        }));
     }
 
     @Override
     public void start(Promise<Void> startPromise) {
+        historyScanner = new HistoryScanner(vertx, new HistoryFeeder());
         initAutoDownload()
+                .compose(v -> this.recoverWaitingQueue())
+                .compose(v -> historyScanner.loadCursors())
                 .compose(v -> this.initEventConsumer())
                 .onSuccess(v -> {
                     vertx.setPeriodic(0, HISTORY_SCAN_INTERVAL,
@@ -73,27 +107,7 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                                     log.debug("Auto download time limited! Skip scan history.");
                                     return;
                                 }
-
-                                autoRecords.getDownloadEnabledItems()
-                                        .stream()
-                                        .filter(auto -> auto.download.rule.downloadHistory
-                                                        && auto.isNotComplete(SettingAutoRecords.HISTORY_DOWNLOAD_STATE))
-                                        .forEach(auto -> {
-                                            if (isDownloadCommentEnabled(auto)
-                                                && CollUtil.isNotEmpty(waitingScanThreads.get(auto.telegramId))) {
-                                                addCommentMessage(auto);
-                                            } else {
-                                                if (auto.isNotComplete(SettingAutoRecords.HISTORY_DOWNLOAD_SCAN_STATE)) {
-                                                    addHistoryMessage(auto);
-                                                } else {
-                                                    LinkedList<MessageWrapper> messageWrappers = waitingDownloadMessages.get(auto.telegramId);
-                                                    if (CollUtil.isEmpty(messageWrappers) ||
-                                                        messageWrappers.stream().noneMatch(w -> w.isHistorical)) {
-                                                        auto.complete(SettingAutoRecords.HISTORY_DOWNLOAD_STATE);
-                                                    }
-                                                }
-                                            }
-                                        });
+                                syncHistoryScan();
                             });
                     vertx.setPeriodic(0, DOWNLOAD_INTERVAL,
                             id -> {
@@ -101,19 +115,26 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                                     log.debug("Auto download time limited! Skip download.");
                                     return;
                                 }
-                                waitingDownloadMessages.keySet().forEach(this::download);
+                                waitingDownloadMessages.keySet().forEach(telegramId -> download(telegramId, false));
                             });
+                    vertx.setPeriodic(DOWNLOADING_RECONCILE_INTERVAL,
+                            id -> DataVerticle.fileRepository.reconcileDownloadingCount());
+                    vertx.setPeriodic(ADAPTIVE_LIMIT_INTERVAL, id -> adjustAdaptiveLimits());
 
                     log.info("""
                             Auto download verticle started!
-                            |History scan interval: %s ms
-                            |Download interval: %s ms
+                            |History scan: %s
+                            |Download interval: %s ms (safety net, slots are refilled on status transitions)
                             |Download limit: %s per telegram account!
+                            |Adaptive limit: %s
+                            |Download order: %s
                             |Time limit: %s
                             |Auto chats: %s
-                            """.formatted(HISTORY_SCAN_INTERVAL,
+                            """.formatted(historyScan == null ? "" : Json.encode(historyScan),
                             DOWNLOAD_INTERVAL,
                             limit,
+                            adaptive == null ? "" : Json.encode(adaptive),
+                            orders,
                             timeLimited == null ? "" : Json.encode(timeLimited),
                             autoRecords.getDownloadEnabledItems().size()));
 
@@ -130,18 +151,50 @@ public class AutoDownloadVerticle extends AbstractVerticle {
     private Future<Void> initAutoDownload() {
         return Future.all(
                         DataVerticle.settingRepository.<Integer>getByKey(SettingKey.autoDownloadLimit),
-                        DataVerticle.settingRepository.<SettingTimeLimitedDownload>getByKey(SettingKey.autoDownloadTimeLimited)
+                        DataVerticle.settingRepository.<SettingTimeLimitedDownload>getByKey(SettingKey.autoDownloadTimeLimited),
+                        DataVerticle.settingRepository.<List<DownloadQueue.Order>>getByKey(SettingKey.autoDownloadOrder),
+                        DataVerticle.settingRepository.<SettingAdaptiveDownload>getByKey(SettingKey.autoDownloadAdaptive),
+                        DataVerticle.settingRepository.<SettingHistoryScan>getByKey(SettingKey.autoDownloadHistoryScan)
                 )
                 .onSuccess(results -> {
                     if (results.resultAt(0) != null) {
                         this.limit = results.resultAt(0);
                     }
                     this.timeLimited = results.resultAt(1);
+                    if (results.resultAt(2) != null) {
+                        this.orders = results.resultAt(2);
+                    }
+                    this.adaptive = results.resultAt(3);
+                    this.historyScan = results.resultAt(4);
+                    applyHistoryScan();
                 })
                 .onFailure(e -> log.error("Get Auto download limit failed!", e))
                 .mapEmpty();
     }
 
+    private Future<Void> recoverWaitingQueue() {
+        return Future.all(DataVerticle.downloadQueueRepository.getAll(),
+                        DataVerticle.downloadQueueRepository.getScanThreads())
+                .onSuccess(results -> {
+                    List<DownloadQueueRecord> records = results.resultAt(0);
+                    records.forEach(record -> waitingDownloadMessages
+                            .computeIfAbsent(record.telegramId(), k -> new DownloadQueue(orders))
+                            .offer(DownloadQueue.Item.of(record)));
+
+                    List<ScanThreadRecord> scanThreads = results.resultAt(1);
+                    scanThreads.forEach(record -> {
+                        WaitingScanThread scanThread = new WaitingScanThread(record.telegramId(), record.threadChatId(), record.messageThreadId());
+                        scanThread.nextFileType = record.nextFileType();
+                        scanThread.nextFromMessageId = record.nextFromMessageId();
+                        waitingScanThreads.computeIfAbsent(record.telegramId(), k -> new CopyOnWriteArrayList<>()).add(scanThread);
+                    });
+                    log.info("Recovered auto download queue! Waiting: %d Scan threads: %d".formatted(records.size(), scanThreads.size()));
+                })
+                .onFailure(e -> log.error("Recover auto download queue failed!", e))
+                .<Void>mapEmpty()
+                .recover(e -> Future.succeededFuture());
+    }
+
     private Future<Void> initEventConsumer() {
         vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.autoDownloadLimit.name()), message -> {
             log.debug("Auto download limit update: %s".formatted(message.body()));
@@ -151,133 +204,94 @@ public class AutoDownloadVerticle extends AbstractVerticle {
             log.debug("Auto download time limit update: %s".formatted(message.body()));
             this.timeLimited = (SettingTimeLimitedDownload) SettingKey.autoDownloadTimeLimited.converter.apply((String) message.body());
         });
+        vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.autoDownloadOrder.name()), message -> {
+            log.debug("Auto download order update: %s".formatted(message.body()));
+            this.orders = DownloadQueue.Order.parse((String) message.body());
+            waitingDownloadMessages.values().forEach(queue -> queue.setOrders(orders));
+        });
+        vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.autoDownloadAdaptive.name()), message -> {
+            log.debug("Auto download adaptive update: %s".formatted(message.body()));
+            this.adaptive = (SettingAdaptiveDownload) SettingKey.autoDownloadAdaptive.converter.apply((String) message.body());
+            if (isAdaptiveEnabled()) {
+                adaptiveLimits.values().forEach(adaptiveLimit -> adaptiveLimit.setBounds(adaptive.minLimit, adaptive.maxLimit));
+            } else {
+                adaptiveLimits.clear();
+            }
+        });
+        vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.autoDownloadHistoryScan.name()), message -> {
+            log.debug("Auto download history scan update: %s".formatted(message.body()));
+            this.historyScan = (SettingHistoryScan) SettingKey.autoDownloadHistoryScan.converter.apply((String) message.body());
+            applyHistoryScan();
+        });
         vertx.eventBus().consumer(EventEnum.MESSAGE_RECEIVED.address(), message -> {
             log.trace("Auto download message received: %s".formatted(message.body()));
             this.onNewMessage((JsonObject) message.body());
         });
+        vertx.eventBus().consumer(EventEnum.FILE_DOWNLOAD_STATUS_UPDATE.address(), message -> {
+            log.trace("Auto download file status update: %s".formatted(message.body()));
+            this.onDownloadStatusUpdate((JsonObject) message.body());
+        });
+        vertx.eventBus().consumer(EventEnum.AUTO_DOWNLOAD_STATISTICS.address(), message -> {
+            long telegramId = Convert.toLong(message.body());
+            message.reply(getSlotStatistics(telegramId).toJson(getLimit(telegramId), waitingSize(telegramId))
+                    .put("adaptive", isAdaptiveEnabled())
+                    .put("staticLimit", limit)
+                    .put("historyScan", historyScanner.getStatistics(telegramId)));
+        });
         return Future.succeededFuture();
     }
 
-    private void addCommentMessage(SettingAutoRecords.Automation auto) {
-        LinkedList<WaitingScanThread> scanThreads = waitingScanThreads.get(auto.telegramId);
-        if (CollUtil.isEmpty(scanThreads)) {
-            return;
+    private void applyHistoryScan() {
+        if (historyScan == null) {
+            historyScanner.setBudget(HistoryScanner.DEFAULT_PARALLELISM, HistoryScanner.DEFAULT_REQUESTS_PER_SECOND);
+        } else {
+            historyScanner.setBudget(historyScan.parallelism, historyScan.requestsPerSecond);
         }
-        scanThreads.removeIf(scanThread -> scanThread.isComplete);
-        waitingScanThreads.get(auto.telegramId).forEach(scanThread -> {
-            ScanParams scanParams = new ScanParams(auto.uniqueKey() + ":" + scanThread.messageThreadId,
-                    auto.download.rule,
-                    auto.telegramId,
-                    scanThread.threadChatId,
-                    scanThread.nextFileType,
-                    scanThread.nextFromMessageId);
-            scanParams.messageThreadId = scanThread.messageThreadId;
-            addHistoryMessage(scanParams,
-                    result -> {
-                        scanThread.nextFileType = result.nextFileType;
-                        scanThread.nextFromMessageId = result.nextFromMessageId;
-                        if (result.isComplete) {
-                            scanThread.isComplete = true;
-                        }
-                    },
-                    System.currentTimeMillis()
-            );
-        });
     }
 
-    private void addHistoryMessage(SettingAutoRecords.Automation auto) {
-        addHistoryMessage(new ScanParams(auto.uniqueKey(),
-                        auto.download.rule,
-                        auto.telegramId,
-                        auto.chatId,
-                        auto.download.nextFileType,
-                        auto.download.nextFromMessageId),
-                result -> {
-                    auto.download.nextFileType = result.nextFileType;
-                    auto.download.nextFromMessageId = result.nextFromMessageId;
-                    if (result.isComplete) {
-                        auto.complete(SettingAutoRecords.HISTORY_DOWNLOAD_SCAN_STATE);
+    private void syncHistoryScan() {
+        autoRecords.getDownloadEnabledItems()
+                .stream()
+                .filter(auto -> auto.download.rule.downloadHistory
+                                && auto.isNotComplete(SettingAutoRecords.HISTORY_DOWNLOAD_STATE))
+                .forEach(auto -> {
+                    List<String> fileTypes = handleRule(auto.download.rule).v2;
+                    boolean commentEnabled = isDownloadCommentEnabled(auto);
+                    if (commentEnabled) {
+                        List<WaitingScanThread> scanThreads = waitingScanThreads.get(auto.telegramId);
+                        if (scanThreads != null) {
+                            scanThreads.forEach(scanThread -> historyScanner.register(auto.telegramId,
+                                    scanThread.threadChatId,
+                                    scanThread.messageThreadId,
+                                    auto.download.rule,
+                                    fileTypes,
+                                    scanThread.nextFileType,
+                                    scanThread.nextFromMessageId,
+                                    target -> {
+                                        scanThreads.remove(scanThread);
+                                        DataVerticle.downloadQueueRepository.deleteScanThread(scanThread.toRecord());
+                                        DataVerticle.downloadQueueRepository.deleteScanCursors(auto.telegramId,
+                                                scanThread.threadChatId, scanThread.messageThreadId);
+                                    }));
+                        }
                     }
-                },
-                System.currentTimeMillis()
-        );
-    }
-
-    private void addHistoryMessage(ScanParams params,
-                                   Consumer<ScanResult> callback,
-                                   long currentTimeMillis) {
-        String uniqueKey = params.uniqueKey;
-        long telegramId = params.telegramId;
-        long chatId = params.chatId;
-        long nextFromMessageId = params.nextFromMessageId;
-        String nextFileType = params.nextFileType;
-        Tuple2<String, List<String>> rule = handleRule(params.rule);
-        if (StrUtil.isBlank(nextFileType)) {
-            nextFileType = rule.v2.getFirst();
-        }
-
-        log.debug("Start scan history! TelegramId: %d ChatId: %d FileType: %s".formatted(telegramId, chatId, nextFileType));
-        if (System.currentTimeMillis() - currentTimeMillis > MAX_HISTORY_SCAN_TIME) {
-            log.debug("Scan history timeout! TelegramId: %d ChatId: %d".formatted(telegramId, chatId));
-            callback.accept(new ScanResult(nextFileType, nextFromMessageId, false));
-            return;
-        }
-        if (isExceedLimit(telegramId)) {
-            log.debug("Scan history exceed per telegram account limit! TelegramId: %d ChatId: %d".formatted(telegramId, chatId));
-            callback.accept(new ScanResult(nextFileType, nextFromMessageId, false));
-            return;
-        }
-
-        TelegramVerticle telegramVerticle = TelegramVerticles.getOrElseThrow(telegramId);
-        TdApi.SearchChatMessages searchChatMessages = new TdApi.SearchChatMessages();
-        searchChatMessages.query = rule.v1;
-        searchChatMessages.chatId = chatId;
-        searchChatMessages.fromMessageId = nextFromMessageId;
-        searchChatMessages.limit = Math.min(MAX_WAITING_LENGTH, 100);
-        searchChatMessages.filter = TdApiHelp.getSearchMessagesFilter(nextFileType);
-        searchChatMessages.messageThreadId = params.messageThreadId;
-        TdApi.FoundChatMessages foundChatMessages = Future.await(telegramVerticle.client.execute(searchChatMessages)
-                .onFailure(r -> log.error("Search chat messages failed! TelegramId: %d ChatId: %d".formatted(telegramId, chatId), r))
-        );
-        if (foundChatMessages == null) {
-            callback.accept(new ScanResult(nextFileType, nextFromMessageId, false));
-            return;
-        }
-        if (foundChatMessages.messages.length == 0) {
-            List<String> fileTypes = rule.v2;
-            int nextTypeIndex = fileTypes.indexOf(nextFileType) + 1;
-            if (nextTypeIndex < fileTypes.size()) {
-                params.nextFileType = fileTypes.get(nextTypeIndex);
-                params.nextFromMessageId = 0;
-                log.debug("%s No more %s files found! Switch to %s".formatted(uniqueKey, nextFileType, params.nextFileType));
-                addHistoryMessage(params, callback, currentTimeMillis);
-            } else {
-                log.debug("%s No more history files found! TelegramId: %d ChatId: %d".formatted(uniqueKey, telegramId, chatId));
-                callback.accept(new ScanResult(nextFileType, nextFromMessageId, true));
-            }
-        } else {
-            DataVerticle.fileRepository.getFilesByUniqueId(TdApiHelp.getFileUniqueIds(Arrays.asList(foundChatMessages.messages)))
-                    .onSuccess(existFiles -> {
-                        List<TdApi.Message> messages = Stream.of(foundChatMessages.messages)
-                                .filter(message -> {
-                                    String uniqueId = TdApiHelp.getFileUniqueId(message);
-                                    if (!existFiles.containsKey(uniqueId)) {
-                                        return true;
-                                    } else {
-                                        FileRecord fileRecord = existFiles.get(uniqueId);
-                                        return fileRecord.isDownloadStatus(FileRecord.DownloadStatus.idle);
-                                    }
-                                })
-                                .toList();
-                        if (CollUtil.isEmpty(messages)) {
-                            params.nextFromMessageId = foundChatMessages.nextFromMessageId;
-                            addHistoryMessage(params, callback, currentTimeMillis);
-                        } else if (addWaitingDownloadMessages(telegramId, messages, false, true)) {
-                            params.nextFromMessageId = foundChatMessages.nextFromMessageId;
-                            addHistoryMessage(params, callback, currentTimeMillis);
+                    if (auto.isNotComplete(SettingAutoRecords.HISTORY_DOWNLOAD_SCAN_STATE)) {
+                        historyScanner.register(auto.telegramId,
+                                auto.chatId,
+                                0,
+                                auto.download.rule,
+                                fileTypes,
+                                auto.download.nextFileType,
+                                auto.download.nextFromMessageId,
+                                target -> auto.complete(SettingAutoRecords.HISTORY_DOWNLOAD_SCAN_STATE));
+                    } else if (!commentEnabled || CollUtil.isEmpty(waitingScanThreads.get(auto.telegramId))) {
+                        DownloadQueue queue = waitingDownloadMessages.get(auto.telegramId);
+                        if (queue == null || queue.historicalSize() == 0) {
+                            auto.complete(SettingAutoRecords.HISTORY_DOWNLOAD_STATE);
                         }
-                    });
-        }
+                    }
+                });
+        historyScanner.pumpAll();
     }
 
     private Tuple2<String, List<String>> handleRule(SettingAutoRecords.DownloadRule rule) {
@@ -313,14 +327,42 @@ public class AutoDownloadVerticle extends AbstractVerticle {
         }
     }
 
-    private boolean isExceedLimit(long telegramId) {
-        List<MessageWrapper> waitingMessages = this.waitingDownloadMessages.get(telegramId);
-        return getSurplusSize(telegramId) <= 0 || (waitingMessages != null && waitingMessages.size() > limit);
+    private int getSurplusSize(long telegramId) {
+        return Math.max(0, getLimit(telegramId) - DataVerticle.fileRepository.countDownloading(telegramId));
     }
 
-    private int getSurplusSize(long telegramId) {
-        Integer downloading = Future.await(DataVerticle.fileRepository.countByStatus(telegramId, FileRecord.DownloadStatus.downloading));
-        return downloading == null ? limit : Math.max(0, limit - downloading);
+    private boolean isAdaptiveEnabled() {
+        return adaptive != null && adaptive.enabled;
+    }
+
+    private int getLimit(long telegramId) {
+        if (!isAdaptiveEnabled()) {
+            return limit;
+        }
+        return adaptiveLimits.computeIfAbsent(telegramId,
+                        k -> new AdaptiveDownloadLimit(limit, adaptive.minLimit, adaptive.maxLimit))
+                .getLimit();
+    }
+
+    private void adjustAdaptiveLimits() {
+        if (!isAdaptiveEnabled() || !isDownloadTime()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        adaptiveLimits.forEach((telegramId, adaptiveLimit) -> TelegramVerticles.get(telegramId).ifPresent(telegramVerticle -> {
+            SlotStatistics statistics = getSlotStatistics(telegramId);
+            int before = adaptiveLimit.getLimit();
+            boolean saturated = waitingSize(telegramId) > 0
+                                && DataVerticle.fileRepository.countDownloading(telegramId) >= before;
+            int after = adaptiveLimit.adjust(telegramVerticle.getAvgSpeed().getSpeed(now - ADAPTIVE_LIMIT_INTERVAL),
+                    statistics.windowCompleted.getAndSet(0),
+                    statistics.windowFailed.getAndSet(0),
+                    ADAPTIVE_LIMIT_INTERVAL / 1000,
+                    saturated);
+            if (before != after) {
+                log.debug("Adaptive download limit changed! TelegramId: %d %d -> %d".formatted(telegramId, before, after));
+            }
+        }));
     }
 
     private boolean isDownloadCommentEnabled(SettingAutoRecords.Automation auto) {
@@ -335,67 +377,159 @@ public class AutoDownloadVerticle extends AbstractVerticle {
     }
 
     private boolean addWaitingDownloadMessages(long telegramId,
+                                               SettingAutoRecords.DownloadRule rule,
                                                List<TdApi.Message> messages,
                                                boolean force,
                                                boolean isHistorical) {
         if (CollUtil.isEmpty(messages)) {
             return false;
         }
-        LinkedList<MessageWrapper> waitingMessages = this.waitingDownloadMessages.get(telegramId);
-        if (waitingMessages == null) {
-            waitingMessages = new LinkedList<>();
-        }
+        DownloadQueue waitingMessages = this.waitingDownloadMessages
+                .computeIfAbsent(telegramId, k -> new DownloadQueue(orders));
         if (!force && waitingMessages.size() > MAX_WAITING_LENGTH) {
             return false;
         } else {
             log.debug("Add waiting download messages: %d".formatted(messages.size()));
-            waitingMessages.addAll(TdApiHelp.filterUniqueMessages(messages)
+            List<String> fileTypes = handleRule(rule).v2;
+            List<DownloadQueueRecord> records = TdApiHelp.filterUniqueMessages(messages)
                     .stream()
-                    .map(message -> new MessageWrapper(message, isHistorical))
-                    .toList()
-            );
+                    .map(message -> {
+                        TdApi.File file = TdApiHelp.getFileHandler(message).map(TdApiHelp.FileHandler::getFile).orElse(null);
+                        DownloadQueue.Item item = new DownloadQueue.Item(message.chatId,
+                                message.id,
+                                file == null ? 0 : file.id,
+                                file == null ? 0 : file.size,
+                                getFileTypeWeight(fileTypes, TdApiHelp.getFileType(message)),
+                                isHistorical ? DownloadQueue.Item.FLAG_HISTORICAL : 0);
+                        waitingMessages.offer(item);
+                        return item.toRecord(telegramId);
+                    })
+                    .toList();
+            DataVerticle.downloadQueueRepository.enqueue(records);
         }
-        this.waitingDownloadMessages.put(telegramId, waitingMessages);
         return true;
     }
 
-    private void download(long telegramId) {
+    private int getFileTypeWeight(List<String> fileTypes, String fileType) {
+        int index = fileTypes.indexOf(fileType);
+        if (index == -1 && ("photo".equals(fileType) || "video".equals(fileType))) {
+            index = fileTypes.indexOf("media");
+        }
+        return index == -1 ? fileTypes.size() : index;
+    }
+
+    private int waitingSize(long telegramId) {
+        DownloadQueue waitingMessages = this.waitingDownloadMessages.get(telegramId);
+        return waitingMessages == null ? 0 : waitingMessages.size();
+    }
+
+    private SlotStatistics getSlotStatistics(long telegramId) {
+        return slotStatistics.computeIfAbsent(telegramId, k -> new SlotStatistics());
+    }
+
+    private void onDownloadStatusUpdate(JsonObject jsonObject) {
+        long telegramId = jsonObject.getLong("telegramId");
+        String downloadStatus = jsonObject.getString("downloadStatus");
+        if (FileRecord.DownloadStatus.completed.name().equals(downloadStatus)) {
+            getSlotStatistics(telegramId).windowCompleted.incrementAndGet();
+        } else if (FileRecord.DownloadStatus.error.name().equals(downloadStatus)) {
+            getSlotStatistics(telegramId).windowFailed.incrementAndGet();
+        }
+        if (!waitingDownloadMessages.containsKey(telegramId) || !isDownloadTime()) {
+            return;
+        }
+        if (pendingRefills.putIfAbsent(telegramId, System.currentTimeMillis()) != null) {
+            return;
+        }
+        vertx.setTimer(REFILL_DELAY, id -> {
+            Long freedAt = pendingRefills.remove(telegramId);
+            if (freedAt != null) {
+                getSlotStatistics(telegramId).recordRefillLatency(System.currentTimeMillis() - freedAt);
+            }
+            download(telegramId, true);
+        });
+    }
+
+    private void download(long telegramId, boolean eventTriggered) {
         if (CollUtil.isEmpty(waitingDownloadMessages)) {
             return;
         }
-        LinkedList<MessageWrapper> messages = waitingDownloadMessages.get(telegramId);
-        if (CollUtil.isEmpty(messages)) {
+        DownloadQueue messages = waitingDownloadMessages.get(telegramId);
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        TelegramVerticle telegramVerticle = TelegramVerticles.get(telegramId).orElse(null);
+        if (telegramVerticle == null || !telegramVerticle.authorized) {
             return;
         }
         log.debug("Download start! TelegramId: %d size: %d".formatted(telegramId, messages.size()));
-        TelegramVerticle telegramVerticle = TelegramVerticles.getOrElseThrow(telegramId);
+        int currentLimit = getLimit(telegramId);
         int surplusSize = getSurplusSize(telegramId);
+        SlotStatistics statistics = getSlotStatistics(telegramId);
+        statistics.recordRefill(eventTriggered, currentLimit - surplusSize);
         if (surplusSize <= 0) {
             return;
         }
 
-        List<MessageWrapper> downloadMessages = IntStream.range(0, Math.min(surplusSize, messages.size()))
-                .mapToObj(i -> messages.poll())
-                .toList();
-        downloadMessages.forEach(messageWrapper -> {
-            TdApi.Message message = messageWrapper.message;
-            Integer fileId = TdApiHelp.getFileId(message);
-            log.debug("Start download file: %s".formatted(fileId));
-            telegramVerticle.startDownload(message.chatId, message.id, fileId)
+        List<DownloadQueue.Item> downloadMessages = messages.poll(surplusSize);
+        statistics.started.addAndGet(downloadMessages.size());
+        statistics.occupied = currentLimit - surplusSize + downloadMessages.size();
+        // Rows are deleted once the download started, a crash before keeps them for the next start
+        downloadMessages.forEach(item -> {
+            long chatId = item.chatId();
+            long messageId = item.messageId();
+            // The file id of a recovered item may be changed after restart
+            Future<Integer> fileIdFuture = item.isRecovered() ?
+                    telegramVerticle.client.execute(new TdApi.GetMessage(chatId, messageId)).map(TdApiHelp::getFileId) :
+                    Future.succeededFuture(item.fileId());
+            fileIdFuture
+                    .compose(fileId -> {
+                        if (fileId == null) {
+                            return Future.failedFuture("File not found in message");
+                        }
+                        log.debug("Start download file: %s".formatted(fileId));
+                        return telegramVerticle.startDownload(chatId, messageId, fileId);
+                    })
                     .onSuccess(fileRecord -> {
+                        DataVerticle.downloadQueueRepository.dequeue(List.of(item.toRecord(telegramId)));
                         log.info("Start download file success! ChatId: %d MessageId:%d FileId:%d"
-                                .formatted(message.chatId, message.id, fileId));
+                                .formatted(chatId, messageId, fileRecord.id()));
                         if (fileRecord.threadChatId() != 0
                             && fileRecord.messageThreadId() != 0
                             && fileRecord.threadChatId() != fileRecord.chatId()) {
-                            waitingScanThreads.computeIfAbsent(telegramId, k -> new LinkedList<>())
-                                    .add(new WaitingScanThread(telegramId, fileRecord.threadChatId(), fileRecord.messageThreadId()));
+                            addWaitingScanThread(new WaitingScanThread(telegramId, fileRecord.threadChatId(), fileRecord.messageThreadId()));
                         }
                     })
-                    .onFailure(e -> log.error("Download file failed! ChatId: %d MessageId:%d FileId:%d"
-                            .formatted(message.chatId, message.id, fileId), e));
+                    .onFailure(e -> {
+                        if (e instanceof FileDedupIndex.DuplicateFileException) {
+                            DataVerticle.downloadQueueRepository.dequeue(List.of(item.toRecord(telegramId)));
+                            log.debug("Skip download file! ChatId: %d MessageId:%d FileId:%d %s"
+                                    .formatted(chatId, messageId, item.fileId(), e.getMessage()));
+                            return;
+                        }
+                        if (!item.isRetried() && waitingDownloadMessages.get(telegramId) == messages) {
+                            messages.offer(item.retried());
+                            log.warn("Download file failed, queued again! ChatId: %d MessageId:%d FileId:%d %s"
+                                    .formatted(chatId, messageId, item.fileId(), e.getMessage()));
+                            return;
+                        }
+                        DataVerticle.downloadQueueRepository.dequeue(List.of(item.toRecord(telegramId)));
+                        log.error("Download file failed! ChatId: %d MessageId:%d FileId:%d"
+                                .formatted(chatId, messageId, item.fileId()), e);
+                    });
         });
         log.debug("Remaining download messages: %d".formatted(messages.size()));
+        historyScanner.pump(telegramId);
+    }
+
+    private void addWaitingScanThread(WaitingScanThread scanThread) {
+        List<WaitingScanThread> scanThreads = waitingScanThreads.computeIfAbsent(scanThread.telegramId, k -> new CopyOnWriteArrayList<>());
+        boolean exists = scanThreads.stream().anyMatch(t -> t.threadChatId == scanThread.threadChatId
+                                                            && t.messageThreadId == scanThread.messageThreadId);
+        if (!exists) {
+            scanThreads.add(scanThread);
+            DataVerticle.downloadQueueRepository.saveScanThread(scanThread.toRecord());
+        }
     }
 
     private void onNewMessage(JsonObject jsonObject) {
@@ -405,24 +539,90 @@ public class AutoDownloadVerticle extends AbstractVerticle {
         autoRecords.getDownloadEnabledItems().stream()
                 .filter(item -> item.telegramId == telegramId && item.chatId == chatId)
                 .findFirst()
-                .flatMap(item -> TelegramVerticles.get(telegramId))
-                .ifPresent(telegramVerticle -> {
+                .ifPresent(auto -> TelegramVerticles.get(telegramId).ifPresent(telegramVerticle -> {
                     if (telegramVerticle.authorized) {
-                        telegramVerticle.client.execute(new TdApi.GetMessage(chatId, messageId))
-                                .onSuccess(message -> addWaitingDownloadMessages(telegramId, List.of(message), true, false))
+                        telegramVerticle.messageBatcher.getMessage(chatId, messageId)
+                                .onSuccess(message -> {
+                                    if ((auto.download.rule == null || auto.download.rule.matcher().test(message))
+                                        && !isDownloadedByOtherAccount(telegramId, message, null)) {
+                                        addWaitingDownloadMessages(telegramId, auto.download.rule, List.of(message), true, false);
+                                    }
+                                })
                                 .onFailure(e -> log.error("Auto download fail. Get message failed: %s".formatted(e.getMessage())));
                     }
-                });
+                }));
     }
 
-    private static class ScanParams {
-        public String uniqueKey;
+    /**
+     * Another account is downloading or has downloaded the same file, count it as saved and skip it.
+     *
+     * @param fileRecord the record of the file, if it is already looked up
+     */
+    private boolean isDownloadedByOtherAccount(long telegramId, TdApi.Message message, FileRecord fileRecord) {
+        TdApiHelp.FileHandler<?> fileHandler = TdApiHelp.getFileHandler(message).orElse(null);
+        if (fileHandler == null) {
+            return false;
+        }
+        boolean otherOwner = FileDedupIndex.INSTANCE.getOtherOwner(fileHandler.getFileUniqueId(), telegramId) != null
+                             || (fileRecord != null
+                                 && fileRecord.telegramId() != telegramId
+                                 && !fileRecord.isDownloadStatus(FileRecord.DownloadStatus.idle));
+        if (otherOwner) {
+            FileDedupIndex.INSTANCE.recordSkipped(telegramId, fileHandler.getSize());
+        }
+        return otherOwner;
+    }
 
-        public SettingAutoRecords.DownloadRule rule;
+    private class HistoryFeeder implements HistoryScanner.Feeder {
+        @Override
+        public boolean hasRoom(long telegramId) {
+            return isDownloadTime() && waitingSize(telegramId) < MAX_WAITING_LENGTH;
+        }
 
+        @Override
+        public Future<Integer> feed(HistoryScanner.Target target, List<TdApi.Message> foundMessages) {
+            // Drop unwanted files before paying for the database lookup
+            List<TdApi.Message> messages = target.rule == null ? foundMessages : target.rule.matcher().filter(foundMessages);
+            if (messages.isEmpty()) {
+                return Future.succeededFuture(foundMessages.size());
+            }
+            return DataVerticle.fileRepository.getFilesByUniqueId(TdApiHelp.getFileUniqueIds(messages))
+                    .map(existFiles -> {
+                        Set<TdApi.Message> wanted = Collections.newSetFromMap(new IdentityHashMap<>());
+                        messages.stream()
+                                .filter(message -> {
+                                    FileRecord fileRecord = existFiles.get(TdApiHelp.getFileUniqueId(message));
+                                    return !isDownloadedByOtherAccount(target.telegramId, message, fileRecord)
+                                           && (fileRecord == null || fileRecord.isDownloadStatus(FileRecord.DownloadStatus.idle));
+                                })
+                                .forEach(wanted::add);
+                        DownloadQueue queue = waitingDownloadMessages.computeIfAbsent(target.telegramId, k -> new DownloadQueue(orders));
+                        synchronized (queue) {
+                            // Take the page up to the queue limit, the scan continues after the last taken message
+                            int room = MAX_WAITING_LENGTH - queue.size();
+                            List<TdApi.Message> waitingMessages = new ArrayList<>();
+                            int taken = 0;
+                            for (TdApi.Message message : foundMessages) {
+                                if (wanted.contains(message)) {
+                                    if (room <= 0) {
+                                        break;
+                                    }
+                                    waitingMessages.add(message);
+                                    room--;
+                                }
+                                taken++;
+                            }
+                            addWaitingDownloadMessages(target.telegramId, target.rule, waitingMessages, true, true);
+                            return taken;
+                        }
+                    });
+        }
+    }
+
+    private static class WaitingScanThread {
         public long telegramId;
 
-        public long chatId;
+        public long threadChatId;
 
         public long messageThreadId;
 
@@ -430,55 +630,60 @@ public class AutoDownloadVerticle extends AbstractVerticle {
 
         public long nextFromMessageId;
 
-        public ScanParams(String uniqueKey,
-                          SettingAutoRecords.DownloadRule rule,
-                          long telegramId,
-                          long chatId,
-                          String nextFileType,
-                          long nextFromMessageId) {
-            this.uniqueKey = uniqueKey;
-            this.rule = rule;
+        public WaitingScanThread(long telegramId, long threadChatId, long messageThreadId) {
             this.telegramId = telegramId;
-            this.chatId = chatId;
-            this.nextFileType = nextFileType;
-            this.nextFromMessageId = nextFromMessageId;
+            this.threadChatId = threadChatId;
+            this.messageThreadId = messageThreadId;
+        }
+
+        public ScanThreadRecord toRecord() {
+            return new ScanThreadRecord(telegramId, threadChatId, messageThreadId, nextFileType, nextFromMessageId);
         }
     }
 
-    private static class ScanResult {
-        public String nextFileType;
+    private static class SlotStatistics {
+        public final AtomicLong eventRefills = new AtomicLong();
 
-        public long nextFromMessageId;
+        public final AtomicLong periodicRefills = new AtomicLong();
 
-        public boolean isComplete;
+        public final AtomicLong started = new AtomicLong();
 
-        public ScanResult(String nextFileType, long nextFromMessageId, boolean isComplete) {
-            this.nextFileType = nextFileType;
-            this.nextFromMessageId = nextFromMessageId;
-            this.isComplete = isComplete;
-        }
-    }
+        public final AtomicLong refillLatencyTotal = new AtomicLong();
 
-    private static class WaitingScanThread {
-        public long telegramId;
+        public final AtomicLong refillLatencyCount = new AtomicLong();
 
-        public long threadChatId;
+        // completed and failed files since the last adaptive limit adjustment
+        public final AtomicInteger windowCompleted = new AtomicInteger();
 
-        public long messageThreadId;
+        public final AtomicInteger windowFailed = new AtomicInteger();
 
-        public String nextFileType;
+        public volatile int occupied;
 
-        public long nextFromMessageId;
+        public volatile long lastRefillTime;
 
-        public boolean isComplete;
+        public void recordRefill(boolean eventTriggered, int occupied) {
+            (eventTriggered ? eventRefills : periodicRefills).incrementAndGet();
+            this.occupied = Math.max(0, occupied);
+            this.lastRefillTime = System.currentTimeMillis();
+        }
 
-        public WaitingScanThread(long telegramId, long threadChatId, long messageThreadId) {
-            this.telegramId = telegramId;
-            this.threadChatId = threadChatId;
-            this.messageThreadId = messageThreadId;
+        public void recordRefillLatency(long latency) {
+            refillLatencyTotal.addAndGet(latency);
+            refillLatencyCount.incrementAndGet();
         }
-    }
 
-    private record MessageWrapper(TdApi.Message message, boolean isHistorical) {
+        public JsonObject toJson(int limit, int waiting) {
+            long latencyCount = refillLatencyCount.get();
+            return JsonObject.of()
+                    .put("limit", limit)
+                    .put("occupied", occupied)
+                    .put("waiting", waiting)
+                    .put("utilization", limit <= 0 ? 0 : Math.min(1.0, (double) occupied / limit))
+                    .put("eventRefills", eventRefills.get())
+                    .put("periodicRefills", periodicRefills.get())
+                    .put("started", started.get())
+                    .put("avgRefillLatency", latencyCount == 0 ? 0 : refillLatencyTotal.get() / latencyCount)
+                    .put("lastRefillTime", lastRefillTime);
+        }
     }
 }
@@ -6,6 +6,9 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 
+/**
+ * Updated from the TDLib thread and read from other event loops, the accessors are synchronized.
+ */
 public class AvgSpeed {
     private final int interval;
 
@@ -36,7 +39,7 @@ public class AvgSpeed {
     /**
      * Update download progress
      */
-    public void update(long downloadedSize, long timestamp) {
+    public synchronized void update(long downloadedSize, long timestamp) {
         if (downloadedSize <= 0) {
             removeOldPoints(timestamp);
             return;
@@ -144,7 +147,7 @@ public class AvgSpeed {
     /**
      * Get average speed in bytes per second for last interval
      */
-    public long getSpeed() {
+    public synchronized long getSpeed() {
         if (speedPoints.size() < 2) {
             return 0;
         }
@@ -165,10 +168,36 @@ public class AvgSpeed {
         return (bytesDownloaded * 1000L) / timeDiff;
     }
 
+    /**
+     * Get average speed in bytes per second since the given timestamp
+     */
+    public synchronized long getSpeed(long sinceTimestamp) {
+        Map.Entry<Long, SpeedPoint> lastEntry = speedPoints.lastEntry();
+        Map.Entry<Long, SpeedPoint> firstEntry = speedPoints.floorEntry(sinceTimestamp);
+        if (firstEntry == null) {
+            firstEntry = speedPoints.firstEntry();
+        }
+        if (lastEntry == null || lastEntry.getKey() < sinceTimestamp) {
+            return 0;
+        }
+
+        long timeDiff = lastEntry.getKey() - firstEntry.getKey();
+        if (timeDiff <= 0) {
+            return 0;
+        }
+
+        long bytesDownloaded = lastEntry.getValue().downloadedSize - firstEntry.getValue().downloadedSize;
+        if (bytesDownloaded < 0) {
+            bytesDownloaded = lastEntry.getValue().downloadedSize;
+        }
+
+        return (bytesDownloaded * 1000L) / timeDiff;
+    }
+
     /**
      * Get median speed from all recorded points
      */
-    public long getMedianSpeed() {
+    public synchronized long getMedianSpeed() {
         if (speedPoints.size() < 2) {
             return 0;
         }
@@ -189,7 +218,7 @@ public class AvgSpeed {
     /**
      * Get maximum recorded speed
      */
-    public long getMaxSpeed() {
+    public synchronized long getMaxSpeed() {
         return speedPoints.values().stream()
                 .map(point -> point.speed)
                 .max(Long::compare)
@@ -199,7 +228,7 @@ public class AvgSpeed {
     /**
      * Get minimum recorded speed
      */
-    public long getMinSpeed() {
+    public synchronized long getMinSpeed() {
         return speedPoints.values().stream()
                 .map(point -> point.speed)
                 .filter(speed -> speed > 0)
@@ -210,7 +239,7 @@ public class AvgSpeed {
     /**
      * Get speed statistics summary
      */
-    public SpeedStats getSpeedStats() {
+    public synchronized SpeedStats getSpeedStats() {
         return new SpeedStats(
                 interval,
                 getSpeed(),
@@ -46,6 +46,12 @@ public class Config {
 
     public static final int TELEGRAM_LOG_LEVEL = Convert.toInt(System.getenv("TELEGRAM_LOG_LEVEL"), 0);
 
+    public static final String IMAGE_RENDITION_PATH = APP_ROOT + File.separator + "cache" + File.separator + "renditions";
+
+    public static final long IMAGE_RENDITION_CACHE_MB = Convert.toLong(System.getenv("IMAGE_RENDITION_CACHE_MB"), 512L);
+
+    public static final long FILE_PROGRESS_INTERVAL_MS = Math.max(100, Convert.toLong(System.getenv("FILE_PROGRESS_INTERVAL_MS"), 1000L));
+
     public static final DeploymentOptions VIRTUAL_THREAD_DEPLOYMENT_OPTIONS = new DeploymentOptions()
             .setThreadingModel(ThreadingModel.VIRTUAL_THREAD);
 
@@ -17,10 +17,13 @@ import io.vertx.sqlclient.SqlClient;
 import io.vertx.sqlclient.SqlConnectOptions;
 import org.jooq.lambda.tuple.Tuple;
 import telegram.files.repository.*;
+import telegram.files.repository.impl.DownloadQueueRepositoryImpl;
+import telegram.files.repository.impl.FileHashRepositoryImpl;
 import telegram.files.repository.impl.FileRepositoryImpl;
 import telegram.files.repository.impl.SettingRepositoryImpl;
 import telegram.files.repository.impl.StatisticRepositoryImpl;
 import telegram.files.repository.impl.TelegramRepositoryImpl;
+import telegram.files.repository.impl.TransferRepositoryImpl;
 
 import java.io.File;
 import java.util.List;
@@ -39,6 +42,12 @@ public class DataVerticle extends AbstractVerticle {
 
     public static StatisticRepository statisticRepository;
 
+    public static DownloadQueueRepository downloadQueueRepository;
+
+    public static FileHashRepository fileHashRepository;
+
+    public static TransferRepository transferRepository;
+
     private static SqlConnectOptions sqlConnectOptions;
 
     public static final List<Definition> definitions;
@@ -58,7 +67,12 @@ public class DataVerticle extends AbstractVerticle {
                 new SettingRecord.SettingRecordDefinition(),
                 new TelegramRecord.TelegramRecordDefinition(),
                 new FileRecord.FileRecordDefinition(),
-                new StatisticRecord.StatisticRecordDefinition()
+                new StatisticRecord.StatisticRecordDefinition(),
+                new DownloadQueueRecord.DownloadQueueRecordDefinition(),
+                new ScanThreadRecord.ScanThreadRecordDefinition(),
+                new ScanCursorRecord.ScanCursorRecordDefinition(),
+                new FileHashRecord.FileHashRecordDefinition(),
+                new TransferRecord.TransferRecordDefinition()
         );
     }
 
@@ -68,17 +82,21 @@ public class DataVerticle extends AbstractVerticle {
         telegramRepository = new TelegramRepositoryImpl(pool);
         fileRepository = new FileRepositoryImpl(pool);
         statisticRepository = new StatisticRepositoryImpl(pool);
+        downloadQueueRepository = new DownloadQueueRepositoryImpl(pool);
+        fileHashRepository = new FileHashRepositoryImpl(pool);
+        transferRepository = new TransferRepositoryImpl(pool);
         isCompletelyNewInitialization()
                 .compose(isNew -> Future.all(definitions.stream().map(d -> d.createTable(pool)).toList()).map(isNew))
                 .compose(isNew -> settingRepository.<Version>getByKey(SettingKey.version).map(version -> Tuple.tuple(isNew, version)))
                 .compose(tuple -> {
-                    if (tuple.v1) return Future.succeededFuture();
+                    if (tuple.v1) return Future.all(definitions.stream().map(d -> d.createIndexes(pool)).toList());
 
                     Version version = tuple.v2 == null ? new Version("0.0.0") : tuple.v2;
                     return Future.all(definitions.stream().map(d -> d.migrate(pool, version, new Version(Start.VERSION))).toList());
                 })
                 .compose(r ->
                         settingRepository.createOrUpdate(SettingKey.version.name(), Start.VERSION))
+                .compose(r -> fileRepository.reconcileDownloadingCount())
                 .onSuccess(r -> {
                     log.info("Database {} initialized.", Config.DB_TYPE);
                     stopPromise.complete();
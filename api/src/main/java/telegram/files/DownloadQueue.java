@@ -0,0 +1,367 @@
+package telegram.files;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import telegram.files.repository.DownloadQueueRecord;
+
+import java.util.*;
+
+/**
+ * Waiting download queue of one telegram account, ordered by the configured {@link Order}s.
+ * <p>
+ * Items are stored column-wise in primitive arrays, a queued item costs about 60 bytes instead of a retained
+ * {@link org.drinkless.tdlib.TdApi.Message}. The message is fetched again when the download starts.
+ * The heap holds slot indexes, insert and poll are O(log n). Removing all items of a chat is O(1): the chat generation
+ * is bumped and stale slots are dropped when they reach the head of the heap.
+ */
+public class DownloadQueue {
+
+    private static final Log log = LogFactory.get();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    public static final List<Order> DEFAULT_ORDERS = List.of(Order.liveFirst);
+
+    public enum Order {
+        /**
+         * Items received in real time before items found by history scanning
+         */
+        liveFirst,
+        /**
+         * Smaller files first
+         */
+        smallestFirst,
+        /**
+         * File types in the order of the download rule file types
+         */
+        fileType,
+        ;
+
+        /**
+         * Names are matched ignoring case, unknown names are skipped, the default order is used if none is known.
+         */
+        public static List<Order> parse(String value) {
+            if (StrUtil.isBlank(value)) {
+                return DEFAULT_ORDERS;
+            }
+            List<Order> orders = new ArrayList<>();
+            for (String name : StrUtil.split(value, ",", true, true)) {
+                Optional<Order> order = Arrays.stream(values())
+                        .filter(o -> o.name().equalsIgnoreCase(name))
+                        .findFirst();
+                if (order.isEmpty()) {
+                    log.warn("Unknown download queue order: %s".formatted(name));
+                } else if (!orders.contains(order.get())) {
+                    orders.add(order.get());
+                }
+            }
+            return orders.isEmpty() ? DEFAULT_ORDERS : List.copyOf(orders);
+        }
+    }
+
+    /**
+     * @param priority lower first, derived from the file types of the download rule
+     * @param flags    bit set of {@link #FLAG_HISTORICAL}, {@link #FLAG_RECOVERED}, {@link #FLAG_RETRIED}
+     */
+    public record Item(long chatId, long messageId, int fileId, long size, int priority, int flags) {
+
+        public static final int FLAG_HISTORICAL = DownloadQueueRecord.FLAG_HISTORICAL;
+
+        // Loaded from the persisted queue, the file id may be stale
+        public static final int FLAG_RECOVERED = 1 << 1;
+
+        // Queued again after a failed start, a second failure drops it
+        public static final int FLAG_RETRIED = 1 << 2;
+
+        public boolean isHistorical() {
+            return (flags & FLAG_HISTORICAL) != 0;
+        }
+
+        public boolean isRecovered() {
+            return (flags & FLAG_RECOVERED) != 0;
+        }
+
+        public boolean isRetried() {
+            return (flags & FLAG_RETRIED) != 0;
+        }
+
+        public Item retried() {
+            return new Item(chatId, messageId, fileId, size, priority, flags | FLAG_RETRIED);
+        }
+
+        public static Item of(DownloadQueueRecord record) {
+            return new Item(record.chatId(),
+                    record.messageId(),
+                    record.fileId(),
+                    record.size(),
+                    record.priority(),
+                    record.flags() | FLAG_RECOVERED);
+        }
+
+        public DownloadQueueRecord toRecord(long telegramId) {
+            return new DownloadQueueRecord(telegramId,
+                    chatId,
+                    messageId,
+                    fileId,
+                    size,
+                    priority,
+                    flags & ~(FLAG_RECOVERED | FLAG_RETRIED),
+                    System.currentTimeMillis());
+        }
+    }
+
+    private static class ChatState {
+        int generation;
+
+        int size;
+
+        int historicalSize;
+    }
+
+    // Item columns, indexed by slot
+    private long[] chatIds;
+
+    private long[] messageIds;
+
+    private long[] sizes;
+
+    private long[] sequences;
+
+    private int[] fileIds;
+
+    private int[] priorities;
+
+    private int[] flags;
+
+    private int[] generations;
+
+    // Binary min-heap of slots
+    private int[] heap;
+
+    private int heapSize;
+
+    // Free slots, used as a stack
+    private int[] freeSlots;
+
+    private int freeSize;
+
+    // Slots in use, including stale slots still in the heap
+    private int usedSlots;
+
+    private Order[] orders;
+
+    private final Map<Long, ChatState> chats = new HashMap<>();
+
+    private long sequence;
+
+    private int size;
+
+    private int historicalSize;
+
+    public DownloadQueue(List<Order> orders) {
+        this.orders = CollUtil.emptyIfNull(orders).toArray(new Order[0]);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public synchronized void setOrders(List<Order> orders) {
+        this.orders = CollUtil.emptyIfNull(orders).toArray(new Order[0]);
+        compact();
+    }
+
+    public synchronized void offer(Item item) {
+        ChatState chat = chats.computeIfAbsent(item.chatId, k -> new ChatState());
+        int slot = allocateSlot();
+        chatIds[slot] = item.chatId;
+        messageIds[slot] = item.messageId;
+        sizes[slot] = item.size;
+        sequences[slot] = sequence++;
+        fileIds[slot] = item.fileId;
+        priorities[slot] = item.priority;
+        flags[slot] = item.flags;
+        generations[slot] = chat.generation;
+        heap[heapSize] = slot;
+        siftUp(heapSize++);
+
+        chat.size++;
+        size++;
+        if (item.isHistorical()) {
+            chat.historicalSize++;
+            historicalSize++;
+        }
+    }
+
+    public synchronized Item poll() {
+        while (heapSize > 0) {
+            int slot = heap[0];
+            heap[0] = heap[--heapSize];
+            if (heapSize > 0) {
+                siftDown(0);
+            }
+            if (!isAlive(slot)) {
+                freeSlot(slot);
+                continue;
+            }
+            Item item = new Item(chatIds[slot], messageIds[slot], fileIds[slot], sizes[slot], priorities[slot], flags[slot]);
+            freeSlot(slot);
+            ChatState chat = chats.get(item.chatId);
+            chat.size--;
+            size--;
+            if (item.isHistorical()) {
+                chat.historicalSize--;
+                historicalSize--;
+            }
+            return item;
+        }
+        return null;
+    }
+
+    public synchronized List<Item> poll(int count) {
+        List<Item> items = new ArrayList<>(Math.min(count, size));
+        Item item;
+        while (items.size() < count && (item = poll()) != null) {
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Remove all waiting items of the chat.
+     *
+     * @return the number of removed items
+     */
+    public synchronized int removeChat(long chatId) {
+        ChatState chat = chats.get(chatId);
+        if (chat == null || chat.size == 0) {
+            return 0;
+        }
+        int removed = chat.size;
+        size -= chat.size;
+        historicalSize -= chat.historicalSize;
+        chat.size = 0;
+        chat.historicalSize = 0;
+        chat.generation++;
+        // Compact when most of the heap is stale, so removed items do not pin memory
+        if (heapSize > 2 * size + INITIAL_CAPACITY) {
+            compact();
+        }
+        return removed;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int historicalSize() {
+        return historicalSize;
+    }
+
+    private boolean isAlive(int slot) {
+        ChatState chat = chats.get(chatIds[slot]);
+        return chat != null && chat.generation == generations[slot];
+    }
+
+    // Drop stale slots and rebuild the heap with the current orders
+    private void compact() {
+        int alive = 0;
+        for (int i = 0; i < heapSize; i++) {
+            int slot = heap[i];
+            if (isAlive(slot)) {
+                heap[alive++] = slot;
+            } else {
+                freeSlot(slot);
+            }
+        }
+        heapSize = alive;
+        for (int i = (heapSize >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private void allocate(int capacity) {
+        chatIds = new long[capacity];
+        messageIds = new long[capacity];
+        sizes = new long[capacity];
+        sequences = new long[capacity];
+        fileIds = new int[capacity];
+        priorities = new int[capacity];
+        flags = new int[capacity];
+        generations = new int[capacity];
+        heap = new int[capacity];
+        freeSlots = new int[capacity];
+    }
+
+    private int allocateSlot() {
+        if (freeSize > 0) {
+            return freeSlots[--freeSize];
+        }
+        if (usedSlots == heap.length) {
+            int capacity = heap.length + (heap.length >> 1);
+            chatIds = Arrays.copyOf(chatIds, capacity);
+            messageIds = Arrays.copyOf(messageIds, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            fileIds = Arrays.copyOf(fileIds, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            heap = Arrays.copyOf(heap, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        }
+        return usedSlots++;
+    }
+
+    private void freeSlot(int slot) {
+        freeSlots[freeSize++] = slot;
+    }
+
+    private void siftUp(int index) {
+        int slot = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (compare(slot, heap[parent]) >= 0) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = slot;
+    }
+
+    private void siftDown(int index) {
+        int slot = heap[index];
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            int right = child + 1;
+            if (right < heapSize && compare(heap[right], heap[child]) < 0) {
+                child = right;
+            }
+            if (compare(slot, heap[child]) <= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = slot;
+    }
+
+    private int compare(int a, int b) {
+        for (Order order : orders) {
+            int result = switch (order) {
+                case liveFirst -> Integer.compare(flags[a] & Item.FLAG_HISTORICAL, flags[b] & Item.FLAG_HISTORICAL);
+                case smallestFirst -> Long.compare(sizes[a], sizes[b]);
+                case fileType -> Integer.compare(priorities[a], priorities[b]);
+            };
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Long.compare(sequences[a], sequences[b]);
+    }
+}
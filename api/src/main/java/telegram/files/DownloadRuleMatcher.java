@@ -0,0 +1,145 @@
+package telegram.files;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import org.drinkless.tdlib.TdApi;
+import telegram.files.repository.SettingAutoRecords;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Client-side predicates of a {@link SettingAutoRecords.DownloadRule}, compiled once per rule.
+ * <p>
+ * Messages are tested before they are looked up in the database or enqueued, only the configured conditions are checked.
+ * Invalid regular expressions are logged and ignored.
+ */
+public class DownloadRuleMatcher implements Predicate<TdApi.Message> {
+
+    private static final Log log = LogFactory.get();
+
+    private static final DownloadRuleMatcher EMPTY = new DownloadRuleMatcher(List.of(), null);
+
+    private final List<Predicate<TdApiHelp.FileHandler<?>>> predicates;
+
+    private final Long startDate;
+
+    private DownloadRuleMatcher(List<Predicate<TdApiHelp.FileHandler<?>>> predicates, Long startDate) {
+        this.predicates = predicates;
+        this.startDate = startDate;
+    }
+
+    public static DownloadRuleMatcher compile(SettingAutoRecords.DownloadRule rule) {
+        if (rule == null) {
+            return EMPTY;
+        }
+        List<Predicate<TdApiHelp.FileHandler<?>>> predicates = new ArrayList<>();
+        if (rule.minSize != null && rule.minSize > 0) {
+            long minSize = rule.minSize;
+            predicates.add(handler -> handler.getSize() >= minSize);
+        }
+        if (rule.maxSize != null && rule.maxSize > 0) {
+            long maxSize = rule.maxSize;
+            predicates.add(handler -> handler.getSize() <= maxSize);
+        }
+        Pattern fileNamePattern = compilePattern(rule.fileNamePattern);
+        if (fileNamePattern != null) {
+            predicates.add(handler -> handler.getFileName() != null && fileNamePattern.matcher(handler.getFileName()).find());
+        }
+        Pattern captionPattern = compilePattern(rule.captionPattern);
+        if (captionPattern != null) {
+            predicates.add(handler -> captionPattern.matcher(StrUtil.nullToEmpty(handler.getCaption())).find());
+        }
+        List<String> mimeTypes = CollUtil.emptyIfNull(rule.mimeTypes).stream()
+                .filter(StrUtil::isNotBlank)
+                .map(mimeType -> mimeType.trim().toLowerCase(Locale.ROOT))
+                .toList();
+        if (!mimeTypes.isEmpty()) {
+            predicates.add(handler -> matchMimeType(mimeTypes, handler.getMimeType()));
+        }
+        if (rule.startDate != null && rule.startDate > 0) {
+            long startDate = rule.startDate;
+            predicates.add(handler -> handler.message.date >= startDate);
+        }
+        if (rule.endDate != null && rule.endDate > 0) {
+            long endDate = rule.endDate;
+            predicates.add(handler -> handler.message.date <= endDate);
+        }
+        if (rule.minReactionCount != null && rule.minReactionCount > 0) {
+            long minReactionCount = rule.minReactionCount;
+            predicates.add(handler -> handler.getReactionCount() >= minReactionCount);
+        }
+        if (predicates.isEmpty()) {
+            return EMPTY;
+        }
+        return new DownloadRuleMatcher(List.copyOf(predicates), rule.startDate != null && rule.startDate > 0 ? rule.startDate : null);
+    }
+
+    public boolean isEmpty() {
+        return predicates.isEmpty();
+    }
+
+    @Override
+    public boolean test(TdApi.Message message) {
+        if (predicates.isEmpty()) {
+            return true;
+        }
+        TdApiHelp.FileHandler<?> handler = TdApiHelp.getFileHandler(message).orElse(null);
+        if (handler == null) {
+            return false;
+        }
+        for (Predicate<TdApiHelp.FileHandler<?>> predicate : predicates) {
+            if (!predicate.test(handler)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<TdApi.Message> filter(List<TdApi.Message> messages) {
+        if (predicates.isEmpty()) {
+            return messages;
+        }
+        return messages.stream().filter(this).toList();
+    }
+
+    /**
+     * Messages are searched from newest to oldest, so nothing older than this message can match the date range.
+     */
+    public boolean isBeforeDateRange(TdApi.Message message) {
+        return startDate != null && message != null && message.date < startDate;
+    }
+
+    private static Pattern compilePattern(String regex) {
+        if (StrUtil.isBlank(regex)) {
+            return null;
+        }
+        try {
+            return Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        } catch (PatternSyntaxException e) {
+            log.warn("Ignore invalid download rule pattern: %s %s".formatted(regex, e.getDescription()));
+            return null;
+        }
+    }
+
+    private static boolean matchMimeType(List<String> mimeTypes, String mimeType) {
+        if (StrUtil.isBlank(mimeType)) {
+            return false;
+        }
+        String theMimeType = mimeType.toLowerCase(Locale.ROOT);
+        for (String pattern : mimeTypes) {
+            if (pattern.endsWith("/*") ?
+                    theMimeType.startsWith(pattern.substring(0, pattern.length() - 1)) :
+                    theMimeType.equals(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,95 @@
+package telegram.files;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import org.drinkless.tdlib.TdApi;
+import telegram.files.repository.FileRecord;
+
+/**
+ * A file TDLib is still downloading, served to previews while it is written.
+ * <p>
+ * Readable bytes are the downloaded prefix from an offset. A read beyond it moves an active download to the offset, when
+ * the preview ends the download continues from the start at its own priority, so the whole file is still downloaded once.
+ * A paused download is never moved, the preview waits until it is resumed.
+ */
+public class DownloadingFile implements FileRouteHandler.PartialFile {
+
+    private static final Log log = LogFactory.get();
+
+    private static final int STREAM_PRIORITY = 32;
+
+    private final TelegramClient client;
+
+    private final FileRecord fileRecord;
+
+    /**
+     * Priority the download was started with, restored on release
+     */
+    private final int priority;
+
+    private volatile String path;
+
+    private volatile boolean isSeeked;
+
+    public DownloadingFile(TelegramClient client, FileRecord fileRecord, int priority) {
+        this.client = client;
+        this.fileRecord = fileRecord;
+        this.priority = priority;
+    }
+
+    @Override
+    public long size() {
+        return fileRecord.size();
+    }
+
+    @Override
+    public Future<String> getPath() {
+        if (StrUtil.isNotBlank(path)) {
+            return Future.succeededFuture(path);
+        }
+        return client.execute(new TdApi.GetFile(fileRecord.id()))
+                .map(file -> {
+                    path = file.local == null ? null : StrUtil.emptyToNull(file.local.path);
+                    return path;
+                });
+    }
+
+    @Override
+    public Future<Long> getAvailableSize(long offset) {
+        return client.execute(new TdApi.GetFileDownloadedPrefixSize(fileRecord.id(), offset))
+                .map(prefixSize -> prefixSize.size);
+    }
+
+    @Override
+    public Future<Void> seek(long offset) {
+        return client.execute(new TdApi.GetFile(fileRecord.id()))
+                .compose(file -> {
+                    if (file.local == null || !file.local.isDownloadingActive) {
+                        log.debug("Skip seek of file %d, it is not downloading".formatted(fileRecord.id()));
+                        return Future.succeededFuture();
+                    }
+                    log.debug("Seek downloading file %d to %d".formatted(fileRecord.id(), offset));
+                    isSeeked = true;
+                    return client.execute(new TdApi.DownloadFile(fileRecord.id(), STREAM_PRIORITY, offset, 0, false))
+                            .mapEmpty();
+                });
+    }
+
+    @Override
+    public void release() {
+        if (!isSeeked) {
+            return;
+        }
+        // Continue the full download, unless it was paused or cancelled meanwhile
+        DataVerticle.fileRepository.getByUniqueId(fileRecord.uniqueId())
+                .compose(record -> record != null && record.isDownloadStatus(FileRecord.DownloadStatus.downloading) ?
+                        client.execute(new TdApi.GetFile(fileRecord.id())) :
+                        Future.succeededFuture())
+                .compose(file -> file != null && file.local != null && file.local.isDownloadingActive ?
+                        client.execute(new TdApi.DownloadFile(fileRecord.id(), priority, 0, 0, false)) :
+                        Future.succeededFuture())
+                .onFailure(e -> log.warn("Failed to resume download of file %d: %s".formatted(fileRecord.id(), e.getMessage())));
+    }
+}
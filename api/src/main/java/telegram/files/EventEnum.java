@@ -20,7 +20,8 @@ public enum EventEnum {
 
     /**
      * suffix = null <br>
-     * body = JSONObject with "telegramId", "chatId", "messageId"
+     * body = JSONObject with "telegramId", "chatId", "messageId" <br>
+     * consumers resolve the message with {@link TelegramVerticle#messageBatcher}, so one lookup is shared
      */
     MESSAGE_RECEIVED,
 
@@ -32,6 +33,19 @@ public enum EventEnum {
      */
     TELEGRAM_EVENT,
 
+    /**
+     * suffix = null <br>
+     * body = JSONObject with "telegramId", "fileId", "uniqueId", "downloadStatus"
+     */
+    FILE_DOWNLOAD_STATUS_UPDATE,
+
+    /**
+     * suffix = null <br>
+     * body = telegramId <br>
+     * reply = JSONObject with auto download slot statistics
+     */
+    AUTO_DOWNLOAD_STATISTICS,
+
     /**
      * suffix = null <br>
      * body = JSONObject with "success", "message"
@@ -13,6 +13,8 @@ public record EventPayload(int type, String code, Object data, long timestamp) {
 
     public static final int TYPE_FILE_STATUS = 5;
 
+    public static final int TYPE_FILE_PROGRESS = 6;
+
     public static EventPayload build(int type, Object data) {
         return new EventPayload(type, null, data, System.currentTimeMillis());
     }
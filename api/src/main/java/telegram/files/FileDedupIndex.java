@@ -0,0 +1,147 @@
+package telegram.files;
+
+import io.vertx.core.VertxException;
+import io.vertx.core.json.JsonObject;
+import telegram.files.repository.FileRecord;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of files downloading or downloaded by any telegram account, keyed by {@code remote.uniqueId},
+ * which is the same for a file under every account.
+ * <p>
+ * A download is claimed before it starts, so when two accounts see the same file only the first one downloads it,
+ * the other one skips it and shares the file record of the first copy. Completed files are kept in a bounded LRU,
+ * older ones are still found by the unique id lookup of the file record.
+ */
+public class FileDedupIndex {
+
+    public static final FileDedupIndex INSTANCE = new FileDedupIndex();
+
+    private static final int MAX_COMPLETED = 50_000;
+
+    public record Owner(long telegramId, int fileId, long size) {
+    }
+
+    public static class DuplicateFileException extends VertxException {
+        public final Owner owner;
+
+        public DuplicateFileException(String uniqueId, Owner owner, boolean completed) {
+            super("File %s is already %s by account %d".formatted(uniqueId, completed ? "downloaded" : "downloading", owner.telegramId), true);
+            this.owner = owner;
+        }
+    }
+
+    private static class Counter {
+        final AtomicLong skippedFiles = new AtomicLong();
+
+        final AtomicLong savedBytes = new AtomicLong();
+    }
+
+    // uniqueId -> owner
+    private final Map<String, Owner> downloading = new ConcurrentHashMap<>();
+
+    private final Map<String, Owner> completed = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Owner> eldest) {
+            return size() > MAX_COMPLETED;
+        }
+    };
+
+    // telegramId -> counter of the account that skipped the download
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    FileDedupIndex() {
+    }
+
+    /**
+     * Claim the download of a file for the account.
+     *
+     * @throws DuplicateFileException if another account is downloading or has downloaded the file
+     */
+    public void claim(String uniqueId, long telegramId, int fileId, long size) {
+        Owner owner = findOwner(uniqueId);
+        if (owner != null && owner.telegramId != telegramId) {
+            throw skip(uniqueId, telegramId, owner, size);
+        }
+        Owner claimed = new Owner(telegramId, fileId, size);
+        Owner existing = downloading.putIfAbsent(uniqueId, claimed);
+        if (existing != null && existing.telegramId != telegramId) {
+            throw skip(uniqueId, telegramId, existing, size);
+        }
+    }
+
+    /**
+     * @return the account downloading or having downloaded the file, if it is not the given account
+     */
+    public Owner getOtherOwner(String uniqueId, long telegramId) {
+        Owner owner = findOwner(uniqueId);
+        return owner == null || owner.telegramId == telegramId ? null : owner;
+    }
+
+    /**
+     * Record a file the account will not download because {@code owner} has it.
+     */
+    public void recordSkipped(long telegramId, long size) {
+        Counter counter = counters.computeIfAbsent(telegramId, k -> new Counter());
+        counter.skippedFiles.incrementAndGet();
+        counter.savedBytes.addAndGet(Math.max(0, size));
+    }
+
+    /**
+     * Release the claim when the download of the owner is completed, failed or cancelled, a paused download keeps it.
+     */
+    public void onDownloadStatusUpdate(String uniqueId, long telegramId, FileRecord.DownloadStatus status) {
+        if (uniqueId == null
+            || status == FileRecord.DownloadStatus.downloading
+            || status == FileRecord.DownloadStatus.paused) {
+            return;
+        }
+        Owner owner = downloading.get(uniqueId);
+        if (owner == null || owner.telegramId != telegramId) {
+            return;
+        }
+        downloading.remove(uniqueId, owner);
+        if (status == FileRecord.DownloadStatus.completed) {
+            synchronized (completed) {
+                completed.put(uniqueId, owner);
+            }
+        }
+    }
+
+    /**
+     * Forget the file, e.g. when it is deleted, so it can be downloaded again.
+     */
+    public void remove(String uniqueId) {
+        downloading.remove(uniqueId);
+        synchronized (completed) {
+            completed.remove(uniqueId);
+        }
+    }
+
+    public JsonObject getStatistics(long telegramId) {
+        Counter counter = counters.get(telegramId);
+        return JsonObject.of()
+                .put("skippedFiles", counter == null ? 0 : counter.skippedFiles.get())
+                .put("savedBytes", counter == null ? 0 : counter.savedBytes.get());
+    }
+
+    private Owner findOwner(String uniqueId) {
+        Owner owner = downloading.get(uniqueId);
+        if (owner != null) {
+            return owner;
+        }
+        synchronized (completed) {
+            return completed.get(uniqueId);
+        }
+    }
+
+    private DuplicateFileException skip(String uniqueId, long telegramId, Owner owner, long size) {
+        recordSkipped(telegramId, size);
+        boolean isCompleted = !downloading.containsKey(uniqueId);
+        return new DuplicateFileException(uniqueId, owner, isCompleted);
+    }
+}
@@ -0,0 +1,118 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import telegram.files.repository.FileHashRecord;
+import telegram.files.repository.FileHashRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Persisted content hashes of transferred files, keyed by path and invalidated when the size or the modified time changes.
+ * Entries are stored under a 64-bit hash of the path, an entry of a colliding path is not trusted and is replaced.
+ * <p>
+ * A file is hashed once, later duplicate checks cost one lookup.
+ * Lookups block, they are called from transfer worker threads.
+ */
+public class FileHashIndex {
+
+    private static final Log log = LogFactory.get();
+
+    private final FileHashRepository repository;
+
+    public FileHashIndex(FileHashRepository repository) {
+        this.repository = repository;
+    }
+
+    public static String pathKey(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        XxHash64 xxHash64 = new XxHash64();
+        xxHash64.update(bytes, 0, bytes.length);
+        return xxHash64.getHexValue();
+    }
+
+    /**
+     * @return the indexed hash of the file, the file is hashed and indexed if the index is missing or stale
+     */
+    public String getHash(File file, FileHasher.Algorithm algorithm) throws IOException {
+        String path = file.getAbsolutePath();
+        FileHashRecord record = MessyUtils.await(repository.getByPathKey(pathKey(path)));
+        if (record != null && isValid(record, file, algorithm)) {
+            return record.hash();
+        }
+        String hash = FileHasher.hash(file, algorithm);
+        put(file, hash, algorithm);
+        return hash;
+    }
+
+    /**
+     * Find an indexed file with the same content, stale index entries are removed.
+     *
+     * @return path of the file, or null if there is none
+     */
+    public String findSameContent(File file, String hash, FileHasher.Algorithm algorithm) {
+        List<FileHashRecord> records = MessyUtils.await(repository.getByContent(file.length(), algorithm.name(), hash));
+        for (FileHashRecord record : records) {
+            if (isRemote(record.path())) {
+                continue;
+            }
+            File indexedFile = new File(record.path());
+            if (!isValid(record, indexedFile, algorithm)) {
+                log.debug("Remove stale file hash: %s".formatted(record.path()));
+                MessyUtils.await(repository.deleteByPathKey(record.pathKey()));
+                continue;
+            }
+            // Confirm a 64-bit hash match before the caller drops its copy
+            if (FileHasher.isSameSamples(file, indexedFile)) {
+                return record.path();
+            }
+        }
+        return null;
+    }
+
+    public void put(File file, String hash, FileHasher.Algorithm algorithm) {
+        String path = file.getAbsolutePath();
+        MessyUtils.await(repository.save(new FileHashRecord(pathKey(path),
+                path,
+                file.length(),
+                file.lastModified(),
+                algorithm.name(),
+                hash)));
+    }
+
+    /**
+     * @return the hash recorded when the object was uploaded, null if unknown or recorded for another size
+     */
+    public String getRemoteHash(String uri, long size, FileHasher.Algorithm algorithm) {
+        FileHashRecord record = MessyUtils.await(repository.getByPathKey(pathKey(uri)));
+        return record != null
+               && uri.equals(record.path())
+               && record.size() == size
+               && algorithm.name().equals(record.algorithm()) ? record.hash() : null;
+    }
+
+    /**
+     * Index an uploaded object, remote entries are never checked against the local filesystem.
+     */
+    public void putRemote(String uri, long size, String hash, FileHasher.Algorithm algorithm) {
+        MessyUtils.await(repository.save(new FileHashRecord(pathKey(uri), uri, size, 0, algorithm.name(), hash)));
+    }
+
+    private static boolean isRemote(String path) {
+        return path.contains("://");
+    }
+
+    /**
+     * The path is compared too, another path may have the same path key.
+     */
+    private static boolean isValid(FileHashRecord record, File file, FileHasher.Algorithm algorithm) {
+        return file.getAbsolutePath().equals(record.path())
+               && algorithm.name().equals(record.algorithm())
+               && file.isFile()
+               && file.length() == record.size()
+               && file.lastModified() == record.modifiedAt();
+    }
+}
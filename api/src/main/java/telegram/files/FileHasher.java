@@ -0,0 +1,216 @@
+package telegram.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Hash and compare files by streaming them in fixed-size chunks, files of any size are read with constant memory.
+ * <p>
+ * {@link #isSameContent} rejects most different files before reading them fully:
+ * sizes are compared first, then the head and tail blocks, only files that still look the same are fully hashed.
+ */
+public class FileHasher {
+
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    public static final int SAMPLE_SIZE = 64 * 1024;
+
+    public enum Algorithm {
+        /**
+         * Fast non-cryptographic 64-bit hash, opt in only, a crafted collision would pass as a duplicate
+         */
+        XXH64,
+        MD5,
+        SHA256,
+        ;
+    }
+
+    private FileHasher() {
+    }
+
+    /**
+     * Incremental digest, for content that is read once for another purpose, e.g. an upload.
+     */
+    public interface Digest {
+        void update(byte[] bytes, int offset, int length);
+
+        String getHexValue();
+    }
+
+    public static Digest newDigest(Algorithm algorithm) {
+        return switch (algorithm) {
+            case XXH64 -> {
+                XxHash64 xxHash64 = new XxHash64();
+                yield new Digest() {
+                    @Override
+                    public void update(byte[] bytes, int offset, int length) {
+                        xxHash64.update(bytes, offset, length);
+                    }
+
+                    @Override
+                    public String getHexValue() {
+                        return xxHash64.getHexValue();
+                    }
+                };
+            }
+            case MD5, SHA256 -> {
+                MessageDigest messageDigest = messageDigest(algorithm);
+                yield new Digest() {
+                    @Override
+                    public void update(byte[] bytes, int offset, int length) {
+                        messageDigest.update(bytes, offset, length);
+                    }
+
+                    @Override
+                    public String getHexValue() {
+                        return HexFormat.of().formatHex(messageDigest.digest());
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return hex digest of the file
+     * @throws IOException if the file can not be read
+     */
+    public static String hash(File file, Algorithm algorithm) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            Digest digest = newDigest(algorithm);
+            while (read(channel, buffer) > 0) {
+                digest.update(buffer.array(), 0, buffer.limit());
+            }
+            return digest.getHexValue();
+        }
+    }
+
+    /**
+     * Compare the content of two files, size first, then head and tail blocks, then the full hash.
+     *
+     * @return false if the files differ or either one can not be read
+     */
+    public static boolean isSameContent(File file1, File file2, Algorithm algorithm) {
+        if (!file1.isFile() || !file2.isFile()) {
+            return false;
+        }
+        long size = file1.length();
+        if (size != file2.length()) {
+            return false;
+        }
+        if (file1.toPath().normalize().equals(file2.toPath().normalize())) {
+            return true;
+        }
+        try {
+            if (!isSameSamples(file1, file2, size)) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        if (size <= 2L * SAMPLE_SIZE) {
+            // Samples covered the whole file
+            return true;
+        }
+
+        try {
+            return isSameHash(file1, file2, algorithm);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Hash both files on the calling thread, a chunk of each in turn, reads are blocking and paced by {@link IoGovernor}.
+     */
+    private static boolean isSameHash(File file1, File file2, Algorithm algorithm) throws IOException {
+        try (FileChannel channel1 = FileChannel.open(file1.toPath(), StandardOpenOption.READ);
+             FileChannel channel2 = FileChannel.open(file2.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            Digest digest1 = newDigest(algorithm);
+            Digest digest2 = newDigest(algorithm);
+            boolean isEnd1 = false;
+            boolean isEnd2 = false;
+            while (!isEnd1 || !isEnd2) {
+                if (!isEnd1) {
+                    isEnd1 = read(channel1, buffer) == 0;
+                    digest1.update(buffer.array(), 0, buffer.limit());
+                }
+                if (!isEnd2) {
+                    isEnd2 = read(channel2, buffer) == 0;
+                    digest2.update(buffer.array(), 0, buffer.limit());
+                }
+            }
+            return digest1.getHexValue().equals(digest2.getHexValue());
+        }
+    }
+
+    /**
+     * Compare sizes and the head and tail blocks only, e.g. to confirm files with the same hash.
+     */
+    public static boolean isSameSamples(File file1, File file2) {
+        if (!file1.isFile() || !file2.isFile() || file1.length() != file2.length()) {
+            return false;
+        }
+        try {
+            return isSameSamples(file1, file2, file1.length());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isSameSamples(File file1, File file2, long size) throws IOException {
+        try (FileChannel channel1 = FileChannel.open(file1.toPath(), StandardOpenOption.READ);
+             FileChannel channel2 = FileChannel.open(file2.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer1 = ByteBuffer.allocate(SAMPLE_SIZE);
+            ByteBuffer buffer2 = ByteBuffer.allocate(SAMPLE_SIZE);
+            if (!isSameBlock(channel1, channel2, buffer1, buffer2, 0)) {
+                return false;
+            }
+            long tailPosition = Math.max(SAMPLE_SIZE, size - SAMPLE_SIZE);
+            return tailPosition >= size || isSameBlock(channel1, channel2, buffer1, buffer2, tailPosition);
+        }
+    }
+
+    private static boolean isSameBlock(FileChannel channel1, FileChannel channel2,
+                                       ByteBuffer buffer1, ByteBuffer buffer2,
+                                       long position) throws IOException {
+        channel1.position(position);
+        channel2.position(position);
+        int read1 = read(channel1, buffer1);
+        int read2 = read(channel2, buffer2);
+        return read1 == read2 && Arrays.equals(buffer1.array(), 0, read1, buffer2.array(), 0, read2);
+    }
+
+    /**
+     * Fill the buffer from the channel, the buffer is flipped for reading.
+     *
+     * @return bytes read, 0 at the end of the file
+     */
+    private static int read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        IoGovernor.INSTANCE.acquire(IoGovernor.Usage.HASH, buffer.limit());
+        return buffer.limit();
+    }
+
+    private static MessageDigest messageDigest(Algorithm algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm == Algorithm.MD5 ? "MD5" : "SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
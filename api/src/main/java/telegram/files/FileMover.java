@@ -0,0 +1,233 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Moves a file with an atomic rename when source and target are on the same filesystem.
+ * Hardlink, reflink and copy modes keep the source, e.g. the TDLib cache.
+ * <p>
+ * Otherwise the file is copied with {@link FileChannel#transferTo} into {@code <target>.part}, which is fsynced and renamed
+ * to the target, so the target is never half-written. The copied offset is checkpointed in {@code <target>.part.meta},
+ * an interrupted copy of the same source resumes from the last checkpoint.
+ */
+public class FileMover {
+
+    private static final Log log = LogFactory.get();
+
+    public static final String PART_SUFFIX = ".part";
+
+    public static final String META_SUFFIX = ".part.meta";
+
+    static final long CHUNK_SIZE = 8 * 1024 * 1024;
+
+    static final long CHECKPOINT_SIZE = 64 * 1024 * 1024;
+
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    private static final int MAX_CREATED_DIRECTORIES = 10_000;
+
+    /**
+     * Parent directories known to exist, files of a destination mostly land in a few folders
+     */
+    private static final Set<Path> CREATED_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    public interface ProgressListener {
+        void onProgress(long transferredBytes, long totalBytes, long bytesPerSecond);
+    }
+
+    private FileMover() {
+    }
+
+    /**
+     * Transfer the file in the given mode, a hardlink or reflink that is not supported falls back to a copy.
+     * The source is kept unless the mode is {@link Transfer.TransferMode#MOVE}.
+     *
+     * @param listener notified at most once per second while copying, nullable
+     * @return the mode used
+     */
+    public static Transfer.TransferMode transfer(Path source, Path target, boolean overwrite,
+                                                 Transfer.TransferMode mode,
+                                                 ProgressListener listener) throws IOException {
+        try {
+            return doTransfer(source, target, overwrite, mode, listener);
+        } catch (NoSuchFileException e) {
+            // The cached parent directory may have been removed meanwhile
+            if (!CREATED_DIRECTORIES.remove(target.toAbsolutePath().getParent()) || !Files.exists(source)) {
+                throw e;
+            }
+            return doTransfer(source, target, overwrite, mode, listener);
+        }
+    }
+
+    private static Transfer.TransferMode doTransfer(Path source, Path target, boolean overwrite,
+                                                    Transfer.TransferMode mode,
+                                                    ProgressListener listener) throws IOException {
+        if (mode == null || mode == Transfer.TransferMode.MOVE) {
+            move(source, target, overwrite, listener);
+            return Transfer.TransferMode.MOVE;
+        }
+        if (!overwrite && Files.exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        createParentDirectories(target);
+        // Link or clone next to the target, then replace the target at once
+        Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        if (mode == Transfer.TransferMode.HARDLINK && hardlink(source, part)
+            || mode == Transfer.TransferMode.REFLINK && reflink(source, part)) {
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return mode;
+        }
+        if (mode != Transfer.TransferMode.COPY) {
+            log.debug("%s not supported, copy %s to %s".formatted(mode, source, target));
+        }
+        copy(source, target, listener);
+        return Transfer.TransferMode.COPY;
+    }
+
+    /**
+     * @param listener notified at most once per second while copying across filesystems, nullable
+     */
+    public static void move(Path source, Path target, boolean overwrite, ProgressListener listener) throws IOException {
+        if (!overwrite && Files.exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        createParentDirectories(target);
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            log.debug("Atomic move not supported, copy %s to %s".formatted(source, target));
+        }
+        copy(source, target, listener);
+        Files.delete(source);
+    }
+
+    static void createParentDirectories(Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent == null || CREATED_DIRECTORIES.contains(parent)) {
+            return;
+        }
+        Files.createDirectories(parent);
+        if (CREATED_DIRECTORIES.size() >= MAX_CREATED_DIRECTORIES) {
+            CREATED_DIRECTORIES.clear();
+        }
+        CREATED_DIRECTORIES.add(parent);
+    }
+
+    static void copy(Path source, Path target, ProgressListener listener) throws IOException {
+        Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        Path meta = target.resolveSibling(target.getFileName() + META_SUFFIX);
+        long size = Files.size(source);
+        long modifiedAt = Files.getLastModifiedTime(source).toMillis();
+        String sourceKey = "%s\n%d\n%d".formatted(source.toAbsolutePath(), size, modifiedAt);
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = readCheckpoint(meta, sourceKey);
+            if (position > out.size()) {
+                position = 0;
+            }
+            // Bytes after the checkpoint may not have reached the disk
+            out.truncate(position);
+            if (position > 0) {
+                log.info("Resume copy %s to %s from %d".formatted(source, target, position));
+            }
+
+            long startTime = System.currentTimeMillis();
+            long startPosition = position;
+            long lastProgressTime = startTime;
+            long lastCheckpoint = position;
+            while (position < size) {
+                long length = Math.min(CHUNK_SIZE, size - position);
+                IoGovernor.INSTANCE.acquire(IoGovernor.Usage.TRANSFER, length);
+                long transferred = in.transferTo(position, length, out.position(position));
+                if (transferred <= 0) {
+                    throw new IOException("Source file truncated while copying: %s".formatted(source));
+                }
+                position += transferred;
+                if (position - lastCheckpoint >= CHECKPOINT_SIZE) {
+                    out.force(false);
+                    writeCheckpoint(meta, sourceKey, position);
+                    lastCheckpoint = position;
+                }
+                long now = System.currentTimeMillis();
+                if (listener != null && now - lastProgressTime >= PROGRESS_INTERVAL) {
+                    listener.onProgress(position, size, (position - startPosition) * 1000 / Math.max(1, now - startTime));
+                    lastProgressTime = now;
+                }
+            }
+            out.force(true);
+        }
+        Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(meta);
+    }
+
+    private static boolean hardlink(Path source, Path link) {
+        try {
+            Files.deleteIfExists(link);
+            Files.createLink(link, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. a different filesystem
+            log.debug("Create hardlink failed: %s %s".formatted(link, e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Clone the file with copy-on-write, there is no Java API for it, so {@code cp} does it on Linux (btrfs, xfs) and macOS (apfs).
+     */
+    private static boolean reflink(Path source, Path clone) {
+        String osName = System.getProperty("os.name").toLowerCase();
+        String option = osName.contains("linux") ? "--reflink=always" : osName.contains("mac") ? "-c" : null;
+        if (option == null) {
+            return false;
+        }
+        try {
+            Files.deleteIfExists(clone);
+            Process process = new ProcessBuilder("cp", option, source.toString(), clone.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (process.waitFor() == 0) {
+                return true;
+            }
+            Files.deleteIfExists(clone);
+        } catch (IOException e) {
+            log.debug("Create reflink failed: %s %s".formatted(clone, e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static long readCheckpoint(Path meta, String sourceKey) {
+        try {
+            if (!Files.exists(meta)) {
+                return 0;
+            }
+            List<String> lines = Files.readAllLines(meta, StandardCharsets.UTF_8);
+            if (lines.size() == 4 && String.join("\n", lines.subList(0, 3)).equals(sourceKey)) {
+                return Long.parseLong(lines.get(3));
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Ignore invalid copy checkpoint: %s %s".formatted(meta, e.getMessage()));
+        }
+        return 0;
+    }
+
+    private static void writeCheckpoint(Path meta, String sourceKey, long position) throws IOException {
+        Path temp = meta.resolveSibling(meta.getFileName() + ".tmp");
+        Files.writeString(temp, "%s\n%d".formatted(sourceKey, position), StandardCharsets.UTF_8);
+        Files.move(temp, meta, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
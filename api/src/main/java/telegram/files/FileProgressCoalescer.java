@@ -0,0 +1,69 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+import telegram.files.repository.FileRecord;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latest download progress of each file of an account, flushed to the clients once per tick.
+ * <p>
+ * TDLib reports a downloading file many times a second, only the last state of every file updated in a tick is sent,
+ * as a small delta instead of the whole file object. The account totals are coalesced the same way.
+ */
+public class FileProgressCoalescer {
+
+    public record FileProgress(int fileId, long downloadedSize, long size, FileRecord.DownloadStatus status) {
+        public JsonObject toJson() {
+            return JsonObject.of("fileId", fileId,
+                    "downloadedSize", downloadedSize,
+                    "size", size,
+                    "status", status.name());
+        }
+    }
+
+    public record Downloads(long totalSize, int totalCount, long downloadedSize) {
+        public JsonObject toJson() {
+            return JsonObject.of("totalSize", totalSize,
+                    "totalCount", totalCount,
+                    "downloadedSize", downloadedSize);
+        }
+    }
+
+    // fileId -> last progress, in order of the first update in the tick
+    private final Map<Integer, FileProgress> pending = new LinkedHashMap<>();
+
+    private Downloads downloads;
+
+    public synchronized void add(FileProgress progress) {
+        pending.put(progress.fileId(), progress);
+    }
+
+    public synchronized void add(Downloads downloads) {
+        this.downloads = downloads;
+    }
+
+    /**
+     * @return the files updated since the last drain, empty if none
+     */
+    public synchronized List<FileProgress> drainFiles() {
+        if (pending.isEmpty()) {
+            return List.of();
+        }
+        List<FileProgress> files = new ArrayList<>(pending.values());
+        pending.clear();
+        return files;
+    }
+
+    /**
+     * @return the totals updated since the last drain, null if none
+     */
+    public synchronized Downloads drainDownloads() {
+        Downloads last = downloads;
+        downloads = null;
+        return last;
+    }
+}
@@ -2,9 +2,15 @@ package telegram.files;
 
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
 import io.vertx.core.MultiMap;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
 import io.vertx.core.file.FileProps;
 import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
@@ -12,16 +18,102 @@ import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.RoutingContext;
 
 import java.nio.charset.Charset;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
 
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_MODIFIED;
 import static io.netty.handler.codec.http.HttpResponseStatus.PARTIAL_CONTENT;
 import static io.netty.handler.codec.http.HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
 
 public class FileRouteHandler {
     private static final Log LOG = LogFactory.get();
 
+    /**
+     * Files of a unique id never change, a cached copy is revalidated after an hour with the ETag
+     */
+    private static final String CACHE_CONTROL = "private, max-age=3600";
+
+    /**
+     * Props of a path are reused for a few seconds, a gallery requests the same thumbnails again and again
+     */
+    private static final long PROPS_TTL = 5_000;
+
+    private static final int MAX_CACHED_PROPS = 1000;
+
+    /**
+     * A range header with more ranges is ignored and the whole file is sent
+     */
+    private static final int MAX_RANGES = 16;
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * A file that is still being written, only a prefix from each offset is readable.
+     */
+    public interface PartialFile {
+        /**
+         * Size of the complete file
+         */
+        long size();
+
+        /**
+         * @return the local path, null until the first bytes are written
+         */
+        Future<String> getPath();
+
+        /**
+         * @return number of bytes readable from the offset
+         */
+        Future<Long> getAvailableSize(long offset);
+
+        /**
+         * Write the bytes from the offset first, a response waits for them.
+         */
+        Future<Void> seek(long offset);
+
+        /**
+         * Called once when the response is ended or closed.
+         */
+        void release();
+    }
+
+    /**
+     * Inclusive byte range
+     */
+    record Range(long start, long end) {
+        long length() {
+            return end + 1 - start;
+        }
+    }
+
+    private record CachedProps(FileProps props, long expiresAt) {
+    }
+
+    private final Map<String, CachedProps> propsCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedProps> eldest) {
+            return size() > MAX_CACHED_PROPS;
+        }
+    };
+
     public void handle(RoutingContext context, String path, String mimeType) {
+        handle(context, path, mimeType, null);
+    }
+
+    /**
+     * @param uniqueId unique id of the file, the ETag is derived from it and the size, nullable
+     */
+    public void handle(RoutingContext context, String path, String mimeType, String uniqueId) {
         HttpServerRequest request = context.request();
 
         if (request.method() != HttpMethod.GET && request.method() != HttpMethod.HEAD) {
@@ -35,157 +127,542 @@ public class FileRouteHandler {
 
             // Access fileSystem once here to be safe
             FileSystem fs = context.vertx().fileSystem();
-            sendStatic(context, fs, path, mimeType);
+            sendStatic(context, fs, path, mimeType, uniqueId);
         }
     }
 
-    private void sendStatic(RoutingContext context, FileSystem fileSystem, String path, String mimeType) {
-        // verify if the file exists
-        fileSystem
-                .exists(path)
+    /**
+     * Serve a file that is still being written, bytes are sent as soon as they are readable.
+     * The response is written at the pace of the client, a full write queue pauses reading.
+     */
+    public void handlePartial(RoutingContext context, PartialFile partialFile, String mimeType) {
+        HttpServerRequest request = context.request();
+        HttpServerResponse response = context.response();
+        if (request.method() != HttpMethod.GET && request.method() != HttpMethod.HEAD) {
+            context.next();
+            return;
+        }
+
+        long size = partialFile.size();
+        List<Range> ranges = null;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null) {
+            try {
+                ranges = parseRanges(rangeHeader, size);
+            } catch (IllegalArgumentException e) {
+                response.putHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                context.fail(REQUESTED_RANGE_NOT_SATISFIABLE.code());
+                return;
+            }
+        }
+        // Multiple ranges of a growing file are not worth it, players ask for one
+        Range range = ranges != null && ranges.size() == 1 ? ranges.getFirst() : null;
+        long offset = range == null ? 0 : range.start;
+        long end = range == null ? size - 1 : range.end;
+
+        MultiMap headers = response.headers();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.set(HttpHeaders.CACHE_CONTROL, "no-store");
+        headers.set(HttpHeaders.CONTENT_LENGTH, Long.toString(end + 1 - offset));
+        setContentType(response, mimeType);
+        if (request.method() == HttpMethod.HEAD) {
+            response.end();
+            return;
+        }
+        if (range != null) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + offset + "-" + end + "/" + size);
+            response.setStatusCode(PARTIAL_CONTENT.code());
+        }
+        new PartialFileStream(context, partialFile, offset, end).start();
+    }
+
+    private void sendStatic(RoutingContext context, FileSystem fileSystem, String path, String mimeType, String uniqueId) {
+        // One props call tells both if the file exists and its size
+        getProps(fileSystem, path)
+                .onSuccess(props -> {
+                    if (props.isDirectory()) {
+                        if (!context.request().isEnded()) {
+                            context.request().resume();
+                        }
+                        context.next();
+                    } else {
+                        sendFile(context, path, mimeType, props, uniqueId);
+                    }
+                })
                 .onFailure(err -> {
                     if (!context.request().isEnded()) {
                         context.request().resume();
                     }
-                    context.fail(err);
-                })
-                .onSuccess(exists -> {
-                    if (!exists) {
-                        if (!context.request().isEnded()) {
-                            context.request().resume();
-                        }
+                    if (err instanceof NoSuchFileException || err.getCause() instanceof NoSuchFileException) {
                         context.next();
-                        return;
+                    } else {
+                        context.fail(err);
                     }
-
-                    // Need to read the props from the filesystem
-                    fileSystem.props(path)
-                            .onSuccess(props -> {
-                                if (props == null) {
-                                    if (!context.request().isEnded()) {
-                                        context.request().resume();
-                                    }
-                                    context.next();
-                                } else if (props.isDirectory()) {
-                                    context.next();
-                                } else {
-                                    sendFile(context, path, mimeType, props);
-                                }
-                            })
-                            .onFailure(err -> {
-                                if (!context.request().isEnded()) {
-                                    context.request().resume();
-                                }
-                                context.fail(err);
-                            });
                 });
     }
 
-    private static final Pattern RANGE = Pattern.compile("^bytes=(\\d+)-(\\d*)$");
+    private Future<FileProps> getProps(FileSystem fileSystem, String path) {
+        long now = System.currentTimeMillis();
+        synchronized (propsCache) {
+            CachedProps cached = propsCache.get(path);
+            if (cached != null && cached.expiresAt > now) {
+                return Future.succeededFuture(cached.props);
+            }
+        }
+        return fileSystem.props(path)
+                .onSuccess(props -> {
+                    synchronized (propsCache) {
+                        propsCache.put(path, new CachedProps(props, now + PROPS_TTL));
+                    }
+                });
+    }
 
-    private void sendFile(RoutingContext context, String file, String contentType, FileProps fileProps) {
+    private void sendFile(RoutingContext context, String file, String contentType, FileProps fileProps, String uniqueId) {
         final HttpServerRequest request = context.request();
         final HttpServerResponse response = context.response();
 
-        Long offset = null;
-        long end;
-        MultiMap headers;
-
         if (response.closed())
             return;
 
-        // check if the client is making a range request
-        String range = request.getHeader("Range");
-        // end byte is length - 1
-        end = fileProps.size() - 1;
+        long size = fileProps.size();
+        // Strong validator: the content of a unique id never changes, the size catches a partially written file
+        String etag = "\"%s-%x\"".formatted(uniqueId == null ? Long.toHexString(fileProps.lastModifiedTime()) : uniqueId, size);
+        long lastModified = fileProps.lastModifiedTime() / 1000 * 1000;
 
-        if (range != null) {
-            Matcher m = RANGE.matcher(range);
-            if (m.matches()) {
-                try {
-                    String part = m.group(1);
-                    // offset cannot be empty
-                    offset = Long.parseLong(part);
-                    // offset must fall inside the limits of the file
-                    if (offset < 0 || offset >= fileProps.size()) {
-                        throw new IndexOutOfBoundsException();
-                    }
-                    // length can be empty
-                    part = m.group(2);
-                    if (part != null && !part.isEmpty()) {
-                        // ranges are inclusive
-                        end = Math.min(end, Long.parseLong(part));
-                        // end offset must not be smaller than start offset
-                        if (end < offset) {
-                            throw new IndexOutOfBoundsException();
-                        }
-                    }
-                } catch (NumberFormatException | IndexOutOfBoundsException e) {
-                    context.response().putHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileProps.size());
-                    if (!context.request().isEnded()) {
-                        context.request().resume();
-                    }
-                    context.fail(REQUESTED_RANGE_NOT_SATISFIABLE.code());
-                    return;
+        MultiMap headers = response.headers();
+        headers.set(HttpHeaders.ETAG, etag);
+        headers.set(HttpHeaders.LAST_MODIFIED, formatDate(lastModified));
+        headers.set(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+
+        if (isNotModified(request, etag, lastModified)) {
+            if (!request.isEnded()) {
+                request.resume();
+            }
+            response.setStatusCode(NOT_MODIFIED.code()).end();
+            return;
+        }
+
+        // check if the client is making a range request
+        List<Range> ranges = null;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && isIfRangeMatched(request, etag, lastModified)) {
+            try {
+                ranges = parseRanges(rangeHeader, size);
+            } catch (IllegalArgumentException e) {
+                context.response().putHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                if (!context.request().isEnded()) {
+                    context.request().resume();
                 }
+                context.fail(REQUESTED_RANGE_NOT_SATISFIABLE.code());
+                return;
             }
         }
 
         // notify client we support range requests
-        headers = response.headers();
         headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (ranges != null && ranges.size() > 1) {
+            sendRanges(context, file, contentType, size, ranges);
+            return;
+        }
+
+        Range range = ranges == null ? null : ranges.getFirst();
         // send the content length even for HEAD requests
-        headers.set(HttpHeaders.CONTENT_LENGTH, Long.toString(end + 1 - (offset == null ? 0 : offset)));
+        headers.set(HttpHeaders.CONTENT_LENGTH, Long.toString(range == null ? size : range.length()));
+        setContentType(response, contentType);
 
         if (request.method() == HttpMethod.HEAD) {
             response.end();
+            return;
+        }
+        Future<Void> sending;
+        if (range != null) {
+            // must return content range
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + range.start + "-" + range.end + "/" + size);
+            // return a partial response
+            response.setStatusCode(PARTIAL_CONTENT.code());
+            sending = response.sendFile(file, range.start, range.length());
         } else {
-            if (offset != null) {
-                // must return content range
-                headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + offset + "-" + end + "/" + fileProps.size());
-                // return a partial response
-                response.setStatusCode(PARTIAL_CONTENT.code());
-
-                final long finalOffset = offset;
-                final long finalLength = end + 1 - offset;
-                if (contentType != null) {
-                    if (contentType.startsWith("text")) {
-                        response.putHeader(HttpHeaders.CONTENT_TYPE, contentType + ";charset=" + Charset.defaultCharset().name());
+            sending = response.sendFile(file);
+        }
+        sending.onFailure(err -> {
+            if (!context.request().isEnded()) {
+                context.request().resume();
+            }
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Failed to send file", err.getCause());
+            }
+        });
+    }
+
+    /**
+     * Send the ranges as multipart/byteranges, the parts are read from one open file.
+     */
+    private void sendRanges(RoutingContext context, String file, String contentType, long size, List<Range> ranges) {
+        HttpServerResponse response = context.response();
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<Buffer> partHeaders = new ArrayList<>(ranges.size());
+        long length = 0;
+        for (Range range : ranges) {
+            Buffer partHeader = Buffer.buffer("\r\n--" + boundary + "\r\n"
+                                              + (contentType == null ? "" : "Content-Type: " + contentType + "\r\n")
+                                              + "Content-Range: bytes " + range.start + "-" + range.end + "/" + size + "\r\n\r\n");
+            partHeaders.add(partHeader);
+            length += partHeader.length() + range.length();
+        }
+        Buffer closing = Buffer.buffer("\r\n--" + boundary + "--\r\n");
+        length += closing.length();
+
+        response.setStatusCode(PARTIAL_CONTENT.code());
+        response.headers()
+                .set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary)
+                .set(HttpHeaders.CONTENT_LENGTH, Long.toString(length));
+        if (!context.request().isEnded()) {
+            context.request().resume();
+        }
+        if (context.request().method() == HttpMethod.HEAD) {
+            response.end();
+            return;
+        }
+        context.vertx().fileSystem()
+                .open(file, new OpenOptions().setRead(true).setWrite(false).setCreate(false))
+                .onSuccess(asyncFile -> {
+                    response.closeHandler(v -> asyncFile.close());
+                    writeRange(response, asyncFile, ranges, partHeaders, 0, ranges.getFirst().start, closing);
+                })
+                .onFailure(err -> {
+                    LOG.trace("Failed to open file", err);
+                    response.reset();
+                });
+    }
+
+    private void writeRange(HttpServerResponse response, AsyncFile asyncFile, List<Range> ranges, List<Buffer> partHeaders,
+                            int index, long position, Buffer closing) {
+        if (index == ranges.size()) {
+            asyncFile.close();
+            response.end(closing);
+            return;
+        }
+        Range range = ranges.get(index);
+        if (position == range.start) {
+            response.write(partHeaders.get(index));
+        }
+        int length = (int) Math.min(CHUNK_SIZE, range.end + 1 - position);
+        asyncFile.read(Buffer.buffer(length), 0, position, length)
+                .onSuccess(buffer -> {
+                    if (buffer.length() != length) {
+                        // The file was truncated, the promised length can not be sent
+                        asyncFile.close();
+                        response.reset();
+                        return;
+                    }
+                    response.write(buffer);
+                    long next = position + length;
+                    Runnable writeNext = next > range.end ?
+                            () -> writeRange(response, asyncFile, ranges, partHeaders, index + 1,
+                                    index + 1 < ranges.size() ? ranges.get(index + 1).start : 0, closing) :
+                            () -> writeRange(response, asyncFile, ranges, partHeaders, index, next, closing);
+                    if (response.writeQueueFull()) {
+                        response.drainHandler(v -> {
+                            response.drainHandler(null);
+                            writeNext.run();
+                        });
                     } else {
-                        response.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+                        writeNext.run();
                     }
+                })
+                .onFailure(err -> {
+                    asyncFile.close();
+                    response.reset();
+                });
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since, a weak tag of the client matches our strong one.
+     */
+    static boolean isNotModified(HttpServerRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                String theTag = tag.trim();
+                if (theTag.equals("*") || (theTag.startsWith("W/") ? theTag.substring(2) : theTag).equals(etag)) {
+                    return true;
                 }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            Long since = parseDate(ifModifiedSince);
+            return since != null && lastModified <= since;
+        }
+        return false;
+    }
 
-                response.sendFile(file, finalOffset, finalLength)
-                        .onFailure(err -> {
-                            if (!context.request().isEnded()) {
-                                context.request().resume();
-                            }
-                            if (LOG.isTraceEnabled()) {
-                                LOG.trace("Failed to send file", err.getCause());
-                            }
-                        });
+    /**
+     * A range is only applied if If-Range still matches the file, otherwise the whole file is sent.
+     */
+    private static boolean isIfRangeMatched(HttpServerRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.trim().equals(etag);
+        }
+        Long date = parseDate(ifRange);
+        return date != null && date == lastModified;
+    }
+
+    /**
+     * Parse {@code bytes=a-b, c-, -n}, unsatisfiable ranges are dropped.
+     *
+     * @return the ranges, null if the header is not a byte range or has too many ranges
+     * @throws IllegalArgumentException if a range is malformed or none is satisfiable
+     */
+    static List<Range> parseRanges(String header, long size) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>();
+        for (String spec : header.substring("bytes=".length()).split(",")) {
+            String theSpec = spec.trim();
+            if (theSpec.isEmpty()) {
+                continue;
+            }
+            int dash = theSpec.indexOf('-');
+            if (dash < 0) {
+                throw new IllegalArgumentException("Invalid range: " + theSpec);
+            }
+            String first = theSpec.substring(0, dash).trim();
+            String last = theSpec.substring(dash + 1).trim();
+            long start;
+            long end = size - 1;
+            if (first.isEmpty()) {
+                // the last n bytes
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0) {
+                    continue;
+                }
+                start = Math.max(0, size - suffixLength);
             } else {
-                // guess content type
-                if (contentType != null) {
-                    if (contentType.startsWith("text")) {
-                        response.putHeader(HttpHeaders.CONTENT_TYPE, contentType + ";charset=" + Charset.defaultCharset().name());
-                    } else {
-                        response.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+                start = Long.parseLong(first);
+                if (!last.isEmpty()) {
+                    long lastByte = Long.parseLong(last);
+                    if (lastByte < start) {
+                        throw new IllegalArgumentException("Invalid range: " + theSpec);
                     }
+                    end = Math.min(end, lastByte);
                 }
+            }
+            if (start < 0) {
+                throw new IllegalArgumentException("Invalid range: " + theSpec);
+            }
+            if (start >= size) {
+                continue;
+            }
+            ranges.add(new Range(start, end));
+            if (ranges.size() > MAX_RANGES) {
+                return null;
+            }
+        }
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("No satisfiable range: " + header);
+        }
+        return ranges;
+    }
 
-                response.sendFile(file)
-                        .onFailure(err -> {
-                            if (!context.request().isEnded()) {
-                                context.request().resume();
-                            }
-                            if (LOG.isTraceEnabled()) {
-                                LOG.trace("Failed to send file", err.getCause());
-                            }
-                        });
+    private static void setContentType(HttpServerResponse response, String contentType) {
+        if (contentType != null) {
+            if (contentType.startsWith("text")) {
+                response.putHeader(HttpHeaders.CONTENT_TYPE, contentType + ";charset=" + Charset.defaultCharset().name());
+            } else {
+                response.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
             }
         }
     }
 
+    private static String formatDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    private static Long parseDate(String date) {
+        try {
+            return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Copy a range of a partial file to the response, chunk by chunk.
+     * <p>
+     * If the next byte is not written yet, the stream waits for it. The first wait moves the writer to the position,
+     * since the client asked for a range that is not there yet, later waits only move it again if nothing arrives
+     * for a while, e.g. after another stream moved it. A stream stalled too long is reset.
+     */
+    private static class PartialFileStream {
+        private static final long WAIT_INTERVAL = 200;
+
+        private static final long RESEEK_INTERVAL = 5_000;
+
+        private static final long STALL_TIMEOUT = 60_000;
+
+        private final Context vertxContext;
+
+        private final RoutingContext context;
+
+        private final HttpServerResponse response;
+
+        private final PartialFile partialFile;
+
+        private final long end;
+
+        private long position;
+
+        private AsyncFile asyncFile;
+
+        private long lastProgressTime;
+
+        private long lastSeekTime;
+
+        private boolean isSeeked;
+
+        private boolean closed;
+
+        PartialFileStream(RoutingContext context, PartialFile partialFile, long offset, long end) {
+            this.vertxContext = context.vertx().getOrCreateContext();
+            this.context = context;
+            this.response = context.response();
+            this.partialFile = partialFile;
+            this.position = offset;
+            this.end = end;
+        }
+
+        void start() {
+            response.closeHandler(v -> close());
+            lastProgressTime = System.currentTimeMillis();
+            next();
+        }
+
+        private void next() {
+            if (closed) {
+                return;
+            }
+            if (position > end) {
+                close();
+                response.end();
+                return;
+            }
+            onContext(partialFile.getAvailableSize(position)).onComplete(ar -> {
+                if (closed) {
+                    return;
+                }
+                if (ar.failed()) {
+                    fail(ar.cause());
+                } else if (ar.result() <= 0) {
+                    waitForBytes();
+                } else {
+                    read((int) Math.min(Math.min(ar.result(), CHUNK_SIZE), end + 1 - position));
+                }
+            });
+        }
+
+        private void read(int length) {
+            onContext(open().compose(file -> file.read(Buffer.buffer(length), 0, position, length)))
+                    .onSuccess(buffer -> {
+                        if (closed) {
+                            return;
+                        }
+                        if (buffer.length() == 0) {
+                            waitForBytes();
+                            return;
+                        }
+                        position += buffer.length();
+                        lastProgressTime = System.currentTimeMillis();
+                        response.write(buffer);
+                        if (response.writeQueueFull()) {
+                            response.drainHandler(v -> {
+                                response.drainHandler(null);
+                                next();
+                            });
+                        } else {
+                            next();
+                        }
+                    })
+                    .onFailure(this::fail);
+        }
+
+        private void waitForBytes() {
+            long now = System.currentTimeMillis();
+            if (now - lastProgressTime > STALL_TIMEOUT) {
+                fail(new TimeoutException("No bytes written at %d for %d ms".formatted(position, STALL_TIMEOUT)));
+                return;
+            }
+            if (!isSeeked || (now - lastProgressTime > RESEEK_INTERVAL && now - lastSeekTime > RESEEK_INTERVAL)) {
+                isSeeked = true;
+                lastSeekTime = now;
+                partialFile.seek(position)
+                        .onFailure(err -> LOG.debug("Failed to seek to %d: %s".formatted(position, err.getMessage())));
+            }
+            vertxContext.owner().setTimer(WAIT_INTERVAL, id -> next());
+        }
+
+        private Future<AsyncFile> open() {
+            if (asyncFile != null) {
+                return Future.succeededFuture(asyncFile);
+            }
+            return onContext(partialFile.getPath()
+                    .compose(path -> path == null ?
+                            Future.failedFuture("File is not written yet") :
+                            context.vertx().fileSystem().open(path, new OpenOptions().setRead(true).setWrite(false).setCreate(false))))
+                    .map(file -> {
+                        if (closed) {
+                            file.close();
+                        } else {
+                            asyncFile = file;
+                        }
+                        return file;
+                    });
+        }
+
+        /**
+         * Complete on the context of the response, the futures of the partial file and the file system complete on
+         * other threads, while the position and the file of the stream are only used from this context.
+         */
+        private <T> Future<T> onContext(Future<T> future) {
+            Promise<T> promise = Promise.promise();
+            future.onComplete(ar -> vertxContext.runOnContext(v -> {
+                if (ar.succeeded()) {
+                    promise.complete(ar.result());
+                } else {
+                    promise.fail(ar.cause());
+                }
+            }));
+            return promise.future();
+        }
+
+        private void fail(Throwable err) {
+            if (closed) {
+                return;
+            }
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Failed to stream partial file", err);
+            }
+            close();
+            // Headers with the content length may be sent already, the connection is the only way to stop
+            response.reset();
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (asyncFile != null) {
+                asyncFile.close();
+            }
+            partialFile.release();
+        }
+    }
 }
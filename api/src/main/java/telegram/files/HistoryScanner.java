@@ -0,0 +1,449 @@
+package telegram.files;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.drinkless.tdlib.TdApi;
+import telegram.files.repository.ScanCursorRecord;
+import telegram.files.repository.SettingAutoRecords;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Scans the history of many chats concurrently and feeds found messages to the download queue.
+ * <p>
+ * Each target (a chat, or a comment thread) has one cursor per file type of its download rule, cursors are persisted
+ * after every page, so the scan resumes where it stopped. For each telegram account at most {@code parallelism} searches
+ * run at the same time and every search takes one token from the account request budget.
+ * Targets are served round-robin, so a large chat does not starve the others.
+ */
+public class HistoryScanner {
+
+    private static final Log log = LogFactory.get();
+
+    public static final int DEFAULT_PARALLELISM = 3;
+
+    public static final double DEFAULT_REQUESTS_PER_SECOND = 2;
+
+    private static final int PAGE_SIZE = 30;
+
+    // Skip a target for a while after a failed search
+    private static final int FAILURE_BACKOFF = 30 * 1000;
+
+    public interface Feeder {
+        /**
+         * @return whether the waiting queue of the account can take more history messages
+         */
+        boolean hasRoom(long telegramId);
+
+        /**
+         * @param messages a page of messages, newest first
+         * @return number of messages taken from the start of the page, less than the page size if the queue is full
+         */
+        Future<Integer> feed(Target target, List<TdApi.Message> messages);
+    }
+
+    public interface Searcher {
+        /**
+         * @return whether the account can search now
+         */
+        boolean isAvailable(long telegramId);
+
+        Future<TdApi.FoundChatMessages> search(long telegramId, TdApi.SearchChatMessages searchChatMessages);
+    }
+
+    private static final Searcher TELEGRAM_SEARCHER = new Searcher() {
+        @Override
+        public boolean isAvailable(long telegramId) {
+            return TelegramVerticles.get(telegramId).map(telegramVerticle -> telegramVerticle.authorized).orElse(false);
+        }
+
+        @Override
+        public Future<TdApi.FoundChatMessages> search(long telegramId, TdApi.SearchChatMessages searchChatMessages) {
+            return TelegramVerticles.getOrElseThrow(telegramId).client.execute(searchChatMessages);
+        }
+    };
+
+    private record Page(TdApi.FoundChatMessages found, int taken) {
+    }
+
+    public static class Target {
+        public final long telegramId;
+
+        public final long chatId;
+
+        public final long messageThreadId;
+
+        public volatile SettingAutoRecords.DownloadRule rule;
+
+        // file type -> cursor, in the order of the rule file types
+        private final Map<String, Cursor> cursors = new LinkedHashMap<>();
+
+        private final Consumer<Target> onComplete;
+
+        private long retryAt;
+
+        private boolean removed;
+
+        private Target(long telegramId, long chatId, long messageThreadId, SettingAutoRecords.DownloadRule rule, Consumer<Target> onComplete) {
+            this.telegramId = telegramId;
+            this.chatId = chatId;
+            this.messageThreadId = messageThreadId;
+            this.rule = rule;
+            this.onComplete = onComplete;
+        }
+
+        public String key() {
+            return key(telegramId, chatId, messageThreadId);
+        }
+
+        private boolean isComplete() {
+            return cursors.values().stream().allMatch(cursor -> cursor.complete);
+        }
+
+        private Cursor nextCursor() {
+            return cursors.values().stream()
+                    .filter(cursor -> !cursor.complete && !cursor.running)
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        private static String key(long telegramId, long chatId, long messageThreadId) {
+            return telegramId + ":" + chatId + ":" + messageThreadId;
+        }
+    }
+
+    private static class Cursor {
+        final String fileType;
+
+        long nextFromMessageId;
+
+        boolean complete;
+
+        boolean running;
+
+        Cursor(String fileType, long nextFromMessageId, boolean complete) {
+            this.fileType = fileType;
+            this.nextFromMessageId = nextFromMessageId;
+            this.complete = complete;
+        }
+    }
+
+    private static class Account {
+        final ArrayDeque<Target> targets = new ArrayDeque<>();
+
+        final TokenBucket budget;
+
+        int running;
+
+        boolean waitingBudget;
+
+        long searches;
+
+        long found;
+
+        Account(TokenBucket budget) {
+            this.budget = budget;
+        }
+    }
+
+    private final Vertx vertx;
+
+    private final Feeder feeder;
+
+    private final Searcher searcher;
+
+    // telegramId -> account
+    private final Map<Long, Account> accounts = new ConcurrentHashMap<>();
+
+    // target key + file type -> persisted cursor, consumed when the target is registered
+    private final Map<String, ScanCursorRecord> savedCursors = new ConcurrentHashMap<>();
+
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+
+    private volatile double requestsPerSecond = DEFAULT_REQUESTS_PER_SECOND;
+
+    public HistoryScanner(Vertx vertx, Feeder feeder) {
+        this(vertx, feeder, TELEGRAM_SEARCHER);
+    }
+
+    HistoryScanner(Vertx vertx, Feeder feeder, Searcher searcher) {
+        this.vertx = vertx;
+        this.feeder = feeder;
+        this.searcher = searcher;
+    }
+
+    public Future<Void> loadCursors() {
+        return DataVerticle.downloadQueueRepository.getScanCursors()
+                .onSuccess(records -> records.forEach(record -> savedCursors.put(
+                        Target.key(record.telegramId(), record.chatId(), record.messageThreadId()) + ":" + record.fileType(),
+                        record)))
+                .mapEmpty();
+    }
+
+    public void setBudget(int parallelism, double requestsPerSecond) {
+        this.parallelism = Math.max(1, parallelism);
+        this.requestsPerSecond = requestsPerSecond > 0 ? requestsPerSecond : DEFAULT_REQUESTS_PER_SECOND;
+        accounts.values().forEach(account -> account.budget.setRate(this.requestsPerSecond, burst()));
+    }
+
+    private Target getTarget(long telegramId, long chatId, long messageThreadId) {
+        Account account = accounts.get(telegramId);
+        if (account == null) {
+            return null;
+        }
+        synchronized (account) {
+            String key = Target.key(telegramId, chatId, messageThreadId);
+            return account.targets.stream().filter(target -> target.key().equals(key)).findFirst().orElse(null);
+        }
+    }
+
+    /**
+     * Register a scan target, only the rule is updated if it is already registered.
+     *
+     * @param fileTypes         file types to scan, in order
+     * @param legacyFileType    file type the previous sequential scan stopped at, file types before it are complete
+     * @param legacyFromMessage message id the previous sequential scan stopped at
+     * @param onComplete        called once when all file types are scanned
+     */
+    public void register(long telegramId,
+                         long chatId,
+                         long messageThreadId,
+                         SettingAutoRecords.DownloadRule rule,
+                         List<String> fileTypes,
+                         String legacyFileType,
+                         long legacyFromMessage,
+                         Consumer<Target> onComplete) {
+        Target registered = getTarget(telegramId, chatId, messageThreadId);
+        if (registered != null) {
+            registered.rule = rule;
+            return;
+        }
+        Target target = new Target(telegramId, chatId, messageThreadId, rule, onComplete);
+        int legacyIndex = StrUtil.isBlank(legacyFileType) ? -1 : fileTypes.indexOf(legacyFileType);
+        for (int i = 0; i < fileTypes.size(); i++) {
+            String fileType = fileTypes.get(i);
+            ScanCursorRecord saved = savedCursors.remove(target.key() + ":" + fileType);
+            Cursor cursor;
+            if (saved != null) {
+                cursor = new Cursor(fileType, saved.nextFromMessageId(), saved.complete());
+            } else if (i < legacyIndex) {
+                cursor = new Cursor(fileType, 0, true);
+            } else if (i == legacyIndex) {
+                cursor = new Cursor(fileType, legacyFromMessage, false);
+            } else {
+                cursor = new Cursor(fileType, 0, false);
+            }
+            target.cursors.put(fileType, cursor);
+        }
+        if (target.isComplete()) {
+            if (onComplete != null) {
+                onComplete.accept(target);
+            }
+            return;
+        }
+        Account account = getAccount(telegramId);
+        synchronized (account) {
+            account.targets.addLast(target);
+        }
+        log.debug("Register history scan target: %s FileTypes: %s".formatted(target.key(), fileTypes));
+    }
+
+    /**
+     * Stop scanning the target and forget its cursors.
+     */
+    public void unregister(long telegramId, long chatId, long messageThreadId) {
+        String key = Target.key(telegramId, chatId, messageThreadId);
+        Account account = accounts.get(telegramId);
+        if (account != null) {
+            synchronized (account) {
+                account.targets.removeIf(target -> {
+                    if (target.key().equals(key)) {
+                        target.removed = true;
+                        return true;
+                    }
+                    return false;
+                });
+            }
+        }
+        savedCursors.keySet().removeIf(k -> k.startsWith(key + ":"));
+        DataVerticle.downloadQueueRepository.deleteScanCursors(telegramId, chatId, messageThreadId);
+    }
+
+    /**
+     * Stop scanning the chat and all its registered threads.
+     */
+    public void unregisterChat(long telegramId, long chatId) {
+        Set<Long> messageThreadIds = new HashSet<>();
+        messageThreadIds.add(0L);
+        Account account = accounts.get(telegramId);
+        if (account != null) {
+            synchronized (account) {
+                account.targets.stream()
+                        .filter(target -> target.chatId == chatId)
+                        .forEach(target -> messageThreadIds.add(target.messageThreadId));
+            }
+        }
+        savedCursors.values().stream()
+                .filter(record -> record.telegramId() == telegramId && record.chatId() == chatId)
+                .forEach(record -> messageThreadIds.add(record.messageThreadId()));
+        messageThreadIds.forEach(messageThreadId -> unregister(telegramId, chatId, messageThreadId));
+    }
+
+    public void pumpAll() {
+        accounts.keySet().forEach(this::pump);
+    }
+
+    /**
+     * Start searches until the parallelism, the request budget or the queue room of the account is exhausted.
+     */
+    public void pump(long telegramId) {
+        Account account = accounts.get(telegramId);
+        if (account == null) {
+            return;
+        }
+        if (!searcher.isAvailable(telegramId)) {
+            return;
+        }
+        synchronized (account) {
+            while (account.running < parallelism && !account.waitingBudget && feeder.hasRoom(telegramId)) {
+                Target target = nextTarget(account);
+                if (target == null) {
+                    return;
+                }
+                long waitNanos = account.budget.nanosUntilAvailable(1);
+                if (waitNanos > 0) {
+                    account.waitingBudget = true;
+                    long delay = Math.max(1, TimeUnit.NANOSECONDS.toMillis(Math.min(waitNanos, TimeUnit.SECONDS.toNanos(60))));
+                    vertx.setTimer(delay, id -> {
+                        synchronized (account) {
+                            account.waitingBudget = false;
+                        }
+                        pump(telegramId);
+                    });
+                    return;
+                }
+                account.budget.tryAcquire(1);
+                Cursor cursor = target.nextCursor();
+                cursor.running = true;
+                account.running++;
+                account.searches++;
+                search(account, target, cursor);
+            }
+        }
+    }
+
+    public JsonObject getStatistics(long telegramId) {
+        Account account = accounts.get(telegramId);
+        if (account == null) {
+            return JsonObject.of();
+        }
+        synchronized (account) {
+            return JsonObject.of()
+                    .put("targets", account.targets.size())
+                    .put("running", account.running)
+                    .put("parallelism", parallelism)
+                    .put("requestsPerSecond", requestsPerSecond)
+                    .put("availableBudget", account.budget.available())
+                    .put("searches", account.searches)
+                    .put("found", account.found);
+        }
+    }
+
+    private Account getAccount(long telegramId) {
+        return accounts.computeIfAbsent(telegramId, k -> new Account(new TokenBucket(requestsPerSecond, burst())));
+    }
+
+    private long burst() {
+        return Math.max(1, parallelism);
+    }
+
+    // Round-robin over targets with a free cursor
+    private Target nextTarget(Account account) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < account.targets.size(); i++) {
+            Target target = account.targets.pollFirst();
+            account.targets.addLast(target);
+            if (target.retryAt <= now && target.nextCursor() != null) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    private void search(Account account, Target target, Cursor cursor) {
+        TdApi.SearchChatMessages searchChatMessages = new TdApi.SearchChatMessages();
+        searchChatMessages.query = target.rule == null || StrUtil.isBlank(target.rule.query) ? null : target.rule.query;
+        searchChatMessages.chatId = target.chatId;
+        searchChatMessages.fromMessageId = cursor.nextFromMessageId;
+        searchChatMessages.limit = PAGE_SIZE;
+        searchChatMessages.filter = TdApiHelp.getSearchMessagesFilter(cursor.fileType);
+        searchChatMessages.messageThreadId = target.messageThreadId;
+        log.trace("Scan history! Target: %s FileType: %s FromMessageId: %d".formatted(target.key(), cursor.fileType, cursor.nextFromMessageId));
+
+        Future<TdApi.FoundChatMessages> searched;
+        try {
+            searched = searcher.search(target.telegramId, searchChatMessages);
+        } catch (Exception e) {
+            // e.g. the client is closed, fail the search instead of breaking the pump loop
+            searched = Future.failedFuture(e);
+        }
+        searched
+                .compose(foundChatMessages -> target.removed || foundChatMessages.messages.length == 0 ?
+                        Future.succeededFuture(new Page(foundChatMessages, foundChatMessages.messages.length)) :
+                        feeder.feed(target, Arrays.asList(foundChatMessages.messages))
+                                .map(taken -> new Page(foundChatMessages, taken)))
+                .onComplete(ar -> {
+                    boolean targetComplete = false;
+                    synchronized (account) {
+                        account.running--;
+                        cursor.running = false;
+                        if (ar.failed()) {
+                            log.error("Scan history failed! Target: %s FileType: %s".formatted(target.key(), cursor.fileType), ar.cause());
+                            target.retryAt = System.currentTimeMillis() + FAILURE_BACKOFF;
+                        } else if (!target.removed) {
+                            TdApi.FoundChatMessages foundChatMessages = ar.result().found;
+                            int taken = ar.result().taken;
+                            account.found += taken;
+                            TdApi.Message oldest = foundChatMessages.messages.length == 0 ? null :
+                                    foundChatMessages.messages[foundChatMessages.messages.length - 1];
+                            if (taken < foundChatMessages.messages.length) {
+                                // The queue is full, continue after the last taken message
+                                if (taken > 0) {
+                                    cursor.nextFromMessageId = foundChatMessages.messages[taken - 1].id;
+                                }
+                            } else if (oldest == null
+                                || foundChatMessages.nextFromMessageId == 0
+                                || (target.rule != null && target.rule.matcher().isBeforeDateRange(oldest))) {
+                                log.debug("No more history %s files found! Target: %s".formatted(cursor.fileType, target.key()));
+                                cursor.complete = true;
+                            } else {
+                                cursor.nextFromMessageId = foundChatMessages.nextFromMessageId;
+                            }
+                            DataVerticle.downloadQueueRepository.saveScanCursor(new ScanCursorRecord(target.telegramId,
+                                    target.chatId,
+                                    target.messageThreadId,
+                                    cursor.fileType,
+                                    cursor.nextFromMessageId,
+                                    cursor.complete));
+                            if (target.isComplete() && account.targets.remove(target)) {
+                                targetComplete = true;
+                            }
+                        }
+                    }
+                    if (targetComplete) {
+                        log.debug("History scan complete! Target: %s".formatted(target.key()));
+                        if (target.onComplete != null) {
+                            target.onComplete.accept(target);
+                        }
+                    }
+                    pump(target.telegramId);
+                });
+    }
+}
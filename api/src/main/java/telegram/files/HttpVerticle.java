@@ -11,6 +11,7 @@ import io.vertx.core.AbstractVerticle;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.CookieSameSite;
 import io.vertx.core.http.HttpMethod;
@@ -34,8 +35,8 @@ import telegram.files.repository.SettingAutoRecords;
 import telegram.files.repository.SettingKey;
 import telegram.files.repository.SettingRecord;
 
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -43,20 +44,24 @@ public class HttpVerticle extends AbstractVerticle {
 
     private static final Log log = LogFactory.get();
 
-    // session id -> ws handler id
-    private static final Map<String, String> clients = new ConcurrentHashMap<>();
+    private final SessionRegistry sessionRegistry = new SessionRegistry();
 
-    // session id -> telegram verticle
-    private final Map<String, TelegramVerticle> sessionTelegramVerticles = new ConcurrentHashMap<>();
+    private final FileRouteHandler fileRouteHandler = new FileRouteHandler();
 
-    private final List<String> unboundClients = new ArrayList<>();
+    private static final int IMAGE_RENDITION_POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
-    private final FileRouteHandler fileRouteHandler = new FileRouteHandler();
+    private WorkerExecutor imageRenditionExecutor;
+
+    private ImageRenditions imageRenditions;
 
     private static final String SESSION_COOKIE_NAME = "tf";
 
     @Override
     public void start(Promise<Void> startPromise) {
+        imageRenditionExecutor = vertx.createSharedWorkerExecutor("image-rendition", IMAGE_RENDITION_POOL_SIZE);
+        imageRenditions = new ImageRenditions(imageRenditionExecutor,
+                Path.of(Config.IMAGE_RENDITION_PATH),
+                Config.IMAGE_RENDITION_CACHE_MB * 1024 * 1024);
         initHttpServer()
                 .compose(r -> initTelegramVerticles())
                 .compose(r -> AutomationsHolder.INSTANCE.init())
@@ -71,6 +76,7 @@ public class HttpVerticle extends AbstractVerticle {
     @Override
     public void stop(Promise<Void> stopPromise) {
         AutomationsHolder.INSTANCE.saveAutoRecords()
+                .eventually(() -> imageRenditionExecutor.close())
                 .onComplete(ignore -> {
                     log.info("Http verticle stopped!");
                     stopPromise.complete();
@@ -81,7 +87,6 @@ public class HttpVerticle extends AbstractVerticle {
         int port = config().getInteger("http.port", 8080);
         HttpServerOptions options = new HttpServerOptions()
                 .setLogActivity(true)
-                .setRegisterWebSocketWriteHandlers(true)
                 .setMaxWebSocketMessageSize(1024 * 1024)
                 .setIdleTimeout(60)
                 .setIdleTimeoutUnit(TimeUnit.SECONDS)
@@ -219,29 +224,9 @@ public class HttpVerticle extends AbstractVerticle {
             log.debug("Received telegram event: %s".formatted(message.body()));
             JsonObject jsonObject = (JsonObject) message.body();
             String telegramId = jsonObject.getString("telegramId");
-            EventPayload payload = jsonObject.getJsonObject("payload").mapTo(EventPayload.class);
-
-            Set<String> sentSessionIds = new HashSet<>();
-            sessionTelegramVerticles.entrySet().stream()
-                    .filter(e -> Objects.equals(Convert.toStr(e.getValue().getId()), telegramId))
-                    .map(Map.Entry::getKey)
-                    .forEach(sessionId -> {
-                        String wsHandlerId = clients.get(sessionId);
-                        if (StrUtil.isNotBlank(wsHandlerId)) {
-                            vertx.eventBus().send(wsHandlerId, Json.encode(payload));
-                        }
-                        sentSessionIds.add(sessionId);
-                    });
-
-            unboundClients.forEach(sessionId -> {
-                if (sentSessionIds.contains(sessionId)) {
-                    return;
-                }
-                String wsHandlerId = clients.get(sessionId);
-                if (StrUtil.isNotBlank(wsHandlerId)) {
-                    vertx.eventBus().send(wsHandlerId, Json.encode(payload));
-                }
-            });
+            TelegramVerticle telegramVerticle = StrUtil.isBlank(telegramId) ? null :
+                    TelegramVerticles.get(telegramId).orElse(null);
+            sessionRegistry.send(telegramVerticle, jsonObject.getJsonObject("payload"));
         });
 
         vertx.eventBus().consumer(EventEnum.AUTO_DOWNLOAD_UPDATE.address(), message -> {
@@ -257,15 +242,10 @@ public class HttpVerticle extends AbstractVerticle {
         ctx.request().toWebSocket()
                 .onSuccess(ws -> {
                     log.debug("Upgraded to WebSocket. SessionId: %s".formatted(sessionId));
-                    clients.put(sessionId, ws.textHandlerID());
+                    sessionRegistry.connect(sessionId, ws, StrUtil.isBlank(telegramId));
                     if (!handleTelegramChange(sessionId, telegramId)) {
                         log.debug("Failed to change telegram verticle. SessionId: %s".formatted(sessionId));
                     }
-                    if (StrUtil.isBlank(telegramId)) {
-                        unboundClients.add(sessionId);
-                    } else {
-                        unboundClients.remove(sessionId);
-                    }
 
                     long timerId = vertx.setPeriodic(30000, id -> {
                         if (!ws.isClosed()) {
@@ -276,8 +256,7 @@ public class HttpVerticle extends AbstractVerticle {
 
                     ws.exceptionHandler(throwable -> log.error("WebSocket error: %s".formatted(throwable.getMessage())));
                     ws.closeHandler(e -> {
-                        clients.remove(sessionId);
-                        sessionTelegramVerticles.remove(sessionId);
+                        sessionRegistry.disconnect(sessionId, ws);
                         vertx.cancelTimer(timerId);
                         log.debug("WebSocket closed. SessionId: %s".formatted(sessionId));
                     });
@@ -334,7 +313,7 @@ public class HttpVerticle extends AbstractVerticle {
 
     private void handleTelegramCreate(RoutingContext ctx) {
         String sessionId = ctx.session().id();
-        TelegramVerticle telegramVerticle = sessionTelegramVerticles.get(sessionId);
+        TelegramVerticle telegramVerticle = sessionRegistry.getTelegramVerticle(sessionId);
         if (telegramVerticle != null && !telegramVerticle.authorized) {
             ctx.json(new JsonObject()
                     .put("id", telegramVerticle.getId())
@@ -347,7 +326,7 @@ public class HttpVerticle extends AbstractVerticle {
 
         TelegramVerticle newTelegramVerticle = new TelegramVerticle(DataVerticle.telegramRepository.getRootPath());
         newTelegramVerticle.setProxy(proxyName);
-        sessionTelegramVerticles.put(sessionId, newTelegramVerticle);
+        sessionRegistry.bind(sessionId, newTelegramVerticle);
         TelegramVerticles.add(newTelegramVerticle);
         vertx.deployVerticle(newTelegramVerticle)
                 .onSuccess(id -> ctx.json(new JsonObject()
@@ -365,7 +344,7 @@ public class HttpVerticle extends AbstractVerticle {
         telegramVerticle.close(true)
                 .onSuccess(r -> {
                     TelegramVerticles.remove(telegramVerticle);
-                    sessionTelegramVerticles.entrySet().removeIf(e -> e.getValue().equals(telegramVerticle));
+                    sessionRegistry.unbindAll(telegramVerticle);
                     ctx.end();
                 });
     }
@@ -468,14 +447,14 @@ public class HttpVerticle extends AbstractVerticle {
 
     private boolean handleTelegramChange(String sessionId, String telegramId) {
         if (StrUtil.isBlank(telegramId)) {
-            sessionTelegramVerticles.remove(sessionId);
+            sessionRegistry.unbind(sessionId);
             return true;
         }
         Optional<TelegramVerticle> optionalTelegramVerticle = TelegramVerticles.get(telegramId);
         if (optionalTelegramVerticle.isEmpty()) {
             return false;
         }
-        sessionTelegramVerticles.put(sessionId, optionalTelegramVerticle.get());
+        sessionRegistry.bind(sessionId, optionalTelegramVerticle.get());
         return true;
     }
 
@@ -553,6 +532,8 @@ public class HttpVerticle extends AbstractVerticle {
             ctx.fail(404);
             return;
         }
+        // Width of an image rendition, the original if not set
+        int width = Convert.toInt(ctx.request().getParam("w"), 0);
 
         telegramVerticle.loadPreview(uniqueId)
                 .onSuccess(tuple -> {
@@ -561,7 +542,26 @@ public class HttpVerticle extends AbstractVerticle {
                         mimeType = FileUtil.getMimeType(tuple.v1);
                     }
 
-                    fileRouteHandler.handle(ctx, tuple.v1, mimeType);
+                    if (tuple.v3 != null) {
+                        fileRouteHandler.handlePartial(ctx, tuple.v3, mimeType);
+                    } else if (width > 0 && ImageRenditions.isSupported(mimeType)) {
+                        String originalMimeType = mimeType;
+                        imageRenditions.get(uniqueId, tuple.v1, mimeType, width)
+                                .onSuccess(rendition -> {
+                                    if (rendition == null) {
+                                        fileRouteHandler.handle(ctx, tuple.v1, originalMimeType, uniqueId);
+                                    } else {
+                                        fileRouteHandler.handle(ctx, rendition, ImageRenditions.MIME_TYPE,
+                                                "%s-w%d".formatted(uniqueId, ImageRenditions.getBucket(width)));
+                                    }
+                                })
+                                .onFailure(err -> {
+                                    log.warn("Failed to render image %s: %s".formatted(uniqueId, err.getMessage()));
+                                    fileRouteHandler.handle(ctx, tuple.v1, originalMimeType, uniqueId);
+                                });
+                    } else {
+                        fileRouteHandler.handle(ctx, tuple.v1, mimeType, uniqueId);
+                    }
                 })
                 .onFailure(ctx::fail);
     }
@@ -776,7 +776,7 @@ public class HttpVerticle extends AbstractVerticle {
 
     private TelegramVerticle getTelegramVerticleBySession(RoutingContext ctx) {
         String sessionId = ctx.session().id();
-        TelegramVerticle telegramVerticle = sessionTelegramVerticles.get(sessionId);
+        TelegramVerticle telegramVerticle = sessionRegistry.getTelegramVerticle(sessionId);
         if (telegramVerticle == null) {
             ctx.response().setStatusCode(400)
                     .end(JsonObject.of("error", "Your session not link any telegram!").encode());
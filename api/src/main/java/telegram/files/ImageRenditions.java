@@ -0,0 +1,331 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.core.WorkerExecutor;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Downscaled JPEG copies of images for previews, so a grid of photos does not load every photo at full resolution.
+ * <p>
+ * A requested width is rounded up to a bucket, a rendition is rendered once per unique id and bucket on a bounded
+ * worker pool and kept in a directory. The directory is an LRU capped by total size, the least recently served
+ * renditions are deleted first. Images not wider than the bucket, or of a type that can not be decoded, are served as is,
+ * the marker kept for them counts towards the size as a small entry. An image that fails to decode is served as is
+ * for {@link #FAILURE_TTL} before it is decoded again.
+ */
+public class ImageRenditions {
+
+    private static final Log log = LogFactory.get();
+
+    public static final int[] WIDTH_BUCKETS = {160, 320, 640, 1280, 1920};
+
+    public static final String MIME_TYPE = "image/jpeg";
+
+    private static final float JPEG_QUALITY = 0.82f;
+
+    /**
+     * Animated gif and webp are left alone, ImageIO would only keep the first frame or can not decode them
+     */
+    private static final Set<String> SUPPORTED_MIME_TYPES = Set.of("image/jpeg", "image/png", "image/bmp");
+
+    // Marks a key whose original is small enough to serve as is
+    private static final long ORIGINAL = -1;
+
+    /**
+     * Size accounted for an {@link #ORIGINAL} marker, which has no file
+     */
+    private static final long ORIGINAL_BYTES = 256;
+
+    static final long FAILURE_TTL = 60 * 1000;
+
+    private final WorkerExecutor executor;
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    // key -> size of the rendition file, in access order
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes;
+
+    private boolean isLoaded;
+
+    // key -> time until the original is served without decoding it again
+    private final Map<String, Long> failures = new HashMap<>();
+
+    private final Map<String, Future<String>> rendering = new ConcurrentHashMap<>();
+
+    private final Object loadLock = new Object();
+
+    private final LongSupplier clock;
+
+    public ImageRenditions(WorkerExecutor executor, Path directory, long maxBytes) {
+        this(executor, directory, maxBytes, System::currentTimeMillis);
+    }
+
+    ImageRenditions(WorkerExecutor executor, Path directory, long maxBytes, LongSupplier clock) {
+        this.executor = executor;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.clock = clock;
+    }
+
+    public static boolean isSupported(String mimeType) {
+        return mimeType != null && SUPPORTED_MIME_TYPES.contains(mimeType);
+    }
+
+    /**
+     * @return the smallest bucket not narrower than the width, the largest bucket for wider requests
+     */
+    public static int getBucket(int width) {
+        for (int bucket : WIDTH_BUCKETS) {
+            if (bucket >= width) {
+                return bucket;
+            }
+        }
+        return WIDTH_BUCKETS[WIDTH_BUCKETS.length - 1];
+    }
+
+    /**
+     * @return path of the rendition, null if the original should be served
+     */
+    public Future<String> get(String uniqueId, String sourcePath, String mimeType, int width) {
+        if (!isSupported(mimeType)) {
+            return Future.succeededFuture(null);
+        }
+        String key = getKey(uniqueId, getBucket(width));
+        synchronized (this) {
+            if (isFailed(key)) {
+                return Future.succeededFuture(null);
+            }
+            Long size = isLoaded ? index.get(key) : null;
+            if (size != null) {
+                return Future.succeededFuture(size == ORIGINAL ? null : directory.resolve(key).toString());
+            }
+        }
+        return rendering.computeIfAbsent(key, k -> executor.<String>executeBlocking(() -> {
+                    Path rendition = getOrRender(key, Path.of(sourcePath), getBucket(width));
+                    return rendition == null ? null : rendition.toString();
+                }, false)
+                .onComplete(r -> rendering.remove(key)));
+    }
+
+    /**
+     * Blocking, run on the worker pool.
+     */
+    Path getOrRender(String key, Path source, int bucket) throws IOException {
+        load();
+        Path target = directory.resolve(key);
+        synchronized (this) {
+            if (isFailed(key)) {
+                return null;
+            }
+            Long size = index.get(key);
+            if (size != null) {
+                return size == ORIGINAL ? null : target;
+            }
+        }
+        Path temp = directory.resolve(key + ".tmp");
+        boolean isRendered;
+        try {
+            isRendered = render(source, temp, bucket);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                failures.values().removeIf(until -> until <= clock.getAsLong());
+                failures.put(key, clock.getAsLong() + FAILURE_TTL);
+            }
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (!isRendered) {
+            add(key, ORIGINAL);
+            return null;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        add(key, Files.size(target));
+        return target;
+    }
+
+    /**
+     * Downscale the image to the width and write it as JPEG, alpha is flattened on white.
+     *
+     * @return false if the image is not wider than the width or can not be decoded
+     */
+    static boolean render(Path source, Path target, int width) throws IOException {
+        BufferedImage image;
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            if (input == null) {
+                return false;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sourceWidth = reader.getWidth(0);
+                if (sourceWidth <= width) {
+                    return false;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                // Skip pixels while decoding large photos, the result is still at least twice the target width
+                int subsampling = Math.max(1, sourceWidth / (width * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        Files.deleteIfExists(target);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(target.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(scaled, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return true;
+    }
+
+    private synchronized void add(String key, long size) {
+        Long previous = index.put(key, size);
+        if (previous != null) {
+            totalBytes -= getBytes(previous);
+        }
+        totalBytes += getBytes(size);
+        evict(key);
+    }
+
+    private static long getBytes(long size) {
+        return size == ORIGINAL ? ORIGINAL_BYTES : size;
+    }
+
+    private boolean isFailed(String key) {
+        Long until = failures.get(key);
+        if (until == null) {
+            return false;
+        }
+        if (until <= clock.getAsLong()) {
+            failures.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param keep key of the rendition being served, kept even if it alone is over the limit
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            totalBytes -= getBytes(eldest.getValue());
+            if (eldest.getValue() != ORIGINAL) {
+                try {
+                    Files.deleteIfExists(directory.resolve(eldest.getKey()));
+                } catch (IOException e) {
+                    log.warn("Failed to delete rendition %s: %s".formatted(eldest.getKey(), e.getMessage()));
+                }
+            }
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Index the renditions left by the last run, least recently modified first.
+     * <p>
+     * Runs once before any render, a second listing would delete the {@code .tmp} file of a render in progress.
+     * The index is not locked while listing, so requests for indexed renditions are not held up.
+     */
+    private void load() throws IOException {
+        synchronized (this) {
+            if (isLoaded) {
+                return;
+            }
+        }
+        synchronized (loadLock) {
+            synchronized (this) {
+                if (isLoaded) {
+                    return;
+                }
+            }
+            Files.createDirectories(directory);
+            record Rendition(String key, long size, long modifiedAt) {
+            }
+            List<Rendition> renditions = new ArrayList<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(".tmp")) {
+                        Files.deleteIfExists(file);
+                        continue;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    renditions.add(new Rendition(name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+            renditions.sort(Comparator.comparingLong(Rendition::modifiedAt));
+            synchronized (this) {
+                for (Rendition rendition : renditions) {
+                    index.putIfAbsent(rendition.key, rendition.size);
+                    totalBytes += rendition.size;
+                }
+                isLoaded = true;
+                evict(null);
+            }
+            log.debug("Loaded %d image renditions, %d bytes".formatted(renditions.size(), totalBytes));
+        }
+    }
+
+    private static String getKey(String uniqueId, int bucket) {
+        // unique ids are base64url, keep the file name safe anyway
+        return "%s-%d.jpg".formatted(uniqueId.replaceAll("[^A-Za-z0-9_-]", "_"), bucket);
+    }
+}
@@ -0,0 +1,200 @@
+package telegram.files;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.json.JsonObject;
+import telegram.files.repository.SettingIoLimit;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Disk bandwidth budget shared by file copies of transfers and file hashing, so a transfer backlog does not
+ * starve TDLib downloads on the same disk.
+ * <p>
+ * Each limit is a {@link TokenBucket} of bytes with a burst of one second. A time window has its own bucket,
+ * the first window containing the current time applies, otherwise the default limit. A limit of 0 is unlimited.
+ * Callers block in {@link #acquire(Usage, long)} before reading or writing a chunk.
+ */
+public class IoGovernor {
+
+    private static final Log log = LogFactory.get();
+
+    public static final IoGovernor INSTANCE = new IoGovernor(System::nanoTime, LocalTime::now);
+
+    private static final double MB = 1024 * 1024;
+
+    private static final long MIN_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int METER_SECONDS = 5;
+
+    public enum Usage {
+        TRANSFER,
+        HASH,
+        ;
+    }
+
+    private record Budget(LocalTime startTime, LocalTime endTime, double mbPerSecond, TokenBucket bucket) {
+
+        boolean contains(LocalTime now) {
+            if (startTime.isAfter(endTime)) {
+                return !now.isBefore(startTime) || now.isBefore(endTime);
+            }
+            return !now.isBefore(startTime) && now.isBefore(endTime);
+        }
+    }
+
+    private final LongSupplier nanoClock;
+
+    private final Supplier<LocalTime> timeClock;
+
+    private volatile Budget defaultBudget;
+
+    private volatile List<Budget> windowBudgets = List.of();
+
+    private final Map<Usage, LongAdder> bytes = new EnumMap<>(Usage.class);
+
+    private final LongAdder waitedNanos = new LongAdder();
+
+    // bytes of the last seconds, indexed by second % METER_SECONDS
+    private final long[] meterBytes = new long[METER_SECONDS];
+
+    private final long[] meterSeconds = new long[METER_SECONDS];
+
+    IoGovernor(LongSupplier nanoClock, Supplier<LocalTime> timeClock) {
+        this.nanoClock = nanoClock;
+        this.timeClock = timeClock;
+        for (Usage usage : Usage.values()) {
+            bytes.put(usage, new LongAdder());
+        }
+        this.defaultBudget = budget(LocalTime.MIN, LocalTime.MIN, 0);
+    }
+
+    public void setLimit(SettingIoLimit setting) {
+        if (setting == null) {
+            defaultBudget = budget(LocalTime.MIN, LocalTime.MIN, 0);
+            windowBudgets = List.of();
+            return;
+        }
+        List<Budget> budgets = new ArrayList<>();
+        for (SettingIoLimit.Window window : CollUtil.emptyIfNull(setting.windows)) {
+            if (window == null || StrUtil.isBlank(window.startTime) || StrUtil.isBlank(window.endTime)) {
+                continue;
+            }
+            try {
+                budgets.add(budget(LocalTime.parse(window.startTime), LocalTime.parse(window.endTime), window.mbPerSecond));
+            } catch (DateTimeParseException e) {
+                log.warn("Ignore invalid io limit window: %s-%s".formatted(window.startTime, window.endTime));
+            }
+        }
+        defaultBudget = budget(LocalTime.MIN, LocalTime.MIN, setting.mbPerSecond);
+        windowBudgets = List.copyOf(budgets);
+        log.debug("IO limit: %s MB/s, windows: %d".formatted(setting.mbPerSecond, budgets.size()));
+    }
+
+    /**
+     * Wait until the current limit allows {@code bytes}, returns at once if unlimited.
+     * An interrupted caller stops waiting and keeps its interrupt status.
+     */
+    public void acquire(Usage usage, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        this.bytes.get(usage).add(bytes);
+        mark(bytes);
+        TokenBucket bucket = currentBudget().bucket;
+        if (bucket == null) {
+            return;
+        }
+        long remaining = bytes;
+        long waitStart = nanoClock.getAsLong();
+        while (remaining > 0) {
+            long permits = Math.min(remaining, bucket.getCapacity());
+            if (bucket.tryAcquire(permits)) {
+                remaining -= permits;
+                continue;
+            }
+            LockSupport.parkNanos(Math.max(MIN_PARK_NANOS, bucket.nanosUntilAvailable(permits)));
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        waitedNanos.add(Math.max(0, nanoClock.getAsLong() - waitStart));
+    }
+
+    /**
+     * @return the limit in MB/s applying now, 0 if unlimited
+     */
+    public double getCurrentLimit() {
+        return currentBudget().mbPerSecond;
+    }
+
+    public JsonObject getStatistics() {
+        Budget budget = currentBudget();
+        JsonObject usages = JsonObject.of();
+        bytes.forEach((usage, adder) -> usages.put(usage.name().toLowerCase(), adder.sum()));
+        return JsonObject.of()
+                .put("limitMBPerSecond", budget.mbPerSecond)
+                .put("window", budget == defaultBudget ? null : "%s-%s".formatted(budget.startTime, budget.endTime))
+                .put("bytesPerSecond", getBytesPerSecond())
+                .put("bytes", usages)
+                .put("waitedMillis", TimeUnit.NANOSECONDS.toMillis(waitedNanos.sum()));
+    }
+
+    /**
+     * @return average of the last complete seconds
+     */
+    public synchronized long getBytesPerSecond() {
+        long second = TimeUnit.NANOSECONDS.toSeconds(nanoClock.getAsLong());
+        long total = 0;
+        for (int i = 0; i < METER_SECONDS; i++) {
+            long age = second - meterSeconds[i];
+            if (age >= 1 && age <= METER_SECONDS - 1) {
+                total += meterBytes[i];
+            }
+        }
+        return total / (METER_SECONDS - 1);
+    }
+
+    private synchronized void mark(long bytes) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(nanoClock.getAsLong());
+        int index = (int) (second % METER_SECONDS);
+        if (meterSeconds[index] != second) {
+            meterSeconds[index] = second;
+            meterBytes[index] = 0;
+        }
+        meterBytes[index] += bytes;
+    }
+
+    private Budget currentBudget() {
+        List<Budget> budgets = windowBudgets;
+        if (!budgets.isEmpty()) {
+            LocalTime now = timeClock.get();
+            for (Budget budget : budgets) {
+                if (budget.contains(now)) {
+                    return budget;
+                }
+            }
+        }
+        return defaultBudget;
+    }
+
+    private Budget budget(LocalTime startTime, LocalTime endTime, double mbPerSecond) {
+        if (mbPerSecond <= 0) {
+            return new Budget(startTime, endTime, 0, null);
+        }
+        double bytesPerSecond = mbPerSecond * MB;
+        return new Budget(startTime, endTime, mbPerSecond, new TokenBucket(bytesPerSecond, (long) Math.ceil(bytesPerSecond), nanoClock));
+    }
+}
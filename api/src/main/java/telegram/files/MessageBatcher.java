@@ -0,0 +1,188 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import org.drinkless.tdlib.TdApi;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Resolves messages of one telegram account in micro-batches.
+ * <p>
+ * Requests for the same chat within {@link #BATCH_WINDOW} are resolved by one {@link TdApi.GetMessages}.
+ * Results are shared for {@link #SHARE_TTL}, so every consumer of a {@link EventEnum#MESSAGE_RECEIVED} event
+ * gets the same message and message thread without another round-trip.
+ */
+public class MessageBatcher {
+
+    private static final Log log = LogFactory.get();
+
+    private static final int BATCH_WINDOW = 50;
+
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static final int SHARE_TTL = 5 * 1000;
+
+    interface MethodExecutor {
+        <R extends TdApi.Object> Future<R> execute(TdApi.Function<R> method, boolean ignoreException);
+    }
+
+    private final Vertx vertx;
+
+    private final MethodExecutor executor;
+
+    private final LongSupplier clock;
+
+    // chatId -> messageId -> waiting promise
+    private final Map<Long, Map<Long, Promise<TdApi.Message>>> pending = new HashMap<>();
+
+    // chatId:messageId -> shared result, in insertion order for expiry
+    private final LinkedHashMap<String, Shared> messages = new LinkedHashMap<>();
+
+    private final LinkedHashMap<String, Shared> messageThreads = new LinkedHashMap<>();
+
+    private long batches;
+
+    private long requests;
+
+    private record Shared(Future<? extends TdApi.Object> future, long expireAt) {
+    }
+
+    public MessageBatcher(Vertx vertx, TelegramClient client) {
+        this(vertx, client::execute, System::currentTimeMillis);
+    }
+
+    MessageBatcher(Vertx vertx, MethodExecutor executor, LongSupplier clock) {
+        this.vertx = vertx;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized Future<TdApi.Message> getMessage(long chatId, long messageId) {
+        requests++;
+        String key = chatId + ":" + messageId;
+        Shared shared = getShared(messages, key);
+        if (shared != null) {
+            return (Future<TdApi.Message>) shared.future;
+        }
+        Map<Long, Promise<TdApi.Message>> batch = pending.get(chatId);
+        if (batch == null) {
+            batch = new LinkedHashMap<>();
+            pending.put(chatId, batch);
+            vertx.setTimer(BATCH_WINDOW, id -> flush(chatId));
+        }
+        Promise<TdApi.Message> promise = Promise.promise();
+        batch.put(messageId, promise);
+        share(messages, key, promise.future());
+        if (batch.size() >= MAX_BATCH_SIZE) {
+            flush(chatId);
+        }
+        return promise.future();
+    }
+
+    /**
+     * @return the message thread, or null if the message has no thread
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized Future<TdApi.MessageThreadInfo> getMessageThread(long chatId, long messageId) {
+        String key = chatId + ":" + messageId;
+        Shared shared = getShared(messageThreads, key);
+        if (shared != null) {
+            return (Future<TdApi.MessageThreadInfo>) shared.future;
+        }
+        Future<TdApi.MessageThreadInfo> future;
+        try {
+            future = executor.execute(new TdApi.GetMessageThread(chatId, messageId), true);
+        } catch (Exception e) {
+            future = Future.failedFuture(e);
+        }
+        share(messageThreads, key, future);
+        return future;
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    private void flush(long chatId) {
+        Map<Long, Promise<TdApi.Message>> batch;
+        synchronized (this) {
+            batch = pending.remove(chatId);
+            if (batch == null) {
+                return;
+            }
+            batches++;
+        }
+        long[] messageIds = batch.keySet().stream().mapToLong(Long::longValue).toArray();
+        log.trace("Get messages in batch! ChatId: %d Count: %d".formatted(chatId, messageIds.length));
+        try {
+            executor.execute(new TdApi.GetMessages(chatId, messageIds), false)
+                    .onComplete(ar -> {
+                        try {
+                            if (ar.failed()) {
+                                fail(batch, ar.cause());
+                            } else {
+                                complete(chatId, batch, ar.result());
+                            }
+                        } catch (Exception e) {
+                            fail(batch, e);
+                        }
+                    });
+        } catch (Exception e) {
+            log.error(e, "Get messages in batch failed! ChatId: %d".formatted(chatId));
+            fail(batch, e);
+        }
+    }
+
+    private void complete(long chatId, Map<Long, Promise<TdApi.Message>> batch, TdApi.Messages result) {
+        Map<Long, TdApi.Message> found = new HashMap<>();
+        for (TdApi.Message message : result.messages) {
+            if (message != null) {
+                found.put(message.id, message);
+            }
+        }
+        batch.forEach((messageId, promise) -> {
+            TdApi.Message message = found.get(messageId);
+            if (message == null) {
+                promise.tryFail("Message not found! ChatId: %d MessageId: %d".formatted(chatId, messageId));
+            } else {
+                promise.tryComplete(message);
+            }
+        });
+    }
+
+    private void fail(Map<Long, Promise<TdApi.Message>> batch, Throwable cause) {
+        batch.values().forEach(promise -> promise.tryFail(cause));
+    }
+
+    /**
+     * Shares the future until it expires, a failed future is evicted at once so the next caller retries.
+     */
+    private void share(LinkedHashMap<String, Shared> cache, String key, Future<? extends TdApi.Object> future) {
+        Shared shared = new Shared(future, clock.getAsLong() + SHARE_TTL);
+        cache.put(key, shared);
+        future.onFailure(e -> evict(cache, key, shared));
+    }
+
+    private synchronized void evict(LinkedHashMap<String, Shared> cache, String key, Shared shared) {
+        cache.remove(key, shared);
+    }
+
+    private Shared getShared(LinkedHashMap<String, Shared> cache, String key) {
+        long now = clock.getAsLong();
+        Iterator<Shared> iterator = cache.values().iterator();
+        while (iterator.hasNext() && iterator.next().expireAt <= now) {
+            iterator.remove();
+        }
+        return cache.get(key);
+    }
+}
@@ -0,0 +1,225 @@
+package telegram.files;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.StrUtil;
+import telegram.files.repository.FileRecord;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Relative transfer path built from a template like {@code {chatTitle}/{yyyy}/{MM}/{type}/{fileName}}.
+ * <p>
+ * The template is parsed once into literal and variable segments, a path is evaluated by appending the segments in order.
+ * Variable values are sanitized so they never add a directory level, while {@code /} in the template separates directories.
+ * Leading separators are ignored, the path is always relative to the destination and never leaves it.
+ * <p>
+ * Variables:
+ * <ul>
+ *     <li>{@code telegramId}, {@code chatId}, {@code chatTitle} (chat id if the title is unknown), {@code messageId}</li>
+ *     <li>{@code type}, {@code mimeType}, {@code fileName}, {@code baseName}, {@code ext}</li>
+ *     <li>{@code yyyy}, {@code MM}, {@code dd}, {@code HH} of the message date</li>
+ * </ul>
+ */
+public class PathTemplate {
+
+    public static final String DEFAULT_TEMPLATE = "{chatTitle}/{fileName}";
+
+    private static final int MAX_VALUE_LENGTH = 200;
+
+    @FunctionalInterface
+    private interface Segment {
+        void append(StringBuilder path, Context context);
+    }
+
+    private static final class Context {
+        final FileRecord fileRecord;
+
+        final Function<FileRecord, String> chatTitleResolver;
+
+        final ZoneId zoneId;
+
+        String fileName;
+
+        LocalDateTime date;
+
+        Context(FileRecord fileRecord, Function<FileRecord, String> chatTitleResolver, ZoneId zoneId) {
+            this.fileRecord = fileRecord;
+            this.chatTitleResolver = chatTitleResolver;
+            this.zoneId = zoneId;
+        }
+
+        String fileName() {
+            if (fileName == null) {
+                fileName = StrUtil.isBlank(fileRecord.localPath()) ?
+                        StrUtil.blankToDefault(fileRecord.fileName(), fileRecord.uniqueId()) :
+                        FileUtil.getName(fileRecord.localPath());
+            }
+            return fileName;
+        }
+
+        LocalDateTime date() {
+            if (date == null) {
+                date = LocalDateTime.ofInstant(Instant.ofEpochSecond(fileRecord.date()), zoneId);
+            }
+            return date;
+        }
+    }
+
+    private final String template;
+
+    private final Segment[] segments;
+
+    private final ZoneId zoneId;
+
+    private PathTemplate(String template, Segment[] segments, ZoneId zoneId) {
+        this.template = template;
+        this.segments = segments;
+        this.zoneId = zoneId;
+    }
+
+    public static PathTemplate compile(String template) {
+        return compile(template, ZoneId.systemDefault());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the template is blank, has an unclosed brace, an unknown variable,
+     *                                  a {@code .} or {@code ..} element, a drive or network root
+     */
+    public static PathTemplate compile(String template, ZoneId zoneId) {
+        if (StrUtil.isBlank(template)) {
+            throw new IllegalArgumentException("Path template is empty");
+        }
+        String normalized = StrUtil.strip(template.trim().replace('\\', '/'), "/");
+        if (normalized.startsWith("/")
+            || (normalized.length() >= 2 && normalized.charAt(1) == ':' && Character.isLetter(normalized.charAt(0)))) {
+            throw new IllegalArgumentException("Root in path template: %s".formatted(template));
+        }
+        for (String element : normalized.split("/")) {
+            String name = element.trim();
+            if (name.equals(".") || name.equals("..")) {
+                throw new IllegalArgumentException("Element %s in path template: %s".formatted(name, template));
+            }
+        }
+        List<Segment> segments = new ArrayList<>();
+        int position = 0;
+        while (position < normalized.length()) {
+            int open = normalized.indexOf('{', position);
+            if (open < 0) {
+                segments.add(literal(normalized.substring(position)));
+                break;
+            }
+            if (open > position) {
+                segments.add(literal(normalized.substring(position, open)));
+            }
+            int close = normalized.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed variable at %d of path template: %s".formatted(open, template));
+            }
+            segments.add(variable(normalized.substring(open + 1, close).trim(), template));
+            position = close + 1;
+        }
+        return new PathTemplate(template, segments.toArray(Segment[]::new), zoneId);
+    }
+
+    /**
+     * @param chatTitleResolver title of the chat of the file, only called if the template uses {@code chatTitle}, nullable
+     * @return the path relative to the destination
+     */
+    public String evaluate(FileRecord fileRecord, Function<FileRecord, String> chatTitleResolver) {
+        Context context = new Context(fileRecord, chatTitleResolver, zoneId);
+        StringBuilder path = new StringBuilder(64);
+        for (Segment segment : segments) {
+            segment.append(path, context);
+        }
+        return path.toString();
+    }
+
+    /**
+     * @return the path of the file under the destination
+     * @throws IllegalArgumentException if the evaluated path leaves the destination
+     */
+    public Path resolve(Path destination, FileRecord fileRecord, Function<FileRecord, String> chatTitleResolver) {
+        Path base = destination.normalize();
+        Path relative = Path.of(evaluate(fileRecord, chatTitleResolver)).normalize();
+        Path path = base.resolve(relative).normalize();
+        if (relative.getRoot() != null
+            || relative.startsWith("..")
+            || (!base.toString().isEmpty() && !path.startsWith(base))) {
+            throw new IllegalArgumentException("Path %s is outside of the destination %s".formatted(relative, base));
+        }
+        return path;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    private static Segment literal(String text) {
+        return (path, context) -> path.append(text);
+    }
+
+    private static Segment variable(String name, String template) {
+        return switch (name) {
+            case "telegramId" -> (path, context) -> path.append(context.fileRecord.telegramId());
+            case "chatId" -> (path, context) -> path.append(context.fileRecord.chatId());
+            case "chatTitle" -> (path, context) -> {
+                String title = context.chatTitleResolver == null ? null : context.chatTitleResolver.apply(context.fileRecord);
+                if (StrUtil.isBlank(title)) {
+                    path.append(context.fileRecord.chatId());
+                } else {
+                    appendSanitized(path, title);
+                }
+            };
+            case "messageId" -> (path, context) -> path.append(context.fileRecord.messageId());
+            case "type" -> (path, context) -> appendSanitized(path, context.fileRecord.type());
+            case "mimeType" -> (path, context) -> appendSanitized(path, context.fileRecord.mimeType());
+            case "fileName" -> (path, context) -> appendSanitized(path, context.fileName());
+            case "baseName" -> (path, context) -> appendSanitized(path, FileUtil.mainName(context.fileName()));
+            case "ext" -> (path, context) -> appendSanitized(path, FileUtil.extName(context.fileName()));
+            case "yyyy" -> (path, context) -> path.append(context.date().getYear());
+            case "MM" -> (path, context) -> appendTwoDigits(path, context.date().getMonthValue());
+            case "dd" -> (path, context) -> appendTwoDigits(path, context.date().getDayOfMonth());
+            case "HH" -> (path, context) -> appendTwoDigits(path, context.date().getHour());
+            default -> throw new IllegalArgumentException("Unknown variable {%s} in path template: %s".formatted(name, template));
+        };
+    }
+
+    private static void appendTwoDigits(StringBuilder path, int value) {
+        if (value < 10) {
+            path.append('0');
+        }
+        path.append(value);
+    }
+
+    /**
+     * Append the value as one path element, separators and characters not allowed in file names are replaced.
+     */
+    static void appendSanitized(StringBuilder path, String value) {
+        if (StrUtil.isBlank(value)) {
+            path.append('_');
+            return;
+        }
+        String trimmed = value.trim();
+        if (trimmed.equals(".") || trimmed.equals("..")) {
+            path.append('_');
+            return;
+        }
+        int length = Math.min(trimmed.length(), MAX_VALUE_LENGTH);
+        if (length < trimmed.length() && Character.isHighSurrogate(trimmed.charAt(length - 1))) {
+            length--;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = trimmed.charAt(i);
+            switch (c) {
+                case '/', '\\', ':', '*', '?', '"', '<', '>', '|' -> path.append('_');
+                default -> path.append(Character.isISOControl(c) ? '_' : c);
+            }
+        }
+    }
+}
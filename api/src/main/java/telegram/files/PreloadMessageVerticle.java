@@ -113,18 +113,14 @@ public class PreloadMessageVerticle extends AbstractVerticle {
                 .ifPresent(telegramVerticle -> {
                     if (!telegramVerticle.authorized) return;
 
-                    Future.all(
-                                    telegramVerticle.client.execute(new TdApi.GetMessage(chatId, messageId)),
-                                    telegramVerticle.client.execute(new TdApi.GetMessageThread(chatId, messageId))
-                            )
-                            .onSuccess(result -> {
-                                TdApi.Message message = result.resultAt(0);
-                                TdApi.MessageThreadInfo messageThreadInfo = result.resultAt(1);
-                                TdApiHelp.getFileHandler(message).ifPresent(fileHandler -> {
-                                    FileRecord fileRecord = fileHandler.convertFileRecord(telegramId).withThreadInfo(messageThreadInfo);
-                                    DataVerticle.fileRepository.createIfNotExist(fileRecord);
-                                });
-                            })
+                    telegramVerticle.messageBatcher.getMessage(chatId, messageId)
+                            .onSuccess(message -> TdApiHelp.getFileHandler(message).ifPresent(fileHandler ->
+                                    // Only messages with files need the thread
+                                    telegramVerticle.messageBatcher.getMessageThread(chatId, messageId)
+                                            .onSuccess(messageThreadInfo -> {
+                                                FileRecord fileRecord = fileHandler.convertFileRecord(telegramId).withThreadInfo(messageThreadInfo);
+                                                DataVerticle.fileRepository.createIfNotExist(fileRecord);
+                                            })))
                             .onFailure(e -> log.error("Preload message fail. Get message failed: %s".formatted(e.getMessage())));
                 });
     }
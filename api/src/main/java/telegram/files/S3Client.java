@@ -0,0 +1,431 @@
+package telegram.files;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import telegram.files.repository.SettingS3;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Minimal client of the S3 API for uploads, works with AWS S3 and S3-compatible servers like MinIO.
+ * Requests are signed with AWS Signature Version 4.
+ * <p>
+ * A file is read once, sequentially, on the calling thread. Files larger than the part size are uploaded with a
+ * multipart upload: each part is read into memory, hashed and sent while the next one is read, at most
+ * {@code concurrency} parts are in flight.
+ */
+public class S3Client {
+
+    private static final Log log = LogFactory.get();
+
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * S3 rejects smaller parts except the last one
+     */
+    public static final long MIN_PART_SIZE = 5 * MB;
+
+    public static final long DEFAULT_PART_SIZE = 16 * MB;
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final int MAX_PARTS = 10_000;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Delay before the first retry of a part, doubled for each later one
+     */
+    private static final long RETRY_DELAY = 500;
+
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+
+    private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    private final URI endpoint;
+
+    private final String region;
+
+    private final String accessKey;
+
+    private final String secretKey;
+
+    private final boolean pathStyle;
+
+    private final long partSize;
+
+    private final int concurrency;
+
+    private final HttpClient httpClient;
+
+    private final Clock clock;
+
+    /**
+     * Base delay of the retries of a part in milliseconds
+     */
+    long retryDelay = RETRY_DELAY;
+
+    public record ObjectInfo(long size, String eTag) {
+    }
+
+    /**
+     * @param hash content hash of the uploaded file, null if no algorithm was given
+     */
+    public record UploadResult(String eTag, String hash, int parts) {
+    }
+
+    public S3Client(SettingS3 setting) {
+        this(URI.create(StrUtil.removeSuffix(setting.endpoint, "/")),
+                StrUtil.blankToDefault(setting.region, "us-east-1"),
+                setting.accessKey,
+                setting.secretKey,
+                setting.pathStyle == null || setting.pathStyle,
+                setting.partSizeMB > 0 ? Math.max(MIN_PART_SIZE, setting.partSizeMB * MB) : DEFAULT_PART_SIZE,
+                setting.concurrency > 0 ? setting.concurrency : DEFAULT_CONCURRENCY);
+    }
+
+    S3Client(URI endpoint, String region, String accessKey, String secretKey, boolean pathStyle, long partSize, int concurrency) {
+        this(endpoint, region, accessKey, secretKey, pathStyle, partSize, concurrency, Clock.systemUTC());
+    }
+
+    S3Client(URI endpoint, String region, String accessKey, String secretKey, boolean pathStyle, long partSize, int concurrency,
+             Clock clock) {
+        this.endpoint = endpoint;
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.pathStyle = pathStyle;
+        this.partSize = partSize;
+        this.concurrency = concurrency;
+        this.clock = clock;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    /**
+     * @return null if the object does not exist
+     */
+    public ObjectInfo headObject(String bucket, String key) throws IOException {
+        HttpResponse<String> response = send(request("HEAD", bucket, key, Map.of(), null, false));
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        checkStatus(response, "HEAD", key);
+        return new ObjectInfo(response.headers().firstValueAsLong("Content-Length").orElse(-1),
+                response.headers().firstValue("ETag").orElse(null));
+    }
+
+    /**
+     * Upload the file to the key, files larger than the part size are uploaded in parts.
+     *
+     * @param hashAlgorithm hash the content while it is read, nullable
+     * @param listener      progress of the sent bytes, nullable
+     */
+    public UploadResult upload(String bucket, String key, Path file, FileHasher.Algorithm hashAlgorithm,
+                               FileMover.ProgressListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            FileHasher.Digest digest = hashAlgorithm == null ? null : FileHasher.newDigest(hashAlgorithm);
+            if (size <= partSize) {
+                byte[] content = read(channel, 0, (int) size, digest);
+                HttpResponse<String> response = send(request("PUT", bucket, key, Map.of(), content, false));
+                checkStatus(response, "PUT", key);
+                if (listener != null) {
+                    listener.onProgress(size, size, 0);
+                }
+                return new UploadResult(response.headers().firstValue("ETag").orElse(null),
+                        digest == null ? null : digest.getHexValue(),
+                        1);
+            }
+            return uploadParts(bucket, key, channel, size, digest, listener);
+        }
+    }
+
+    private UploadResult uploadParts(String bucket, String key, FileChannel channel, long size, FileHasher.Digest digest,
+                                     FileMover.ProgressListener listener) throws IOException {
+        long thePartSize = Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+        String uploadId = createMultipartUpload(bucket, key);
+        log.debug("Multipart upload %s of %s, size: %d part size: %d".formatted(uploadId, key, size, thePartSize));
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong uploadedBytes = new AtomicLong();
+        long startTime = System.nanoTime();
+        List<CompletableFuture<String>> eTags = new ArrayList<>();
+        try {
+            long position = 0;
+            for (int partNumber = 1; position < size && failure.get() == null; partNumber++) {
+                int length = (int) Math.min(thePartSize, size - position);
+                byte[] bytes = read(channel, position, length, digest);
+                position += length;
+                inFlight.acquire();
+                eTags.add(uploadPart(bucket, key, uploadId, partNumber, bytes, 1)
+                        .whenComplete((eTag, e) -> {
+                            inFlight.release();
+                            if (e != null) {
+                                failure.compareAndSet(null, e);
+                            } else if (listener != null) {
+                                long uploaded = uploadedBytes.addAndGet(length);
+                                long elapsedSeconds = Math.max(1, (System.nanoTime() - startTime) / 1_000_000_000);
+                                listener.onProgress(uploaded, size, uploaded / elapsedSeconds);
+                            }
+                        }));
+            }
+            CompletableFuture.allOf(eTags.toArray(CompletableFuture[]::new)).join();
+            List<String> partETags = eTags.stream().map(CompletableFuture::join).toList();
+            String eTag = completeMultipartUpload(bucket, key, uploadId, partETags);
+            return new UploadResult(eTag, digest == null ? null : digest.getHexValue(), partETags.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortMultipartUpload(bucket, key, uploadId);
+            throw new IOException("Upload of %s interrupted".formatted(key), e);
+        } catch (CompletionException e) {
+            abortMultipartUpload(bucket, key, uploadId);
+            throw e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+        } catch (IOException | RuntimeException e) {
+            abortMultipartUpload(bucket, key, uploadId);
+            throw e;
+        }
+    }
+
+    private String createMultipartUpload(String bucket, String key) throws IOException {
+        HttpResponse<String> response = send(request("POST", bucket, key, Map.of("uploads", ""), null, false));
+        checkStatus(response, "CreateMultipartUpload", key);
+        String uploadId = StrUtil.subBetween(response.body(), "<UploadId>", "</UploadId>");
+        if (StrUtil.isBlank(uploadId)) {
+            throw new IOException("No upload id in response of CreateMultipartUpload %s: %s".formatted(key, response.body()));
+        }
+        return uploadId;
+    }
+
+    private CompletableFuture<String> uploadPart(String bucket, String key, String uploadId, int partNumber, byte[] bytes, int attempt) {
+        HttpRequest request = request("PUT", bucket, key,
+                Map.of("partNumber", String.valueOf(partNumber), "uploadId", uploadId), bytes, false);
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() / 100 != 2) {
+                        throw new CompletionException(new IOException("UploadPart %d of %s failed: %d %s"
+                                .formatted(partNumber, key, response.statusCode(), response.body())));
+                    }
+                    return response.headers().firstValue("ETag").orElse("");
+                })
+                .exceptionallyCompose(e -> {
+                    if (attempt >= MAX_ATTEMPTS) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    long delay = getRetryDelay(attempt);
+                    log.debug("Retry part %d of %s in %d ms: %s".formatted(partNumber, key, delay, e.getMessage()));
+                    return CompletableFuture.runAsync(() -> {
+                            }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(v -> uploadPart(bucket, key, uploadId, partNumber, bytes, attempt + 1));
+                });
+    }
+
+    /**
+     * Exponential backoff with jitter, between half and the whole of the doubled delay, so parts failed together
+     * do not retry together.
+     */
+    long getRetryDelay(int attempt) {
+        long backoff = retryDelay << Math.min(attempt - 1, 10);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private String completeMultipartUpload(String bucket, String key, String uploadId, List<String> eTags) throws IOException {
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < eTags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                    .append(escapeXml(eTags.get(i)))
+                    .append("</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+        HttpResponse<String> response = send(request("POST", bucket, key, Map.of("uploadId", uploadId),
+                xml.toString().getBytes(StandardCharsets.UTF_8), true));
+        checkStatus(response, "CompleteMultipartUpload", key);
+        // The complete request may fail after the 200 status line was sent
+        if (response.body().contains("<Error>")) {
+            throw new IOException("CompleteMultipartUpload %s failed: %s".formatted(key, response.body()));
+        }
+        return StrUtil.subBetween(response.body(), "<ETag>", "</ETag>");
+    }
+
+    private void abortMultipartUpload(String bucket, String key, String uploadId) {
+        try {
+            HttpResponse<String> response = send(request("DELETE", bucket, key, Map.of("uploadId", uploadId), null, false));
+            checkStatus(response, "AbortMultipartUpload", key);
+        } catch (IOException e) {
+            log.warn("Abort multipart upload %s of %s failed: %s".formatted(uploadId, key, e.getMessage()));
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length, FileHasher.Digest digest) throws IOException {
+        IoGovernor.INSTANCE.acquire(IoGovernor.Usage.TRANSFER, length);
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File is truncated while uploading, expect %d bytes at %d".formatted(length, position));
+            }
+        }
+        if (digest != null) {
+            digest.update(bytes, 0, length);
+        }
+        return bytes;
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException {
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Request %s %s interrupted".formatted(request.method(), request.uri()), e);
+        }
+    }
+
+    private static void checkStatus(HttpResponse<String> response, String operation, String key) throws IOException {
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("%s %s failed: %d %s".formatted(operation, key, response.statusCode(), response.body()));
+        }
+    }
+
+    /**
+     * @param signPayload sign the hash of the body, otherwise the body is sent as {@code UNSIGNED-PAYLOAD} so a part is not hashed twice
+     */
+    HttpRequest request(String method, String bucket, String key, Map<String, String> query, byte[] body, boolean signPayload) {
+        String payloadHash = body == null ? EMPTY_SHA256 : signPayload ? hex(sha256(body)) : UNSIGNED_PAYLOAD;
+        ZonedDateTime now = ZonedDateTime.now(clock.withZone(ZoneOffset.UTC));
+        String amzDate = now.format(AMZ_DATE);
+        String date = amzDate.substring(0, 8);
+
+        String host = getHost(endpoint);
+        String basePath = StrUtil.removeSuffix(StrUtil.nullToEmpty(endpoint.getRawPath()), "/");
+        String path;
+        if (pathStyle) {
+            path = basePath + "/" + encode(bucket, false) + "/" + encode(key, true);
+        } else {
+            host = bucket + "." + host;
+            path = basePath + "/" + encode(key, true);
+        }
+        StringJoiner canonicalQuery = new StringJoiner("&");
+        new TreeMap<>(query).forEach((name, value) -> canonicalQuery.add(encode(name, false) + "=" + encode(value, false)));
+
+        String signedHeaders = "host;x-amz-content-sha256;x-amz-date";
+        String canonicalRequest = String.join("\n",
+                method,
+                path,
+                canonicalQuery.toString(),
+                "host:" + host,
+                "x-amz-content-sha256:" + payloadHash,
+                "x-amz-date:" + amzDate,
+                "",
+                signedHeaders,
+                payloadHash);
+        String scope = "%s/%s/s3/aws4_request".formatted(date, region);
+        String stringToSign = String.join("\n",
+                "AWS4-HMAC-SHA256",
+                amzDate,
+                scope,
+                hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8))));
+        byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = hex(hmac(signingKey, stringToSign));
+
+        URI uri = URI.create(endpoint.getScheme() + "://" + host + path
+                             + (query.isEmpty() ? "" : "?" + canonicalQuery));
+        return HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMinutes(10))
+                .method(method, body == null ?
+                        HttpRequest.BodyPublishers.noBody() :
+                        HttpRequest.BodyPublishers.ofByteArray(body))
+                .header("x-amz-date", amzDate)
+                .header("x-amz-content-sha256", payloadHash)
+                .header("Authorization", "AWS4-HMAC-SHA256 Credential=%s/%s, SignedHeaders=%s, Signature=%s"
+                        .formatted(accessKey, scope, signedHeaders, signature))
+                .build();
+    }
+
+    /**
+     * Host header as sent by the http client, the port is only included if it is not the default of the scheme.
+     */
+    private static String getHost(URI uri) {
+        int port = uri.getPort();
+        boolean isDefaultPort = port == -1
+                                || ("https".equalsIgnoreCase(uri.getScheme()) && port == 443)
+                                || ("http".equalsIgnoreCase(uri.getScheme()) && port == 80);
+        return isDefaultPort ? uri.getHost() : uri.getHost() + ":" + port;
+    }
+
+    /**
+     * URI encoding of SigV4, every byte except the unreserved characters is percent-encoded.
+     */
+    static String encode(String value, boolean keepSlash) {
+        StringBuilder encoded = new StringBuilder(value.length() + 16);
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '~' || (keepSlash && c == '/')) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xf, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+}
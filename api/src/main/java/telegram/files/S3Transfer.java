@@ -0,0 +1,206 @@
+package telegram.files;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import telegram.files.repository.FileRecord;
+import telegram.files.repository.SettingAutoRecords;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Upload files to an S3-compatible object storage, the destination is {@code s3://bucket/prefix}.
+ * <p>
+ * The object key is the path of the transfer policy under the prefix. Only {@link TransferMode#MOVE} deletes the
+ * local file, the other modes keep it, a link cannot cross to an object storage. The content hash is computed while
+ * the file is uploaded and recorded for the object, so {@link DuplicationPolicy#HASH} compares later files with the
+ * index instead of downloading the object.
+ */
+public class S3Transfer extends Transfer {
+
+    private static final Log log = LogFactory.get();
+
+    public static final String SCHEME = "s3://";
+
+    private static final int MAX_RENAME_ATTEMPTS = 1000;
+
+    private final String bucket;
+
+    private final String prefix;
+
+    /**
+     * Layout of the transfer policy with an empty destination
+     */
+    private final Transfer layout;
+
+    /**
+     * Set from the {@code s3} setting, files fail to transfer if it is not configured
+     */
+    public volatile S3Client client;
+
+    public S3Transfer(SettingAutoRecords.TransferRule transferRule) {
+        super(transferRule);
+        String location = StrUtil.removePrefix(transferRule.destination.trim(), SCHEME);
+        int slash = location.indexOf('/');
+        this.bucket = slash < 0 ? location : location.substring(0, slash);
+        if (StrUtil.isBlank(bucket)) {
+            throw new IllegalArgumentException("No bucket in destination: " + transferRule.destination);
+        }
+        String thePrefix = slash < 0 ? "" : StrUtil.strip(location.substring(slash + 1), "/");
+        this.prefix = thePrefix.isEmpty() ? "" : thePrefix + "/";
+
+        SettingAutoRecords.TransferRule layoutRule = new SettingAutoRecords.TransferRule();
+        layoutRule.destination = "";
+        layoutRule.transferPolicy = transferRule.transferPolicy;
+        layoutRule.pathTemplate = transferRule.pathTemplate;
+        layoutRule.duplicationPolicy = transferRule.duplicationPolicy;
+        layoutRule.transferMode = transferRule.transferMode;
+        this.layout = Transfer.create(layoutRule);
+    }
+
+    public static boolean isS3(String destination) {
+        return destination != null && destination.trim().startsWith(SCHEME);
+    }
+
+    @Override
+    public void transfer(FileRecord fileRecord) {
+        log.debug("Start upload file {}", fileRecord.id());
+        String reservedUri = null;
+        transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.transferring, null));
+        try {
+            S3Client theClient = client;
+            if (theClient == null) {
+                log.error("S3 is not configured, can not upload file {}", fileRecord.id());
+                transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.error, null));
+                return;
+            }
+            File originFile = new File(fileRecord.localPath());
+            if (!originFile.exists()) {
+                log.error("File {} not found: {}", fileRecord.id(), fileRecord.localPath());
+                transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.error, null));
+                return;
+            }
+
+            String key = getTransferPath(fileRecord);
+            S3Client.ObjectInfo existing = theClient.headObject(bucket, key);
+            boolean isExist = existing != null;
+            if (!isExist) {
+                if (RESERVED_PATHS.add(toUri(key))) {
+                    reservedUri = toUri(key);
+                } else {
+                    // Another file is being uploaded to the same key
+                    isExist = true;
+                }
+            }
+            if (isExist) {
+                if (duplicationPolicy == DuplicationPolicy.SKIP) {
+                    log.trace("Skip file {}", fileRecord.id());
+                    transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.idle, null));
+                    return;
+                }
+
+                if (duplicationPolicy == DuplicationPolicy.OVERWRITE) {
+                    log.trace("Overwrite object {} by file {}", key, fileRecord.id());
+                }
+
+                if (duplicationPolicy == DuplicationPolicy.RENAME) {
+                    key = getUniqueKey(theClient, key);
+                    reservedUri = toUri(key);
+                    log.trace("Rename file {} to {}", fileRecord.id(), key);
+                }
+
+                if (duplicationPolicy == DuplicationPolicy.HASH) {
+                    if (existing != null && isSameContent(originFile, key, existing)) {
+                        log.trace("File {} is the same as {}", fileRecord.id(), toUri(key));
+                        deleteOrigin(fileRecord);
+                        completed(fileRecord, key, transferMode == TransferMode.MOVE ? TransferMode.MOVE : null);
+                        return;
+                    }
+                    key = getUniqueKey(theClient, key);
+                    reservedUri = toUri(key);
+                    log.trace("Rename file {} to {}", fileRecord.id(), key);
+                }
+            }
+
+            FileHasher.Algorithm algorithm = hashIndex == null ? null : hashAlgorithm;
+            S3Client.UploadResult result = theClient.upload(bucket, key, originFile.toPath(), algorithm,
+                    (transferredBytes, totalBytes, bytesPerSecond) ->
+                            transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord,
+                                    FileRecord.TransferStatus.transferring,
+                                    null,
+                                    new TransferProgress(transferredBytes, totalBytes, bytesPerSecond),
+                                    null)));
+            log.info("Upload file {} to {}, duplication policy: {} parts: {} mode: {}", fileRecord.id(), toUri(key), duplicationPolicy, result.parts(), transferMode);
+            if (result.hash() != null) {
+                hashIndex.putRemote(toUri(key), originFile.length(), result.hash(), algorithm);
+            }
+            deleteOrigin(fileRecord);
+            completed(fileRecord, key, transferMode == TransferMode.MOVE ? TransferMode.MOVE : TransferMode.COPY);
+        } catch (Exception e) {
+            log.error(e, "Upload file {} error", fileRecord.id());
+            transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.error, null));
+        } finally {
+            if (reservedUri != null) {
+                RESERVED_PATHS.remove(reservedUri);
+            }
+        }
+    }
+
+    /**
+     * The local path is kept, even for a moved file whose local copy is deleted: it stays a filesystem path.
+     * The object is recorded as the transfer path of the {@link telegram.files.repository.TransferRecord}.
+     *
+     * @param usedMode null if nothing was uploaded and the origin is kept
+     */
+    private void completed(FileRecord fileRecord, String key, TransferMode usedMode) {
+        transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord,
+                FileRecord.TransferStatus.completed,
+                null,
+                null,
+                usedMode,
+                toUri(key)));
+    }
+
+    /**
+     * The object is the same if it has the size and the recorded hash of the file, objects without a recorded hash,
+     * e.g. uploaded by others, are treated as different.
+     */
+    private boolean isSameContent(File originFile, String key, S3Client.ObjectInfo existing) throws IOException {
+        if (hashIndex == null || existing.size() != originFile.length()) {
+            return false;
+        }
+        String remoteHash = hashIndex.getRemoteHash(toUri(key), existing.size(), hashAlgorithm);
+        return remoteHash != null && remoteHash.equals(hashIndex.getHash(originFile, hashAlgorithm));
+    }
+
+    /**
+     * @return {@code key-<n>.ext} neither existing nor reserved, reserved for the caller
+     */
+    private String getUniqueKey(S3Client theClient, String key) throws IOException {
+        int slash = key.lastIndexOf('/');
+        String directory = key.substring(0, slash + 1);
+        String fileName = key.substring(slash + 1);
+        String baseName = FileUtil.mainName(fileName);
+        String extension = FileUtil.extName(fileName);
+        for (int serial = 1; serial <= MAX_RENAME_ATTEMPTS; serial++) {
+            String candidate = directory + (StrUtil.isEmpty(extension) ?
+                    "%s-%d".formatted(baseName, serial) :
+                    "%s-%d.%s".formatted(baseName, serial, extension));
+            if (theClient.headObject(bucket, candidate) == null && RESERVED_PATHS.add(toUri(candidate))) {
+                return candidate;
+            }
+        }
+        throw new IOException("No free key for %s after %d attempts".formatted(toUri(key), MAX_RENAME_ATTEMPTS));
+    }
+
+    private String toUri(String key) {
+        return SCHEME + bucket + "/" + key;
+    }
+
+    @Override
+    protected String getTransferPath(FileRecord fileRecord) {
+        return prefix + StrUtil.strip(layout.getTransferPath(fileRecord).replace('\\', '/'), "/");
+    }
+}
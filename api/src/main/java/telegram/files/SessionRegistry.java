@@ -0,0 +1,129 @@
+package telegram.files;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.http.WebSocketFrame;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Telegram account and WebSocket of each web session.
+ * <p>
+ * Sessions are indexed by account, an event is encoded once and written only to the sockets of its account and of the
+ * sessions connected without an account.
+ */
+public class SessionRegistry {
+
+    // session id -> telegram verticle
+    private final Map<String, TelegramVerticle> sessionTelegramVerticles = new ConcurrentHashMap<>();
+
+    // telegram verticle -> session ids, keyed by instance since the id changes once an account is authorized
+    private final Map<TelegramVerticle, Set<String>> telegramSessionIds = new ConcurrentHashMap<>();
+
+    // session id -> websocket
+    private final Map<String, ServerWebSocket> sockets = new ConcurrentHashMap<>();
+
+    // sessions whose websocket was opened without a telegram account, they receive events of all accounts
+    private final Set<String> unboundSessionIds = ConcurrentHashMap.newKeySet();
+
+    public TelegramVerticle getTelegramVerticle(String sessionId) {
+        return sessionTelegramVerticles.get(sessionId);
+    }
+
+    public void bind(String sessionId, TelegramVerticle telegramVerticle) {
+        TelegramVerticle previous = sessionTelegramVerticles.put(sessionId, telegramVerticle);
+        if (previous == telegramVerticle) {
+            return;
+        }
+        if (previous != null) {
+            removeSessionId(previous, sessionId);
+        }
+        telegramSessionIds.compute(telegramVerticle, (k, sessionIds) -> {
+            Set<String> bound = sessionIds == null ? ConcurrentHashMap.newKeySet() : sessionIds;
+            bound.add(sessionId);
+            return bound;
+        });
+    }
+
+    public void unbind(String sessionId) {
+        TelegramVerticle previous = sessionTelegramVerticles.remove(sessionId);
+        if (previous != null) {
+            removeSessionId(previous, sessionId);
+        }
+    }
+
+    /**
+     * Unbind all sessions of a removed account.
+     */
+    public void unbindAll(TelegramVerticle telegramVerticle) {
+        Set<String> sessionIds = telegramSessionIds.remove(telegramVerticle);
+        if (sessionIds != null) {
+            sessionIds.forEach(sessionId -> sessionTelegramVerticles.remove(sessionId, telegramVerticle));
+        }
+    }
+
+    private void removeSessionId(TelegramVerticle telegramVerticle, String sessionId) {
+        telegramSessionIds.computeIfPresent(telegramVerticle, (k, sessionIds) -> {
+            sessionIds.remove(sessionId);
+            return sessionIds.isEmpty() ? null : sessionIds;
+        });
+    }
+
+    public void connect(String sessionId, ServerWebSocket webSocket, boolean isUnbound) {
+        sockets.put(sessionId, webSocket);
+        if (isUnbound) {
+            unboundSessionIds.add(sessionId);
+        } else {
+            unboundSessionIds.remove(sessionId);
+        }
+    }
+
+    /**
+     * Forget the session, unless it already reconnected with another websocket.
+     */
+    public void disconnect(String sessionId, ServerWebSocket webSocket) {
+        if (!sockets.remove(sessionId, webSocket)) {
+            return;
+        }
+        unboundSessionIds.remove(sessionId);
+        unbind(sessionId);
+    }
+
+    /**
+     * @param telegramVerticle account of the event, null if it matches no account
+     * @return number of websockets written
+     */
+    public int send(TelegramVerticle telegramVerticle, JsonObject payload) {
+        Set<String> sessionIds = telegramVerticle == null ? null : telegramSessionIds.get(telegramVerticle);
+        if (sessionIds == null) {
+            sessionIds = Set.of();
+        }
+        if (sessionIds.isEmpty() && unboundSessionIds.isEmpty()) {
+            return 0;
+        }
+        // Encoded to UTF-8 once, writeTextMessage would encode the text again for every socket
+        Buffer text = payload.toBuffer();
+        int count = 0;
+        for (String sessionId : sessionIds) {
+            count += write(sessionId, text);
+        }
+        for (String sessionId : unboundSessionIds) {
+            if (!sessionIds.contains(sessionId)) {
+                count += write(sessionId, text);
+            }
+        }
+        return count;
+    }
+
+    private int write(String sessionId, Buffer text) {
+        ServerWebSocket webSocket = sockets.get(sessionId);
+        if (webSocket == null || webSocket.isClosed()) {
+            return 0;
+        }
+        webSocket.writeFrame(WebSocketFrame.textFrame(text, true));
+        return 1;
+    }
+}
@@ -154,6 +154,17 @@ public class TdApiHelp {
                 .toList();
     }
 
+    public static String getFileType(TdApi.Message message) {
+        if (message == null) return null;
+        return switch (message.content.getConstructor()) {
+            case TdApi.MessagePhoto.CONSTRUCTOR -> "photo";
+            case TdApi.MessageVideo.CONSTRUCTOR -> "video";
+            case TdApi.MessageAudio.CONSTRUCTOR -> "audio";
+            case TdApi.MessageDocument.CONSTRUCTOR -> "file";
+            default -> null;
+        };
+    }
+
     public static Integer getFileId(TdApi.Message message) {
         return getFileHandler(message).map(FileHandler::getFileId).orElse(null);
     }
@@ -237,6 +248,24 @@ public class TdApiHelp {
 
         public abstract TdApi.File getFile();
 
+        public long getSize() {
+            TdApi.File file = getFile();
+            return file.size == 0 ? file.expectedSize : file.size;
+        }
+
+        public String getFileName() {
+            return null;
+        }
+
+        public String getMimeType() {
+            return null;
+        }
+
+        public String getCaption() {
+            TdApi.FormattedText caption = BeanUtil.getProperty(content, "caption");
+            return caption == null ? null : caption.text;
+        }
+
         public JsonObject getExtraInfo() {
             return JsonObject.of();
         }
@@ -356,6 +385,12 @@ public class TdApiHelp {
             return content.photo.sizes[content.photo.sizes.length - 1].photo;
         }
 
+        @Override
+        public String getMimeType() {
+            // Photos are always sent as jpeg
+            return "image/jpeg";
+        }
+
         @Override
         public JsonObject getExtraInfo() {
             TdApi.PhotoSize photo = content.photo.sizes[content.photo.sizes.length - 1];
@@ -419,6 +454,16 @@ public class TdApiHelp {
             return content.video.video;
         }
 
+        @Override
+        public String getFileName() {
+            return content.video.fileName;
+        }
+
+        @Override
+        public String getMimeType() {
+            return content.video.mimeType;
+        }
+
         @Override
         public JsonObject getExtraInfo() {
             TdApi.Video video = content.video;
@@ -488,6 +533,16 @@ public class TdApiHelp {
             return content.audio.audio;
         }
 
+        @Override
+        public String getFileName() {
+            return content.audio.fileName;
+        }
+
+        @Override
+        public String getMimeType() {
+            return content.audio.mimeType;
+        }
+
         @Override
         public TdApi.Thumbnail getThumbnail() {
             TdApi.Thumbnail thumbnail = content.audio.albumCoverThumbnail;
@@ -552,6 +607,16 @@ public class TdApiHelp {
             return content.document.document;
         }
 
+        @Override
+        public String getFileName() {
+            return content.document.fileName;
+        }
+
+        @Override
+        public String getMimeType() {
+            return content.document.mimeType;
+        }
+
         @Override
         public TdApi.Thumbnail getThumbnail() {
             return content.document.thumbnail;
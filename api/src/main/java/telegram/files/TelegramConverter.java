@@ -68,8 +68,7 @@ public class TelegramConverter {
                     List<JsonObject> fileObjects = filterMessages.stream()
                             .filter(message -> TdApiHelp.FILE_CONTENT_CONSTRUCTORS.contains(message.content.getConstructor()))
                             .map(message -> {
-                                //TODO Processing of the same file under different accounts
-
+                                // The record may belong to another account, the same file is downloaded once, see FileDedupIndex
                                 FileRecord fileRecord = fileRecords.get(TdApiHelp.getFileUniqueId(message));
                                 return withSource(telegramId,
                                         fileRecord,
@@ -15,12 +15,14 @@ import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.VertxException;
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import org.drinkless.tdlib.TdApi;
 import org.jooq.lambda.tuple.Tuple;
 import org.jooq.lambda.tuple.Tuple2;
+import org.jooq.lambda.tuple.Tuple3;
 import telegram.files.repository.*;
 
 import java.io.File;
@@ -35,8 +37,16 @@ public class TelegramVerticle extends AbstractVerticle {
 
     private static final Log log = LogFactory.get();
 
+    /**
+     * Priority of the downloads added by the app, from 1 to 32
+     */
+    static final int DOWNLOAD_PRIORITY = 32;
+
     public TelegramClient client;
 
+    // Shared by the MESSAGE_RECEIVED consumers
+    public MessageBatcher messageBatcher;
+
     private TelegramChats telegramChats;
 
     public boolean authorized = false;
@@ -57,9 +67,7 @@ public class TelegramVerticle extends AbstractVerticle {
 
     private long avgSpeedPersistenceTimerId;
 
-    private long lastFileEventTime;
-
-    private long lastFileDownloadEventTime;
+    private final FileProgressCoalescer fileProgressCoalescer = new FileProgressCoalescer();
 
     public TelegramVerticle(String rootPath) {
         this.rootPath = rootPath;
@@ -82,6 +90,10 @@ public class TelegramVerticle extends AbstractVerticle {
         return telegramRecord == null ? this.getRootId() : telegramRecord.id();
     }
 
+    public AvgSpeed getAvgSpeed() {
+        return avgSpeed;
+    }
+
     public void setProxy(String proxyName) {
         this.proxyName = proxyName;
     }
@@ -89,6 +101,7 @@ public class TelegramVerticle extends AbstractVerticle {
     @Override
     public void start(Promise<Void> startPromise) {
         client = new TelegramClient();
+        messageBatcher = new MessageBatcher(vertx, client);
         telegramChats = new TelegramChats(client);
         TelegramUpdateHandler telegramUpdateHandler = new TelegramUpdateHandler();
         telegramUpdateHandler.setOnAuthorizationStateUpdated(this::onAuthorizationStateUpdated);
@@ -98,6 +111,7 @@ public class TelegramVerticle extends AbstractVerticle {
         telegramUpdateHandler.setOnMessageReceived(this::onMessageReceived);
 
         client.initialize(telegramUpdateHandler, this::handleException, this::handleException);
+        vertx.setPeriodic(Config.FILE_PROGRESS_INTERVAL_MS, id -> flushFileProgress());
         Future.all(initEventConsumer(), initAvgSpeed())
                 .compose(r -> this.enableProxy(this.proxyName))
                 .onSuccess(r -> startPromise.complete())
@@ -269,15 +283,26 @@ public class TelegramVerticle extends AbstractVerticle {
                         ));
     }
 
-    public Future<Tuple2<String, String>> loadPreview(String uniqueId) {
+    /**
+     * @return path, mime type and, for a file this account is still downloading, the partial file to stream from
+     */
+    public Future<Tuple3<String, String, DownloadingFile>> loadPreview(String uniqueId) {
         return DataVerticle.fileRepository
                 .getByUniqueId(uniqueId)
                 .compose(fileRecord -> {
+                    if (fileRecord != null
+                        && fileRecord.isDownloadStatus(FileRecord.DownloadStatus.downloading)
+                        && fileRecord.telegramId() == telegramRecord.id()
+                        && fileRecord.size() > 0) {
+                        return Future.succeededFuture(Tuple.tuple(StrUtil.blankToDefault(fileRecord.localPath(), fileRecord.fileName()),
+                                fileRecord.mimeType(),
+                                new DownloadingFile(client, fileRecord, DOWNLOAD_PRIORITY)));
+                    }
                     if (fileRecord == null || !fileRecord.isDownloadStatus(FileRecord.DownloadStatus.completed)
                         || !FileUtil.exist(fileRecord.localPath())) {
                         return Future.failedFuture("File not found or not downloaded");
                     }
-                    return Future.succeededFuture(Tuple.tuple(fileRecord.localPath(), fileRecord.mimeType()));
+                    return Future.succeededFuture(Tuple.tuple(fileRecord.localPath(), fileRecord.mimeType(), (DownloadingFile) null));
                 });
     }
 
@@ -312,12 +337,21 @@ public class TelegramVerticle extends AbstractVerticle {
 //                        return Future.failedFuture("Unknown file download status");
                     }
                     if (dbFileRecord != null && !dbFileRecord.isDownloadStatus(FileRecord.DownloadStatus.idle)) {
+                        if (dbFileRecord.telegramId() != telegramRecord.id()) {
+                            // The record is shared by all accounts, the file is downloaded by the account of the record
+                            FileDedupIndex.INSTANCE.recordSkipped(telegramRecord.id(), dbFileRecord.size());
+                        }
                         return Future.failedFuture("File is already downloading or completed");
                     }
 
                     TdApiHelp.FileHandler<? extends TdApi.MessageContent> fileHandler = TdApiHelp.getFileHandler(message)
                             .orElseThrow(() -> VertxException.noStackTrace("not support message type"));
                     FileRecord fileRecord = fileHandler.convertFileRecord(telegramRecord.id()).withThreadInfo(messageThreadInfo);
+                    try {
+                        FileDedupIndex.INSTANCE.claim(fileRecord.uniqueId(), telegramRecord.id(), fileId, fileRecord.size());
+                    } catch (FileDedupIndex.DuplicateFileException e) {
+                        return Future.failedFuture(e);
+                    }
                     return DataVerticle.fileRepository.createIfNotExist(fileRecord)
                             .compose(created -> {
                                 if (!created) {
@@ -325,7 +359,7 @@ public class TelegramVerticle extends AbstractVerticle {
                                 }
                                 return Future.succeededFuture();
                             })
-                            .compose(ignore -> client.execute(new TdApi.AddFileToDownloads(fileId, chatId, messageId, 32)))
+                            .compose(ignore -> client.execute(new TdApi.AddFileToDownloads(fileId, chatId, messageId, DOWNLOAD_PRIORITY)))
                             .onSuccess(ignore -> {
                                 sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
                                         .put("fileId", fileId)
@@ -335,6 +369,9 @@ public class TelegramVerticle extends AbstractVerticle {
 
                                 downloadThumbnail(chatId, messageId, fileHandler.convertThumbnailRecord(telegramRecord.id()));
                             })
+                            .onFailure(e -> FileDedupIndex.INSTANCE.onDownloadStatusUpdate(fileRecord.uniqueId(),
+                                    telegramRecord.id(),
+                                    FileRecord.DownloadStatus.error))
                             .map(fileRecord);
                 });
     }
@@ -354,7 +391,7 @@ public class TelegramVerticle extends AbstractVerticle {
                     if (thumbnailRecord.isDownloadStatus(FileRecord.DownloadStatus.completed)) {
                         return Future.succeededFuture(false);
                     }
-                    return client.execute(new TdApi.AddFileToDownloads(thumbnailRecord.id(), chatId, messageId, 32))
+                    return client.execute(new TdApi.AddFileToDownloads(thumbnailRecord.id(), chatId, messageId, DOWNLOAD_PRIORITY))
                             .map(true);
                 })
                 .onSuccess(download -> {
@@ -380,6 +417,7 @@ public class TelegramVerticle extends AbstractVerticle {
                 })
                 .compose(file -> client.execute(new TdApi.DeleteFile(fileId)).map(file))
                 .compose(file -> DataVerticle.fileRepository.deleteByUniqueId(file.remote.uniqueId).map(file))
+                .onSuccess(file -> FileDedupIndex.INSTANCE.remove(file.remote.uniqueId))
                 .onSuccess(file ->
                         sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
                                 .put("fileId", fileId)
@@ -412,7 +450,7 @@ public class TelegramVerticle extends AbstractVerticle {
                         // Maybe the file is not exist, so we need to redownload it
                         return DataVerticle.fileRepository.getByUniqueId(file.remote.uniqueId)
                                 .compose(fileRecord ->
-                                        client.execute(new TdApi.AddFileToDownloads(fileId, fileRecord.chatId(), fileRecord.messageId(), 32)))
+                                        client.execute(new TdApi.AddFileToDownloads(fileId, fileRecord.chatId(), fileRecord.messageId(), DOWNLOAD_PRIORITY)))
                                 .mapEmpty();
                     }
 
@@ -453,6 +491,8 @@ public class TelegramVerticle extends AbstractVerticle {
                     return Future.succeededFuture(file);
                 })
                 .compose(file -> DataVerticle.fileRepository.deleteByUniqueId(uniqueId).map(file))
+                .compose(file -> DataVerticle.transferRepository.deleteByUniqueId(uniqueId).map(file))
+                .onSuccess(file -> FileDedupIndex.INSTANCE.remove(uniqueId))
                 .onSuccess(file -> sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
                         .put("fileId", fileId)
                         .put("uniqueId", uniqueId)
@@ -468,6 +508,16 @@ public class TelegramVerticle extends AbstractVerticle {
                         settingAutoRecords = new SettingAutoRecords();
                     }
                     SettingAutoRecords.Automation automation = params.mapTo(SettingAutoRecords.Automation.class);
+                    if (automation.transfer.enabled
+                        && automation.transfer.rule != null
+                        && automation.transfer.rule.transferPolicy != null) {
+                        try {
+                            // Fails on an invalid path template or s3 destination
+                            Transfer.create(automation.transfer.rule);
+                        } catch (IllegalArgumentException e) {
+                            return Future.failedFuture(VertxException.noStackTrace(e.getMessage()));
+                        }
+                    }
                     boolean hasEnabled = automation.preload.enabled
                                          || automation.download.enabled
                                          || automation.transfer.enabled;
@@ -491,7 +541,10 @@ public class TelegramVerticle extends AbstractVerticle {
 
     public Future<JsonObject> getDownloadStatistics() {
         return Future.all(DataVerticle.fileRepository.getDownloadStatistics(this.telegramRecord.id()),
-                client.execute(new TdApi.GetNetworkStatistics())
+                client.execute(new TdApi.GetNetworkStatistics()),
+                vertx.eventBus().<JsonObject>request(EventEnum.AUTO_DOWNLOAD_STATISTICS.address(), this.telegramRecord.id())
+                        .map(Message::body)
+                        .otherwise(JsonObject.of())
         ).map(r -> {
             JsonObject jsonObject = r.resultAt(0);
             TdApi.NetworkStatistics networkStatistics = r.resultAt(1);
@@ -511,6 +564,9 @@ public class TelegramVerticle extends AbstractVerticle {
             );
 
             jsonObject.put("speedStats", avgSpeed.getSpeedStats());
+            jsonObject.put("autoDownload", r.resultAt(2));
+            jsonObject.put("dedup", FileDedupIndex.INSTANCE.getStatistics(this.telegramRecord.id()));
+            jsonObject.put("io", IoGovernor.INSTANCE.getStatistics());
             return jsonObject;
         });
     }
@@ -864,23 +920,61 @@ public class TelegramVerticle extends AbstractVerticle {
                                             finalLocalPath,
                                             downloadStatus,
                                             finalCompletionDate)
-                                    .onSuccess(r -> sendFileStatusHttpEvent(file, r));
+                                    .onSuccess(r -> {
+                                        sendFileStatusHttpEvent(file, r);
+                                        publishDownloadStatusUpdate(file, r);
+                                    });
                         }
                     });
 
-            if (completionDate != null || lastFileEventTime == 0 || System.currentTimeMillis() - lastFileEventTime > 1000) {
-                sendEvent(EventPayload.build(EventPayload.TYPE_FILE, updateFile));
-                lastFileEventTime = System.currentTimeMillis();
+            if (file.local != null) {
+                FileRecord.DownloadStatus downloadStatus = TdApiHelp.getDownloadStatus(file);
+                fileProgressCoalescer.add(new FileProgressCoalescer.FileProgress(file.id,
+                        file.local.downloadedSize,
+                        file.size == 0 ? file.expectedSize : file.size,
+                        downloadStatus == null ? FileRecord.DownloadStatus.idle : downloadStatus));
             }
         }
     }
 
+    private void publishDownloadStatusUpdate(TdApi.File file, JsonObject fileUpdated) {
+        if (fileUpdated == null || !fileUpdated.containsKey("downloadStatus") || telegramRecord == null) {
+            return;
+        }
+        FileRecord.DownloadStatus downloadStatus = FileRecord.DownloadStatus.valueOf(fileUpdated.getString("downloadStatus"));
+        FileDedupIndex.INSTANCE.onDownloadStatusUpdate(file.remote.uniqueId, telegramRecord.id(), downloadStatus);
+        if (downloadStatus == FileRecord.DownloadStatus.completed
+            || downloadStatus == FileRecord.DownloadStatus.error
+            || downloadStatus == FileRecord.DownloadStatus.paused) {
+            vertx.eventBus().publish(EventEnum.FILE_DOWNLOAD_STATUS_UPDATE.address(), JsonObject.of()
+                    .put("telegramId", telegramRecord.id())
+                    .put("fileId", file.id)
+                    .put("uniqueId", file.remote.uniqueId)
+                    .put("downloadStatus", downloadStatus.name())
+            );
+        }
+    }
+
     private void onFileDownloadsUpdated(TdApi.UpdateFileDownloads updateFileDownloads) {
         log.trace("[%s] Receive file downloads update: %s".formatted(getRootId(), updateFileDownloads));
         avgSpeed.update(updateFileDownloads.downloadedSize, System.currentTimeMillis());
-        if (lastFileDownloadEventTime == 0 || System.currentTimeMillis() - lastFileDownloadEventTime > 1000) {
-            sendEvent(EventPayload.build(EventPayload.TYPE_FILE_DOWNLOAD, updateFileDownloads));
-            lastFileDownloadEventTime = System.currentTimeMillis();
+        fileProgressCoalescer.add(new FileProgressCoalescer.Downloads(updateFileDownloads.totalSize,
+                updateFileDownloads.totalCount,
+                updateFileDownloads.downloadedSize));
+    }
+
+    /**
+     * Send the progress coalesced since the last tick, one event for all files.
+     */
+    private void flushFileProgress() {
+        List<FileProgressCoalescer.FileProgress> files = fileProgressCoalescer.drainFiles();
+        if (!files.isEmpty()) {
+            sendEvent(EventPayload.build(EventPayload.TYPE_FILE_PROGRESS, JsonObject.of("files",
+                    new JsonArray(files.stream().map(FileProgressCoalescer.FileProgress::toJson).toList()))));
+        }
+        FileProgressCoalescer.Downloads downloads = fileProgressCoalescer.drainDownloads();
+        if (downloads != null) {
+            sendEvent(EventPayload.build(EventPayload.TYPE_FILE_DOWNLOAD, downloads.toJson()));
         }
     }
 
@@ -0,0 +1,81 @@
+package telegram.files;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter. Tokens are refilled continuously at {@code ratePerSecond} up to {@code capacity},
+ * the bucket starts full so a burst of {@code capacity} permits is allowed.
+ */
+public class TokenBucket {
+
+    private final LongSupplier nanoClock;
+
+    private double ratePerNano;
+
+    private long capacity;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, long capacity) {
+        this(ratePerSecond, capacity, System::nanoTime);
+    }
+
+    TokenBucket(double ratePerSecond, long capacity, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.lastRefill = nanoClock.getAsLong();
+        setRate(ratePerSecond, capacity);
+        this.tokens = this.capacity;
+    }
+
+    public synchronized void setRate(double ratePerSecond, long capacity) {
+        refill();
+        this.ratePerNano = Math.max(0, ratePerSecond) / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, capacity);
+        this.tokens = Math.min(tokens, this.capacity);
+    }
+
+    public synchronized boolean tryAcquire(long permits) {
+        refill();
+        if (tokens < permits) {
+            return false;
+        }
+        tokens -= permits;
+        return true;
+    }
+
+    /**
+     * @return nanoseconds to wait until {@code permits} are available, 0 if available now.
+     * {@link Long#MAX_VALUE} if they never will be, because the rate is 0 or permits exceed the capacity.
+     */
+    public synchronized long nanosUntilAvailable(long permits) {
+        refill();
+        if (tokens >= permits) {
+            return 0;
+        }
+        if (permits > capacity || ratePerNano <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return (long) Math.ceil((permits - tokens) / ratePerNano);
+    }
+
+    public synchronized long available() {
+        refill();
+        return (long) tokens;
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * ratePerNano);
+            lastRefill = now;
+        }
+    }
+}
@@ -2,56 +2,87 @@ package telegram.files;
 
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.StrUtil;
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
 import telegram.files.repository.FileRecord;
 import telegram.files.repository.SettingAutoRecords;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 public abstract class Transfer {
 
     private static final Log log = LogFactory.get();
 
+    /**
+     * Destination paths being moved to by running transfers, files are transferred concurrently
+     */
+    static final Set<String> RESERVED_PATHS = ConcurrentHashMap.newKeySet();
+
     public String destination;
 
     public TransferPolicy transferPolicy;
 
+    public String pathTemplate;
+
     public DuplicationPolicy duplicationPolicy;
 
+    public TransferMode transferMode;
+
     public boolean transferHistory;
 
     public Consumer<TransferStatusUpdated> transferStatusUpdated;
 
-    private FileRecord transferRecord;
+    /**
+     * Digest of the full comparison of {@link DuplicationPolicy#HASH}
+     */
+    public volatile FileHasher.Algorithm hashAlgorithm = FileHasher.Algorithm.MD5;
+
+    /**
+     * Content hashes of transferred files, {@link DuplicationPolicy#HASH} compares files without hashing them again, optional
+     */
+    public FileHashIndex hashIndex;
 
     public Transfer(SettingAutoRecords.TransferRule transferRule) {
         this.destination = transferRule.destination;
         this.transferPolicy = transferRule.transferPolicy;
+        this.pathTemplate = transferRule.pathTemplate;
         this.duplicationPolicy = transferRule.duplicationPolicy;
+        this.transferMode = transferRule.transferMode == null ? TransferMode.MOVE : transferRule.transferMode;
         this.transferHistory = transferRule.transferHistory;
     }
 
     public static Transfer create(SettingAutoRecords.TransferRule transferRule) {
+        if (S3Transfer.isS3(transferRule.destination)) {
+            return new S3Transfer(transferRule);
+        }
         return switch (transferRule.transferPolicy) {
             case GROUP_BY_CHAT -> new GroupByChat(transferRule);
             case GROUP_BY_TYPE -> new GroupByType(transferRule);
+            case TEMPLATE -> new Template(transferRule);
         };
     }
 
     public boolean isRuleUpdated(SettingAutoRecords.TransferRule transferRule) {
         return !Objects.equals(this.destination, transferRule.destination)
                 || this.transferPolicy != transferRule.transferPolicy
+                || !Objects.equals(this.pathTemplate, transferRule.pathTemplate)
                 || this.duplicationPolicy != transferRule.duplicationPolicy
+                || this.transferMode != (transferRule.transferMode == null ? TransferMode.MOVE : transferRule.transferMode)
                 || this.transferHistory != transferRule.transferHistory;
     }
 
     public void transfer(FileRecord fileRecord) {
         log.debug("Start transfer file {}", fileRecord.id());
-        transferRecord = fileRecord;
+        String reservedPath = null;
         transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.transferring, null));
         try {
             File originFile = new File(fileRecord.localPath());
@@ -61,9 +92,30 @@ public abstract class Transfer {
                 return;
             }
 
+            String contentHash = null;
+            if (duplicationPolicy == DuplicationPolicy.HASH && hashIndex != null) {
+                contentHash = FileHasher.hash(originFile, hashAlgorithm);
+                String samePath = hashIndex.findSameContent(originFile, contentHash, hashAlgorithm);
+                if (samePath != null) {
+                    log.trace("File {} is the same as {}", fileRecord.id(), samePath);
+                    deleteOrigin(fileRecord);
+                    transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.completed, samePath));
+                    return;
+                }
+            }
+
             String transferPath = getTransferPath(fileRecord);
             boolean isOverwrite = false;
-            if (FileUtil.exist(transferPath)) {
+            boolean isExist = FileUtil.exist(transferPath);
+            if (!isExist) {
+                if (RESERVED_PATHS.add(transferPath)) {
+                    reservedPath = transferPath;
+                } else {
+                    // Another file is being moved to the same path
+                    isExist = true;
+                }
+            }
+            if (isExist) {
                 if (duplicationPolicy == DuplicationPolicy.SKIP) {
                     log.trace("Skip file {}", fileRecord.id());
                     transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.idle, null));
@@ -76,52 +128,77 @@ public abstract class Transfer {
                 }
 
                 if (duplicationPolicy == DuplicationPolicy.RENAME) {
-                    transferPath = getUniquePath(transferPath);
+                    transferPath = reservedPath = getUniquePath(transferPath);
                     log.trace("Rename file {} to {}", fileRecord.id(), transferPath);
                 }
 
                 if (duplicationPolicy == DuplicationPolicy.HASH) {
-                    if (MessyUtils.compareFilesMD5(FileUtil.file(fileRecord.localPath()), FileUtil.file(transferPath))) {
+                    if (FileUtil.exist(transferPath)
+                        && isSameContent(originFile, FileUtil.file(transferPath), contentHash)) {
                         log.trace("File {} is the same as {}", fileRecord.id(), transferPath);
-                        FileUtil.del(fileRecord.localPath());
+                        deleteOrigin(fileRecord);
                         transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.completed, transferPath));
                         return;
                     } else {
-                        transferPath = getUniquePath(transferPath);
+                        transferPath = reservedPath = getUniquePath(transferPath);
                         log.trace("Rename file {} to {}", fileRecord.id(), transferPath);
                     }
                 }
             }
 
-            FileUtil.move(Path.of(fileRecord.localPath()), Path.of(transferPath), isOverwrite);
-            log.info("Transfer file {} to {}, duplication policy: {} overwrite: {}", fileRecord.id(), transferPath, duplicationPolicy, isOverwrite);
+            TransferMode usedMode = FileMover.transfer(Path.of(fileRecord.localPath()), Path.of(transferPath), isOverwrite, transferMode,
+                    (transferredBytes, totalBytes, bytesPerSecond) ->
+                            transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord,
+                                    FileRecord.TransferStatus.transferring,
+                                    null,
+                                    new TransferProgress(transferredBytes, totalBytes, bytesPerSecond),
+                                    null)));
+            log.info("Transfer file {} to {}, duplication policy: {} overwrite: {} mode: {}", fileRecord.id(), transferPath, duplicationPolicy, isOverwrite, usedMode);
+            UniqueNameIndex.INSTANCE.onWritten(Path.of(transferPath));
+            if (contentHash != null) {
+                hashIndex.put(new File(transferPath), contentHash, hashAlgorithm);
+            }
 
-            transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.completed, transferPath));
+            transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.completed, transferPath, null, usedMode));
         } catch (Exception e) {
             log.error(e, "Transfer file {} error", fileRecord.id());
             transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.error, null));
         } finally {
-            transferRecord = null;
+            if (reservedPath != null) {
+                RESERVED_PATHS.remove(reservedPath);
+            }
         }
     }
 
-    private String getUniquePath(String path) {
-        if (!FileUtil.exist(path)) {
-            return path;
+    /**
+     * The origin is only dropped when files are moved, other modes keep the TDLib cache intact.
+     */
+    protected void deleteOrigin(FileRecord fileRecord) {
+        if (transferMode == TransferMode.MOVE) {
+            FileUtil.del(fileRecord.localPath());
         }
-        String name = FileUtil.getName(path);
-        String parent = FileUtil.getParent(path, 1);
-        String extension = FileUtil.extName(name);
-        String baseName = FileUtil.mainName(name);
-        int i = 1;
-        while (FileUtil.exists(Path.of(parent, "%s-%d.%s".formatted(baseName, i, extension)), false)) {
-            i++;
+    }
+
+    private boolean isSameContent(File originFile, File existingFile, String contentHash) throws IOException {
+        if (contentHash == null) {
+            return FileHasher.isSameContent(originFile, existingFile, hashAlgorithm);
         }
-        return Path.of(parent, "%s-%d.%s".formatted(baseName, i, extension)).toString();
+        // The existing file is hashed at most once, later lookups hit the index
+        return originFile.length() == existingFile.length()
+               && contentHash.equals(hashIndex.getHash(existingFile, hashAlgorithm))
+               && FileHasher.isSameSamples(originFile, existingFile);
     }
 
-    public FileRecord getTransferRecord() {
-        return transferRecord;
+    /**
+     * @return a path that is neither existing nor reserved, reserved for the caller
+     */
+    private String getUniquePath(String path) {
+        if (!FileUtil.exist(path) && RESERVED_PATHS.add(path)) {
+            return path;
+        }
+        return UniqueNameIndex.INSTANCE.allocate(Path.of(path),
+                candidate -> !Files.exists(candidate, LinkOption.NOFOLLOW_LINKS) && RESERVED_PATHS.add(candidate.toString())
+        ).toString();
     }
 
     protected abstract String getTransferPath(FileRecord fileRecord);
@@ -159,9 +236,55 @@ public abstract class Transfer {
         }
     }
 
+    static class Template extends Transfer {
+
+        private final PathTemplate compiledTemplate;
+
+        public Template(SettingAutoRecords.TransferRule transferRule) {
+            super(transferRule);
+            this.compiledTemplate = PathTemplate.compile(StrUtil.blankToDefault(transferRule.pathTemplate, PathTemplate.DEFAULT_TEMPLATE));
+        }
+
+        @Override
+        protected String getTransferPath(FileRecord fileRecord) {
+            return compiledTemplate.resolve(Path.of(destination), fileRecord, Template::getChatTitle).toString();
+        }
+
+        private static String getChatTitle(FileRecord fileRecord) {
+            return TelegramVerticles.get(fileRecord.telegramId())
+                    .map(telegramVerticle -> telegramVerticle.getChat(fileRecord.chatId()))
+                    .map(chat -> chat.title)
+                    .orElse(null);
+        }
+    }
+
+    /**
+     * @param localPath    new local path of the file, null keeps the current one
+     * @param progress     progress of a copy, null for status changes
+     * @param transferMode mode used to write the file, only set when the file is written
+     * @param transferPath where the file is written, differs from the local path when the local file is kept, e.g. uploads
+     */
     public record TransferStatusUpdated(FileRecord fileRecord,
                                         FileRecord.TransferStatus transferStatus,
-                                        String localPath) {
+                                        String localPath,
+                                        TransferProgress progress,
+                                        TransferMode transferMode,
+                                        String transferPath) {
+
+        public TransferStatusUpdated(FileRecord fileRecord, FileRecord.TransferStatus transferStatus, String localPath) {
+            this(fileRecord, transferStatus, localPath, null, null);
+        }
+
+        public TransferStatusUpdated(FileRecord fileRecord,
+                                     FileRecord.TransferStatus transferStatus,
+                                     String localPath,
+                                     TransferProgress progress,
+                                     TransferMode transferMode) {
+            this(fileRecord, transferStatus, localPath, progress, transferMode, localPath);
+        }
+    }
+
+    public record TransferProgress(long transferredBytes, long totalBytes, long bytesPerSecond) {
     }
 
     public enum TransferPolicy {
@@ -173,6 +296,30 @@ public abstract class Transfer {
          * Transfer files by type
          */
         GROUP_BY_TYPE,
+        /**
+         * Transfer files by the path template of the rule, see {@link PathTemplate}
+         */
+        TEMPLATE,
+        ;
+    }
+
+    public enum TransferMode {
+        /**
+         * Move the file, rename on the same filesystem, otherwise copy and delete
+         */
+        MOVE,
+        /**
+         * Hardlink the file, the TDLib cache and the destination share the data, falls back to copy across filesystems
+         */
+        HARDLINK,
+        /**
+         * Clone the file with copy-on-write where the filesystem supports it (btrfs, xfs, apfs), falls back to copy
+         */
+        REFLINK,
+        /**
+         * Copy the file and keep the original
+         */
+        COPY,
         ;
     }
 
@@ -190,7 +337,7 @@ public abstract class Transfer {
          */
         SKIP,
         /**
-         * Calculate the hash of the file and compare with the existing file, if the hash is the same,
+         * Compare the file with the existing file by size, head and tail blocks and then the full hash, if they are the same,
          * delete the original file and set the local path to the existing file, otherwise, move the file
          */
         HASH,
@@ -0,0 +1,151 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import telegram.files.repository.FileRecord;
+import telegram.files.repository.FileRepository;
+
+import java.util.*;
+
+/**
+ * Collects transfer status changes and writes them with one multi-row update per status.
+ * <p>
+ * Only the last status of a file is written, a file that went from transferring to completed before the flush is
+ * written once. Flushes run one after another, so a later status never gets overwritten by an earlier one.
+ * <p>
+ * Statuses that must survive a crash, e.g. a completed move that changed the local path, are added with
+ * {@link #addAndFlush} and written at once together with the pending ones.
+ */
+public class TransferStatusBatcher {
+
+    private static final Log log = LogFactory.get();
+
+    public static final int FLUSH_INTERVAL = 500;
+
+    static final int MAX_BATCH_SIZE = 300;
+
+    private final FileRepository fileRepository;
+
+    // uniqueId -> last status, in insertion order
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    private Future<Void> flushing = Future.succeededFuture();
+
+    private long batches;
+
+    private long updates;
+
+    private record Pending(FileRecord.TransferStatus transferStatus, String localPath) {
+    }
+
+    public TransferStatusBatcher(FileRepository fileRepository) {
+        this.fileRepository = fileRepository;
+    }
+
+    /**
+     * @param localPath new local path of the file, null keeps the current one
+     */
+    public void add(String uniqueId, FileRecord.TransferStatus transferStatus, String localPath) {
+        if (put(uniqueId, transferStatus, localPath) >= MAX_BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Add the status and flush at once.
+     *
+     * @return completes when the status is written, or kept for the next flush if the write failed
+     */
+    public Future<Void> addAndFlush(String uniqueId, FileRecord.TransferStatus transferStatus, String localPath) {
+        put(uniqueId, transferStatus, localPath);
+        return flush();
+    }
+
+    /**
+     * @return the status not written yet, null if there is none
+     */
+    public synchronized FileRecord.TransferStatus getPendingStatus(String uniqueId) {
+        Pending status = pending.get(uniqueId);
+        return status == null ? null : status.transferStatus;
+    }
+
+    public synchronized int pendingSize() {
+        return pending.size();
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Write the pending statuses after the running flush.
+     */
+    public synchronized Future<Void> flush() {
+        flushing = flushing.transform(r -> write());
+        return flushing;
+    }
+
+    /**
+     * @return number of pending files
+     */
+    private synchronized int put(String uniqueId, FileRecord.TransferStatus transferStatus, String localPath) {
+        Pending previous = pending.remove(uniqueId);
+        String theLocalPath = localPath == null && previous != null ? previous.localPath : localPath;
+        pending.put(uniqueId, new Pending(transferStatus, theLocalPath));
+        updates++;
+        return pending.size();
+    }
+
+    private Future<Void> write() {
+        Map<String, Pending> writing;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return Future.succeededFuture();
+            }
+            writing = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+        // status -> uniqueId -> local path
+        Map<FileRecord.TransferStatus, Map<String, String>> groups = new EnumMap<>(FileRecord.TransferStatus.class);
+        writing.forEach((uniqueId, status) ->
+                groups.computeIfAbsent(status.transferStatus, k -> new LinkedHashMap<>()).put(uniqueId, status.localPath));
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        groups.forEach((transferStatus, localPaths) -> {
+            List<Map<String, String>> chunks = new ArrayList<>();
+            Map<String, String> chunk = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry : localPaths.entrySet()) {
+                chunk.put(entry.getKey(), entry.getValue());
+                if (chunk.size() >= MAX_BATCH_SIZE) {
+                    chunks.add(chunk);
+                    chunk = new LinkedHashMap<>();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(chunk);
+            }
+            for (Map<String, String> theChunk : chunks) {
+                futures.add(fileRepository.updateTransferStatuses(transferStatus, theChunk));
+            }
+        });
+        synchronized (this) {
+            batches += futures.size();
+        }
+        return Future.join(futures)
+                .<Void>mapEmpty()
+                .recover(err -> {
+                    log.error("Failed to write transfer status of %d files, retry on next flush: %s"
+                            .formatted(writing.size(), err.getMessage()));
+                    synchronized (this) {
+                        // Keep statuses added after this flush
+                        writing.forEach(pending::putIfAbsent);
+                    }
+                    return Future.succeededFuture();
+                });
+    }
+}
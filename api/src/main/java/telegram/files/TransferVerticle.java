@@ -8,78 +8,203 @@ import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.json.JsonObject;
-import org.jooq.lambda.tuple.Tuple3;
 import telegram.files.repository.FileRecord;
 import telegram.files.repository.SettingAutoRecords;
+import telegram.files.repository.SettingIoLimit;
+import telegram.files.repository.SettingKey;
+import telegram.files.repository.SettingS3;
+import telegram.files.repository.SettingTransfer;
+import telegram.files.repository.TransferRecord;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TransferVerticle extends AbstractVerticle {
     private static final Log log = LogFactory.get();
 
     private static final int HISTORY_SCAN_INTERVAL = 2 * 60 * 1000;
 
-    private static final int TRANSFER_INTERVAL = 3 * 1000;
+    private static final int DEFAULT_CONCURRENCY = 2;
+
+    private static final int HISTORY_PAGE_SIZE = 500;
+
+    /**
+     * History files are only read while fewer files are waiting, so a large backlog is not loaded at once
+     */
+    private static final int HISTORY_QUEUE_LIMIT = 10_000;
 
     private final SettingAutoRecords autoRecords;
 
-    private final Map<String, Transfer> transfers = new HashMap<>();
+    private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
 
-    private final BlockingQueue<WaitingTransferFile> waitingTransferFiles = new LinkedBlockingQueue<>();
+    /**
+     * Transfers run on platform threads, a move across disks blocks on file IO
+     */
+    private final ExecutorService transferExecutor = Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("transfer-worker-", 0).daemon().factory());
 
-    private volatile boolean isStopped = false;
+    private final TransferWorkerPool<WaitingTransferFile> workerPool =
+            new TransferWorkerPool<>(transferExecutor, DEFAULT_CONCURRENCY, this::transfer);
+
+    private final FileHashIndex hashIndex = new FileHashIndex(DataVerticle.fileHashRepository);
 
-    private volatile Transfer beingTransferred;
+    private volatile FileHasher.Algorithm hashAlgorithm = FileHasher.Algorithm.MD5;
+
+    /**
+     * Client of the s3:// destinations, null if S3 is not configured
+     */
+    private volatile S3Client s3Client;
+
+    private final TransferStatusBatcher statusBatcher = new TransferStatusBatcher(DataVerticle.fileRepository);
+
+    // automation unique key -> last file read by the history scan
+    private final Map<String, HistoryCursor> historyCursors = new ConcurrentHashMap<>();
+
+    private volatile boolean isStopped = false;
 
     public TransferVerticle() {
         this.autoRecords = AutomationsHolder.INSTANCE.autoRecords();
         AutomationsHolder.INSTANCE.registerOnRemoveListener(removedItems -> removedItems.forEach(item -> {
-            waitingTransferFiles.removeIf(waitingTransferFile -> waitingTransferFile.uniqueId().equals(item.uniqueKey()));
+            workerPool.removeIf(waitingTransferFile -> waitingTransferFile.telegramId() == item.telegramId
+                                                       && waitingTransferFile.chatId() == item.chatId);
             transfers.remove(item.uniqueKey());
+            historyCursors.remove(item.uniqueKey());
         }));
     }
 
     @Override
     public void start(Promise<Void> startPromise) {
-        initEventConsumer().onSuccess(v -> {
-            vertx.setPeriodic(0, HISTORY_SCAN_INTERVAL, id -> addHistoryFiles());
-            vertx.setPeriodic(0, TRANSFER_INTERVAL, id -> startTransfer());
-
-            log.info("""
-                    Transfer verticle started!
-                    |History scan interval: %s ms
-                    |Transfer interval: %s ms
-                    |Auto chats: %s
-                    """.formatted(HISTORY_SCAN_INTERVAL, TRANSFER_INTERVAL, autoRecords.getTransferEnabledItems().size()));
-
-            startPromise.complete();
-        }).onFailure(startPromise::fail);
+        initTransferSetting()
+                .compose(v -> initIoLimitSetting())
+                .compose(v -> initS3Setting())
+                .compose(v -> initEventConsumer())
+                .compose(v -> resumeInterruptedTransfers())
+                .onSuccess(v -> {
+                    vertx.setPeriodic(0, HISTORY_SCAN_INTERVAL, id -> addHistoryFiles());
+                    vertx.setPeriodic(TransferStatusBatcher.FLUSH_INTERVAL, id -> statusBatcher.flush());
+
+                    log.info("""
+                            Transfer verticle started!
+                            |History scan interval: %s ms
+                            |Auto chats: %s
+                            """.formatted(HISTORY_SCAN_INTERVAL, autoRecords.getTransferEnabledItems().size()));
+
+                    startPromise.complete();
+                }).onFailure(startPromise::fail);
     }
 
     @Override
     public void stop(Promise<Void> stopPromise) {
         isStopped = true;
-        if (beingTransferred != null) {
-            log.info("Wait for transfer to complete, file: %s".formatted(beingTransferred.getTransferRecord().uniqueId()));
-            while (beingTransferred != null) {
+        workerPool.clear();
+        if (workerPool.runningSize() > 0) {
+            log.info("Wait for transfer to complete, running: %d".formatted(workerPool.runningSize()));
+            while (workerPool.runningSize() > 0) {
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
                     log.error("Stop transfer verticle error: %s".formatted(e.getMessage()));
                     stopPromise.fail(e);
+                    return;
                 }
             }
         }
+        transferExecutor.shutdown();
+        Future.await(statusBatcher.flush());
         log.info("Transfer verticle stopped");
         stopPromise.complete();
     }
 
+    private Future<Void> initTransferSetting() {
+        return DataVerticle.settingRepository.<SettingTransfer>getByKey(SettingKey.transfer)
+                .onSuccess(this::applyTransferSetting)
+                .onFailure(e -> log.error("Get transfer setting failed!", e))
+                .<Void>mapEmpty()
+                .recover(e -> Future.succeededFuture());
+    }
+
+    /**
+     * Queue the transfers interrupted by the last stop again, a copy across filesystems resumes from its checkpoint.
+     */
+    private Future<Void> resumeInterruptedTransfers() {
+        return DataVerticle.fileRepository.resetInterruptedTransfers()
+                .onSuccess(fileRecords -> {
+                    int count = 0;
+                    for (FileRecord fileRecord : fileRecords) {
+                        if (addWaitingTransferFile(autoRecords.getItem(fileRecord.telegramId(), fileRecord.chatId()), fileRecord.uniqueId())) {
+                            count++;
+                        }
+                    }
+                    if (count > 0) {
+                        log.info("Resume interrupted transfers: %d".formatted(count));
+                    }
+                })
+                .<Void>mapEmpty()
+                .recover(e -> Future.succeededFuture());
+    }
+
+    private void applyTransferSetting(SettingTransfer settingTransfer) {
+        if (settingTransfer == null) {
+            workerPool.setConcurrency(DEFAULT_CONCURRENCY, null);
+            hashAlgorithm = FileHasher.Algorithm.MD5;
+        } else {
+            workerPool.setConcurrency(settingTransfer.concurrency > 0 ? settingTransfer.concurrency : DEFAULT_CONCURRENCY,
+                    settingTransfer.destinations);
+            hashAlgorithm = settingTransfer.hashAlgorithm == null ? FileHasher.Algorithm.MD5 : settingTransfer.hashAlgorithm;
+        }
+        transfers.values().forEach(transfer -> transfer.hashAlgorithm = hashAlgorithm);
+    }
+
+    private Future<Void> initIoLimitSetting() {
+        return DataVerticle.settingRepository.<SettingIoLimit>getByKey(SettingKey.ioLimit)
+                .onSuccess(IoGovernor.INSTANCE::setLimit)
+                .onFailure(e -> log.error("Get io limit setting failed!", e))
+                .<Void>mapEmpty()
+                .recover(e -> Future.succeededFuture());
+    }
+
+    private Future<Void> initS3Setting() {
+        return DataVerticle.settingRepository.<SettingS3>getByKey(SettingKey.s3)
+                .onSuccess(this::applyS3Setting)
+                .onFailure(e -> log.error("Get s3 setting failed!", e))
+                .<Void>mapEmpty()
+                .recover(e -> Future.succeededFuture());
+    }
+
+    private void applyS3Setting(SettingS3 settingS3) {
+        if (settingS3 == null || StrUtil.isBlank(settingS3.endpoint)) {
+            s3Client = null;
+        } else {
+            try {
+                s3Client = new S3Client(settingS3);
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid s3 endpoint: %s".formatted(settingS3.endpoint));
+                s3Client = null;
+            }
+        }
+        transfers.values().forEach(transfer -> {
+            if (transfer instanceof S3Transfer s3Transfer) {
+                s3Transfer.client = s3Client;
+            }
+        });
+    }
+
     private Future<Void> initEventConsumer() {
+        vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.ioLimit.name()), message -> {
+            log.debug("IO limit setting update: %s".formatted(message.body()));
+            IoGovernor.INSTANCE.setLimit((SettingIoLimit) SettingKey.ioLimit.converter.apply((String) message.body()));
+        });
+        vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.transfer.name()), message -> {
+            log.debug("Transfer setting update: %s".formatted(message.body()));
+            applyTransferSetting((SettingTransfer) SettingKey.transfer.converter.apply((String) message.body()));
+        });
+        vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.s3.name()), message -> {
+            log.debug("S3 setting update");
+            applyS3Setting((SettingS3) SettingKey.s3.converter.apply((String) message.body()));
+        });
         vertx.eventBus().consumer(EventEnum.TELEGRAM_EVENT.address(), message -> {
             JsonObject jsonObject = (JsonObject) message.body();
             EventPayload payload = jsonObject.getJsonObject("payload").mapTo(EventPayload.class);
@@ -112,7 +237,7 @@ public class TransferVerticle extends AbstractVerticle {
                     return;
                 }
 
-                if (addWaitingTransferFile(automation.telegramId, automation.chatId, fileRecord.uniqueId())) {
+                if (addWaitingTransferFile(automation, fileRecord.uniqueId())) {
                     log.debug("Add file to transfer queue: %s".formatted(fileRecord.uniqueId()));
                 }
             }
@@ -121,6 +246,10 @@ public class TransferVerticle extends AbstractVerticle {
         return Future.succeededFuture();
     }
 
+    /**
+     * Read the completed files of the chats with {@code transferHistory} page by page with a keyset cursor.
+     * A chat is complete when a scan from the start finds nothing, files still waiting are read again after a restart.
+     */
     private void addHistoryFiles() {
         if (CollUtil.isEmpty(autoRecords.automations)) {
             return;
@@ -136,43 +265,50 @@ public class TransferVerticle extends AbstractVerticle {
             if (transfer == null) {
                 continue;
             }
-            Tuple3<List<FileRecord>, Long, Long> filesTuple = Future.await(DataVerticle.fileRepository.getFiles(automation.chatId,
-                    Map.of("downloadStatus", FileRecord.DownloadStatus.completed.name(),
-                            "transferStatus", FileRecord.TransferStatus.idle.name()
-                    )
-            ));
-            List<FileRecord> files = filesTuple.v1;
-            if (CollUtil.isEmpty(files)) {
-                log.debug("No history files found for transfer: %s".formatted(automation.uniqueKey()));
-                automation.complete(SettingAutoRecords.HISTORY_TRANSFER_STATE);
-                continue;
-            }
-
             int count = 0;
-            for (FileRecord fileRecord : files) {
-                if (addWaitingTransferFile(fileRecord)) {
-                    count++;
+            while (!isStopped && workerPool.waitingSize() < HISTORY_QUEUE_LIMIT) {
+                HistoryCursor cursor = historyCursors.getOrDefault(automation.uniqueKey(), HistoryCursor.START);
+                List<FileRecord> files = Future.await(DataVerticle.fileRepository.getTransferableFiles(automation.telegramId,
+                        automation.chatId,
+                        cursor.messageId(),
+                        cursor.uniqueId(),
+                        HISTORY_PAGE_SIZE
+                ));
+                if (CollUtil.isEmpty(files)) {
+                    historyCursors.remove(automation.uniqueKey());
+                    if (cursor == HistoryCursor.START) {
+                        log.debug("No history files found for transfer: %s".formatted(automation.uniqueKey()));
+                        automation.complete(SettingAutoRecords.HISTORY_TRANSFER_STATE);
+                    }
+                    break;
+                }
+                FileRecord last = files.getLast();
+                historyCursors.put(automation.uniqueKey(), new HistoryCursor(last.messageId(), last.uniqueId()));
+                for (FileRecord fileRecord : files) {
+                    if (addWaitingTransferFile(automation, fileRecord.uniqueId())) {
+                        count++;
+                    }
                 }
             }
 
             if (count > 0) {
-                log.info("Add history files to transfer queue: %s".formatted(count));
-                break;
+                log.info("Add history files to transfer queue: %s %d".formatted(automation.uniqueKey(), count));
             }
         }
     }
 
-    private boolean addWaitingTransferFile(FileRecord fileRecord) {
-        return addWaitingTransferFile(fileRecord.telegramId(), fileRecord.chatId(), fileRecord.uniqueId());
-    }
-
-    private boolean addWaitingTransferFile(long telegramId, long chatId, String uniqueId) {
-        WaitingTransferFile waitingTransferFile = new WaitingTransferFile(telegramId, chatId, uniqueId);
-        if (!waitingTransferFiles.contains(waitingTransferFile)) {
-            waitingTransferFiles.add(waitingTransferFile);
-            return true;
+    /**
+     * Queue the file to the destination of the automation, it is transferred as soon as the destination has a free worker.
+     */
+    private boolean addWaitingTransferFile(SettingAutoRecords.Automation automation, String uniqueId) {
+        if (isStopped) {
+            return false;
+        }
+        Transfer transfer = getTransfer(automation);
+        if (transfer == null) {
+            return false;
         }
-        return false;
+        return workerPool.submit(transfer.destination, new WaitingTransferFile(automation.telegramId, automation.chatId, uniqueId));
     }
 
     private Transfer getTransfer(SettingAutoRecords.Automation automation) {
@@ -194,32 +330,45 @@ public class TransferVerticle extends AbstractVerticle {
 
         return transfers.computeIfAbsent(automation.uniqueKey(), k -> {
             Transfer transfer = Transfer.create(transferRule);
-            transfer.transferStatusUpdated = updated ->
-                    updateTransferStatus(updated.fileRecord(), updated.transferStatus(), updated.localPath());
+            transfer.hashAlgorithm = hashAlgorithm;
+            transfer.hashIndex = hashIndex;
+            if (transfer instanceof S3Transfer s3Transfer) {
+                s3Transfer.client = s3Client;
+            }
+            transfer.transferStatusUpdated = updated -> {
+                if (updated.progress() != null) {
+                    publishTransferProgress(updated.fileRecord(), updated.progress());
+                } else {
+                    join(updateTransferStatus(updated.fileRecord(), updated.transferStatus(), updated.localPath()));
+                    if (updated.transferMode() != null) {
+                        join(DataVerticle.transferRepository.save(new TransferRecord(updated.fileRecord().uniqueId(),
+                                updated.fileRecord().telegramId(),
+                                updated.transferMode().name(),
+                                updated.fileRecord().localPath(),
+                                updated.transferPath(),
+                                System.currentTimeMillis())));
+                    }
+                }
+            };
             return transfer;
         });
     }
 
-    public void startTransfer() {
-        if (beingTransferred != null) {
-            return;
-        }
+    /**
+     * Run on a transfer worker thread.
+     */
+    private void transfer(WaitingTransferFile waitingTransferFile) {
         try {
-            WaitingTransferFile waitingTransferFile = waitingTransferFiles.poll(1, TimeUnit.SECONDS);
-            if (waitingTransferFile == null) {
-                log.trace("No file to transfer");
-                return;
-            }
             Transfer transfer = transfers.get("%d:%d".formatted(waitingTransferFile.telegramId(), waitingTransferFile.chatId()));
             if (transfer == null) {
                 return;
             }
-            if (beingTransferred == transfer) {
-                waitingTransferFiles.add(waitingTransferFile);
-                log.debug("Transfer is busy: %s".formatted(waitingTransferFile.uniqueId));
+            FileRecord.TransferStatus pendingStatus = statusBatcher.getPendingStatus(waitingTransferFile.uniqueId);
+            if (pendingStatus != null && pendingStatus != FileRecord.TransferStatus.idle) {
+                log.debug("File %s is already %s".formatted(waitingTransferFile.uniqueId, pendingStatus));
                 return;
             }
-            FileRecord fileRecord = Future.await(DataVerticle.fileRepository.getByUniqueId(waitingTransferFile.uniqueId));
+            FileRecord fileRecord = join(DataVerticle.fileRepository.getByUniqueId(waitingTransferFile.uniqueId));
             if (fileRecord == null) {
                 log.error("File not found: %s".formatted(waitingTransferFile.uniqueId));
                 return;
@@ -227,11 +376,7 @@ public class TransferVerticle extends AbstractVerticle {
 
             startTransfer(fileRecord, transfer);
         } catch (Exception e) {
-            if (e instanceof InterruptedException) {
-                log.debug("Transfer loop interrupted");
-            } else {
-                log.error(e, "Transfer error");
-            }
+            log.error(e, "Transfer error");
         }
     }
 
@@ -250,28 +395,66 @@ public class TransferVerticle extends AbstractVerticle {
             return;
         }
 
-        beingTransferred = transfer;
         transfer.transfer(fileRecord);
-        beingTransferred = null;
     }
 
-    private void updateTransferStatus(FileRecord fileRecord, FileRecord.TransferStatus transferStatus, String localPath) {
-        Future.await(DataVerticle.fileRepository.updateTransferStatus(fileRecord.uniqueId(), transferStatus, localPath)
-                .onSuccess(fileUpdated -> {
-                    if (fileUpdated != null && !fileUpdated.isEmpty()) {
-                        EventPayload payload = EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
-                                .put("fileId", fileRecord.id())
-                                .put("uniqueId", fileRecord.uniqueId())
-                                .put("transferStatus", fileUpdated.getString("transferStatus"))
-                                .put("localPath", fileUpdated.getString("localPath"))
-                        );
-                        vertx.eventBus().publish(EventEnum.TELEGRAM_EVENT.address(),
-                                JsonObject.of("telegramId", fileRecord.telegramId(), "payload", JsonObject.mapFrom(payload))
-                        );
-                    }
-                }));
+    /**
+     * Intermediate statuses are written in the next batch, completed and error statuses and local path changes at once,
+     * so a restart never sees a moved file as still transferring. The clients are notified at once.
+     *
+     * @return completes when the status is written, at once for intermediate statuses
+     */
+    private Future<Void> updateTransferStatus(FileRecord fileRecord, FileRecord.TransferStatus transferStatus, String localPath) {
+        Future<Void> written;
+        if (transferStatus == FileRecord.TransferStatus.completed
+            || transferStatus == FileRecord.TransferStatus.error
+            || localPath != null) {
+            written = statusBatcher.addAndFlush(fileRecord.uniqueId(), transferStatus, localPath);
+        } else {
+            statusBatcher.add(fileRecord.uniqueId(), transferStatus, localPath);
+            written = Future.succeededFuture();
+        }
+        EventPayload payload = EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
+                .put("fileId", fileRecord.id())
+                .put("uniqueId", fileRecord.uniqueId())
+                .put("transferStatus", transferStatus.name())
+                .put("localPath", StrUtil.isBlank(localPath) ? null : localPath)
+        );
+        vertx.eventBus().publish(EventEnum.TELEGRAM_EVENT.address(),
+                JsonObject.of("telegramId", fileRecord.telegramId(), "payload", JsonObject.mapFrom(payload))
+        );
+        return written;
+    }
+
+    /**
+     * Progress is only sent to the clients, the database keeps the transfer status.
+     */
+    private void publishTransferProgress(FileRecord fileRecord, Transfer.TransferProgress progress) {
+        EventPayload payload = EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
+                .put("fileId", fileRecord.id())
+                .put("uniqueId", fileRecord.uniqueId())
+                .put("transferStatus", FileRecord.TransferStatus.transferring.name())
+                .put("transferProgress", JsonObject.of()
+                        .put("transferredBytes", progress.transferredBytes())
+                        .put("totalBytes", progress.totalBytes())
+                        .put("bytesPerSecond", progress.bytesPerSecond()))
+        );
+        vertx.eventBus().publish(EventEnum.TELEGRAM_EVENT.address(),
+                JsonObject.of("telegramId", fileRecord.telegramId(), "payload", JsonObject.mapFrom(payload))
+        );
+    }
+
+    /**
+     * Wait for the future on a transfer worker thread, which is not a vertx context.
+     */
+    private static <T> T join(Future<T> future) {
+        return future.toCompletionStage().toCompletableFuture().join();
     }
 
     private record WaitingTransferFile(long telegramId, long chatId, String uniqueId) {
     }
+
+    private record HistoryCursor(long messageId, String uniqueId) {
+        static final HistoryCursor START = new HistoryCursor(Long.MIN_VALUE, "");
+    }
 }
@@ -0,0 +1,153 @@
+package telegram.files;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Runs transfers on a shared executor, at most {@code concurrency} at a time for each destination root.
+ * <p>
+ * Jobs of one root are started in submission order as soon as a slot of the root is free,
+ * a slow destination (another disk, a network mount) does not hold back the others.
+ * A job is queued only once until it is finished.
+ */
+public class TransferWorkerPool<T> {
+
+    private final Executor executor;
+
+    private final Consumer<T> worker;
+
+    private int defaultConcurrency;
+
+    private Map<String, Integer> rootConcurrency = Map.of();
+
+    // root -> waiting jobs
+    private final Map<String, ArrayDeque<T>> waiting = new LinkedHashMap<>();
+
+    // root -> running count
+    private final Map<String, Integer> running = new HashMap<>();
+
+    // waiting and running jobs
+    private final Set<T> jobs = new HashSet<>();
+
+    private long completed;
+
+    public TransferWorkerPool(Executor executor, int defaultConcurrency, Consumer<T> worker) {
+        this.executor = executor;
+        this.defaultConcurrency = Math.max(1, defaultConcurrency);
+        this.worker = worker;
+    }
+
+    /**
+     * An {@code s3://} destination is a URI, not a path, and is only trimmed.
+     */
+    public static String normalizeRoot(String destination) {
+        if (S3Transfer.isS3(destination)) {
+            return StrUtil.removeSuffix(destination.trim(), "/");
+        }
+        return Path.of(destination).toAbsolutePath().normalize().toString();
+    }
+
+    public void setConcurrency(int defaultConcurrency, Map<String, Integer> rootConcurrency) {
+        Map<String, Integer> normalized = new HashMap<>();
+        if (rootConcurrency != null) {
+            rootConcurrency.forEach((root, concurrency) -> {
+                if (concurrency != null && concurrency > 0) {
+                    normalized.put(normalizeRoot(root), concurrency);
+                }
+            });
+        }
+        synchronized (this) {
+            this.defaultConcurrency = Math.max(1, defaultConcurrency);
+            this.rootConcurrency = normalized;
+        }
+        drain();
+    }
+
+    /**
+     * @return false if the job is already waiting or running
+     */
+    public boolean submit(String root, T job) {
+        synchronized (this) {
+            if (!jobs.add(job)) {
+                return false;
+            }
+            waiting.computeIfAbsent(normalizeRoot(root), k -> new ArrayDeque<>()).add(job);
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * Remove waiting jobs, running jobs are finished.
+     */
+    public synchronized void removeIf(Predicate<T> filter) {
+        waiting.values().forEach(queue -> queue.removeIf(job -> {
+            if (filter.test(job)) {
+                jobs.remove(job);
+                return true;
+            }
+            return false;
+        }));
+    }
+
+    public synchronized void clear() {
+        waiting.values().forEach(jobs::removeAll);
+        waiting.clear();
+    }
+
+    public synchronized int getConcurrency(String root) {
+        return rootConcurrency.getOrDefault(root, defaultConcurrency);
+    }
+
+    public synchronized int waitingSize() {
+        return waiting.values().stream().mapToInt(ArrayDeque::size).sum();
+    }
+
+    public synchronized int runningSize() {
+        return running.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    private void drain() {
+        List<Runnable> tasks = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, ArrayDeque<T>>> iterator = waiting.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, ArrayDeque<T>> entry = iterator.next();
+                String root = entry.getKey();
+                ArrayDeque<T> queue = entry.getValue();
+                int concurrency = getConcurrency(root);
+                while (!queue.isEmpty() && running.getOrDefault(root, 0) < concurrency) {
+                    T job = queue.poll();
+                    running.merge(root, 1, Integer::sum);
+                    tasks.add(() -> run(root, job));
+                }
+                if (queue.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        tasks.forEach(executor::execute);
+    }
+
+    private void run(String root, T job) {
+        try {
+            worker.accept(job);
+        } finally {
+            synchronized (this) {
+                jobs.remove(job);
+                running.computeIfPresent(root, (k, count) -> count > 1 ? count - 1 : null);
+                completed++;
+            }
+            drain();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package telegram.files;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Highest serial number used for each file name of a directory, so a renamed file gets {@code name-<n>.ext}
+ * without probing {@code name-1.ext}, {@code name-2.ext} ... one by one.
+ * <p>
+ * A directory is seeded from one listing when a name is first allocated in it, later files written by transfers
+ * are added with {@link #onWritten(Path)}. Files created by others are still caught by the check of the candidate,
+ * which then moves on to the next number. Recently used directories are kept in a bounded LRU.
+ */
+public class UniqueNameIndex {
+
+    private static final Log log = LogFactory.get();
+
+    public static final UniqueNameIndex INSTANCE = new UniqueNameIndex(1000);
+
+    private final Map<Path, Names> directories;
+
+    /**
+     * Longer numbers are part of the name, e.g. a date in {@code photo-20240101.jpg}, not a serial of {@code photo.jpg}.
+     * Names past it are still unique, they are found by checking the candidates one by one.
+     */
+    private static final int MAX_SERIAL_DIGITS = 3;
+
+    private static class Names {
+        // name key -> highest serial number used, 0 if only the name without number exists
+        final Map<String, Integer> serials = new HashMap<>();
+
+        void add(String fileName) {
+            String baseName = FileUtil.mainName(fileName);
+            String extension = FileUtil.extName(fileName);
+            int serial = 0;
+            int dash = baseName.lastIndexOf('-');
+            if (dash > 0 && dash < baseName.length() - 1 && baseName.length() - dash - 1 <= MAX_SERIAL_DIGITS) {
+                serial = parseSerial(baseName, dash + 1);
+                if (serial > 0) {
+                    baseName = baseName.substring(0, dash);
+                }
+            }
+            serials.merge(key(baseName, extension), Math.max(serial, 0), Math::max);
+        }
+
+        /**
+         * @return the number, -1 if it is not a serial, serials have no leading zero
+         */
+        private static int parseSerial(String baseName, int start) {
+            if (baseName.charAt(start) == '0') {
+                return -1;
+            }
+            int serial = 0;
+            for (int i = start; i < baseName.length(); i++) {
+                char c = baseName.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                serial = serial * 10 + (c - '0');
+            }
+            return serial;
+        }
+    }
+
+    UniqueNameIndex(int maxDirectories) {
+        this.directories = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Names> eldest) {
+                return size() > maxDirectories;
+            }
+        };
+    }
+
+    /**
+     * Allocate {@code name-<n>.ext} next to the path, with n greater than any number used for the name in the directory.
+     *
+     * @param tryReserve reserve the candidate, false if it is taken, e.g. created by someone else
+     */
+    public Path allocate(Path path, Predicate<Path> tryReserve) {
+        Path directory = path.toAbsolutePath().getParent();
+        String fileName = path.getFileName().toString();
+        String baseName = FileUtil.mainName(fileName);
+        String extension = FileUtil.extName(fileName);
+        String key = key(baseName, extension);
+        Names names = getNames(directory);
+        synchronized (names) {
+            int serial = names.serials.getOrDefault(key, 0);
+            while (true) {
+                serial++;
+                Path candidate = directory.resolve(extension.isEmpty() ?
+                        "%s-%d".formatted(baseName, serial) :
+                        "%s-%d.%s".formatted(baseName, serial, extension));
+                if (tryReserve.test(candidate)) {
+                    names.serials.put(key, serial);
+                    return candidate;
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a file written to a directory of the index, files of other directories are listed when first needed.
+     */
+    public void onWritten(Path path) {
+        Path directory = path.toAbsolutePath().getParent();
+        Names names;
+        synchronized (directories) {
+            names = directories.get(directory);
+        }
+        if (names != null) {
+            synchronized (names) {
+                names.add(path.getFileName().toString());
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (directories) {
+            directories.clear();
+        }
+    }
+
+    /**
+     * The directory is listed outside the lock, so a large or slow directory only delays allocations in itself.
+     * If two transfers list the same directory at once, the first listing added to the index is kept.
+     */
+    private Names getNames(Path directory) {
+        synchronized (directories) {
+            Names names = directories.get(directory);
+            if (names != null) {
+                return names;
+            }
+        }
+        Names listed = list(directory);
+        synchronized (directories) {
+            Names names = directories.putIfAbsent(directory, listed);
+            return names == null ? listed : names;
+        }
+    }
+
+    private static Names list(Path directory) {
+        Names names = new Names();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                names.add(file.getFileName().toString());
+            }
+        } catch (NoSuchFileException ignored) {
+            // Nothing is written to the directory yet
+        } catch (IOException e) {
+            log.warn("Failed to list directory %s: %s".formatted(directory, e.getMessage()));
+        }
+        return names;
+    }
+
+    private static String key(String baseName, String extension) {
+        return baseName + '\0' + extension;
+    }
+}
@@ -0,0 +1,138 @@
+package telegram.files;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming XXH64, a fast non-cryptographic hash, compatible with the reference implementation.
+ * <p>
+ * Not thread safe, one instance hashes one input.
+ */
+public class XxHash64 {
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONG_HANDLE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final VarHandle INT_HANDLE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final long seed;
+
+    private long v1, v2, v3, v4;
+
+    private long totalLength;
+
+    // Bytes not yet consumed by a 32 bytes stripe
+    private final byte[] buffer = new byte[32];
+
+    private int bufferSize;
+
+    public XxHash64() {
+        this(0);
+    }
+
+    public XxHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    public void reset() {
+        v1 = seed + PRIME64_1 + PRIME64_2;
+        v2 = seed + PRIME64_2;
+        v3 = seed;
+        v4 = seed - PRIME64_1;
+        totalLength = 0;
+        bufferSize = 0;
+    }
+
+    public void update(byte[] input, int offset, int length) {
+        totalLength += length;
+        if (bufferSize + length < 32) {
+            System.arraycopy(input, offset, buffer, bufferSize, length);
+            bufferSize += length;
+            return;
+        }
+        int end = offset + length;
+        if (bufferSize > 0) {
+            int fill = 32 - bufferSize;
+            System.arraycopy(input, offset, buffer, bufferSize, fill);
+            stripe(buffer, 0);
+            offset += fill;
+            bufferSize = 0;
+        }
+        for (; offset + 32 <= end; offset += 32) {
+            stripe(input, offset);
+        }
+        if (offset < end) {
+            bufferSize = end - offset;
+            System.arraycopy(input, offset, buffer, 0, bufferSize);
+        }
+    }
+
+    public long getValue() {
+        long hash;
+        if (totalLength >= 32) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = seed + PRIME64_5;
+        }
+        hash += totalLength;
+
+        int offset = 0;
+        for (; offset + 8 <= bufferSize; offset += 8) {
+            hash ^= round(0, (long) LONG_HANDLE.get(buffer, offset));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (offset + 4 <= bufferSize) {
+            hash ^= (Integer.toUnsignedLong((int) INT_HANDLE.get(buffer, offset))) * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            offset += 4;
+        }
+        for (; offset < bufferSize; offset++) {
+            hash ^= (buffer[offset] & 0xFFL) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    public String getHexValue() {
+        return "%016x".formatted(getValue());
+    }
+
+    private void stripe(byte[] input, int offset) {
+        v1 = round(v1, (long) LONG_HANDLE.get(input, offset));
+        v2 = round(v2, (long) LONG_HANDLE.get(input, offset + 8));
+        v3 = round(v3, (long) LONG_HANDLE.get(input, offset + 16));
+        v4 = round(v4, (long) LONG_HANDLE.get(input, offset + 24));
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+}
@@ -19,6 +19,13 @@ public interface Definition {
         return new TreeMap<>();
     }
 
+    /**
+     * Indexes created with a new table, an existing table gets them from a migration
+     */
+    default String[] getIndexes() {
+        return new String[0];
+    }
+
     default Future<Void> createTable(SqlClient sqlClient) {
         return sqlClient
                 .query(getScheme())
@@ -27,21 +34,30 @@ public interface Definition {
                 .mapEmpty();
     }
 
+    default Future<Void> createIndexes(SqlClient sqlClient) {
+        return Future.all(Stream.of(getIndexes())
+                        .map(sql -> sqlClient.query(sql).execute())
+                        .toList())
+                .onFailure(err -> log.error("Failed to create index: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
     default Future<Void> migrate(SqlClient sqlClient, Version lastVersion, Version currentVersion) {
         TreeMap<Version, String[]> migrations = getMigrations();
         if (migrations.isEmpty()) {
             return Future.succeededFuture();
         }
-        return Future.all(migrations.subMap(lastVersion, false, currentVersion, true).values()
-                        .stream()
-                        .flatMap(arr -> Stream.of(arr)
-                                .map(sql -> sqlClient.query(sql)
-                                        .execute()
-                                        .onFailure(e -> log.error("Failed to apply migration: %s".formatted(sql), e)))
-                        )
-                        .toList()
-                )
-                .onFailure(err -> log.error("Failed to migrate table: %s".formatted(err.getMessage())))
-                .mapEmpty();
+        // In version order, a statement may use a column added by an earlier one
+        Future<Void> future = Future.succeededFuture();
+        for (String sql : migrations.subMap(lastVersion, false, currentVersion, true).values()
+                .stream()
+                .flatMap(Stream::of)
+                .toList()) {
+            future = future.compose(r -> sqlClient.query(sql)
+                    .execute()
+                    .onFailure(e -> log.error("Failed to apply migration: %s".formatted(sql), e))
+                    .mapEmpty());
+        }
+        return future.onFailure(err -> log.error("Failed to migrate table: %s".formatted(err.getMessage())));
     }
 }
@@ -0,0 +1,73 @@
+package telegram.files.repository;
+
+import cn.hutool.core.map.MapUtil;
+import io.vertx.sqlclient.templates.RowMapper;
+import io.vertx.sqlclient.templates.TupleMapper;
+
+/**
+ * A waiting auto download item, persisted so the queue survives restarts.
+ *
+ * @param priority lower first, derived from the file types of the download rule
+ * @param flags    bit set of {@link #FLAG_HISTORICAL}
+ */
+public record DownloadQueueRecord(
+        long telegramId,
+        long chatId,
+        long messageId,
+        int fileId,
+        long size,
+        int priority,
+        int flags,
+        long createdAt
+) {
+
+    public static final int FLAG_HISTORICAL = 1;
+
+    public static final String SCHEME = """
+            CREATE TABLE IF NOT EXISTS download_queue
+            (
+                telegram_id BIGINT,
+                chat_id     BIGINT,
+                message_id  BIGINT,
+                file_id     INT,
+                size        BIGINT,
+                priority    INT,
+                flags       INT,
+                created_at  BIGINT,
+                PRIMARY KEY (telegram_id, chat_id, message_id)
+            )
+            """;
+
+    public static class DownloadQueueRecordDefinition implements Definition {
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+    }
+
+    public static RowMapper<DownloadQueueRecord> ROW_MAPPER = row ->
+            new DownloadQueueRecord(row.getLong("telegram_id"),
+                    row.getLong("chat_id"),
+                    row.getLong("message_id"),
+                    row.getInteger("file_id"),
+                    row.getLong("size"),
+                    row.getInteger("priority"),
+                    row.getInteger("flags"),
+                    row.getLong("created_at")
+            );
+
+    public static TupleMapper<DownloadQueueRecord> PARAM_MAPPER = TupleMapper.mapper(r ->
+            MapUtil.ofEntries(MapUtil.entry("telegram_id", r.telegramId()),
+                    MapUtil.entry("chat_id", r.chatId()),
+                    MapUtil.entry("message_id", r.messageId()),
+                    MapUtil.entry("file_id", r.fileId()),
+                    MapUtil.entry("size", r.size()),
+                    MapUtil.entry("priority", r.priority()),
+                    MapUtil.entry("flags", r.flags()),
+                    MapUtil.entry("created_at", r.createdAt())
+            ));
+
+    public boolean isHistorical() {
+        return (flags & FLAG_HISTORICAL) != 0;
+    }
+}
@@ -0,0 +1,27 @@
+package telegram.files.repository;
+
+import io.vertx.core.Future;
+
+import java.util.List;
+
+public interface DownloadQueueRepository {
+    Future<Void> enqueue(List<DownloadQueueRecord> records);
+
+    Future<Void> dequeue(List<DownloadQueueRecord> records);
+
+    Future<Void> deleteByChatId(long telegramId, long chatId);
+
+    Future<List<DownloadQueueRecord>> getAll();
+
+    Future<Void> saveScanThread(ScanThreadRecord record);
+
+    Future<Void> deleteScanThread(ScanThreadRecord record);
+
+    Future<List<ScanThreadRecord>> getScanThreads();
+
+    Future<Void> saveScanCursor(ScanCursorRecord record);
+
+    Future<Void> deleteScanCursors(long telegramId, long chatId, long messageThreadId);
+
+    Future<List<ScanCursorRecord>> getScanCursors();
+}
@@ -0,0 +1,76 @@
+package telegram.files.repository;
+
+import cn.hutool.core.map.MapUtil;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.templates.RowMapper;
+import io.vertx.sqlclient.templates.TupleMapper;
+import telegram.files.Config;
+
+/**
+ * Content hash of a file written by a transfer, valid while the size and the modified time of the file are unchanged.
+ *
+ * @param pathKey    XXH64 of the path, paths are too long for a primary key
+ * @param modifiedAt last modified time of the file in milliseconds
+ */
+public record FileHashRecord(
+        String pathKey,
+        String path,
+        long size,
+        long modifiedAt,
+        String algorithm,
+        String hash
+) {
+
+    public static final String SCHEME = """
+            CREATE TABLE IF NOT EXISTS file_hash_record
+            (
+                path_key    VARCHAR(16) PRIMARY KEY,
+                path        VARCHAR(1024),
+                size        BIGINT,
+                modified_at BIGINT,
+                algorithm   VARCHAR(16),
+                hash        VARCHAR(128)%s
+            )
+            """.formatted(Config.isMysql() ? ",\n    INDEX idx_file_hash_content (size, hash)" : "");
+
+    public static final String INDEX_SCHEME = """
+            CREATE INDEX IF NOT EXISTS idx_file_hash_content ON file_hash_record (size, hash)
+            """;
+
+    public static class FileHashRecordDefinition implements Definition {
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+
+        @Override
+        public Future<Void> createTable(SqlClient sqlClient) {
+            Future<Void> future = Definition.super.createTable(sqlClient);
+            if (Config.isMysql()) {
+                return future;
+            }
+            return future.compose(r -> sqlClient.query(INDEX_SCHEME).execute())
+                    .onFailure(err -> log.error("Failed to create index: %s".formatted(err.getMessage())))
+                    .mapEmpty();
+        }
+    }
+
+    public static RowMapper<FileHashRecord> ROW_MAPPER = row ->
+            new FileHashRecord(row.getString("path_key"),
+                    row.getString("path"),
+                    row.getLong("size"),
+                    row.getLong("modified_at"),
+                    row.getString("algorithm"),
+                    row.getString("hash")
+            );
+
+    public static TupleMapper<FileHashRecord> PARAM_MAPPER = TupleMapper.mapper(r ->
+            MapUtil.ofEntries(MapUtil.entry("path_key", r.pathKey()),
+                    MapUtil.entry("path", r.path()),
+                    MapUtil.entry("size", r.size()),
+                    MapUtil.entry("modified_at", r.modifiedAt()),
+                    MapUtil.entry("algorithm", r.algorithm()),
+                    MapUtil.entry("hash", r.hash())
+            ));
+}
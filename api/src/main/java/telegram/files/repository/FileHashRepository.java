@@ -0,0 +1,15 @@
+package telegram.files.repository;
+
+import io.vertx.core.Future;
+
+import java.util.List;
+
+public interface FileHashRepository {
+    Future<Void> save(FileHashRecord record);
+
+    Future<FileHashRecord> getByPathKey(String pathKey);
+
+    Future<List<FileHashRecord>> getByContent(long size, String algorithm, String hash);
+
+    Future<Void> deleteByPathKey(String pathKey);
+}
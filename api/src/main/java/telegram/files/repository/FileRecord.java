@@ -80,6 +80,13 @@ public record FileRecord(int id, //file id will change
             )
             """;
 
+    /**
+     * Keyset scan of the files waiting for transfer
+     */
+    public static final String TRANSFER_INDEX_SCHEME = """
+            CREATE INDEX idx_file_record_transfer ON file_record (chat_id, download_status, transfer_status, message_id)
+            """;
+
     public static final TreeMap<Version, String[]> MIGRATIONS = new TreeMap<>(MapUtil.ofEntries(
             MapUtil.entry(new Version("0.1.7"), new String[]{
                     "ALTER TABLE file_record ADD COLUMN start_date BIGINT;",
@@ -102,6 +109,9 @@ public record FileRecord(int id, //file id will change
             }),
             MapUtil.entry(new Version("0.2.4"), new String[]{
                     "ALTER TABLE file_record ADD COLUMN reaction_count BIGINT DEFAULT 0;",
+            }),
+            MapUtil.entry(new Version("0.2.6"), new String[]{
+                    TRANSFER_INDEX_SCHEME,
             })
     ));
 
@@ -111,6 +121,11 @@ public record FileRecord(int id, //file id will change
             return SCHEME;
         }
 
+        @Override
+        public String[] getIndexes() {
+            return new String[]{TRANSFER_INDEX_SCHEME};
+        }
+
         @Override
         public TreeMap<Version, String[]> getMigrations() {
             return MIGRATIONS;
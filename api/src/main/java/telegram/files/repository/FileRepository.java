@@ -35,8 +35,30 @@ public interface FileRepository {
 
     Future<Integer> countByStatus(long telegramId, FileRecord.DownloadStatus downloadStatus);
 
+    /**
+     * In-memory count of files being downloaded by the account, maintained on every status update.
+     */
+    int countDownloading(long telegramId);
+
+    /**
+     * Rebuild the in-memory downloading count from the database.
+     */
+    Future<Void> reconcileDownloadingCount();
+
     Future<JsonObject> countWithType(long telegramId, long chatId);
 
+    /**
+     * Set the files left transferring by a stopped process back to idle.
+     *
+     * @return the files as they were before the reset
+     */
+    Future<List<FileRecord>> resetInterruptedTransfers();
+
+    /**
+     * Completed files of the chat waiting for transfer, in (message_id, unique_id) order after the given key.
+     */
+    Future<List<FileRecord>> getTransferableFiles(long telegramId, long chatId, long afterMessageId, String afterUniqueId, int limit);
+
     Future<JsonObject> updateDownloadStatus(int fileId,
                                             String uniqueId,
                                             String localPath,
@@ -47,6 +69,14 @@ public interface FileRepository {
                                             FileRecord.TransferStatus transferStatus,
                                             String localPath);
 
+    /**
+     * Update the transfer status of the files with one statement.
+     *
+     * @param localPaths unique id -> new local path, null keeps the local path of the file
+     * @return number of updated rows
+     */
+    Future<Integer> updateTransferStatuses(FileRecord.TransferStatus transferStatus, Map<String, String> localPaths);
+
     Future<Void> updateFileId(int fileId, String uniqueId);
 
     Future<Integer> updateAlbumDataByMediaAlbumId(long mediaAlbumId, String caption, long reactionCount);
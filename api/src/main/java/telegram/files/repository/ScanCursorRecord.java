@@ -0,0 +1,56 @@
+package telegram.files.repository;
+
+import cn.hutool.core.map.MapUtil;
+import io.vertx.sqlclient.templates.RowMapper;
+import io.vertx.sqlclient.templates.TupleMapper;
+
+/**
+ * History scan position of one file type in a chat, or in a comment thread when {@code messageThreadId} is not 0.
+ */
+public record ScanCursorRecord(
+        long telegramId,
+        long chatId,
+        long messageThreadId,
+        String fileType,
+        long nextFromMessageId,
+        boolean complete
+) {
+
+    public static final String SCHEME = """
+            CREATE TABLE IF NOT EXISTS scan_cursor_record
+            (
+                telegram_id          BIGINT,
+                chat_id              BIGINT,
+                message_thread_id    BIGINT,
+                file_type            VARCHAR(255),
+                next_from_message_id BIGINT,
+                complete             INT,
+                PRIMARY KEY (telegram_id, chat_id, message_thread_id, file_type)
+            )
+            """;
+
+    public static class ScanCursorRecordDefinition implements Definition {
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+    }
+
+    public static RowMapper<ScanCursorRecord> ROW_MAPPER = row ->
+            new ScanCursorRecord(row.getLong("telegram_id"),
+                    row.getLong("chat_id"),
+                    row.getLong("message_thread_id"),
+                    row.getString("file_type"),
+                    row.getLong("next_from_message_id"),
+                    row.getInteger("complete") == 1
+            );
+
+    public static TupleMapper<ScanCursorRecord> PARAM_MAPPER = TupleMapper.mapper(r ->
+            MapUtil.ofEntries(MapUtil.entry("telegram_id", r.telegramId()),
+                    MapUtil.entry("chat_id", r.chatId()),
+                    MapUtil.entry("message_thread_id", r.messageThreadId()),
+                    MapUtil.entry("file_type", r.fileType()),
+                    MapUtil.entry("next_from_message_id", r.nextFromMessageId()),
+                    MapUtil.entry("complete", r.complete() ? 1 : 0)
+            ));
+}
@@ -0,0 +1,52 @@
+package telegram.files.repository;
+
+import cn.hutool.core.map.MapUtil;
+import io.vertx.sqlclient.templates.RowMapper;
+import io.vertx.sqlclient.templates.TupleMapper;
+
+/**
+ * Comment thread of a downloaded channel post, waiting to be scanned for comment files.
+ */
+public record ScanThreadRecord(
+        long telegramId,
+        long threadChatId,
+        long messageThreadId,
+        String nextFileType,
+        long nextFromMessageId
+) {
+
+    public static final String SCHEME = """
+            CREATE TABLE IF NOT EXISTS scan_thread_record
+            (
+                telegram_id          BIGINT,
+                thread_chat_id       BIGINT,
+                message_thread_id    BIGINT,
+                next_file_type       VARCHAR(255),
+                next_from_message_id BIGINT,
+                PRIMARY KEY (telegram_id, thread_chat_id, message_thread_id)
+            )
+            """;
+
+    public static class ScanThreadRecordDefinition implements Definition {
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+    }
+
+    public static RowMapper<ScanThreadRecord> ROW_MAPPER = row ->
+            new ScanThreadRecord(row.getLong("telegram_id"),
+                    row.getLong("thread_chat_id"),
+                    row.getLong("message_thread_id"),
+                    row.getString("next_file_type"),
+                    row.getLong("next_from_message_id")
+            );
+
+    public static TupleMapper<ScanThreadRecord> PARAM_MAPPER = TupleMapper.mapper(r ->
+            MapUtil.ofEntries(MapUtil.entry("telegram_id", r.telegramId()),
+                    MapUtil.entry("thread_chat_id", r.threadChatId()),
+                    MapUtil.entry("message_thread_id", r.messageThreadId()),
+                    MapUtil.entry("next_file_type", r.nextFileType()),
+                    MapUtil.entry("next_from_message_id", r.nextFromMessageId())
+            ));
+}
@@ -0,0 +1,16 @@
+package telegram.files.repository;
+
+public class SettingAdaptiveDownload {
+    public boolean enabled;
+    public int minLimit;
+    public int maxLimit;
+
+    public SettingAdaptiveDownload() {
+    }
+
+    public SettingAdaptiveDownload(boolean enabled, int minLimit, int maxLimit) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+}
@@ -1,6 +1,7 @@
 package telegram.files.repository;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import telegram.files.DownloadRuleMatcher;
 import telegram.files.MessyUtils;
 import telegram.files.Transfer;
 
@@ -92,6 +93,50 @@ public class SettingAutoRecords {
         public boolean downloadHistory;
 
         public boolean downloadCommentFiles;
+
+        /**
+         * File size range in bytes, inclusive
+         */
+        public Long minSize;
+
+        public Long maxSize;
+
+        /**
+         * Regular expressions, matched case-insensitively anywhere in the file name or caption
+         */
+        public String fileNamePattern;
+
+        public String captionPattern;
+
+        /**
+         * Mime types, e.g. video/mp4 or video/*
+         */
+        public List<String> mimeTypes;
+
+        /**
+         * Message date range in unix seconds, inclusive
+         */
+        public Long startDate;
+
+        public Long endDate;
+
+        public Long minReactionCount;
+
+        @JsonIgnore
+        private volatile DownloadRuleMatcher matcher;
+
+        /**
+         * @return the predicates of this rule, compiled once
+         */
+        @JsonIgnore
+        public DownloadRuleMatcher matcher() {
+            DownloadRuleMatcher theMatcher = matcher;
+            if (theMatcher == null) {
+                theMatcher = DownloadRuleMatcher.compile(this);
+                matcher = theMatcher;
+            }
+            return theMatcher;
+        }
     }
 
     public static class TransferConfig {
@@ -109,11 +154,24 @@ public class SettingAutoRecords {
     public static class TransferRule {
         public boolean transferHistory;
 
+        /**
+         * Local directory, or s3://bucket/prefix to upload to the object storage of the s3 setting
+         */
         public String destination;
 
         public Transfer.TransferPolicy transferPolicy;
 
+        /**
+         * Path relative to the destination of the TEMPLATE policy, e.g. {chatTitle}/{yyyy}/{MM}/{type}/{fileName}
+         */
+        public String pathTemplate;
+
         public Transfer.DuplicationPolicy duplicationPolicy;
+
+        /**
+         * MOVE if not set
+         */
+        public Transfer.TransferMode transferMode;
     }
 
     public SettingAutoRecords() {
@@ -0,0 +1,20 @@
+package telegram.files.repository;
+
+public class SettingHistoryScan {
+    /**
+     * Max concurrent history searches of each telegram account
+     */
+    public int parallelism;
+    /**
+     * Max history search requests per second of each telegram account
+     */
+    public double requestsPerSecond;
+
+    public SettingHistoryScan() {
+    }
+
+    public SettingHistoryScan(int parallelism, double requestsPerSecond) {
+        this.parallelism = parallelism;
+        this.requestsPerSecond = requestsPerSecond;
+    }
+}
@@ -0,0 +1,42 @@
+package telegram.files.repository;
+
+import java.util.List;
+
+public class SettingIoLimit {
+    /**
+     * Max disk bandwidth of transfers and hashing in MB/s, 0 is unlimited
+     */
+    public double mbPerSecond;
+    /**
+     * Bandwidth of time windows, the first window containing the current time applies instead of mbPerSecond
+     */
+    public List<Window> windows;
+
+    public static class Window {
+        /**
+         * HH:mm, a window ending before it starts wraps around midnight
+         */
+        public String startTime;
+
+        public String endTime;
+
+        public double mbPerSecond;
+
+        public Window() {
+        }
+
+        public Window(String startTime, String endTime, double mbPerSecond) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.mbPerSecond = mbPerSecond;
+        }
+    }
+
+    public SettingIoLimit() {
+    }
+
+    public SettingIoLimit(double mbPerSecond, List<Window> windows) {
+        this.mbPerSecond = mbPerSecond;
+        this.windows = windows;
+    }
+}
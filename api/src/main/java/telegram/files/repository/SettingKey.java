@@ -4,6 +4,7 @@ import cn.hutool.core.convert.Convert;
 import cn.hutool.core.lang.Version;
 import cn.hutool.core.util.StrUtil;
 import io.vertx.core.json.JsonObject;
+import telegram.files.DownloadQueue;
 
 import java.util.function.Function;
 
@@ -19,6 +20,30 @@ public enum SettingKey {
      */
     autoDownloadLimit(Convert::toInt),
     autoDownloadTimeLimited(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingTimeLimitedDownload.class)),
+    /**
+     * Adjust the auto download limit of each telegram account between min and max by measured throughput
+     */
+    autoDownloadAdaptive(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingAdaptiveDownload.class)),
+    /**
+     * Order of the auto download waiting queue, comma separated, e.g. liveFirst,fileType,smallestFirst
+     */
+    autoDownloadOrder(DownloadQueue.Order::parse),
+    /**
+     * Parallelism and request budget of the history scan of each telegram account
+     */
+    autoDownloadHistoryScan(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingHistoryScan.class)),
+    /**
+     * Concurrency of the file transfer to each destination
+     */
+    transfer(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingTransfer.class)),
+    /**
+     * Disk bandwidth shared by file transfers and hashing
+     */
+    ioLimit(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingIoLimit.class)),
+    /**
+     * S3-compatible object storage of transfers to s3://bucket/prefix destinations
+     */
+    s3(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingS3.class)),
     proxys(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingProxyRecords.class)),
     /**
      * Interval for calculating average speed, in seconds
@@ -0,0 +1,31 @@
+package telegram.files.repository;
+
+public class SettingS3 {
+    /**
+     * e.g. https://s3.us-east-1.amazonaws.com or http://minio:9000
+     */
+    public String endpoint;
+    /**
+     * us-east-1 if not set
+     */
+    public String region;
+
+    public String accessKey;
+
+    public String secretKey;
+    /**
+     * Address a bucket as endpoint/bucket instead of bucket.endpoint, true if not set, as most S3-compatible servers expect
+     */
+    public Boolean pathStyle;
+    /**
+     * Part size of multipart uploads in MB, at least 5
+     */
+    public int partSizeMB;
+    /**
+     * Max parts of a file uploaded in parallel
+     */
+    public int concurrency;
+
+    public SettingS3() {
+    }
+}
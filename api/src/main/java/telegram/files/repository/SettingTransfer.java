@@ -0,0 +1,28 @@
+package telegram.files.repository;
+
+import telegram.files.FileHasher;
+
+import java.util.Map;
+
+public class SettingTransfer {
+    /**
+     * Max concurrent transfers to each destination
+     */
+    public int concurrency;
+    /**
+     * Max concurrent transfers of a destination, overrides the default concurrency, e.g. a slow NFS mount
+     */
+    public Map<String, Integer> destinations;
+    /**
+     * Digest to compare files of the HASH duplication policy, MD5 by default, XXH64 is faster but not collision resistant
+     */
+    public FileHasher.Algorithm hashAlgorithm;
+
+    public SettingTransfer() {
+    }
+
+    public SettingTransfer(int concurrency, Map<String, Integer> destinations) {
+        this.concurrency = concurrency;
+        this.destinations = destinations;
+    }
+}
@@ -0,0 +1,57 @@
+package telegram.files.repository;
+
+import cn.hutool.core.map.MapUtil;
+import io.vertx.sqlclient.templates.RowMapper;
+import io.vertx.sqlclient.templates.TupleMapper;
+
+/**
+ * How a file was written to its destination, see {@link telegram.files.Transfer.TransferMode}.
+ *
+ * @param sourcePath the TDLib file, still present unless the mode is MOVE
+ */
+public record TransferRecord(
+        String uniqueId,
+        long telegramId,
+        String mode,
+        String sourcePath,
+        String transferPath,
+        long transferredAt
+) {
+
+    public static final String SCHEME = """
+            CREATE TABLE IF NOT EXISTS transfer_record
+            (
+                unique_id      VARCHAR(255) PRIMARY KEY,
+                telegram_id    BIGINT,
+                mode           VARCHAR(16),
+                source_path    VARCHAR(1024),
+                transfer_path  VARCHAR(1024),
+                transferred_at BIGINT
+            )
+            """;
+
+    public static class TransferRecordDefinition implements Definition {
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+    }
+
+    public static RowMapper<TransferRecord> ROW_MAPPER = row ->
+            new TransferRecord(row.getString("unique_id"),
+                    row.getLong("telegram_id"),
+                    row.getString("mode"),
+                    row.getString("source_path"),
+                    row.getString("transfer_path"),
+                    row.getLong("transferred_at")
+            );
+
+    public static TupleMapper<TransferRecord> PARAM_MAPPER = TupleMapper.mapper(r ->
+            MapUtil.ofEntries(MapUtil.entry("unique_id", r.uniqueId()),
+                    MapUtil.entry("telegram_id", r.telegramId()),
+                    MapUtil.entry("mode", r.mode()),
+                    MapUtil.entry("source_path", r.sourcePath()),
+                    MapUtil.entry("transfer_path", r.transferPath()),
+                    MapUtil.entry("transferred_at", r.transferredAt())
+            ));
+}
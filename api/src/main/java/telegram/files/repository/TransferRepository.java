@@ -0,0 +1,11 @@
+package telegram.files.repository;
+
+import io.vertx.core.Future;
+
+public interface TransferRepository {
+    Future<Void> save(TransferRecord record);
+
+    Future<TransferRecord> getByUniqueId(String uniqueId);
+
+    Future<Void> deleteByUniqueId(String uniqueId);
+}
@@ -0,0 +1,175 @@
+package telegram.files.repository.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.collection.IterUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import telegram.files.Config;
+import telegram.files.repository.DownloadQueueRecord;
+import telegram.files.repository.DownloadQueueRepository;
+import telegram.files.repository.ScanCursorRecord;
+import telegram.files.repository.ScanThreadRecord;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class DownloadQueueRepositoryImpl extends AbstractSqlRepository implements DownloadQueueRepository {
+
+    private static final Log log = LogFactory.get();
+
+    public DownloadQueueRepositoryImpl(SqlClient sqlClient) {
+        super(sqlClient);
+    }
+
+    @Override
+    public Future<Void> enqueue(List<DownloadQueueRecord> records) {
+        if (CollUtil.isEmpty(records)) {
+            return Future.succeededFuture();
+        }
+        return SqlTemplate
+                .forUpdate(sqlClient, Config.isMysql() ?
+                        """
+                                INSERT IGNORE INTO download_queue(telegram_id, chat_id, message_id, file_id, size, priority, flags, created_at)
+                                VALUES (#{telegram_id}, #{chat_id}, #{message_id}, #{file_id}, #{size}, #{priority}, #{flags}, #{created_at})""" :
+                        """
+                                INSERT INTO download_queue(telegram_id, chat_id, message_id, file_id, size, priority, flags, created_at)
+                                VALUES (#{telegram_id}, #{chat_id}, #{message_id}, #{file_id}, #{size}, #{priority}, #{flags}, #{created_at})
+                                ON CONFLICT (telegram_id, chat_id, message_id) DO NOTHING""")
+                .mapFrom(DownloadQueueRecord.PARAM_MAPPER)
+                .executeBatch(records)
+                .onSuccess(r -> log.trace("Successfully enqueued download records: %d".formatted(records.size())))
+                .onFailure(err -> log.error("Failed to enqueue download records: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<Void> dequeue(List<DownloadQueueRecord> records) {
+        if (CollUtil.isEmpty(records)) {
+            return Future.succeededFuture();
+        }
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        DELETE FROM download_queue
+                        WHERE telegram_id = #{telegram_id} AND chat_id = #{chat_id} AND message_id = #{message_id}
+                        """)
+                .mapFrom(DownloadQueueRecord.PARAM_MAPPER)
+                .executeBatch(records)
+                .onSuccess(r -> log.trace("Successfully dequeued download records: %d".formatted(records.size())))
+                .onFailure(err -> log.error("Failed to dequeue download records: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<Void> deleteByChatId(long telegramId, long chatId) {
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        DELETE FROM download_queue WHERE telegram_id = #{telegramId} AND chat_id = #{chatId}
+                        """)
+                .execute(Map.of("telegramId", telegramId, "chatId", chatId))
+                .onFailure(err -> log.error("Failed to delete download records: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<List<DownloadQueueRecord>> getAll() {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM download_queue ORDER BY created_at
+                        """)
+                .mapTo(DownloadQueueRecord.ROW_MAPPER)
+                .execute(Collections.emptyMap())
+                .map(IterUtil::toList)
+                .onFailure(err -> log.error("Failed to get download records: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<Void> saveScanThread(ScanThreadRecord record) {
+        return SqlTemplate
+                .forUpdate(sqlClient, Config.isMysql() ?
+                        """
+                                INSERT INTO scan_thread_record(telegram_id, thread_chat_id, message_thread_id, next_file_type, next_from_message_id)
+                                VALUES (#{telegram_id}, #{thread_chat_id}, #{message_thread_id}, #{next_file_type}, #{next_from_message_id})
+                                ON DUPLICATE KEY UPDATE next_file_type = VALUES(next_file_type), next_from_message_id = VALUES(next_from_message_id)""" :
+                        """
+                                INSERT INTO scan_thread_record(telegram_id, thread_chat_id, message_thread_id, next_file_type, next_from_message_id)
+                                VALUES (#{telegram_id}, #{thread_chat_id}, #{message_thread_id}, #{next_file_type}, #{next_from_message_id})
+                                ON CONFLICT (telegram_id, thread_chat_id, message_thread_id)
+                                DO UPDATE SET next_file_type = #{next_file_type}, next_from_message_id = #{next_from_message_id}""")
+                .mapFrom(ScanThreadRecord.PARAM_MAPPER)
+                .execute(record)
+                .onFailure(err -> log.error("Failed to save scan thread record: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<Void> deleteScanThread(ScanThreadRecord record) {
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        DELETE FROM scan_thread_record
+                        WHERE telegram_id = #{telegram_id} AND thread_chat_id = #{thread_chat_id} AND message_thread_id = #{message_thread_id}
+                        """)
+                .mapFrom(ScanThreadRecord.PARAM_MAPPER)
+                .execute(record)
+                .onFailure(err -> log.error("Failed to delete scan thread record: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<List<ScanThreadRecord>> getScanThreads() {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM scan_thread_record
+                        """)
+                .mapTo(ScanThreadRecord.ROW_MAPPER)
+                .execute(Collections.emptyMap())
+                .map(IterUtil::toList)
+                .onFailure(err -> log.error("Failed to get scan thread records: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<Void> saveScanCursor(ScanCursorRecord record) {
+        return SqlTemplate
+                .forUpdate(sqlClient, Config.isMysql() ?
+                        """
+                                INSERT INTO scan_cursor_record(telegram_id, chat_id, message_thread_id, file_type, next_from_message_id, complete)
+                                VALUES (#{telegram_id}, #{chat_id}, #{message_thread_id}, #{file_type}, #{next_from_message_id}, #{complete})
+                                ON DUPLICATE KEY UPDATE next_from_message_id = VALUES(next_from_message_id), complete = VALUES(complete)""" :
+                        """
+                                INSERT INTO scan_cursor_record(telegram_id, chat_id, message_thread_id, file_type, next_from_message_id, complete)
+                                VALUES (#{telegram_id}, #{chat_id}, #{message_thread_id}, #{file_type}, #{next_from_message_id}, #{complete})
+                                ON CONFLICT (telegram_id, chat_id, message_thread_id, file_type)
+                                DO UPDATE SET next_from_message_id = #{next_from_message_id}, complete = #{complete}""")
+                .mapFrom(ScanCursorRecord.PARAM_MAPPER)
+                .execute(record)
+                .onFailure(err -> log.error("Failed to save scan cursor record: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<Void> deleteScanCursors(long telegramId, long chatId, long messageThreadId) {
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        DELETE FROM scan_cursor_record
+                        WHERE telegram_id = #{telegramId} AND chat_id = #{chatId} AND message_thread_id = #{messageThreadId}
+                        """)
+                .execute(Map.of("telegramId", telegramId, "chatId", chatId, "messageThreadId", messageThreadId))
+                .onFailure(err -> log.error("Failed to delete scan cursor records: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<List<ScanCursorRecord>> getScanCursors() {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM scan_cursor_record
+                        """)
+                .mapTo(ScanCursorRecord.ROW_MAPPER)
+                .execute(Collections.emptyMap())
+                .map(IterUtil::toList)
+                .onFailure(err -> log.error("Failed to get scan cursor records: %s".formatted(err.getMessage())));
+    }
+}
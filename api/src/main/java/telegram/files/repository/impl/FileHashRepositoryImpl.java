@@ -0,0 +1,80 @@
+package telegram.files.repository.impl;
+
+import cn.hutool.core.collection.IterUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import telegram.files.Config;
+import telegram.files.repository.FileHashRecord;
+import telegram.files.repository.FileHashRepository;
+
+import java.util.List;
+import java.util.Map;
+
+public class FileHashRepositoryImpl extends AbstractSqlRepository implements FileHashRepository {
+
+    private static final Log log = LogFactory.get();
+
+    public FileHashRepositoryImpl(SqlClient sqlClient) {
+        super(sqlClient);
+    }
+
+    @Override
+    public Future<Void> save(FileHashRecord record) {
+        return SqlTemplate
+                .forUpdate(sqlClient, Config.isMysql() ?
+                        """
+                                INSERT INTO file_hash_record(path_key, path, size, modified_at, algorithm, hash)
+                                VALUES (#{path_key}, #{path}, #{size}, #{modified_at}, #{algorithm}, #{hash})
+                                ON DUPLICATE KEY UPDATE path = VALUES(path), size = VALUES(size), modified_at = VALUES(modified_at),
+                                algorithm = VALUES(algorithm), hash = VALUES(hash)""" :
+                        """
+                                INSERT INTO file_hash_record(path_key, path, size, modified_at, algorithm, hash)
+                                VALUES (#{path_key}, #{path}, #{size}, #{modified_at}, #{algorithm}, #{hash})
+                                ON CONFLICT (path_key)
+                                DO UPDATE SET path = #{path}, size = #{size}, modified_at = #{modified_at},
+                                algorithm = #{algorithm}, hash = #{hash}""")
+                .mapFrom(FileHashRecord.PARAM_MAPPER)
+                .execute(record)
+                .onFailure(err -> log.error("Failed to save file hash record: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<FileHashRecord> getByPathKey(String pathKey) {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM file_hash_record WHERE path_key = #{pathKey}
+                        """)
+                .mapTo(FileHashRecord.ROW_MAPPER)
+                .execute(Map.of("pathKey", pathKey))
+                .map(rs -> rs.size() > 0 ? rs.iterator().next() : null)
+                .onFailure(err -> log.error("Failed to get file hash record: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<List<FileHashRecord>> getByContent(long size, String algorithm, String hash) {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM file_hash_record
+                        WHERE size = #{size} AND hash = #{hash} AND algorithm = #{algorithm}
+                        """)
+                .mapTo(FileHashRecord.ROW_MAPPER)
+                .execute(Map.of("size", size, "hash", hash, "algorithm", algorithm))
+                .map(IterUtil::toList)
+                .onFailure(err -> log.error("Failed to get file hash records: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<Void> deleteByPathKey(String pathKey) {
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        DELETE FROM file_hash_record WHERE path_key = #{pathKey}
+                        """)
+                .execute(Map.of("pathKey", pathKey))
+                .onFailure(err -> log.error("Failed to delete file hash record: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+}
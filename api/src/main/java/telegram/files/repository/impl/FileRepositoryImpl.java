@@ -27,6 +27,7 @@ import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -34,6 +35,9 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
 
     private static final Log log = LogFactory.get();
 
+    // telegramId -> unique ids of files being downloaded
+    private final Map<Long, Set<String>> downloadingFiles = new ConcurrentHashMap<>();
+
     public FileRepositoryImpl(SqlClient sqlClient) {
         super(sqlClient);
     }
@@ -55,6 +59,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 .mapFrom(FileRecord.PARAM_MAPPER)
                 .execute(fileRecord)
                 .map(r -> fileRecord)
+                .onSuccess(r -> trackDownloading(r.telegramId(), r.uniqueId(), r.type(), r.downloadStatus()))
                 .compose(r -> {
                     if (Objects.equals(r.type(), "thumbnail")) {
                         return Future.succeededFuture(r);
@@ -493,6 +498,93 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 .onFailure(err -> log.error("Failed to count file record: %s".formatted(err.getMessage())));
     }
 
+    @Override
+    public Future<List<FileRecord>> resetInterruptedTransfers() {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM file_record WHERE transfer_status = #{transferStatus}
+                        """)
+                .mapTo(FileRecord.ROW_MAPPER)
+                .execute(Map.of("transferStatus", FileRecord.TransferStatus.transferring.name()))
+                .map(IterUtil::toList)
+                .compose(records -> SqlTemplate
+                        .forUpdate(sqlClient, """
+                                UPDATE file_record SET transfer_status = #{idle} WHERE transfer_status = #{transferStatus}
+                                """)
+                        .execute(Map.of("idle", FileRecord.TransferStatus.idle.name(),
+                                "transferStatus", FileRecord.TransferStatus.transferring.name()))
+                        .map(records))
+                .onFailure(err -> log.error("Failed to reset interrupted transfers: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<List<FileRecord>> getTransferableFiles(long telegramId, long chatId, long afterMessageId, String afterUniqueId, int limit) {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM file_record
+                        WHERE chat_id = #{chatId}
+                          AND download_status = #{downloadStatus}
+                          AND transfer_status = #{transferStatus}
+                          AND telegram_id = #{telegramId}
+                          AND (message_id > #{messageId} OR (message_id = #{messageId} AND unique_id > #{uniqueId}))
+                        ORDER BY message_id, unique_id
+                        LIMIT #{limit}
+                        """)
+                .mapTo(FileRecord.ROW_MAPPER)
+                .execute(MapUtil.ofEntries(MapUtil.entry("chatId", chatId),
+                        MapUtil.entry("downloadStatus", FileRecord.DownloadStatus.completed.name()),
+                        MapUtil.entry("transferStatus", FileRecord.TransferStatus.idle.name()),
+                        MapUtil.entry("telegramId", telegramId),
+                        MapUtil.entry("messageId", afterMessageId),
+                        MapUtil.entry("uniqueId", StrUtil.nullToEmpty(afterUniqueId)),
+                        MapUtil.entry("limit", limit)
+                ))
+                .map(IterUtil::toList)
+                .onFailure(err -> log.error("Failed to get transferable files: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public int countDownloading(long telegramId) {
+        Set<String> uniqueIds = downloadingFiles.get(telegramId);
+        return uniqueIds == null ? 0 : uniqueIds.size();
+    }
+
+    @Override
+    public Future<Void> reconcileDownloadingCount() {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT telegram_id, unique_id
+                        FROM file_record
+                        WHERE download_status = #{downloadStatus}
+                          AND type != 'thumbnail'
+                        """)
+                .execute(Map.of("downloadStatus", FileRecord.DownloadStatus.downloading.name()))
+                .onSuccess(rows -> {
+                    Map<Long, Set<String>> rebuilt = new HashMap<>();
+                    rows.forEach(row -> rebuilt.computeIfAbsent(row.getLong("telegram_id"), k -> ConcurrentHashMap.newKeySet())
+                            .add(row.getString("unique_id")));
+                    downloadingFiles.keySet().removeIf(telegramId -> !rebuilt.containsKey(telegramId));
+                    downloadingFiles.putAll(rebuilt);
+                    log.trace("Reconciled downloading count of %d accounts".formatted(rebuilt.size()));
+                })
+                .onFailure(err -> log.error("Failed to reconcile downloading count: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    private void trackDownloading(long telegramId, String uniqueId, String type, String downloadStatus) {
+        if (Objects.equals(type, "thumbnail")) {
+            return;
+        }
+        if (FileRecord.DownloadStatus.downloading.name().equals(downloadStatus)) {
+            downloadingFiles.computeIfAbsent(telegramId, k -> ConcurrentHashMap.newKeySet()).add(uniqueId);
+        } else {
+            Set<String> uniqueIds = downloadingFiles.get(telegramId);
+            if (uniqueIds != null) {
+                uniqueIds.remove(uniqueId);
+            }
+        }
+    }
+
     @Override
     public Future<JsonObject> countWithType(long telegramId, long chatId) {
         String whereClause = "type != 'thumbnail'";
@@ -576,6 +668,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                                 }
                                 if (downloadStatusUpdated) {
                                     result.put("downloadStatus", downloadStatus.name());
+                                    trackDownloading(record.telegramId(), uniqueId, record.type(), downloadStatus.name());
                                 }
                                 log.debug("Successfully updated file record: %s, path: %s, status: %s, before: %s, %s"
                                         .formatted(uniqueId, localPath, downloadStatus.name(), record.localPath(), record.downloadStatus()));
@@ -631,6 +724,36 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 });
     }
 
+    @Override
+    public Future<Integer> updateTransferStatuses(FileRecord.TransferStatus transferStatus, Map<String, String> localPaths) {
+        if (transferStatus == null || MapUtil.isEmpty(localPaths)) {
+            return Future.succeededFuture(0);
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("transferStatus", transferStatus.name());
+        StringJoiner uniqueIds = new StringJoiner(", ");
+        StringBuilder localPathCases = new StringBuilder();
+        int i = 0;
+        for (Map.Entry<String, String> entry : localPaths.entrySet()) {
+            params.put("u" + i, entry.getKey());
+            uniqueIds.add("#{u%d}".formatted(i));
+            if (StrUtil.isNotBlank(entry.getValue())) {
+                params.put("p" + i, entry.getValue());
+                localPathCases.append(" WHEN #{u%d} THEN #{p%d}".formatted(i, i));
+            }
+            i++;
+        }
+        String sql = "UPDATE file_record SET transfer_status = #{transferStatus}"
+                     + (localPathCases.isEmpty() ? "" : ", local_path = CASE unique_id%s ELSE local_path END".formatted(localPathCases))
+                     + " WHERE unique_id IN (%s)".formatted(uniqueIds);
+        return SqlTemplate
+                .forUpdate(sqlClient, sql)
+                .execute(params)
+                .map(SqlResult::rowCount)
+                .onSuccess(count -> log.debug("Updated transfer status of %d files to %s".formatted(count, transferStatus)))
+                .onFailure(err -> log.error("Failed to update transfer status: %s".formatted(err.getMessage())));
+    }
+
     @Override
     public Future<Void> updateFileId(int fileId, String uniqueId) {
         if (fileId <= 0 || StrUtil.isBlank(uniqueId)) {
@@ -728,6 +851,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                         DELETE FROM file_record WHERE unique_id = #{uniqueId}
                         """)
                 .execute(Map.of("uniqueId", uniqueId))
+                .onSuccess(r -> downloadingFiles.values().forEach(uniqueIds -> uniqueIds.remove(uniqueId)))
                 .onFailure(err -> log.error("Failed to delete file record: %s".formatted(err.getMessage()))
                 )
                 .mapEmpty();
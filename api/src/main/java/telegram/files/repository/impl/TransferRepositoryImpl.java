@@ -0,0 +1,65 @@
+package telegram.files.repository.impl;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import telegram.files.Config;
+import telegram.files.repository.TransferRecord;
+import telegram.files.repository.TransferRepository;
+
+import java.util.Map;
+
+public class TransferRepositoryImpl extends AbstractSqlRepository implements TransferRepository {
+
+    private static final Log log = LogFactory.get();
+
+    public TransferRepositoryImpl(SqlClient sqlClient) {
+        super(sqlClient);
+    }
+
+    @Override
+    public Future<Void> save(TransferRecord record) {
+        return SqlTemplate
+                .forUpdate(sqlClient, Config.isMysql() ?
+                        """
+                                INSERT INTO transfer_record(unique_id, telegram_id, mode, source_path, transfer_path, transferred_at)
+                                VALUES (#{unique_id}, #{telegram_id}, #{mode}, #{source_path}, #{transfer_path}, #{transferred_at})
+                                ON DUPLICATE KEY UPDATE telegram_id = VALUES(telegram_id), mode = VALUES(mode), source_path = VALUES(source_path),
+                                transfer_path = VALUES(transfer_path), transferred_at = VALUES(transferred_at)""" :
+                        """
+                                INSERT INTO transfer_record(unique_id, telegram_id, mode, source_path, transfer_path, transferred_at)
+                                VALUES (#{unique_id}, #{telegram_id}, #{mode}, #{source_path}, #{transfer_path}, #{transferred_at})
+                                ON CONFLICT (unique_id)
+                                DO UPDATE SET telegram_id = #{telegram_id}, mode = #{mode}, source_path = #{source_path},
+                                transfer_path = #{transfer_path}, transferred_at = #{transferred_at}""")
+                .mapFrom(TransferRecord.PARAM_MAPPER)
+                .execute(record)
+                .onFailure(err -> log.error("Failed to save transfer record: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<TransferRecord> getByUniqueId(String uniqueId) {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM transfer_record WHERE unique_id = #{uniqueId}
+                        """)
+                .mapTo(TransferRecord.ROW_MAPPER)
+                .execute(Map.of("uniqueId", uniqueId))
+                .map(rs -> rs.size() > 0 ? rs.iterator().next() : null)
+                .onFailure(err -> log.error("Failed to get transfer record: %s".formatted(err.getMessage())));
+    }
+
+    @Override
+    public Future<Void> deleteByUniqueId(String uniqueId) {
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        DELETE FROM transfer_record WHERE unique_id = #{uniqueId}
+                        """)
+                .execute(Map.of("uniqueId", uniqueId))
+                .onFailure(err -> log.error("Failed to delete transfer record: %s".formatted(err.getMessage())))
+                .mapEmpty();
+    }
+}
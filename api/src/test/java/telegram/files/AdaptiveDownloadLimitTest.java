@@ -0,0 +1,43 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveDownloadLimitTest {
+
+    @Test
+    @DisplayName("Increase additively while throughput improves")
+    void increaseTest() {
+        AdaptiveDownloadLimit adaptiveLimit = new AdaptiveDownloadLimit(5, 1, 7);
+        Assertions.assertEquals(6, adaptiveLimit.adjust(1000, 1, 0, 30, true));
+        Assertions.assertEquals(7, adaptiveLimit.adjust(1200, 1, 0, 30, true));
+        // capped by max limit
+        Assertions.assertEquals(7, adaptiveLimit.adjust(1500, 1, 0, 30, true));
+    }
+
+    @Test
+    @DisplayName("Decrease multiplicatively when throughput drops")
+    void decreaseTest() {
+        AdaptiveDownloadLimit adaptiveLimit = new AdaptiveDownloadLimit(10, 2, 20);
+        adaptiveLimit.adjust(1000, 2, 0, 30, true);
+        Assertions.assertEquals(7, adaptiveLimit.adjust(500, 1, 0, 30, true));
+        Assertions.assertEquals(AdaptiveDownloadLimit.Action.decrease, adaptiveLimit.getLastAction());
+    }
+
+    @Test
+    @DisplayName("Decrease when downloads fail and respect min limit")
+    void failedTest() {
+        AdaptiveDownloadLimit adaptiveLimit = new AdaptiveDownloadLimit(3, 2, 20);
+        Assertions.assertEquals(2, adaptiveLimit.adjust(1000, 0, 2, 30, false));
+        Assertions.assertEquals(2, adaptiveLimit.adjust(1000, 0, 2, 30, false));
+    }
+
+    @Test
+    @DisplayName("Hold when slots are not saturated")
+    void holdTest() {
+        AdaptiveDownloadLimit adaptiveLimit = new AdaptiveDownloadLimit(5, 1, 10);
+        Assertions.assertEquals(5, adaptiveLimit.adjust(1000, 3, 0, 30, false));
+        Assertions.assertEquals(AdaptiveDownloadLimit.Action.hold, adaptiveLimit.getLastAction());
+    }
+}
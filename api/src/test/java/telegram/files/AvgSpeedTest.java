@@ -4,6 +4,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class AvgSpeedTest {
@@ -40,6 +41,19 @@ class AvgSpeedTest {
         assertEquals(100, stats.avgSpeed(), 1.0, "Average speed should be 100 bytes/sec");
     }
 
+    @Test
+    void testSpeedSince() {
+        long baseTime = System.currentTimeMillis();
+
+        avgSpeed.update(1000L, baseTime);
+        avgSpeed.update(2000L, baseTime + 10000); // 100 bytes/sec
+        avgSpeed.update(12000L, baseTime + 20000); // 1000 bytes/sec
+
+        assertEquals(1000, avgSpeed.getSpeed(baseTime + 10000), 1.0, "Speed of the last window should be 1000 bytes/sec");
+        assertEquals(550, avgSpeed.getSpeed(baseTime - 10000), 1.0, "Speed since before the first point covers all points");
+        assertEquals(0, avgSpeed.getSpeed(baseTime + 30000));
+    }
+
     @Test
     void testSpeedWithPause() {
         long baseTime = System.currentTimeMillis();
@@ -211,4 +225,27 @@ class AvgSpeedTest {
         System.out.println("90s stats: " + stats90s);
         System.out.println("120s stats: " + stats120s);
     }
+
+    @Test
+    void testConcurrentReads() throws InterruptedException {
+        long baseTime = System.currentTimeMillis();
+        java.util.concurrent.atomic.AtomicReference<Throwable> failure = new java.util.concurrent.atomic.AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                for (int i = 0; i < 20000; i++) {
+                    avgSpeed.getSpeed(baseTime + i);
+                    avgSpeed.getSpeedStats();
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        for (int i = 1; i <= 20000; i++) {
+            avgSpeed.update(i * 100L, baseTime + i * 10L);
+        }
+        reader.join();
+
+        assertNull(failure.get());
+    }
 }
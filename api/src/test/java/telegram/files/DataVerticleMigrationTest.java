@@ -70,6 +70,7 @@ public class DataVerticleMigrationTest {
                                         .collect(Collectors.toSet());
                                 Assertions.assertTrue(columnNames.contains("start_date"));
                                 Assertions.assertTrue(columnNames.contains("completion_date"));
+                                Assertions.assertTrue(columnNames.contains("transfer_status"));
                             });
                             return conn.close();
                         }))
@@ -95,6 +96,7 @@ public class DataVerticleMigrationTest {
                                         .collect(Collectors.toSet());
                                 Assertions.assertTrue(columnNames.contains("start_date"));
                                 Assertions.assertTrue(columnNames.contains("completion_date"));
+                                Assertions.assertTrue(columnNames.contains("transfer_status"));
                             });
                             return conn.close();
                         }))
@@ -129,7 +131,10 @@ public class DataVerticleMigrationTest {
                                 CREATE TABLE file_record (
                                     id INTEGER PRIMARY KEY,
                                     file_id TEXT NOT NULL,
-                                    file_name TEXT NOT NULL
+                                    file_name TEXT NOT NULL,
+                                    chat_id BIGINT,
+                                    message_id BIGINT,
+                                    download_status VARCHAR(255)
                                 )
                                 """).execute()
                         .compose(v2 -> sqlClient.query("""
@@ -159,7 +164,10 @@ public class DataVerticleMigrationTest {
                                 CREATE TABLE file_record (
                                     id INTEGER PRIMARY KEY,
                                     file_id TEXT NOT NULL,
-                                    file_name TEXT NOT NULL
+                                    file_name TEXT NOT NULL,
+                                    chat_id BIGINT,
+                                    message_id BIGINT,
+                                    download_status VARCHAR(255)
                                 )
                                 """).execute())
                         .eventually(() -> sqlClient.close())
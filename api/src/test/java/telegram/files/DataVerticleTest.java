@@ -11,9 +11,18 @@ import io.vertx.junit5.VertxTestContext;
 import io.vertx.sqlclient.SqlClient;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
+import telegram.files.repository.DownloadQueueRecord;
+import telegram.files.repository.FileHashRecord;
 import telegram.files.repository.FileRecord;
+import telegram.files.repository.ScanCursorRecord;
 import telegram.files.repository.SettingKey;
 import telegram.files.repository.TelegramRecord;
+import telegram.files.repository.TransferRecord;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 @ExtendWith(VertxExtension.class)
 public class DataVerticleTest {
@@ -198,4 +207,169 @@ public class DataVerticleTest {
                 })));
     }
 
+    @Test
+    @DisplayName("Test downloading count follows download status")
+    void downloadingCountTest(Vertx vertx, VertxTestContext testContext) {
+        FileRecord fileRecord = new FileRecord(
+                1, "unique_id", 1, 1, 1, 1, 1, false, 1, 0, "video", "mime_type", "file_name", "thumbnail", "thumbnailUniqueId", "caption", "extra", null, FileRecord.DownloadStatus.idle.name(), FileRecord.TransferStatus.idle.name(), 0, null, null, 0, 0, 0
+        );
+        DataVerticle.fileRepository.create(fileRecord)
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(0, DataVerticle.fileRepository.countDownloading(1)));
+                    return DataVerticle.fileRepository.updateDownloadStatus(1, r.uniqueId(), null, FileRecord.DownloadStatus.downloading, null);
+                })
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(1, DataVerticle.fileRepository.countDownloading(1)));
+                    return DataVerticle.fileRepository.reconcileDownloadingCount();
+                })
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(1, DataVerticle.fileRepository.countDownloading(1)));
+                    return DataVerticle.fileRepository.updateDownloadStatus(1, fileRecord.uniqueId(), "local_path", FileRecord.DownloadStatus.completed, 1L);
+                })
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertEquals(0, DataVerticle.fileRepository.countDownloading(1));
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test enqueue and dequeue download queue records")
+    void downloadQueueTest(Vertx vertx, VertxTestContext testContext) {
+        DownloadQueueRecord record1 = new DownloadQueueRecord(1, 1, 1, 1, 100, 0, DownloadQueueRecord.FLAG_HISTORICAL, 1);
+        DownloadQueueRecord record2 = new DownloadQueueRecord(1, 1, 2, 2, 200, 1, 0, 2);
+        DataVerticle.downloadQueueRepository.enqueue(List.of(record1, record2))
+                // duplicated records are ignored
+                .compose(r -> DataVerticle.downloadQueueRepository.enqueue(List.of(record1)))
+                .compose(r -> DataVerticle.downloadQueueRepository.getAll())
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(List.of(record1, record2), r));
+                    return DataVerticle.downloadQueueRepository.dequeue(List.of(record1));
+                })
+                .compose(r -> DataVerticle.downloadQueueRepository.getAll())
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertEquals(List.of(record2), r);
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test scan cursor")
+    void scanCursorTest(Vertx vertx, VertxTestContext testContext) {
+        ScanCursorRecord photo = new ScanCursorRecord(1, 1, 0, "photo", 100, false);
+        ScanCursorRecord video = new ScanCursorRecord(1, 1, 0, "video", 0, false);
+        ScanCursorRecord threadPhoto = new ScanCursorRecord(1, 2, 3, "photo", 0, false);
+        ScanCursorRecord photoComplete = new ScanCursorRecord(1, 1, 0, "photo", 50, true);
+        DataVerticle.downloadQueueRepository.saveScanCursor(photo)
+                .compose(r -> DataVerticle.downloadQueueRepository.saveScanCursor(video))
+                .compose(r -> DataVerticle.downloadQueueRepository.saveScanCursor(threadPhoto))
+                // upsert the cursor of the same file type
+                .compose(r -> DataVerticle.downloadQueueRepository.saveScanCursor(photoComplete))
+                .compose(r -> DataVerticle.downloadQueueRepository.getScanCursors())
+                .compose(r -> {
+                    testContext.verify(() -> {
+                        Assertions.assertEquals(3, r.size());
+                        Assertions.assertTrue(r.contains(photoComplete));
+                    });
+                    return DataVerticle.downloadQueueRepository.deleteScanCursors(1, 1, 0);
+                })
+                .compose(r -> DataVerticle.downloadQueueRepository.getScanCursors())
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertEquals(List.of(threadPhoto), r);
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test file hash index")
+    void fileHashTest(Vertx vertx, VertxTestContext testContext) {
+        FileHashRecord movie = new FileHashRecord(FileHashIndex.pathKey("/a/movie.mkv"), "/a/movie.mkv", 100, 1, "XXH64", "h1");
+        FileHashRecord copy = new FileHashRecord(FileHashIndex.pathKey("/b/movie.mkv"), "/b/movie.mkv", 100, 2, "XXH64", "h1");
+        FileHashRecord movieUpdated = new FileHashRecord(movie.pathKey(), movie.path(), 200, 3, "XXH64", "h2");
+        DataVerticle.fileHashRepository.save(movie)
+                .compose(r -> DataVerticle.fileHashRepository.save(copy))
+                .compose(r -> DataVerticle.fileHashRepository.getByContent(100, "XXH64", "h1"))
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(2, r.size()));
+                    // upsert the hash of the same path
+                    return DataVerticle.fileHashRepository.save(movieUpdated);
+                })
+                .compose(r -> DataVerticle.fileHashRepository.getByPathKey(movie.pathKey()))
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(movieUpdated, r));
+                    return DataVerticle.fileHashRepository.deleteByPathKey(copy.pathKey());
+                })
+                .compose(r -> DataVerticle.fileHashRepository.getByContent(100, "XXH64", "h1"))
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertTrue(r.isEmpty());
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test transfer record")
+    void transferRecordTest(Vertx vertx, VertxTestContext testContext) {
+        TransferRecord linked = new TransferRecord("unique-1", 1, "HARDLINK", "/tdlib/movie.mkv", "/library/movie.mkv", 1);
+        TransferRecord copied = new TransferRecord("unique-1", 1, "COPY", "/tdlib/movie.mkv", "/library/movie.mkv", 2);
+        DataVerticle.transferRepository.save(linked)
+                .compose(r -> DataVerticle.transferRepository.getByUniqueId("unique-1"))
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(linked, r));
+                    return DataVerticle.transferRepository.save(copied);
+                })
+                .compose(r -> DataVerticle.transferRepository.getByUniqueId("unique-1"))
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(copied, r));
+                    return DataVerticle.transferRepository.deleteByUniqueId("unique-1");
+                })
+                .compose(r -> DataVerticle.transferRepository.getByUniqueId("unique-1"))
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    Assertions.assertNull(r);
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    @DisplayName("Test keyset scan and batch update of transferable files")
+    void transferableFilesTest(Vertx vertx, VertxTestContext testContext) {
+        List<FileRecord> fileRecords = IntStream.rangeClosed(1, 5)
+                .mapToObj(i -> new FileRecord(
+                        i, "unique_id_" + i, 1, 1, i <= 3 ? 1 : i, 0, 1, false, 1, 0, "video", "video/mp4", "file_name", null, null, null, null, "/tdlib/" + i, FileRecord.DownloadStatus.completed.name(), FileRecord.TransferStatus.idle.name(), 0, null, null, 0, 0, 0
+                ))
+                .toList();
+        Future.all(fileRecords.stream().map(DataVerticle.fileRepository::create).toList())
+                .compose(r -> DataVerticle.fileRepository.getTransferableFiles(1, 1, Long.MIN_VALUE, "", 2))
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(List.of("unique_id_1", "unique_id_2"),
+                            r.stream().map(FileRecord::uniqueId).toList()));
+                    // continue inside the same message
+                    return DataVerticle.fileRepository.getTransferableFiles(1, 1, 1, "unique_id_2", 2);
+                })
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(List.of("unique_id_3", "unique_id_4"),
+                            r.stream().map(FileRecord::uniqueId).toList()));
+                    Map<String, String> localPaths = new LinkedHashMap<>();
+                    localPaths.put("unique_id_1", "/library/1");
+                    localPaths.put("unique_id_2", null);
+                    return DataVerticle.fileRepository.updateTransferStatuses(FileRecord.TransferStatus.completed, localPaths);
+                })
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(2, r));
+                    return DataVerticle.fileRepository.getTransferableFiles(1, 1, Long.MIN_VALUE, "", 10);
+                })
+                .compose(r -> {
+                    testContext.verify(() -> Assertions.assertEquals(List.of("unique_id_3", "unique_id_4", "unique_id_5"),
+                            r.stream().map(FileRecord::uniqueId).toList()));
+                    return Future.all(DataVerticle.fileRepository.getByUniqueId("unique_id_1"),
+                            DataVerticle.fileRepository.getByUniqueId("unique_id_2"));
+                })
+                .onComplete(testContext.succeeding(r -> testContext.verify(() -> {
+                    FileRecord moved = r.resultAt(0);
+                    FileRecord kept = r.resultAt(1);
+                    Assertions.assertEquals("/library/1", moved.localPath());
+                    Assertions.assertEquals(FileRecord.TransferStatus.completed.name(), moved.transferStatus());
+                    Assertions.assertEquals("/tdlib/2", kept.localPath());
+                    Assertions.assertEquals(FileRecord.TransferStatus.completed.name(), kept.transferStatus());
+                    testContext.completeNow();
+                })));
+    }
 }
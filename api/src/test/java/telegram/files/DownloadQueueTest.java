@@ -0,0 +1,160 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.DownloadQueueRecord;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class DownloadQueueTest {
+
+    private static DownloadQueue.Item item(long chatId, long messageId, boolean isHistorical, long size, int priority) {
+        return new DownloadQueue.Item(chatId, messageId, 0, size, priority, isHistorical ? DownloadQueue.Item.FLAG_HISTORICAL : 0);
+    }
+
+    private static List<Long> pollAll(DownloadQueue queue) {
+        return queue.poll(Integer.MAX_VALUE).stream().map(DownloadQueue.Item::messageId).toList();
+    }
+
+    @Test
+    @DisplayName("Keep insertion order without orders")
+    void fifoTest() {
+        DownloadQueue queue = new DownloadQueue(List.of());
+        queue.offer(item(1, 1, true, 30, 0));
+        queue.offer(item(1, 2, false, 10, 0));
+        queue.offer(item(1, 3, true, 20, 0));
+
+        Assertions.assertEquals(List.of(1L, 2L, 3L), pollAll(queue));
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Combine orders and break ties by insertion order")
+    void combinedOrderTest() {
+        DownloadQueue queue = new DownloadQueue(DownloadQueue.Order.parse("liveFirst,fileType,smallestFirst"));
+        queue.offer(item(1, 1, true, 10, 0));
+        queue.offer(item(1, 2, false, 30, 1));
+        queue.offer(item(1, 3, false, 20, 1));
+        queue.offer(item(1, 4, false, 50, 0));
+        queue.offer(item(1, 5, true, 10, 0));
+
+        Assertions.assertEquals(List.of(4L, 3L, 2L, 1L, 5L), pollAll(queue));
+    }
+
+    @Test
+    @DisplayName("Parse orders ignoring case and unknown names")
+    void parseOrderTest() {
+        Assertions.assertEquals(List.of(DownloadQueue.Order.smallestFirst, DownloadQueue.Order.liveFirst),
+                DownloadQueue.Order.parse("SmallestFirst, unknown,LIVEFIRST,smallestFirst"));
+        Assertions.assertEquals(DownloadQueue.DEFAULT_ORDERS, DownloadQueue.Order.parse("biggestFirst"));
+        Assertions.assertEquals(DownloadQueue.DEFAULT_ORDERS, DownloadQueue.Order.parse(""));
+    }
+
+    @Test
+    @DisplayName("Keep in-memory flags out of the persisted record")
+    void retriedTest() {
+        DownloadQueue.Item item = DownloadQueue.Item.of(new DownloadQueueRecord(1, 2, 3, 4, 5, 6, DownloadQueueRecord.FLAG_HISTORICAL, 0))
+                .retried();
+
+        Assertions.assertTrue(item.isRetried());
+        Assertions.assertTrue(item.isRecovered());
+        Assertions.assertEquals(DownloadQueueRecord.FLAG_HISTORICAL, item.toRecord(1).flags());
+    }
+
+    @Test
+    @DisplayName("Reorder waiting items when orders change")
+    void setOrdersTest() {
+        DownloadQueue queue = new DownloadQueue(List.of());
+        queue.offer(item(1, 1, false, 30, 0));
+        queue.offer(item(1, 2, false, 10, 0));
+        queue.setOrders(List.of(DownloadQueue.Order.smallestFirst));
+
+        Assertions.assertEquals(List.of(2L, 1L), pollAll(queue));
+    }
+
+    @Test
+    @DisplayName("Remove all items of a chat")
+    void removeChatTest() {
+        DownloadQueue queue = new DownloadQueue(DownloadQueue.DEFAULT_ORDERS);
+        queue.offer(item(1, 1, true, 10, 0));
+        queue.offer(item(2, 2, true, 10, 0));
+        queue.offer(item(1, 3, false, 10, 0));
+        Assertions.assertEquals(3, queue.size());
+        Assertions.assertEquals(2, queue.historicalSize());
+
+        Assertions.assertEquals(2, queue.removeChat(1));
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertEquals(1, queue.historicalSize());
+
+        queue.offer(item(1, 4, false, 10, 0));
+        Assertions.assertEquals(List.of(4L, 2L), pollAll(queue));
+        Assertions.assertEquals(0, queue.historicalSize());
+        Assertions.assertNull(queue.poll());
+    }
+
+    @Test
+    @DisplayName("Poll in the same order as a sorted reference")
+    void randomOrderTest() {
+        Random random = new Random(42);
+        DownloadQueue queue = new DownloadQueue(DownloadQueue.Order.parse("liveFirst,fileType,smallestFirst"));
+        List<DownloadQueue.Item> items = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            DownloadQueue.Item item = item(random.nextInt(5), i, random.nextBoolean(), random.nextInt(100), random.nextInt(4));
+            items.add(item);
+            queue.offer(item);
+        }
+        Assertions.assertEquals(items.stream().filter(item -> item.chatId() == 4).count(), queue.removeChat(4));
+        queue.poll(100).forEach(items::remove);
+        for (int i = 5000; i < 6000; i++) {
+            DownloadQueue.Item item = item(random.nextInt(4), i, random.nextBoolean(), random.nextInt(100), random.nextInt(4));
+            items.add(item);
+            queue.offer(item);
+        }
+
+        List<Long> expected = items.stream()
+                .filter(item -> item.chatId() != 4 || item.messageId() >= 5000)
+                .sorted(Comparator.comparing(DownloadQueue.Item::isHistorical)
+                        .thenComparingInt(DownloadQueue.Item::priority)
+                        .thenComparingLong(DownloadQueue.Item::size)
+                        .thenComparingLong(DownloadQueue.Item::messageId))
+                .map(DownloadQueue.Item::messageId)
+                .toList();
+        Assertions.assertEquals(expected.size(), queue.size());
+        Assertions.assertEquals(expected, pollAll(queue));
+    }
+
+    @Test
+    @DisplayName("Keep queued items in primitive columns")
+    void footprintTest() throws IllegalAccessException {
+        int count = 20_000;
+        DownloadQueue queue = new DownloadQueue(DownloadQueue.DEFAULT_ORDERS);
+        for (int i = 0; i < count; i++) {
+            queue.offer(item(-100, i, true, 1024L * i, 0));
+        }
+
+        long columnBytes = 0;
+        for (Field field : DownloadQueue.class.getDeclaredFields()) {
+            if (!field.getType().isArray() || Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            Class<?> componentType = field.getType().getComponentType();
+            if (!componentType.isPrimitive()) {
+                continue;
+            }
+            field.setAccessible(true);
+            int length = Array.getLength(field.get(queue));
+            Assertions.assertTrue(length >= count && length < count * 2, field.getName() + ": " + length);
+            columnBytes += (long) length * (componentType == long.class ? Long.BYTES : Integer.BYTES);
+        }
+        // 4 long and 6 int columns, at most twice the queued items
+        Assertions.assertTrue(columnBytes <= (long) count * 2 * (4 * Long.BYTES + 6 * Integer.BYTES),
+                "%d bytes for %d items".formatted(columnBytes, count));
+    }
+}
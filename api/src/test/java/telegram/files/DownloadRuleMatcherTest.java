@@ -0,0 +1,94 @@
+package telegram.files;
+
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.SettingAutoRecords;
+
+import java.util.List;
+
+public class DownloadRuleMatcherTest {
+
+    private static TdApi.Message document(String fileName, String mimeType, long size, String caption, int date, int reactions) {
+        TdApi.File file = new TdApi.File(1, size, size,
+                new TdApi.LocalFile("", true, false, false, false, 0, 0, 0),
+                new TdApi.RemoteFile("remote-id", "unique-id", false, true, size));
+        TdApi.Message message = new TdApi.Message();
+        message.id = 1;
+        message.chatId = 1;
+        message.date = date;
+        message.content = new TdApi.MessageDocument(new TdApi.Document(fileName, mimeType, null, null, file),
+                new TdApi.FormattedText(caption, new TdApi.TextEntity[0]));
+        if (reactions > 0) {
+            TdApi.MessageReaction reaction = new TdApi.MessageReaction();
+            reaction.totalCount = reactions;
+            message.interactionInfo = new TdApi.MessageInteractionInfo();
+            message.interactionInfo.reactions = new TdApi.MessageReactions();
+            message.interactionInfo.reactions.reactions = new TdApi.MessageReaction[]{reaction};
+        }
+        return message;
+    }
+
+    @Test
+    @DisplayName("Match every message with a file without conditions")
+    void emptyRuleTest() {
+        DownloadRuleMatcher matcher = DownloadRuleMatcher.compile(new SettingAutoRecords.DownloadRule());
+        Assertions.assertTrue(matcher.isEmpty());
+        Assertions.assertTrue(matcher.test(document("a.zip", "application/zip", 100, "", 0, 0)));
+    }
+
+    @Test
+    @DisplayName("Match size range, patterns and mime types")
+    void predicatesTest() {
+        SettingAutoRecords.DownloadRule rule = new SettingAutoRecords.DownloadRule();
+        rule.minSize = 100L;
+        rule.maxSize = 1000L;
+        rule.fileNamePattern = "\\.mkv$";
+        rule.captionPattern = "1080p";
+        rule.mimeTypes = List.of("video/*");
+        DownloadRuleMatcher matcher = DownloadRuleMatcher.compile(rule);
+
+        Assertions.assertTrue(matcher.test(document("Movie.MKV", "video/x-matroska", 500, "Movie 1080P", 0, 0)));
+        Assertions.assertFalse(matcher.test(document("Movie.mkv", "video/x-matroska", 50, "Movie 1080p", 0, 0)));
+        Assertions.assertFalse(matcher.test(document("Movie.mkv", "video/x-matroska", 5000, "Movie 1080p", 0, 0)));
+        Assertions.assertFalse(matcher.test(document("Movie.mp4", "video/x-matroska", 500, "Movie 1080p", 0, 0)));
+        Assertions.assertFalse(matcher.test(document("Movie.mkv", "video/x-matroska", 500, "Movie 720p", 0, 0)));
+        Assertions.assertFalse(matcher.test(document("Movie.mkv", "application/zip", 500, "Movie 1080p", 0, 0)));
+    }
+
+    @Test
+    @DisplayName("Match date range and reaction count")
+    void dateAndReactionTest() {
+        SettingAutoRecords.DownloadRule rule = new SettingAutoRecords.DownloadRule();
+        rule.startDate = 1000L;
+        rule.endDate = 2000L;
+        rule.minReactionCount = 10L;
+        DownloadRuleMatcher matcher = DownloadRuleMatcher.compile(rule);
+
+        Assertions.assertTrue(matcher.test(document("a.zip", "application/zip", 1, "", 1500, 10)));
+        Assertions.assertFalse(matcher.test(document("a.zip", "application/zip", 1, "", 1500, 9)));
+        Assertions.assertFalse(matcher.test(document("a.zip", "application/zip", 1, "", 2500, 10)));
+        Assertions.assertFalse(matcher.test(document("a.zip", "application/zip", 1, "", 500, 10)));
+
+        Assertions.assertTrue(matcher.isBeforeDateRange(document("a.zip", "application/zip", 1, "", 500, 0)));
+        Assertions.assertFalse(matcher.isBeforeDateRange(document("a.zip", "application/zip", 1, "", 2500, 0)));
+    }
+
+    @Test
+    @DisplayName("Ignore invalid patterns")
+    void invalidPatternTest() {
+        SettingAutoRecords.DownloadRule rule = new SettingAutoRecords.DownloadRule();
+        rule.fileNamePattern = "[";
+        DownloadRuleMatcher matcher = DownloadRuleMatcher.compile(rule);
+        Assertions.assertTrue(matcher.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Compile the rule once")
+    void compileOnceTest() {
+        SettingAutoRecords.DownloadRule rule = new SettingAutoRecords.DownloadRule();
+        rule.minSize = 1L;
+        Assertions.assertSame(rule.matcher(), rule.matcher());
+    }
+}
@@ -0,0 +1,56 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.FileRecord;
+
+public class FileDedupIndexTest {
+
+    private final FileDedupIndex index = new FileDedupIndex();
+
+    @Test
+    @DisplayName("Skip a file downloading by another account")
+    void claimTest() {
+        index.claim("unique", 1, 10, 100);
+        // Claim again by the same account
+        index.claim("unique", 1, 10, 100);
+
+        FileDedupIndex.DuplicateFileException e = Assertions.assertThrows(FileDedupIndex.DuplicateFileException.class,
+                () -> index.claim("unique", 2, 20, 100));
+        Assertions.assertEquals(1, e.owner.telegramId());
+        Assertions.assertNotNull(index.getOtherOwner("unique", 2));
+        Assertions.assertNull(index.getOtherOwner("unique", 1));
+        Assertions.assertEquals(1, index.getStatistics(2).getLong("skippedFiles"));
+        Assertions.assertEquals(100, index.getStatistics(2).getLong("savedBytes"));
+        Assertions.assertEquals(0, index.getStatistics(1).getLong("skippedFiles"));
+    }
+
+    @Test
+    @DisplayName("Keep completed files and release failed ones")
+    void statusUpdateTest() {
+        index.claim("completed", 1, 10, 100);
+        index.claim("failed", 1, 11, 100);
+        index.claim("paused", 1, 12, 100);
+
+        index.onDownloadStatusUpdate("completed", 1, FileRecord.DownloadStatus.completed);
+        index.onDownloadStatusUpdate("failed", 1, FileRecord.DownloadStatus.error);
+        index.onDownloadStatusUpdate("paused", 1, FileRecord.DownloadStatus.paused);
+        // Updates of other accounts are ignored
+        index.onDownloadStatusUpdate("paused", 2, FileRecord.DownloadStatus.error);
+
+        Assertions.assertThrows(FileDedupIndex.DuplicateFileException.class, () -> index.claim("completed", 2, 20, 100));
+        Assertions.assertThrows(FileDedupIndex.DuplicateFileException.class, () -> index.claim("paused", 2, 22, 100));
+        Assertions.assertDoesNotThrow(() -> index.claim("failed", 2, 21, 100));
+    }
+
+    @Test
+    @DisplayName("Download a removed file again")
+    void removeTest() {
+        index.claim("unique", 1, 10, 100);
+        index.onDownloadStatusUpdate("unique", 1, FileRecord.DownloadStatus.completed);
+        index.remove("unique");
+        Assertions.assertNull(index.getOtherOwner("unique", 2));
+        Assertions.assertDoesNotThrow(() -> index.claim("unique", 2, 20, 100));
+    }
+}
@@ -0,0 +1,110 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import telegram.files.repository.FileHashRecord;
+import telegram.files.repository.FileHashRepository;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FileHashIndexTest {
+
+    static class MemoryRepository implements FileHashRepository {
+        final Map<String, FileHashRecord> records = new HashMap<>();
+
+        @Override
+        public Future<Void> save(FileHashRecord record) {
+            records.put(record.pathKey(), record);
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<FileHashRecord> getByPathKey(String pathKey) {
+            return Future.succeededFuture(records.get(pathKey));
+        }
+
+        @Override
+        public Future<List<FileHashRecord>> getByContent(long size, String algorithm, String hash) {
+            return Future.succeededFuture(records.values().stream()
+                    .filter(r -> r.size() == size && r.algorithm().equals(algorithm) && r.hash().equals(hash))
+                    .toList());
+        }
+
+        @Override
+        public Future<Void> deleteByPathKey(String pathKey) {
+            records.remove(pathKey);
+            return Future.succeededFuture();
+        }
+    }
+
+    @TempDir
+    Path tempDir;
+
+    private final MemoryRepository repository = new MemoryRepository();
+
+    private final FileHashIndex index = new FileHashIndex(repository);
+
+    private File write(String name, String content) throws Exception {
+        File file = tempDir.resolve(name).toFile();
+        Files.writeString(file.toPath(), content);
+        return file;
+    }
+
+    @Test
+    @DisplayName("Hash a file once and invalidate the hash when the file changes")
+    void getHashTest() throws Exception {
+        File file = write("a.txt", "content");
+        String hash = index.getHash(file, FileHasher.Algorithm.XXH64);
+        Assertions.assertEquals(FileHasher.hash(file, FileHasher.Algorithm.XXH64), hash);
+        Assertions.assertEquals(1, repository.records.size());
+
+        // The indexed hash is returned without reading the file
+        FileHashRecord record = repository.records.values().iterator().next();
+        repository.save(new FileHashRecord(record.pathKey(), record.path(), record.size(), record.modifiedAt(), record.algorithm(), "indexed"));
+        Assertions.assertEquals("indexed", index.getHash(file, FileHasher.Algorithm.XXH64));
+
+        Files.writeString(file.toPath(), "changed content");
+        Assertions.assertEquals(FileHasher.hash(file, FileHasher.Algorithm.XXH64), index.getHash(file, FileHasher.Algorithm.XXH64));
+    }
+
+    @Test
+    @DisplayName("Find a file with the same content at any path")
+    void findSameContentTest() throws Exception {
+        File indexed = write("indexed.txt", "content");
+        String hash = FileHasher.hash(indexed, FileHasher.Algorithm.XXH64);
+        index.put(indexed, hash, FileHasher.Algorithm.XXH64);
+
+        File file = write("new.txt", "content");
+        Assertions.assertEquals(indexed.getAbsolutePath(), index.findSameContent(file, hash, FileHasher.Algorithm.XXH64));
+        Assertions.assertNull(index.findSameContent(file, hash, FileHasher.Algorithm.MD5));
+
+        // Stale entries are removed
+        Assertions.assertTrue(indexed.delete());
+        Assertions.assertNull(index.findSameContent(file, hash, FileHasher.Algorithm.XXH64));
+        Assertions.assertTrue(repository.records.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Ignore an entry of another path with the same path key")
+    void pathKeyCollisionTest() throws Exception {
+        File file = write("a.txt", "content");
+        String pathKey = FileHashIndex.pathKey(file.getAbsolutePath());
+        File other = write("b.txt", "content");
+        repository.save(new FileHashRecord(pathKey, other.getAbsolutePath(), file.length(), file.lastModified(), "XXH64", "other"));
+
+        Assertions.assertEquals(FileHasher.hash(file, FileHasher.Algorithm.XXH64), index.getHash(file, FileHasher.Algorithm.XXH64));
+        Assertions.assertEquals(file.getAbsolutePath(), repository.records.get(pathKey).path());
+
+        String uri = "s3://bucket/a.txt";
+        repository.save(new FileHashRecord(FileHashIndex.pathKey(uri), "s3://bucket/b.txt", 7, 0, "XXH64", "other"));
+        Assertions.assertNull(index.getRemoteHash(uri, 7, FileHasher.Algorithm.XXH64));
+    }
+}
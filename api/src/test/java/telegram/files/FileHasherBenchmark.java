@@ -0,0 +1,90 @@
+package telegram.files;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Throughput of {@link FileHasher} on multi-GB files, run with {@code BENCHMARK=true ./gradlew test --tests '*FileHasherBenchmark'}.
+ * <p>
+ * File size in GB is set by {@code BENCHMARK_FILE_SIZE_GB}, 4 by default, two copies are written to the temp directory.
+ */
+@EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+public class FileHasherBenchmark {
+
+    private static Path dir;
+
+    private static File file;
+
+    private static File copy;
+
+    private static File tailChanged;
+
+    private static long size;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        size = Long.parseLong(System.getenv().getOrDefault("BENCHMARK_FILE_SIZE_GB", "4")) * 1024 * 1024 * 1024;
+        dir = Files.createTempDirectory("file-hasher-benchmark");
+        file = dir.resolve("file").toFile();
+        byte[] chunk = new byte[FileHasher.CHUNK_SIZE];
+        Random random = new Random(42);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                channel.write(ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, size - written)));
+            }
+        }
+        copy = Files.copy(file.toPath(), dir.resolve("copy")).toFile();
+        tailChanged = Files.copy(file.toPath(), dir.resolve("tail-changed")).toFile();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(tailChanged, "rw")) {
+            randomAccessFile.seek(size - 1);
+            randomAccessFile.write(randomAccessFile.read() ^ 1);
+        }
+    }
+
+    @AfterAll
+    static void tearDown() {
+        for (File f : new File[]{file, copy, tailChanged}) {
+            if (f != null) {
+                f.delete();
+            }
+        }
+        dir.toFile().delete();
+    }
+
+    private static <T> void measure(String name, long bytes, Callable<T> task) throws Exception {
+        long start = System.nanoTime();
+        T result = task.call();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-32s %8.3f s %10.1f MB/s  %s%n", name, seconds, bytes / 1024.0 / 1024.0 / seconds, result);
+    }
+
+    @Test
+    @DisplayName("Hash throughput")
+    void hashBenchmark() throws Exception {
+        for (FileHasher.Algorithm algorithm : FileHasher.Algorithm.values()) {
+            measure("hash " + algorithm, size, () -> FileHasher.hash(file, algorithm));
+        }
+    }
+
+    @Test
+    @DisplayName("Compare throughput")
+    void compareBenchmark() throws Exception {
+        measure("compare same XXH64", size * 2, () -> FileHasher.isSameContent(file, copy, FileHasher.Algorithm.XXH64));
+        measure("compare same MD5", size * 2, () -> FileHasher.isSameContent(file, copy, FileHasher.Algorithm.MD5));
+        measure("compare tail changed", size * 2, () -> FileHasher.isSameContent(file, tailChanged, FileHasher.Algorithm.XXH64));
+    }
+}
@@ -0,0 +1,113 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+public class FileHasherTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static String xxh64(String input) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        XxHash64 xxHash64 = new XxHash64();
+        xxHash64.update(bytes, 0, bytes.length);
+        return xxHash64.getHexValue();
+    }
+
+    private File write(String name, byte[] content) throws Exception {
+        return Files.write(tempDir.resolve(name), content).toFile();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    @DisplayName("Match the XXH64 reference values")
+    void xxHash64Test() {
+        Assertions.assertEquals("ef46db3751d8e999", xxh64(""));
+        Assertions.assertEquals("d24ec4f1a98c6e5b", xxh64("a"));
+        Assertions.assertEquals("44bc2cf5ad770999", xxh64("abc"));
+        Assertions.assertEquals("fbcea83c8a378bf1", xxh64("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    @DisplayName("Hash the same value whatever the chunk boundaries")
+    void xxHash64StreamingTest() {
+        byte[] bytes = randomBytes(1000);
+        XxHash64 oneShot = new XxHash64();
+        oneShot.update(bytes, 0, bytes.length);
+
+        XxHash64 streaming = new XxHash64();
+        int offset = 0;
+        for (int length : new int[]{1, 7, 31, 33, 64, 100, 3}) {
+            streaming.update(bytes, offset, length);
+            offset += length;
+        }
+        streaming.update(bytes, offset, bytes.length - offset);
+        Assertions.assertEquals(oneShot.getValue(), streaming.getValue());
+    }
+
+    @Test
+    @DisplayName("Hash a file larger than a chunk")
+    void hashTest() throws Exception {
+        byte[] bytes = randomBytes(FileHasher.CHUNK_SIZE * 2 + 123);
+        File file = write("file", bytes);
+
+        XxHash64 xxHash64 = new XxHash64();
+        xxHash64.update(bytes, 0, bytes.length);
+        Assertions.assertEquals(xxHash64.getHexValue(), FileHasher.hash(file, FileHasher.Algorithm.XXH64));
+        Assertions.assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(bytes)),
+                FileHasher.hash(file, FileHasher.Algorithm.MD5));
+    }
+
+    @Test
+    @DisplayName("Compare files by size, samples and full hash")
+    void isSameContentTest() throws Exception {
+        byte[] bytes = randomBytes(FileHasher.SAMPLE_SIZE * 4);
+        File file = write("file", bytes);
+        File same = write("same", bytes.clone());
+
+        byte[] middle = bytes.clone();
+        middle[bytes.length / 2] ^= 1;
+        File middleChanged = write("middle", middle);
+
+        byte[] tail = bytes.clone();
+        tail[bytes.length - 1] ^= 1;
+        File tailChanged = write("tail", tail);
+
+        File shorter = write("shorter", Arrays.copyOf(bytes, bytes.length - 1));
+
+        for (FileHasher.Algorithm algorithm : FileHasher.Algorithm.values()) {
+            Assertions.assertTrue(FileHasher.isSameContent(file, same, algorithm));
+            Assertions.assertFalse(FileHasher.isSameContent(file, middleChanged, algorithm));
+            Assertions.assertFalse(FileHasher.isSameContent(file, tailChanged, algorithm));
+            Assertions.assertFalse(FileHasher.isSameContent(file, shorter, algorithm));
+            Assertions.assertFalse(FileHasher.isSameContent(file, tempDir.resolve("missing").toFile(), algorithm));
+        }
+    }
+
+    @Test
+    @DisplayName("Compare small files by samples only")
+    void isSameContentSmallTest() throws Exception {
+        File file = write("small", "small file".getBytes(StandardCharsets.UTF_8));
+        File same = write("small-same", "small file".getBytes(StandardCharsets.UTF_8));
+        File other = write("small-other", "small fila".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertTrue(FileHasher.isSameContent(file, same, FileHasher.Algorithm.XXH64));
+        Assertions.assertFalse(FileHasher.isSameContent(file, other, FileHasher.Algorithm.XXH64));
+    }
+}
@@ -0,0 +1,152 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class FileMoverTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path write(String name, byte[] content) throws Exception {
+        Path path = tempDir.resolve(name);
+        Files.createDirectories(path.getParent());
+        return Files.write(path, content);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    @DisplayName("Rename on the same filesystem")
+    void moveTest() throws Exception {
+        byte[] content = randomBytes(1000);
+        Path source = write("source", content);
+        Path target = tempDir.resolve("a/b/target");
+
+        FileMover.move(source, target, false, null);
+
+        Assertions.assertFalse(Files.exists(source));
+        Assertions.assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    @DisplayName("Keep an existing target without overwrite")
+    void moveExistingTest() throws Exception {
+        Path source = write("source", randomBytes(10));
+        Path target = write("target", new byte[]{1});
+
+        Assertions.assertThrows(FileAlreadyExistsException.class, () -> FileMover.move(source, target, false, null));
+        FileMover.move(source, target, true, null);
+        Assertions.assertEquals(10, Files.size(target));
+    }
+
+    @Test
+    @DisplayName("Copy through a part file")
+    void copyTest() throws Exception {
+        byte[] content = randomBytes((int) FileMover.CHUNK_SIZE * 2 + 100);
+        Path source = write("source", content);
+        Path target = tempDir.resolve("target");
+        List<Long> progress = new ArrayList<>();
+
+        FileMover.copy(source, target, (transferredBytes, totalBytes, bytesPerSecond) -> progress.add(transferredBytes));
+
+        Assertions.assertArrayEquals(content, Files.readAllBytes(target));
+        Assertions.assertFalse(Files.exists(tempDir.resolve("target" + FileMover.PART_SUFFIX)));
+        Assertions.assertFalse(Files.exists(tempDir.resolve("target" + FileMover.META_SUFFIX)));
+        Assertions.assertTrue(progress.stream().allMatch(transferred -> transferred <= content.length));
+    }
+
+    @Test
+    @DisplayName("Resume a copy from the checkpoint")
+    void resumeTest() throws Exception {
+        byte[] content = randomBytes(10_000);
+        Path source = write("source", content);
+        // Bytes after the checkpoint are not trusted
+        byte[] part = Arrays.copyOf(content, 6000);
+        Arrays.fill(part, 4000, 6000, (byte) 0);
+        write("target" + FileMover.PART_SUFFIX, part);
+        write("target" + FileMover.META_SUFFIX, "%s\n%d\n%d\n%d".formatted(source.toAbsolutePath(),
+                content.length,
+                Files.getLastModifiedTime(source).toMillis(),
+                4000).getBytes());
+
+        Path target = tempDir.resolve("target");
+        FileMover.copy(source, target, null);
+
+        Assertions.assertArrayEquals(content, Files.readAllBytes(target));
+        Assertions.assertFalse(Files.exists(tempDir.resolve("target" + FileMover.META_SUFFIX)));
+    }
+
+    @Test
+    @DisplayName("Restart a copy of a changed source")
+    void restartTest() throws Exception {
+        byte[] content = randomBytes(10_000);
+        Path source = write("source", content);
+        write("target" + FileMover.PART_SUFFIX, new byte[6000]);
+        write("target" + FileMover.META_SUFFIX, "%s\n%d\n%d\n%d".formatted(source.toAbsolutePath(), 1, 1, 6000).getBytes());
+
+        Path target = tempDir.resolve("target");
+        FileMover.copy(source, target, null);
+
+        Assertions.assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    @DisplayName("Hard link keeps the source")
+    void hardlinkTest() throws Exception {
+        byte[] content = randomBytes(1000);
+        Path source = write("source", content);
+        Path target = tempDir.resolve("a/target");
+
+        Transfer.TransferMode mode = FileMover.transfer(source, target, false, Transfer.TransferMode.HARDLINK, null);
+
+        Assertions.assertEquals(Transfer.TransferMode.HARDLINK, mode);
+        Assertions.assertTrue(Files.exists(source));
+        Assertions.assertTrue(Files.isSameFile(source, target));
+        Assertions.assertFalse(Files.exists(tempDir.resolve("a/target" + FileMover.PART_SUFFIX)));
+    }
+
+    @Test
+    @DisplayName("Copy keeps the source")
+    void copyModeTest() throws Exception {
+        byte[] content = randomBytes(1000);
+        Path source = write("source", content);
+        Path target = write("target", new byte[]{1});
+
+        Assertions.assertThrows(FileAlreadyExistsException.class,
+                () -> FileMover.transfer(source, target, false, Transfer.TransferMode.COPY, null));
+        Transfer.TransferMode mode = FileMover.transfer(source, target, true, Transfer.TransferMode.COPY, null);
+
+        Assertions.assertEquals(Transfer.TransferMode.COPY, mode);
+        Assertions.assertTrue(Files.exists(source));
+        Assertions.assertFalse(Files.isSameFile(source, target));
+        Assertions.assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    @DisplayName("Create a removed parent directory again")
+    void removedDirectoryTest() throws Exception {
+        Path target = tempDir.resolve("a/target");
+        FileMover.transfer(write("source", randomBytes(10)), target, false, Transfer.TransferMode.MOVE, null);
+        Files.delete(target);
+        Files.delete(target.getParent());
+
+        FileMover.transfer(write("source", randomBytes(10)), target, false, Transfer.TransferMode.MOVE, null);
+
+        Assertions.assertEquals(10, Files.size(target));
+    }
+}
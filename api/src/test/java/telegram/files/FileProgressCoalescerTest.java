@@ -0,0 +1,54 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.FileRecord;
+
+import java.util.List;
+
+public class FileProgressCoalescerTest {
+
+    private static FileProgressCoalescer.FileProgress progress(int fileId, long downloadedSize, FileRecord.DownloadStatus status) {
+        return new FileProgressCoalescer.FileProgress(fileId, downloadedSize, 1000, status);
+    }
+
+    @Test
+    @DisplayName("Keep the last progress of each file")
+    void drainFilesTest() {
+        FileProgressCoalescer coalescer = new FileProgressCoalescer();
+        coalescer.add(progress(1, 100, FileRecord.DownloadStatus.downloading));
+        coalescer.add(progress(2, 100, FileRecord.DownloadStatus.downloading));
+        coalescer.add(progress(1, 500, FileRecord.DownloadStatus.downloading));
+        coalescer.add(progress(1, 1000, FileRecord.DownloadStatus.completed));
+
+        Assertions.assertEquals(List.of(
+                progress(1, 1000, FileRecord.DownloadStatus.completed),
+                progress(2, 100, FileRecord.DownloadStatus.downloading)
+        ), coalescer.drainFiles());
+        Assertions.assertTrue(coalescer.drainFiles().isEmpty());
+
+        coalescer.add(progress(2, 300, FileRecord.DownloadStatus.downloading));
+        Assertions.assertEquals(List.of(progress(2, 300, FileRecord.DownloadStatus.downloading)), coalescer.drainFiles());
+    }
+
+    @Test
+    @DisplayName("Keep the last account totals")
+    void drainDownloadsTest() {
+        FileProgressCoalescer coalescer = new FileProgressCoalescer();
+        Assertions.assertNull(coalescer.drainDownloads());
+
+        coalescer.add(new FileProgressCoalescer.Downloads(2000, 2, 100));
+        coalescer.add(new FileProgressCoalescer.Downloads(2000, 2, 800));
+
+        Assertions.assertEquals(new FileProgressCoalescer.Downloads(2000, 2, 800), coalescer.drainDownloads());
+        Assertions.assertNull(coalescer.drainDownloads());
+    }
+
+    @Test
+    @DisplayName("Encode a compact delta")
+    void toJsonTest() {
+        Assertions.assertEquals("{\"fileId\":1,\"downloadedSize\":500,\"size\":1000,\"status\":\"downloading\"}",
+                progress(1, 500, FileRecord.DownloadStatus.downloading).toJson().encode());
+    }
+}
@@ -0,0 +1,255 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.Router;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@ExtendWith(VertxExtension.class)
+public class FileRouteHandlerTest {
+
+    private static final int SIZE = 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+
+    private FakePartialFile partialFile;
+
+    private byte[] content;
+
+    @BeforeEach
+    void setUp(Vertx vertx) throws Exception {
+        content = new byte[SIZE];
+        new Random(SIZE).nextBytes(content);
+        Path file = tempDir.resolve("video.mp4");
+        Files.write(file, content);
+        partialFile = new FakePartialFile(file.toString());
+
+        FileRouteHandler handler = new FileRouteHandler();
+        Router router = Router.router(vertx);
+        router.get("/file").handler(ctx -> handler.handlePartial(ctx, partialFile, "video/mp4"));
+        router.get("/static").handler(ctx -> handler.handle(ctx, file.toString(), "video/mp4", "unique"));
+        server = vertx.createHttpServer().requestHandler(router).listen(0)
+                .toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @DisplayName("Stream bytes as they are written")
+    void streamTest(Vertx vertx) throws Exception {
+        partialFile.available.set(100 * 1024);
+        long timerId = vertx.setPeriodic(20, id -> partialFile.available.addAndGet(64 * 1024));
+
+        HttpResponse<byte[]> response = get(null);
+        vertx.cancelTimer(timerId);
+
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertArrayEquals(content, response.body());
+        Assertions.assertEquals(1, partialFile.released.get());
+    }
+
+    @Test
+    @DisplayName("Stream bytes of a file answered on another thread")
+    void otherThreadTest(Vertx vertx) throws Exception {
+        partialFile.otherThread = Executors.newSingleThreadExecutor();
+        partialFile.available.set(100 * 1024);
+        long timerId = vertx.setPeriodic(20, id -> partialFile.available.addAndGet(64 * 1024));
+
+        try {
+            HttpResponse<byte[]> response = get(null);
+
+            Assertions.assertEquals(200, response.statusCode());
+            Assertions.assertArrayEquals(content, response.body());
+            Assertions.assertEquals(1, partialFile.released.get());
+        } finally {
+            vertx.cancelTimer(timerId);
+            partialFile.otherThread.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Seek to a range that is not written yet")
+    void seekTest() throws Exception {
+        partialFile.available.set(64 * 1024);
+
+        HttpResponse<byte[]> response = get("bytes=600000-");
+
+        Assertions.assertEquals(206, response.statusCode());
+        Assertions.assertEquals("bytes 600000-%d/%d".formatted(SIZE - 1, SIZE),
+                response.headers().firstValue("Content-Range").orElse(null));
+        Assertions.assertArrayEquals(Arrays.copyOfRange(content, 600000, SIZE), response.body());
+        Assertions.assertEquals(600000L, (long) partialFile.seeks.getFirst());
+    }
+
+    @Test
+    @DisplayName("Reject a range beyond the file")
+    void invalidRangeTest() throws Exception {
+        HttpResponse<byte[]> response = get("bytes=%d-".formatted(SIZE));
+
+        Assertions.assertEquals(416, response.statusCode());
+    }
+
+    @Test
+    @DisplayName("Answer a request with the current ETag with 304")
+    void notModifiedTest() throws Exception {
+        HttpResponse<byte[]> response = get("/static", Map.of());
+        String etag = response.headers().firstValue("ETag").orElseThrow();
+
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertEquals("\"unique-%x\"".formatted(SIZE), etag);
+        Assertions.assertTrue(response.headers().firstValue("Last-Modified").isPresent());
+
+        HttpResponse<byte[]> revalidated = get("/static", Map.of("If-None-Match", etag));
+        Assertions.assertEquals(304, revalidated.statusCode());
+        Assertions.assertEquals(0, revalidated.body().length);
+
+        HttpResponse<byte[]> changed = get("/static", Map.of("If-None-Match", "\"other\""));
+        Assertions.assertEquals(200, changed.statusCode());
+    }
+
+    @Test
+    @DisplayName("Send multiple ranges as multipart/byteranges")
+    void multipleRangesTest() throws Exception {
+        HttpResponse<byte[]> response = get("/static", Map.of("Range", "bytes=0-9, 100-199, -5"));
+
+        Assertions.assertEquals(206, response.statusCode());
+        String contentType = response.headers().firstValue("Content-Type").orElseThrow();
+        Assertions.assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        String body = new String(response.body(), java.nio.charset.StandardCharsets.ISO_8859_1);
+        Assertions.assertEquals(4, body.split("--" + boundary).length);
+        Assertions.assertTrue(body.contains("Content-Range: bytes 100-199/%d".formatted(SIZE)));
+        Assertions.assertTrue(body.contains("Content-Range: bytes %d-%d/%d".formatted(SIZE - 5, SIZE - 1, SIZE)));
+        Assertions.assertTrue(body.contains(new String(Arrays.copyOfRange(content, 100, 200), java.nio.charset.StandardCharsets.ISO_8859_1)));
+        Assertions.assertEquals(response.body().length, (long) response.headers().firstValueAsLong("Content-Length").orElseThrow());
+    }
+
+    @Test
+    @DisplayName("Ignore a range that does not match If-Range")
+    void ifRangeTest() throws Exception {
+        HttpResponse<byte[]> response = get("/static", Map.of("Range", "bytes=0-9", "If-Range", "\"other\""));
+
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertEquals(SIZE, response.body().length);
+    }
+
+    @Test
+    @DisplayName("Parse byte ranges")
+    void parseRangesTest() {
+        Assertions.assertEquals(List.of(new FileRouteHandler.Range(0, 99)), FileRouteHandler.parseRanges("bytes=0-99", 1000));
+        Assertions.assertEquals(List.of(new FileRouteHandler.Range(900, 999)), FileRouteHandler.parseRanges("bytes=-100", 1000));
+        Assertions.assertEquals(List.of(new FileRouteHandler.Range(500, 999), new FileRouteHandler.Range(0, 0)),
+                FileRouteHandler.parseRanges("bytes=500-, 0-0, 2000-", 1000));
+        Assertions.assertNull(FileRouteHandler.parseRanges("items=0-1", 1000));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FileRouteHandler.parseRanges("bytes=1000-", 1000));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FileRouteHandler.parseRanges("bytes=9-1", 1000));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FileRouteHandler.parseRanges("bytes=a-b", 1000));
+    }
+
+    private HttpResponse<byte[]> get(String range) throws Exception {
+        return get("/file", range == null ? Map.of() : Map.of("Range", range));
+    }
+
+    private HttpResponse<byte[]> get(String path, Map<String, String> headers) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:%d%s".formatted(server.actualPort(), path)))
+                .timeout(java.time.Duration.ofSeconds(20));
+        headers.forEach(request::header);
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        }
+    }
+
+    /**
+     * A file written from the start, a seek writes everything from the offset at once.
+     */
+    private static class FakePartialFile implements FileRouteHandler.PartialFile {
+        final String path;
+
+        // bytes written from the start
+        final AtomicLong available = new AtomicLong();
+
+        // start of the range written after a seek, -1 if none
+        final AtomicLong seekedFrom = new AtomicLong(-1);
+
+        final List<Long> seeks = new CopyOnWriteArrayList<>();
+
+        final AtomicInteger released = new AtomicInteger();
+
+        // completes the futures like the TDLib client thread, null completes them at once
+        volatile ExecutorService otherThread;
+
+        FakePartialFile(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public long size() {
+            return SIZE;
+        }
+
+        @Override
+        public Future<String> getPath() {
+            return complete(path);
+        }
+
+        @Override
+        public Future<Long> getAvailableSize(long offset) {
+            long written = Math.min(SIZE, available.get());
+            if (offset < written) {
+                return complete(written - offset);
+            }
+            long from = seekedFrom.get();
+            return complete(from >= 0 && offset >= from ? SIZE - offset : 0L);
+        }
+
+        private <T> Future<T> complete(T value) {
+            ExecutorService executor = otherThread;
+            if (executor == null) {
+                return Future.succeededFuture(value);
+            }
+            Promise<T> promise = Promise.promise();
+            executor.execute(() -> promise.complete(value));
+            return promise.future();
+        }
+
+        @Override
+        public Future<Void> seek(long offset) {
+            seeks.add(offset);
+            seekedFrom.set(offset);
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public void release() {
+            released.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.*;
+import telegram.files.repository.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HistoryScannerTest {
+
+    private static final long TELEGRAM_ID = 1;
+
+    private static final long CHAT_ID = 100;
+
+    private Vertx vertx;
+
+    private FakeSearcher searcher;
+
+    private FakeFeeder feeder;
+
+    private FakeDownloadQueueRepository repository;
+
+    private HistoryScanner historyScanner;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        searcher = new FakeSearcher(50);
+        feeder = new FakeFeeder();
+        repository = new FakeDownloadQueueRepository();
+        DataVerticle.downloadQueueRepository = repository;
+        historyScanner = new HistoryScanner(vertx, feeder, searcher);
+        historyScanner.setBudget(3, 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close();
+    }
+
+    private void register(long messageThreadId, AtomicInteger completed) {
+        historyScanner.register(TELEGRAM_ID, CHAT_ID, messageThreadId, null, List.of("photo"), null, 0,
+                target -> completed.incrementAndGet());
+    }
+
+    @Test
+    @DisplayName("Scan every page of a chat and complete the target once")
+    void pumpTest() {
+        AtomicInteger completed = new AtomicInteger();
+        register(0, completed);
+
+        historyScanner.pump(TELEGRAM_ID);
+
+        Assertions.assertEquals(50, feeder.fed.size());
+        Assertions.assertEquals(50L, feeder.fed.getFirst().id);
+        Assertions.assertEquals(1L, feeder.fed.getLast().id);
+        Assertions.assertEquals(1, completed.get());
+        Assertions.assertEquals(0, historyScanner.getStatistics(TELEGRAM_ID).getInteger("targets"));
+        Assertions.assertTrue(repository.savedCursors.getLast().complete());
+    }
+
+    @Test
+    @DisplayName("Continue after the last taken message when the queue is full")
+    void partialFeedTest() {
+        feeder.limit = 10;
+        register(0, new AtomicInteger());
+
+        historyScanner.pump(TELEGRAM_ID);
+        Assertions.assertEquals(10, feeder.fed.size());
+        Assertions.assertEquals(1, searcher.searches.size());
+
+        feeder.limit = Integer.MAX_VALUE;
+        historyScanner.pump(TELEGRAM_ID);
+
+        Assertions.assertEquals(41L, searcher.searches.get(1).fromMessageId);
+        Assertions.assertEquals(50, feeder.fed.size());
+    }
+
+    @Test
+    @DisplayName("Unregister the chat and its threads")
+    void unregisterChatTest() {
+        searcher.pending = true;
+        AtomicInteger completed = new AtomicInteger();
+        register(0, completed);
+        register(7, completed);
+        historyScanner.pump(TELEGRAM_ID);
+        Assertions.assertEquals(2, searcher.searches.size());
+
+        historyScanner.unregisterChat(TELEGRAM_ID, CHAT_ID);
+        searcher.promises.forEach(promise -> promise.complete(searcher.page(0)));
+
+        Assertions.assertEquals(0, historyScanner.getStatistics(TELEGRAM_ID).getInteger("targets"));
+        Assertions.assertEquals(List.of(0L, 7L), repository.deletedCursorThreads.stream().sorted().toList());
+        Assertions.assertTrue(feeder.fed.isEmpty());
+        Assertions.assertEquals(0, completed.get());
+    }
+
+    @Test
+    @DisplayName("Back off a target whose search throws")
+    void searchThrowsTest() {
+        searcher.throwing = true;
+        register(0, new AtomicInteger());
+
+        Assertions.assertDoesNotThrow(() -> historyScanner.pump(TELEGRAM_ID));
+        historyScanner.pump(TELEGRAM_ID);
+
+        Assertions.assertEquals(1, searcher.searches.size());
+        Assertions.assertEquals(0, historyScanner.getStatistics(TELEGRAM_ID).getInteger("running"));
+        Assertions.assertEquals(1, historyScanner.getStatistics(TELEGRAM_ID).getInteger("targets"));
+    }
+
+    /**
+     * A chat with messages 1..size, searched newest first.
+     */
+    private static class FakeSearcher implements HistoryScanner.Searcher {
+        final int size;
+
+        final List<TdApi.SearchChatMessages> searches = new CopyOnWriteArrayList<>();
+
+        final List<Promise<TdApi.FoundChatMessages>> promises = new CopyOnWriteArrayList<>();
+
+        boolean pending;
+
+        boolean throwing;
+
+        FakeSearcher(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public boolean isAvailable(long telegramId) {
+            return true;
+        }
+
+        @Override
+        public Future<TdApi.FoundChatMessages> search(long telegramId, TdApi.SearchChatMessages searchChatMessages) {
+            searches.add(searchChatMessages);
+            if (throwing) {
+                throw new IllegalStateException("Client is not initialized");
+            }
+            if (pending) {
+                Promise<TdApi.FoundChatMessages> promise = Promise.promise();
+                promises.add(promise);
+                return promise.future();
+            }
+            return Future.succeededFuture(page(searchChatMessages.fromMessageId));
+        }
+
+        TdApi.FoundChatMessages page(long fromMessageId) {
+            long from = fromMessageId == 0 ? size : fromMessageId - 1;
+            List<TdApi.Message> messages = new ArrayList<>();
+            for (long id = from; id >= 1 && messages.size() < 30; id--) {
+                TdApi.Message message = new TdApi.Message();
+                message.id = id;
+                message.chatId = CHAT_ID;
+                messages.add(message);
+            }
+            long oldest = messages.isEmpty() ? 0 : messages.getLast().id;
+            return new TdApi.FoundChatMessages(size, messages.toArray(new TdApi.Message[0]), oldest > 1 ? oldest : 0);
+        }
+    }
+
+    private static class FakeFeeder implements HistoryScanner.Feeder {
+        final List<TdApi.Message> fed = new CopyOnWriteArrayList<>();
+
+        int limit = Integer.MAX_VALUE;
+
+        @Override
+        public boolean hasRoom(long telegramId) {
+            return fed.size() < limit;
+        }
+
+        @Override
+        public Future<Integer> feed(HistoryScanner.Target target, List<TdApi.Message> messages) {
+            int taken = Math.min(messages.size(), limit - fed.size());
+            fed.addAll(messages.subList(0, taken));
+            return Future.succeededFuture(taken);
+        }
+    }
+
+    private static class FakeDownloadQueueRepository implements DownloadQueueRepository {
+        final List<ScanCursorRecord> savedCursors = new CopyOnWriteArrayList<>();
+
+        final List<Long> deletedCursorThreads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Future<Void> enqueue(List<DownloadQueueRecord> records) {
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<Void> dequeue(List<DownloadQueueRecord> records) {
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<Void> deleteByChatId(long telegramId, long chatId) {
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<List<DownloadQueueRecord>> getAll() {
+            return Future.succeededFuture(List.of());
+        }
+
+        @Override
+        public Future<Void> saveScanThread(ScanThreadRecord record) {
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<Void> deleteScanThread(ScanThreadRecord record) {
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<List<ScanThreadRecord>> getScanThreads() {
+            return Future.succeededFuture(List.of());
+        }
+
+        @Override
+        public Future<Void> saveScanCursor(ScanCursorRecord record) {
+            savedCursors.add(record);
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<Void> deleteScanCursors(long telegramId, long chatId, long messageThreadId) {
+            deletedCursorThreads.add(messageThreadId);
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public Future<List<ScanCursorRecord>> getScanCursors() {
+            return Future.succeededFuture(List.of());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ImageRenditionsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Round widths up to a bucket")
+    void bucketTest() {
+        Assertions.assertEquals(160, ImageRenditions.getBucket(1));
+        Assertions.assertEquals(320, ImageRenditions.getBucket(161));
+        Assertions.assertEquals(640, ImageRenditions.getBucket(640));
+        Assertions.assertEquals(1920, ImageRenditions.getBucket(10_000));
+    }
+
+    @Test
+    @DisplayName("Downscale an image to the bucket width")
+    void renderTest() throws IOException {
+        Path source = createImage("photo.png", 1000, 500);
+        Path target = tempDir.resolve("photo-320.jpg");
+
+        Assertions.assertTrue(ImageRenditions.render(source, target, 320));
+
+        BufferedImage rendition = ImageIO.read(target.toFile());
+        Assertions.assertEquals(320, rendition.getWidth());
+        Assertions.assertEquals(160, rendition.getHeight());
+    }
+
+    @Test
+    @DisplayName("Keep images not wider than the bucket")
+    void smallImageTest() throws IOException {
+        Path source = createImage("small.png", 100, 100);
+        Path renditions = tempDir.resolve("renditions");
+        ImageRenditions imageRenditions = new ImageRenditions(null, renditions, 1024 * 1024);
+
+        Assertions.assertFalse(ImageRenditions.render(source, tempDir.resolve("small.jpg"), 160));
+        Assertions.assertNull(imageRenditions.getOrRender("small-160.jpg", source, 160));
+        Assertions.assertNull(imageRenditions.getOrRender("invalid-160.jpg", Files.writeString(tempDir.resolve("invalid.png"), "text"), 160));
+    }
+
+    @Test
+    @DisplayName("Delete the least recently used renditions above the size limit")
+    void evictTest() throws IOException {
+        Path source = createImage("photo.png", 2000, 1000);
+        Path renditions = tempDir.resolve("renditions");
+        ImageRenditions imageRenditions = new ImageRenditions(null, renditions, 1);
+
+        Path first = imageRenditions.getOrRender("a-640.jpg", source, 640);
+        Assertions.assertNotNull(first);
+        long firstSize = Files.size(first);
+
+        imageRenditions = new ImageRenditions(null, renditions, firstSize * 2 + 1);
+        imageRenditions.getOrRender("a-640.jpg", source, 640);
+        imageRenditions.getOrRender("b-640.jpg", source, 640);
+        // a is used again, so b is the least recently used
+        imageRenditions.getOrRender("a-640.jpg", source, 640);
+        imageRenditions.getOrRender("c-640.jpg", source, 640);
+
+        Assertions.assertTrue(Files.exists(renditions.resolve("a-640.jpg")));
+        Assertions.assertFalse(Files.exists(renditions.resolve("b-640.jpg")));
+        Assertions.assertTrue(Files.exists(renditions.resolve("c-640.jpg")));
+        Assertions.assertTrue(imageRenditions.getTotalBytes() <= firstSize * 2 + 1);
+    }
+
+    @Test
+    @DisplayName("Count images served as is towards the size limit")
+    void originalTest() throws IOException {
+        Path source = createImage("small.png", 100, 100);
+        ImageRenditions imageRenditions = new ImageRenditions(null, tempDir.resolve("renditions"), 1024);
+
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertNull(imageRenditions.getOrRender("small%d-160.jpg".formatted(i), source, 160));
+        }
+
+        Assertions.assertTrue(imageRenditions.getTotalBytes() > 0);
+        Assertions.assertTrue(imageRenditions.getTotalBytes() <= 1024);
+    }
+
+    @Test
+    @DisplayName("Serve an image that fails to decode as is until the failure expires")
+    void failureTest() throws IOException {
+        Path source = createImage("photo.png", 2000, 1000);
+        byte[] image = Files.readAllBytes(source);
+        // Keep the header, so the width is read but the pixels are not
+        Files.write(source, Arrays.copyOf(image, 100));
+        AtomicLong now = new AtomicLong();
+        ImageRenditions imageRenditions = new ImageRenditions(null, tempDir.resolve("renditions"), 1024 * 1024, now::get);
+
+        Assertions.assertThrows(IOException.class, () -> imageRenditions.getOrRender("a-640.jpg", source, 640));
+        Files.write(source, image);
+        Assertions.assertNull(imageRenditions.getOrRender("a-640.jpg", source, 640));
+        Assertions.assertNull(imageRenditions.get("a", source.toString(), "image/png", 640).result());
+
+        now.addAndGet(ImageRenditions.FAILURE_TTL);
+        Assertions.assertNotNull(imageRenditions.getOrRender("a-640.jpg", source, 640));
+    }
+
+    @Test
+    @DisplayName("Load the directory once when the first renders run in parallel")
+    void concurrentLoadTest() throws Exception {
+        Path source = createImage("photo.png", 1000, 500);
+        Path renditions = Files.createDirectories(tempDir.resolve("renditions"));
+        Files.writeString(renditions.resolve("left-160.jpg.tmp"), "left by the last run");
+        ImageRenditions imageRenditions = new ImageRenditions(null, renditions, 1024 * 1024);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Path>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String key = "photo%d-160.jpg".formatted(i);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return imageRenditions.getOrRender(key, source, 160);
+                }));
+            }
+            start.countDown();
+            for (Future<Path> future : futures) {
+                Assertions.assertNotNull(future.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertFalse(Files.exists(renditions.resolve("left-160.jpg.tmp")));
+    }
+
+    private Path createImage(String name, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, 0xff000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        Path file = tempDir.resolve(name);
+        ImageIO.write(image, "png", file.toFile());
+        return file;
+    }
+}
@@ -0,0 +1,84 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.SettingIoLimit;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class IoGovernorTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+    private final AtomicReference<LocalTime> time = new AtomicReference<>(LocalTime.of(12, 0));
+
+    @Test
+    @DisplayName("Do not wait without a limit")
+    void unlimitedTest() {
+        IoGovernor governor = new IoGovernor(now::get, time::get);
+        governor.acquire(IoGovernor.Usage.TRANSFER, 100 * MB);
+        governor.acquire(IoGovernor.Usage.HASH, 10 * MB);
+
+        JsonObject bytes = governor.getStatistics().getJsonObject("bytes");
+        Assertions.assertEquals(0.0, governor.getCurrentLimit());
+        Assertions.assertEquals(100 * MB, (long) bytes.getLong("transfer"));
+        Assertions.assertEquals(10 * MB, (long) bytes.getLong("hash"));
+    }
+
+    @Test
+    @DisplayName("Apply the limit of the current time window")
+    void windowTest() {
+        IoGovernor governor = new IoGovernor(now::get, time::get);
+        governor.setLimit(new SettingIoLimit(50, List.of(
+                new SettingIoLimit.Window("09:00", "18:00", 10),
+                new SettingIoLimit.Window("23:00", "06:00", 0),
+                new SettingIoLimit.Window("invalid", "06:00", 1)
+        )));
+
+        Assertions.assertEquals(10.0, governor.getCurrentLimit());
+        time.set(LocalTime.of(18, 0));
+        Assertions.assertEquals(50.0, governor.getCurrentLimit());
+        time.set(LocalTime.of(2, 0));
+        Assertions.assertEquals(0.0, governor.getCurrentLimit());
+
+        governor.setLimit(null);
+        Assertions.assertEquals(0.0, governor.getCurrentLimit());
+    }
+
+    @Test
+    @DisplayName("Wait for the bytes over the burst")
+    void throttleTest() {
+        IoGovernor governor = new IoGovernor(System::nanoTime, LocalTime::now);
+        governor.setLimit(new SettingIoLimit(4, null));
+
+        long start = System.nanoTime();
+        governor.acquire(IoGovernor.Usage.TRANSFER, 4 * MB);
+        governor.acquire(IoGovernor.Usage.TRANSFER, 2 * MB);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assertions.assertTrue(elapsed >= 400, "elapsed " + elapsed);
+        Assertions.assertTrue(governor.getStatistics().getLong("waitedMillis") >= 400);
+    }
+
+    @Test
+    @DisplayName("Measure the bytes per second of the last seconds")
+    void meterTest() {
+        IoGovernor governor = new IoGovernor(now::get, time::get);
+        for (int i = 0; i < 4; i++) {
+            governor.acquire(IoGovernor.Usage.HASH, 8 * MB);
+            now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        }
+        Assertions.assertEquals(8 * MB, governor.getBytesPerSecond());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assertions.assertEquals(0, governor.getBytesPerSecond());
+    }
+}
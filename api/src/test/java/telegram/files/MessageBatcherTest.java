@@ -0,0 +1,134 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+public class MessageBatcherTest {
+
+    private static final long CHAT_ID = 100;
+
+    private final AtomicLong now = new AtomicLong();
+
+    private Vertx vertx;
+
+    private FakeExecutor executor;
+
+    private MessageBatcher messageBatcher;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        executor = new FakeExecutor();
+        messageBatcher = new MessageBatcher(vertx, executor, now::get);
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    @DisplayName("Resolve messages of a chat in one batch and share the results")
+    void coalesceTest() throws Exception {
+        Future<TdApi.Message> first = messageBatcher.getMessage(CHAT_ID, 1);
+        Future<TdApi.Message> second = messageBatcher.getMessage(CHAT_ID, 2);
+        Assertions.assertSame(first, messageBatcher.getMessage(CHAT_ID, 1));
+
+        Assertions.assertEquals(1L, await(first).id);
+        Assertions.assertEquals(2L, await(second).id);
+        Assertions.assertEquals(1, executor.batches.size());
+        Assertions.assertArrayEquals(new long[]{1, 2}, executor.batches.getFirst().messageIds);
+        Assertions.assertEquals(1, messageBatcher.getBatches());
+        Assertions.assertEquals(3, messageBatcher.getRequests());
+
+        Assertions.assertSame(first, messageBatcher.getMessage(CHAT_ID, 1));
+        Assertions.assertEquals(1, executor.batches.size());
+    }
+
+    @Test
+    @DisplayName("Fail the whole batch and evict it when the request throws")
+    void failureTest() throws Exception {
+        executor.throwing = true;
+        Future<TdApi.Message> first = messageBatcher.getMessage(CHAT_ID, 1);
+        Future<TdApi.Message> second = messageBatcher.getMessage(CHAT_ID, 2);
+
+        Assertions.assertThrows(ExecutionException.class, () -> await(first));
+        Assertions.assertThrows(ExecutionException.class, () -> await(second));
+
+        executor.throwing = false;
+        Future<TdApi.Message> retried = messageBatcher.getMessage(CHAT_ID, 1);
+        Assertions.assertNotSame(first, retried);
+        Assertions.assertEquals(1L, await(retried).id);
+        Assertions.assertEquals(2, executor.batches.size());
+    }
+
+    @Test
+    @DisplayName("Evict a message that was not found")
+    void notFoundTest() throws Exception {
+        executor.missing = 2;
+        Future<TdApi.Message> missing = messageBatcher.getMessage(CHAT_ID, 2);
+        Assertions.assertThrows(ExecutionException.class, () -> await(missing));
+
+        executor.missing = 0;
+        Assertions.assertEquals(2L, await(messageBatcher.getMessage(CHAT_ID, 2)).id);
+    }
+
+    @Test
+    @DisplayName("Request the message again after the results expire")
+    void expireTest() throws Exception {
+        Future<TdApi.Message> first = messageBatcher.getMessage(CHAT_ID, 1);
+        await(first);
+
+        now.addAndGet(4999);
+        Assertions.assertSame(first, messageBatcher.getMessage(CHAT_ID, 1));
+
+        now.addAndGet(1);
+        Future<TdApi.Message> second = messageBatcher.getMessage(CHAT_ID, 1);
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals(1L, await(second).id);
+        Assertions.assertEquals(2, executor.batches.size());
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    private static class FakeExecutor implements MessageBatcher.MethodExecutor {
+        final List<TdApi.GetMessages> batches = new CopyOnWriteArrayList<>();
+
+        volatile boolean throwing;
+
+        volatile long missing;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R extends TdApi.Object> Future<R> execute(TdApi.Function<R> method, boolean ignoreException) {
+            TdApi.GetMessages getMessages = (TdApi.GetMessages) method;
+            batches.add(getMessages);
+            if (throwing) {
+                throw new IllegalStateException("Client is not initialized");
+            }
+            TdApi.Message[] messages = LongStream.of(getMessages.messageIds)
+                    .mapToObj(id -> {
+                        if (id == missing) {
+                            return null;
+                        }
+                        TdApi.Message message = new TdApi.Message();
+                        message.id = id;
+                        message.chatId = getMessages.chatId;
+                        return message;
+                    })
+                    .toArray(TdApi.Message[]::new);
+            return Future.succeededFuture((R) new TdApi.Messages(messages.length, messages));
+        }
+    }
+}
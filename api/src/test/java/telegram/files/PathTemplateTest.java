@@ -0,0 +1,81 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.FileRecord;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+public class PathTemplateTest {
+
+    private static FileRecord fileRecord(String localPath, String type, int date) {
+        return new FileRecord(1, "unique-id", 100, 200, 300, 0, date, false, 1024, 0,
+                type, "video/mp4", "movie.mp4", null, null, null, null,
+                localPath, "completed", "idle", 0, null, null, 0, 0, 0);
+    }
+
+    @Test
+    @DisplayName("Evaluate variables of the file")
+    void evaluateTest() {
+        int date = (int) LocalDateTime.of(2024, 3, 7, 9, 30).toEpochSecond(ZoneOffset.UTC);
+        PathTemplate template = PathTemplate.compile("/{chatTitle}/{yyyy}/{MM}-{dd} {HH}/{type}/{baseName}.{ext}", ZoneOffset.UTC);
+
+        String path = template.evaluate(fileRecord("/tdlib/videos/movie.mp4", "video", date), r -> "My Chat");
+
+        Assertions.assertEquals("My Chat/2024/03-07 09/video/movie.mp4", path);
+    }
+
+    @Test
+    @DisplayName("Fall back to the chat id without a chat title")
+    void chatTitleFallbackTest() {
+        PathTemplate template = PathTemplate.compile("{telegramId}/{chatTitle}/{messageId}_{fileName}");
+
+        Assertions.assertEquals("100/200/300_movie.mp4", template.evaluate(fileRecord("/tdlib/movie.mp4", "video", 0), r -> null));
+        Assertions.assertEquals("100/200/300_movie.mp4", template.evaluate(fileRecord("/tdlib/movie.mp4", "video", 0), null));
+    }
+
+    @Test
+    @DisplayName("Keep each variable in one path element")
+    void sanitizeTest() {
+        PathTemplate template = PathTemplate.compile("{chatTitle}/{mimeType}/{fileName}");
+
+        String path = template.evaluate(fileRecord("/tdlib/movie.mp4", "video", 0), r -> "../a/b:c?");
+
+        Assertions.assertEquals(".._a_b_c_/video_mp4/movie.mp4", path);
+        Assertions.assertEquals("_/video_mp4/movie.mp4", template.evaluate(fileRecord("/tdlib/movie.mp4", "video", 0), r -> ".."));
+    }
+
+    @Test
+    @DisplayName("Reject invalid templates")
+    void invalidTemplateTest() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile(" "));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("{chatTitle/{fileName}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("{unknown}/{fileName}"));
+    }
+
+    @Test
+    @DisplayName("Reject . and .. elements")
+    void relativeElementTest() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("../{fileName}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("{chatTitle}/../../etc/{fileName}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("./{fileName}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("{chatTitle}\\ .. \\{fileName}"));
+        Assertions.assertDoesNotThrow(() -> PathTemplate.compile("{chatTitle}/..{fileName}"));
+    }
+
+    @Test
+    @DisplayName("Reject roots and keep the path under the destination")
+    void rootTest() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("C:/Windows/{fileName}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("c:{fileName}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("\\\\server\\share\\{fileName}"));
+
+        PathTemplate template = PathTemplate.compile("/{chatTitle}/{fileName}");
+        FileRecord fileRecord = fileRecord("/tdlib/movie.mp4", "video", 0);
+        Assertions.assertEquals(Path.of("/data/My Chat/movie.mp4"), template.resolve(Path.of("/data/./"), fileRecord, r -> "My Chat"));
+        Assertions.assertEquals(Path.of("_/movie.mp4"), template.resolve(Path.of(""), fileRecord, r -> ".."));
+    }
+}
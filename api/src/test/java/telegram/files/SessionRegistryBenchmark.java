@@ -0,0 +1,138 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.http.WebSocketClientOptions;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event fan-out of {@link SessionRegistry} to 1k websocket sessions, run with {@code BENCHMARK=true ./gradlew test --tests '*SessionRegistryBenchmark'}.
+ * <p>
+ * Sessions are spread over 10 accounts, the scan baseline is the lookup used before the index: compare the account of
+ * every session and encode the payload per session.
+ */
+@EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+public class SessionRegistryBenchmark {
+
+    private static final int SESSIONS = 1000;
+
+    private static final int ACCOUNTS = 10;
+
+    private static final int EVENTS = 20_000;
+
+    private static Vertx vertx;
+
+    private static HttpServer server;
+
+    private static WebSocketClient client;
+
+    private static final SessionRegistry sessionRegistry = new SessionRegistry();
+
+    private static final Map<String, TelegramVerticle> sessionTelegramVerticles = new ConcurrentHashMap<>();
+
+    private static final List<TelegramVerticle> accounts = new ArrayList<>();
+
+    private static final AtomicLong received = new AtomicLong();
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        server = await(vertx.createHttpServer()
+                .webSocketHandler(ws -> sessionRegistry.connect(ws.path().substring("/ws/".length()), ws, false))
+                .listen(0));
+        client = vertx.createWebSocketClient(new WebSocketClientOptions().setMaxConnections(SESSIONS));
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(new TelegramVerticle("/tmp/telegram-files/account-" + i));
+        }
+        List<Future<?>> connections = new ArrayList<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            String sessionId = "session-" + i;
+            connections.add(client.connect(server.actualPort(), "127.0.0.1", "/ws/" + sessionId)
+                    .onSuccess(ws -> ws.textMessageHandler(text -> received.incrementAndGet())));
+        }
+        await(Future.all(connections));
+        for (int i = 0; i < SESSIONS; i++) {
+            TelegramVerticle account = accounts.get(i % ACCOUNTS);
+            sessionRegistry.bind("session-" + i, account);
+            sessionTelegramVerticles.put("session-" + i, account);
+        }
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        await(vertx.close());
+    }
+
+    private static JsonObject payload(int i) {
+        return JsonObject.mapFrom(EventPayload.build(EventPayload.TYPE_FILE_STATUS, JsonObject.of()
+                .put("fileId", i)
+                .put("uniqueId", "AgADBAADr6cxG" + i)
+                .put("transferStatus", "transferring")
+                .put("transferProgress", JsonObject.of("transferredBytes", i * 1024L, "totalBytes", 1L << 30, "bytesPerSecond", 1L << 20))));
+    }
+
+    @Test
+    @DisplayName("Fan-out throughput")
+    void sendBenchmark() throws Exception {
+        long expected = received.get() + (long) EVENTS * SESSIONS / ACCOUNTS;
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            sessionRegistry.send(accounts.get(i % ACCOUNTS), payload(i));
+        }
+        double sendSeconds = (System.nanoTime() - start) / 1e9;
+        while (received.get() < expected) {
+            Thread.sleep(1);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-32s %8.3f s %10.0f events/s, delivered in %.3f s%n",
+                "indexed send", sendSeconds, EVENTS / sendSeconds, seconds);
+    }
+
+    @Test
+    @DisplayName("Lookup and encoding per event")
+    void lookupBenchmark() {
+        long start = System.nanoTime();
+        long blackhole = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            String telegramId = String.valueOf(accounts.get(i % ACCOUNTS).getId());
+            EventPayload payload = payload(i).mapTo(EventPayload.class);
+            for (Map.Entry<String, TelegramVerticle> entry : sessionTelegramVerticles.entrySet()) {
+                if (Objects.equals(String.valueOf(entry.getValue().getId()), telegramId)) {
+                    blackhole += Json.encode(payload).length();
+                }
+            }
+        }
+        double scanSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            String telegramId = String.valueOf(accounts.get(i % ACCOUNTS).getId());
+            TelegramVerticle account = TelegramVerticles.get(telegramId).orElse(null);
+            blackhole += payload(i).toBuffer().length() + (account == null ? 0 : 1);
+        }
+        double indexSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-32s %8.3f s %10.0f events/s%n", "scan, encode per session", scanSeconds, EVENTS / scanSeconds);
+        System.out.printf("%-32s %8.3f s %10.0f events/s  %d%n", "index, encode once", indexSeconds, EVENTS / indexSeconds, blackhole);
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    }
+}
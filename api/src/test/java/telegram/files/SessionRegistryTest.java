@@ -0,0 +1,148 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+@ExtendWith(VertxExtension.class)
+public class SessionRegistryTest {
+
+    private SessionRegistry sessionRegistry;
+
+    private HttpServer server;
+
+    private WebSocketClient client;
+
+    // session id -> websockets accepted by the server
+    private final Map<String, List<ServerWebSocket>> serverWebSockets = new ConcurrentHashMap<>();
+
+    // session id -> messages received by the client
+    private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+
+    private final TelegramVerticle account1 = new TelegramVerticle("/tmp/telegram-files/account-1");
+
+    private final TelegramVerticle account2 = new TelegramVerticle("/tmp/telegram-files/account-2");
+
+    @BeforeEach
+    void setUp(Vertx vertx) throws Exception {
+        sessionRegistry = new SessionRegistry();
+        server = await(vertx.createHttpServer()
+                .webSocketHandler(ws -> {
+                    String sessionId = ws.path().substring("/ws/".length());
+                    serverWebSockets.computeIfAbsent(sessionId, k -> new CopyOnWriteArrayList<>()).add(ws);
+                    sessionRegistry.connect(sessionId, ws, "unbound".equals(ws.query()));
+                    ws.closeHandler(v -> sessionRegistry.disconnect(sessionId, ws));
+                })
+                .listen(0));
+        client = vertx.createWebSocketClient();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        await(client.close());
+        await(server.close());
+    }
+
+    @Test
+    @DisplayName("Send an event to the sessions of its account and to unbound sessions")
+    void sendTest() throws Exception {
+        connect("s1", false);
+        connect("s2", false);
+        connect("s3", true);
+        sessionRegistry.bind("s1", account1);
+        sessionRegistry.bind("s2", account2);
+
+        Assertions.assertEquals(2, sessionRegistry.send(account1, JsonObject.of("type", 1)));
+        Assertions.assertEquals(1, sessionRegistry.send(null, JsonObject.of("type", 2)));
+
+        awaitMessages("s1", 1);
+        awaitMessages("s3", 2);
+        Assertions.assertEquals(List.of("{\"type\":1}"), received.get("s1"));
+        Assertions.assertEquals(List.of("{\"type\":1}", "{\"type\":2}"), received.get("s3"));
+        Assertions.assertTrue(received.get("s2").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Move sessions between accounts")
+    void bindTest() throws Exception {
+        connect("s1", false);
+        connect("s2", false);
+        sessionRegistry.bind("s1", account1);
+        sessionRegistry.bind("s2", account1);
+
+        sessionRegistry.bind("s1", account2);
+        Assertions.assertEquals(1, sessionRegistry.send(account1, JsonObject.of()));
+        Assertions.assertEquals(1, sessionRegistry.send(account2, JsonObject.of()));
+
+        sessionRegistry.unbind("s2");
+        Assertions.assertEquals(0, sessionRegistry.send(account1, JsonObject.of()));
+
+        sessionRegistry.unbindAll(account2);
+        Assertions.assertNull(sessionRegistry.getTelegramVerticle("s1"));
+        Assertions.assertEquals(0, sessionRegistry.send(account2, JsonObject.of()));
+    }
+
+    @Test
+    @DisplayName("Keep a session that reconnected before the old websocket closed")
+    void reconnectTest() throws Exception {
+        WebSocket first = connect("s1", false);
+        connect("s1", false);
+        sessionRegistry.bind("s1", account1);
+
+        await(first.close());
+        waitUntil(() -> serverWebSockets.get("s1").getFirst().isClosed());
+
+        Assertions.assertEquals(account1, sessionRegistry.getTelegramVerticle("s1"));
+        Assertions.assertEquals(1, sessionRegistry.send(account1, JsonObject.of()));
+    }
+
+    @Test
+    @DisplayName("Forget a session when its websocket closes")
+    void disconnectTest() throws Exception {
+        WebSocket webSocket = connect("s1", true);
+        sessionRegistry.bind("s1", account1);
+
+        await(webSocket.close());
+        waitUntil(() -> sessionRegistry.getTelegramVerticle("s1") == null);
+
+        Assertions.assertEquals(0, sessionRegistry.send(account1, JsonObject.of()));
+        Assertions.assertEquals(0, sessionRegistry.send(null, JsonObject.of()));
+    }
+
+    private WebSocket connect(String sessionId, boolean isUnbound) throws Exception {
+        List<String> messages = received.computeIfAbsent(sessionId, k -> new CopyOnWriteArrayList<>());
+        WebSocket webSocket = await(client.connect(server.actualPort(), "127.0.0.1",
+                "/ws/" + sessionId + (isUnbound ? "?unbound" : "")));
+        webSocket.textMessageHandler(messages::add);
+        return webSocket;
+    }
+
+    private void awaitMessages(String sessionId, int count) throws InterruptedException {
+        waitUntil(() -> received.get(sessionId).size() >= count);
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,60 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucketTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private void advanceMillis(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    @DisplayName("Allow a burst up to the capacity")
+    void burstTest() {
+        TokenBucket bucket = new TokenBucket(2, 3, now::get);
+        Assertions.assertTrue(bucket.tryAcquire(1));
+        Assertions.assertTrue(bucket.tryAcquire(2));
+        Assertions.assertFalse(bucket.tryAcquire(1));
+        Assertions.assertEquals(0, bucket.available());
+    }
+
+    @Test
+    @DisplayName("Refill at the rate without exceeding the capacity")
+    void refillTest() {
+        TokenBucket bucket = new TokenBucket(2, 3, now::get);
+        Assertions.assertTrue(bucket.tryAcquire(3));
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.nanosUntilAvailable(1));
+
+        advanceMillis(500);
+        Assertions.assertEquals(0, bucket.nanosUntilAvailable(1));
+        Assertions.assertTrue(bucket.tryAcquire(1));
+
+        advanceMillis(10_000);
+        Assertions.assertEquals(3, bucket.available());
+    }
+
+    @Test
+    @DisplayName("Never available when permits exceed the capacity")
+    void exceedCapacityTest() {
+        TokenBucket bucket = new TokenBucket(2, 3, now::get);
+        Assertions.assertEquals(Long.MAX_VALUE, bucket.nanosUntilAvailable(4));
+        Assertions.assertFalse(bucket.tryAcquire(4));
+    }
+
+    @Test
+    @DisplayName("Apply a new rate to the following refills")
+    void setRateTest() {
+        TokenBucket bucket = new TokenBucket(1, 1, now::get);
+        Assertions.assertTrue(bucket.tryAcquire(1));
+        bucket.setRate(10, 5);
+        advanceMillis(300);
+        Assertions.assertEquals(3, bucket.available());
+    }
+}
@@ -0,0 +1,108 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.FileRecord;
+import telegram.files.repository.FileRepository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class TransferStatusBatcherTest {
+
+    private FileRepository fileRepository;
+
+    private final List<Map.Entry<FileRecord.TransferStatus, Map<String, String>>> written = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        fileRepository = mock(FileRepository.class);
+        when(fileRepository.updateTransferStatuses(any(), any())).thenAnswer(invocation -> {
+            Map<String, String> localPaths = invocation.getArgument(1);
+            written.add(Map.entry(invocation.getArgument(0), new LinkedHashMap<>(localPaths)));
+            return Future.succeededFuture(localPaths.size());
+        });
+    }
+
+    private Map<String, String> localPaths(FileRecord.TransferStatus transferStatus) {
+        return written.stream()
+                .filter(entry -> entry.getKey() == transferStatus)
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    @DisplayName("Write the last status of each file grouped by status")
+    void coalesceTest() {
+        TransferStatusBatcher batcher = new TransferStatusBatcher(fileRepository);
+        batcher.add("a", FileRecord.TransferStatus.transferring, null);
+        batcher.add("b", FileRecord.TransferStatus.transferring, null);
+        batcher.add("a", FileRecord.TransferStatus.completed, "/library/a");
+        batcher.add("c", FileRecord.TransferStatus.error, null);
+        Assertions.assertEquals(FileRecord.TransferStatus.completed, batcher.getPendingStatus("a"));
+
+        batcher.flush();
+
+        Assertions.assertEquals(3, written.size());
+        Assertions.assertEquals(Map.of("a", "/library/a"), localPaths(FileRecord.TransferStatus.completed));
+        Assertions.assertEquals(Set.of("b"), localPaths(FileRecord.TransferStatus.transferring).keySet());
+        Assertions.assertNull(localPaths(FileRecord.TransferStatus.transferring).get("b"));
+        Assertions.assertEquals(Set.of("c"), localPaths(FileRecord.TransferStatus.error).keySet());
+        Assertions.assertNull(batcher.getPendingStatus("a"));
+        Assertions.assertEquals(0, batcher.pendingSize());
+    }
+
+    @Test
+    @DisplayName("Flush when the batch is full")
+    void fullBatchTest() {
+        TransferStatusBatcher batcher = new TransferStatusBatcher(fileRepository);
+        for (int i = 0; i < TransferStatusBatcher.MAX_BATCH_SIZE; i++) {
+            batcher.add("file-" + i, FileRecord.TransferStatus.completed, "/library/" + i);
+        }
+
+        Assertions.assertEquals(1, written.size());
+        Assertions.assertEquals(TransferStatusBatcher.MAX_BATCH_SIZE, written.getFirst().getValue().size());
+        Assertions.assertEquals(1, batcher.getBatches());
+    }
+
+    @Test
+    @DisplayName("Keep the statuses of a failed write for the next flush")
+    void retryTest() {
+        TransferStatusBatcher batcher = new TransferStatusBatcher(fileRepository);
+        doReturn(Future.failedFuture("database is locked")).when(fileRepository).updateTransferStatuses(any(), any());
+        batcher.add("a", FileRecord.TransferStatus.completed, "/library/a");
+        batcher.flush();
+        Assertions.assertEquals(FileRecord.TransferStatus.completed, batcher.getPendingStatus("a"));
+
+        doReturn(Future.succeededFuture(1)).when(fileRepository).updateTransferStatuses(any(), any());
+        batcher.flush();
+        Assertions.assertNull(batcher.getPendingStatus("a"));
+        verify(fileRepository, times(2)).updateTransferStatuses(eq(FileRecord.TransferStatus.completed), eq(Map.of("a", "/library/a")));
+    }
+
+    @Test
+    @DisplayName("Write a terminal status at once with the pending ones")
+    void addAndFlushTest() {
+        TransferStatusBatcher batcher = new TransferStatusBatcher(fileRepository);
+        batcher.add("a", FileRecord.TransferStatus.transferring, null);
+        batcher.add("b", FileRecord.TransferStatus.transferring, null);
+        Assertions.assertTrue(written.isEmpty());
+
+        Future<Void> future = batcher.addAndFlush("a", FileRecord.TransferStatus.completed, "/library/a");
+
+        Assertions.assertTrue(future.succeeded());
+        Assertions.assertEquals(Map.of("a", "/library/a"), localPaths(FileRecord.TransferStatus.completed));
+        Assertions.assertEquals(Set.of("b"), localPaths(FileRecord.TransferStatus.transferring).keySet());
+        Assertions.assertEquals(0, batcher.pendingSize());
+    }
+}
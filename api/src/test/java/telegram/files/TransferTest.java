@@ -117,6 +117,27 @@ class TransferTest {
                 .anyMatch(f -> f.getName().contains("source-1.txt")));
     }
 
+    @Test
+    void testDuplicationPolicyHashIndex(@TempDir Path tempDir) throws Exception {
+        // A file with the same content is already transferred to another path
+        Path indexedFile = Path.of(transfer.destination).resolve("other").resolve("copy.txt");
+        FileUtil.writeUtf8String("test content", indexedFile.toString());
+        FileHashIndex hashIndex = new FileHashIndex(new FileHashIndexTest.MemoryRepository());
+        hashIndex.put(indexedFile.toFile(), FileHasher.hash(indexedFile.toFile(), FileHasher.Algorithm.XXH64), FileHasher.Algorithm.XXH64);
+
+        String sourcePath = mockWaitingTransfer(tempDir, "source.txt");
+        transfer.duplicationPolicy = DuplicationPolicy.HASH;
+        transfer.hashIndex = hashIndex;
+
+        transfer.transfer(mockFileRecord);
+
+        verify(mockStatusUpdater, times(1)).accept(argThat(
+                status -> status.transferStatus() == FileRecord.TransferStatus.completed
+                          && indexedFile.toFile().getAbsolutePath().equals(status.localPath())
+        ));
+        assertFalse(Files.exists(Paths.get(sourcePath)));
+    }
+
     @Test
     void testTransferError(@TempDir Path tempDir) {
         // Force an error by providing an invalid path
@@ -0,0 +1,91 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+public class TransferWorkerPoolTest {
+
+    // Tasks are run by the test, one at a time
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private final List<String> transferred = new ArrayList<>();
+
+    private final TransferWorkerPool<String> pool = new TransferWorkerPool<>(tasks::add, 2, transferred::add);
+
+    @Test
+    @DisplayName("Limit running transfers of each destination")
+    void concurrencyTest() {
+        for (int i = 0; i < 3; i++) {
+            pool.submit("/mnt/a", "a" + i);
+            pool.submit("/mnt/b", "b" + i);
+        }
+        Assertions.assertEquals(4, pool.runningSize());
+        Assertions.assertEquals(2, pool.waitingSize());
+
+        // A finished transfer starts the next one of the same destination
+        tasks.poll().run();
+        Assertions.assertEquals(List.of("a0"), transferred);
+        Assertions.assertEquals(4, pool.runningSize());
+        Assertions.assertEquals(1, pool.waitingSize());
+
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+        Assertions.assertEquals(6, transferred.size());
+        Assertions.assertEquals(0, pool.runningSize());
+        Assertions.assertEquals(6, pool.getCompleted());
+    }
+
+    @Test
+    @DisplayName("Queue a file once until it is transferred")
+    void duplicateTest() {
+        Assertions.assertTrue(pool.submit("/mnt/a", "a0"));
+        Assertions.assertFalse(pool.submit("/mnt/a", "a0"));
+        tasks.poll().run();
+        Assertions.assertTrue(pool.submit("/mnt/a", "a0"));
+    }
+
+    @Test
+    @DisplayName("Apply the concurrency of a destination")
+    void setConcurrencyTest() {
+        pool.setConcurrency(1, Map.of("/mnt/b/", 3));
+        for (int i = 0; i < 3; i++) {
+            pool.submit("/mnt/a", "a" + i);
+            pool.submit("/mnt/b", "b" + i);
+        }
+        Assertions.assertEquals(1, pool.getConcurrency(TransferWorkerPool.normalizeRoot("/mnt/a")));
+        Assertions.assertEquals(3, pool.getConcurrency(TransferWorkerPool.normalizeRoot("/mnt/b")));
+        Assertions.assertEquals(4, pool.runningSize());
+        Assertions.assertEquals(2, pool.waitingSize());
+    }
+
+    @Test
+    @DisplayName("Keep object storage destinations as URIs")
+    void normalizeS3RootTest() {
+        Assertions.assertEquals("s3://bucket/prefix", TransferWorkerPool.normalizeRoot(" s3://bucket/prefix/"));
+        pool.setConcurrency(1, Map.of("s3://bucket/", 2));
+        Assertions.assertEquals(2, pool.getConcurrency(TransferWorkerPool.normalizeRoot("s3://bucket")));
+    }
+
+    @Test
+    @DisplayName("Remove waiting transfers")
+    void removeTest() {
+        pool.setConcurrency(1, null);
+        pool.submit("/mnt/a", "a0");
+        pool.submit("/mnt/a", "a1");
+        pool.submit("/mnt/a", "a2");
+        pool.removeIf(job -> job.equals("a1"));
+        Assertions.assertEquals(1, pool.waitingSize());
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+        Assertions.assertEquals(List.of("a0", "a2"), transferred);
+    }
+}
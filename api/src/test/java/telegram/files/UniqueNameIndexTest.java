@@ -0,0 +1,107 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+public class UniqueNameIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicInteger checks = new AtomicInteger();
+
+    private final Predicate<Path> notExists = path -> {
+        checks.incrementAndGet();
+        return !Files.exists(path);
+    };
+
+    @Test
+    @DisplayName("Continue after the highest serial number of the directory")
+    void seedTest() throws Exception {
+        Files.createFile(tempDir.resolve("photo.jpg"));
+        Files.createFile(tempDir.resolve("photo-1.jpg"));
+        Files.createFile(tempDir.resolve("photo-7.jpg"));
+        Files.createFile(tempDir.resolve("photo-7.png"));
+        Files.createFile(tempDir.resolve("other-9.jpg"));
+        UniqueNameIndex index = new UniqueNameIndex(10);
+
+        Assertions.assertEquals(tempDir.resolve("photo-8.jpg"), index.allocate(tempDir.resolve("photo.jpg"), notExists));
+        Assertions.assertEquals(tempDir.resolve("photo-9.jpg"), index.allocate(tempDir.resolve("photo.jpg"), notExists));
+        Assertions.assertEquals(tempDir.resolve("photo-8.png"), index.allocate(tempDir.resolve("photo.png"), notExists));
+        Assertions.assertEquals(tempDir.resolve("readme-1"), index.allocate(tempDir.resolve("readme"), notExists));
+        Assertions.assertEquals(4, checks.get());
+    }
+
+    @Test
+    @DisplayName("Keep dates and other long numbers as part of the name")
+    void longNumberTest() throws Exception {
+        Files.createFile(tempDir.resolve("photo.jpg"));
+        Files.createFile(tempDir.resolve("photo-20240101.jpg"));
+        Files.createFile(tempDir.resolve("report.pdf"));
+        Files.createFile(tempDir.resolve("report-2024.pdf"));
+        Files.createFile(tempDir.resolve("scan-007.png"));
+        Files.createFile(tempDir.resolve("scan.png"));
+        UniqueNameIndex index = new UniqueNameIndex(10);
+
+        Assertions.assertEquals(tempDir.resolve("photo-1.jpg"), index.allocate(tempDir.resolve("photo.jpg"), notExists));
+        Assertions.assertEquals(tempDir.resolve("report-1.pdf"), index.allocate(tempDir.resolve("report.pdf"), notExists));
+        Assertions.assertEquals(tempDir.resolve("scan-1.png"), index.allocate(tempDir.resolve("scan.png"), notExists));
+        Assertions.assertEquals(tempDir.resolve("photo-20240101-1.jpg"), index.allocate(tempDir.resolve("photo-20240101.jpg"), notExists));
+    }
+
+    @Test
+    @DisplayName("Skip numbers taken by files written meanwhile")
+    void writtenTest() throws Exception {
+        Files.createFile(tempDir.resolve("photo.jpg"));
+        UniqueNameIndex index = new UniqueNameIndex(10);
+        Assertions.assertEquals(tempDir.resolve("photo-1.jpg"), index.allocate(tempDir.resolve("photo.jpg"), notExists));
+
+        // Written by a transfer
+        index.onWritten(Files.createFile(tempDir.resolve("photo-5.jpg")));
+        Assertions.assertEquals(tempDir.resolve("photo-6.jpg"), index.allocate(tempDir.resolve("photo.jpg"), notExists));
+
+        // Created by someone else
+        Files.createFile(tempDir.resolve("photo-7.jpg"));
+        Assertions.assertEquals(tempDir.resolve("photo-8.jpg"), index.allocate(tempDir.resolve("photo.jpg"), notExists));
+    }
+
+    @Test
+    @DisplayName("Allocate in a directory not created yet")
+    void missingDirectoryTest() {
+        UniqueNameIndex index = new UniqueNameIndex(10);
+        Path path = tempDir.resolve("a/photo.jpg");
+        Assertions.assertEquals(tempDir.resolve("a/photo-1.jpg"), index.allocate(path, notExists));
+        Assertions.assertEquals(tempDir.resolve("a/photo-2.jpg"), index.allocate(path, notExists));
+    }
+
+    @Test
+    @DisplayName("Allocate distinct names from concurrent first listings")
+    void concurrentTest() throws Exception {
+        Files.createFile(tempDir.resolve("photo.jpg"));
+        UniqueNameIndex index = new UniqueNameIndex(10);
+        Set<Path> reserved = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Path>> futures = executor.invokeAll(Collections.nCopies(64,
+                    () -> index.allocate(tempDir.resolve("photo.jpg"), path -> !Files.exists(path) && reserved.add(path))));
+            for (Future<Path> future : futures) {
+                Assertions.assertTrue(reserved.contains(future.get()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertEquals(64, reserved.size());
+        Assertions.assertEquals(tempDir.resolve("photo-65.jpg"), index.allocate(tempDir.resolve("photo.jpg"), notExists));
+    }
+}
@@ -42,6 +42,7 @@ const DEFAULT_AUTO: Auto = {
       destination: "",
       transferPolicy: "GROUP_BY_CHAT",
       duplicationPolicy: "OVERWRITE",
+      transferMode: "MOVE",
     },
   },
 };
@@ -283,6 +284,16 @@ export default function AutomationDialog() {
                     {chat.auto.transfer.rule.transferPolicy}
                   </Badge>
                 </div>
+                {chat.auto.transfer.rule.transferPolicy === "TEMPLATE" && (
+                  <div className="flex items-center justify-between rounded-lg bg-gray-50 p-3 dark:border-gray-700 dark:bg-gray-800">
+                    <span className="text-xs text-gray-500 dark:text-gray-300">
+                      Path Template
+                    </span>
+                    <span className="text-sm text-gray-500 dark:text-gray-300">
+                      {chat.auto.transfer.rule.pathTemplate}
+                    </span>
+                  </div>
+                )}
                 <div className="flex items-center justify-between rounded-lg bg-gray-50 p-3 dark:border-gray-700 dark:bg-gray-800">
                   <span className="text-xs text-gray-500 dark:text-gray-300">
                     Duplication Policy
@@ -291,6 +302,14 @@ export default function AutomationDialog() {
                     {chat.auto.transfer.rule.duplicationPolicy}
                   </Badge>
                 </div>
+                <div className="flex items-center justify-between rounded-lg bg-gray-50 p-3 dark:border-gray-700 dark:bg-gray-800">
+                  <span className="text-xs text-gray-500 dark:text-gray-300">
+                    Transfer Mode
+                  </span>
+                  <Badge variant="outline" className="font-normal">
+                    {chat.auto.transfer.rule.transferMode ?? "MOVE"}
+                  </Badge>
+                </div>
                 <div className="flex items-center justify-between rounded-lg bg-gray-50 p-3 dark:border-gray-700 dark:bg-gray-800">
                   <span className="text-xs text-gray-500 dark:text-gray-300">
                     Transfer History
@@ -331,10 +350,12 @@ export default function AutomationDialog() {
                 onClick={() => {
                   const folderPathRegex =
                     /^[\/\\]?(?:[^<>:"|?*\/\\]+[\/\\]?)*$/;
+                  const s3UriRegex = /^s3:\/\/[^\/\s]+(?:\/.*)?$/;
                   if (
                     auto?.transfer.enabled &&
                     (auto?.transfer.rule.destination.length === 0 ||
-                      !folderPathRegex.test(auto?.transfer.rule.destination))
+                      (!folderPathRegex.test(auto?.transfer.rule.destination) &&
+                        !s3UriRegex.test(auto?.transfer.rule.destination)))
                   ) {
                     toast({
                       variant: "warning",
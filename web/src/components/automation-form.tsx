@@ -9,6 +9,8 @@ import {
   type FileType,
   TransferPolices,
   type TransferPolicy,
+  TransferModes,
+  type TransferMode,
 } from "@/lib/types";
 import React, { useMemo, useState } from "react";
 import {
@@ -199,6 +201,28 @@ interface DownloadRuleProps {
   onChange: (value: AutoDownloadRule) => void;
 }
 
+const MEGABYTE = 1024 * 1024;
+
+function toMegabytes(bytes?: number | null) {
+  return bytes ? Number((bytes / MEGABYTE).toFixed(2)) : "";
+}
+
+function fromMegabytes(value: string) {
+  return value === "" ? null : Math.round(Number(value) * MEGABYTE);
+}
+
+function toDateInput(seconds?: number | null) {
+  return seconds ? new Date(seconds * 1000).toISOString().slice(0, 10) : "";
+}
+
+function fromDateInput(value: string, endOfDay: boolean) {
+  if (value === "") {
+    return null;
+  }
+  const seconds = Math.floor(Date.parse(value) / 1000);
+  return endOfDay ? seconds + 24 * 60 * 60 - 1 : seconds;
+}
+
 function DownloadRule({ value, onChange }: DownloadRuleProps) {
   const handleQueryChange = (e: React.ChangeEvent<HTMLInputElement>) => {
     onChange({
@@ -277,6 +301,131 @@ function DownloadRule({ value, onChange }: DownloadRuleProps) {
               </div>
             </div>
 
+            <div className="flex flex-col space-y-2">
+              <Label>File Size (MB)</Label>
+              <div className="flex items-center space-x-2">
+                <Input
+                  id="min-size"
+                  type="number"
+                  min={0}
+                  placeholder="Min"
+                  value={toMegabytes(value.minSize)}
+                  onChange={(e) =>
+                    onChange({
+                      ...value,
+                      minSize: fromMegabytes(e.target.value),
+                    })
+                  }
+                />
+                <span>-</span>
+                <Input
+                  id="max-size"
+                  type="number"
+                  min={0}
+                  placeholder="Max"
+                  value={toMegabytes(value.maxSize)}
+                  onChange={(e) =>
+                    onChange({
+                      ...value,
+                      maxSize: fromMegabytes(e.target.value),
+                    })
+                  }
+                />
+              </div>
+            </div>
+
+            <div className="flex flex-col space-y-2">
+              <Label htmlFor="file-name-pattern">File Name Pattern</Label>
+              <Input
+                id="file-name-pattern"
+                type="text"
+                placeholder="Regular expression, e.g. \.(mkv|mp4)$"
+                value={value.fileNamePattern ?? ""}
+                onChange={(e) =>
+                  onChange({ ...value, fileNamePattern: e.target.value })
+                }
+              />
+            </div>
+
+            <div className="flex flex-col space-y-2">
+              <Label htmlFor="caption-pattern">Caption Pattern</Label>
+              <Input
+                id="caption-pattern"
+                type="text"
+                placeholder="Regular expression, e.g. 1080p"
+                value={value.captionPattern ?? ""}
+                onChange={(e) =>
+                  onChange({ ...value, captionPattern: e.target.value })
+                }
+              />
+            </div>
+
+            <div className="flex flex-col space-y-2">
+              <Label htmlFor="mime-types">Mime Types</Label>
+              <Input
+                id="mime-types"
+                type="text"
+                placeholder="Comma separated, e.g. video/*, application/pdf"
+                value={value.mimeTypes?.join(", ") ?? ""}
+                onChange={(e) =>
+                  onChange({
+                    ...value,
+                    mimeTypes: e.target.value
+                      .split(",")
+                      .map((mimeType) => mimeType.trim())
+                      .filter((mimeType) => mimeType !== ""),
+                  })
+                }
+              />
+            </div>
+
+            <div className="flex flex-col space-y-2">
+              <Label>Message Date</Label>
+              <div className="flex items-center space-x-2">
+                <Input
+                  id="start-date"
+                  type="date"
+                  value={toDateInput(value.startDate)}
+                  onChange={(e) =>
+                    onChange({
+                      ...value,
+                      startDate: fromDateInput(e.target.value, false),
+                    })
+                  }
+                />
+                <span>-</span>
+                <Input
+                  id="end-date"
+                  type="date"
+                  value={toDateInput(value.endDate)}
+                  onChange={(e) =>
+                    onChange({
+                      ...value,
+                      endDate: fromDateInput(e.target.value, true),
+                    })
+                  }
+                />
+              </div>
+            </div>
+
+            <div className="flex flex-col space-y-2">
+              <Label htmlFor="min-reaction-count">Min Reactions</Label>
+              <Input
+                id="min-reaction-count"
+                type="number"
+                min={0}
+                placeholder="0"
+                value={value.minReactionCount ?? ""}
+                onChange={(e) =>
+                  onChange({
+                    ...value,
+                    minReactionCount:
+                      e.target.value === "" ? null : Number(e.target.value),
+                  })
+                }
+              />
+            </div>
+
             <div className="rounded-md border p-4">
               <div className="flex items-center justify-between">
                 <Label htmlFor="download-history">Download History</Label>
@@ -349,7 +498,7 @@ function TransferRule({ value, onChange }: TransferRuleProps) {
                 id="destination"
                 type="text"
                 className="w-full"
-                placeholder="Enter a destination folder"
+                placeholder="Enter a destination folder or s3://bucket/prefix"
                 value={value.destination}
                 onChange={(e) => {
                   handleTransferRuleChange({ destination: e.target.value });
@@ -370,6 +519,28 @@ function TransferRule({ value, onChange }: TransferRuleProps) {
               />
             </div>
 
+            {value.transferPolicy === "TEMPLATE" && (
+              <div className="flex flex-col space-y-2">
+                <Label htmlFor="path-template">Path Template</Label>
+                <Input
+                  id="path-template"
+                  type="text"
+                  className="w-full"
+                  placeholder="{chatTitle}/{yyyy}/{MM}/{type}/{fileName}"
+                  value={value.pathTemplate ?? ""}
+                  onChange={(e) => {
+                    handleTransferRuleChange({ pathTemplate: e.target.value });
+                  }}
+                />
+                <p className="text-xs text-muted-foreground">
+                  Variables: {"{telegramId}"}, {"{chatId}"}, {"{chatTitle}"},{" "}
+                  {"{messageId}"}, {"{type}"}, {"{mimeType}"}, {"{fileName}"},{" "}
+                  {"{baseName}"}, {"{ext}"}, {"{yyyy}"}, {"{MM}"}, {"{dd}"},{" "}
+                  {"{HH}"}
+                </p>
+              </div>
+            )}
+
             <div className="flex flex-col space-y-2">
               <Label htmlFor="duplication-policy">Duplication Policy</Label>
               <PolicySelect
@@ -383,6 +554,19 @@ function TransferRule({ value, onChange }: TransferRuleProps) {
               />
             </div>
 
+            <div className="flex flex-col space-y-2">
+              <Label htmlFor="transfer-mode">Transfer Mode</Label>
+              <PolicySelect
+                policyType="mode"
+                value={value.transferMode ?? "MOVE"}
+                onChange={(mode) =>
+                  handleTransferRuleChange({
+                    transferMode: mode as TransferMode,
+                  })
+                }
+              />
+            </div>
+
             <div className="rounded-md border p-4">
               <div className="flex items-center justify-between">
                 <Label htmlFor="transfer-history">Transfer History</Label>
@@ -407,7 +591,7 @@ function TransferRule({ value, onChange }: TransferRuleProps) {
 }
 
 const PolicyLegends: Record<
-  TransferPolicy | DuplicationPolicy,
+  TransferPolicy | DuplicationPolicy | TransferMode,
   {
     title: string;
     description: string | React.ReactNode;
@@ -442,6 +626,21 @@ const PolicyLegends: Record<
       </div>
     ),
   },
+  TEMPLATE: {
+    title: "Template",
+    description: (
+      <div className="space-y-2">
+        <p className="text-sm">
+          Transfer files to folders built from the path template, e.g. by chat
+          title, date and file type.
+        </p>
+        <p className="text-xs text-muted-foreground">Example:</p>
+        <p className="inline-block rounded bg-gray-100 p-1 text-xs text-muted-foreground dark:bg-gray-800 dark:text-gray-300">
+          {"/${Destination Folder}/{chatTitle}/{yyyy}/{MM}/{type}/{fileName}"}
+        </p>
+      </div>
+    ),
+  },
   OVERWRITE: {
     title: "Overwrite",
     description:
@@ -460,12 +659,32 @@ const PolicyLegends: Record<
   HASH: {
     title: "Hash",
     description:
-      "Calculate the hash (md5) of the file and compare with the existing file, if the hash is the same, delete the original file and set the local path to the existing file, otherwise, move the file",
+      "Calculate the hash of the file and compare with the existing file, if the hash is the same, delete the original file and set the local path to the existing file, otherwise, move the file",
+  },
+  MOVE: {
+    title: "Move",
+    description:
+      "Move the file to the destination folder, the downloaded file is removed from the telegram cache.",
+  },
+  HARDLINK: {
+    title: "Hard Link",
+    description:
+      "Create a hard link in the destination folder, no data is copied and the telegram cache keeps the file. The destination must be on the same filesystem, otherwise the file is copied.",
+  },
+  REFLINK: {
+    title: "Reflink",
+    description:
+      "Clone the file on a copy-on-write filesystem (Btrfs, XFS, APFS), no data is copied until one of the files is changed. Falls back to copy when not supported.",
+  },
+  COPY: {
+    title: "Copy",
+    description:
+      "Copy the file to the destination folder and keep the downloaded file in the telegram cache.",
   },
 };
 
 interface PolicySelectProps {
-  policyType: "transfer" | "duplication";
+  policyType: "transfer" | "duplication" | "mode";
   value?: string;
   onChange: (value: string) => void;
 }
@@ -473,11 +692,17 @@ interface PolicySelectProps {
 function PolicySelect({ policyType, value, onChange }: PolicySelectProps) {
   const [open, setOpen] = useState(false);
   const polices =
-    policyType === "transfer" ? TransferPolices : DuplicationPolicies;
+    policyType === "transfer"
+      ? TransferPolices
+      : policyType === "mode"
+        ? TransferModes
+        : DuplicationPolicies;
   const [peekedPolicy, setPeekedPolicy] = useState<string>(value ?? polices[0]);
 
   const peekPolicyLegend = useMemo(() => {
-    return PolicyLegends[peekedPolicy as TransferPolicy | DuplicationPolicy];
+    return PolicyLegends[
+      peekedPolicy as TransferPolicy | DuplicationPolicy | TransferMode
+    ];
   }, [peekedPolicy]);
 
   return (
@@ -11,6 +11,7 @@ import {
 import SpoiledWrapper from "@/components/spoiled-wrapper";
 import { cn } from "@/lib/utils";
 import { getApiUrl } from "@/lib/api";
+import { useSettings } from "@/hooks/use-settings";
 
 const ImageErrorFallback = ({
   size = "s",
@@ -82,6 +83,7 @@ export default function FilePreview({
     isFullPreview ? window.innerHeight : 288,
   );
   const [error, setError] = useState(false);
+  const { settings } = useSettings();
 
   useEffect(() => {
     if (isFullPreview) {
@@ -108,20 +110,29 @@ export default function FilePreview({
   }
 
   // 确定图像源
-  const getImageSource = (uniqueId: string) => {
+  const getImageSource = (uniqueId: string, displayWidth: number) => {
     if (uniqueId) {
-      return `${getApiUrl()}/${file.telegramId}/file/${uniqueId}`;
+      const url = `${getApiUrl()}/${file.telegramId}/file/${uniqueId}`;
+      // Thumbnails load a resized rendition, full previews the original unless imageLoadSize limits the width
+      const width = isFullPreview
+        ? Number(settings?.imageLoadSize ?? 0)
+        : Math.ceil(displayWidth * (window.devicePixelRatio || 1));
+      return width > 0 ? `${url}?w=${width}` : url;
     }
     return `data:image/jpeg;base64,${file.thumbnail}`;
   };
 
   // 渲染有图像的文件
   const renderImage = (width: number, height: number, uniqueId: string) => {
-    const src = getImageSource(uniqueId);
-
     const { width: calculatedWidth, height: calculatedHeight } =
       calculateImageDimensions(width, height, viewportHeight);
 
+    // h-16 w-16 with object-cover, the shorter side fills 64px
+    const src = getImageSource(
+      uniqueId,
+      isGalleryLayout ? calculatedWidth : 64 * Math.max(1, width / height),
+    );
+
     const imageClasses = cn(
       "object-cover rounded",
       isFullPreview ? "h-auto max-h-screen object-contain" : "h-16 w-16",
@@ -13,6 +13,7 @@ import {
   XCircle,
 } from "lucide-react";
 import useIsMobile from "@/hooks/use-is-mobile";
+import prettyBytes from "pretty-bytes";
 
 export const DOWNLOAD_STATUS = {
   idle: {
@@ -82,6 +83,12 @@ export default function FileStatus({
     exit: { opacity: 0, scale: 0.9, transition: { duration: 0.2 } },
   };
   const isMobile = useIsMobile();
+  const transferProgress =
+    file.transferStatus === "transferring" &&
+    file.transferProgress &&
+    file.transferProgress.totalBytes > 0
+      ? file.transferProgress
+      : undefined;
 
   return (
     <div
@@ -119,7 +126,13 @@ export default function FileStatus({
               animate="animate"
               exit="exit"
             >
-              <TooltipWrapper content="Transfer Status">
+              <TooltipWrapper
+                content={
+                  transferProgress
+                    ? `Transfer Status: ${prettyBytes(transferProgress.transferredBytes)} / ${prettyBytes(transferProgress.totalBytes)}, ${prettyBytes(transferProgress.bytesPerSecond)}/s`
+                    : "Transfer Status"
+                }
+              >
                 <Badge
                   className={cn(
                     "h-6 text-xs hover:bg-gray-200",
@@ -127,6 +140,11 @@ export default function FileStatus({
                   )}
                 >
                   {TRANSFER_STATUS[file.transferStatus].text}
+                  {transferProgress &&
+                    ` ${Math.floor(
+                      (transferProgress.transferredBytes * 100) /
+                        transferProgress.totalBytes,
+                    )}%`}
                 </Badge>
               </TooltipWrapper>
             </motion.div>
@@ -160,7 +160,8 @@ export default function FileDrawer({
             {viewing ? (
               <div className="relative flex min-h-screen items-center justify-center">
                 {file.type === "video" &&
-                file.downloadStatus === "completed" ? (
+                (file.downloadStatus === "completed" ||
+                  file.downloadStatus === "downloading") ? (
                   <FileVideo file={file} />
                 ) : (
                   <FileImage file={file} className="h-full" isFullPreview />
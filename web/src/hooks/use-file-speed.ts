@@ -1,7 +1,10 @@
 import { useWebsocket } from "@/hooks/use-websocket";
 import {useEffect, useMemo, useState} from "react";
-import { WebSocketMessageType } from "@/lib/websocket-types";
-import type {TDFile, TelegramFile} from "@/lib/types";
+import {
+  type FileProgress,
+  WebSocketMessageType,
+} from "@/lib/websocket-types";
+import type { TelegramFile } from "@/lib/types";
 import { env } from "@/env";
 import { useDebounce } from "use-debounce";
 
@@ -42,16 +45,17 @@ export function useFileSpeed(file: TelegramFile) {
   useEffect(() => {
     if (
       lastJsonMessage !== null &&
-      lastJsonMessage.type === WebSocketMessageType.FILE_UPDATE
+      lastJsonMessage.type === WebSocketMessageType.FILE_PROGRESS
     ) {
-      const { file } = lastJsonMessage.data as { file: TDFile };
-      if (file.id !== fileId || !file.local) {
+      // One message carries the latest progress of every file updated since the last one
+      const { files } = lastJsonMessage.data as { files: FileProgress[] };
+      const fileProgress = files.find((f) => f.fileId === fileId);
+      if (!fileProgress || fileProgress.size === 0) {
         return;
       }
 
       const timestamp = lastJsonMessage.timestamp;
-      const size = file.size === 0 ? file.expectedSize : file.size;
-      const downloadedSize = file.local.downloadedSize;
+      const { size, downloadedSize } = fileProgress;
 
       setDownloadProgress((prev) => {
         return Math.max(Math.min((downloadedSize / size) * 100, 100), prev);
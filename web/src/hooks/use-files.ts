@@ -4,6 +4,7 @@ import {
   type FileFilter,
   type TelegramFile,
   type Thumbnail,
+  type TransferProgress,
   type TransferStatus,
 } from "@/lib/types";
 import useSWRInfinite from "swr/infinite";
@@ -48,6 +49,7 @@ export function useFiles(
         completionDate?: number;
         downloadedSize: number;
         transferStatus?: TransferStatus;
+        transferProgress?: TransferProgress;
         thumbnailFile?: Thumbnail;
         removed?: boolean;
       }
@@ -134,6 +136,7 @@ export function useFiles(
       completionDate: number;
       downloadedSize: number;
       transferStatus?: TransferStatus;
+      transferProgress?: TransferProgress;
       thumbnailFile?: Thumbnail;
       removed?: boolean;
     };
@@ -167,6 +170,11 @@ export function useFiles(
           data.downloadedSize ?? prev[data.uniqueId]?.downloadedSize,
         transferStatus:
           data.transferStatus ?? prev[data.uniqueId]?.transferStatus,
+        transferProgress:
+          data.transferProgress ??
+          (data.transferStatus && data.transferStatus !== "transferring"
+            ? undefined
+            : prev[data.uniqueId]?.transferProgress),
         thumbnailFile:
           data.thumbnailFile ?? prev[data.uniqueId]?.thumbnailFile,
       },
@@ -207,6 +215,7 @@ export function useFiles(
           transferStatus:
             latestFilesStatus[file.uniqueId]?.transferStatus ??
             file.transferStatus,
+          transferProgress: latestFilesStatus[file.uniqueId]?.transferProgress,
           thumbnailFile:
             latestFilesStatus[file.uniqueId]?.thumbnailFile ??
             file.thumbnailFile,
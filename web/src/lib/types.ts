@@ -34,6 +34,12 @@ export type DownloadStatus =
 
 export type TransferStatus = "idle" | "transferring" | "completed" | "error";
 
+export type TransferProgress = {
+  transferredBytes: number;
+  totalBytes: number;
+  bytesPerSecond: number;
+};
+
 export type TelegramFile = {
   id: number;
   telegramId: number;
@@ -57,6 +63,7 @@ export type TelegramFile = {
   completionDate: number;
   originalDeleted: boolean;
   transferStatus?: TransferStatus;
+  transferProgress?: TransferProgress;
   extra?: PhotoExtra | VideoExtra;
   tags?: string;
   loaded: boolean;
@@ -177,7 +184,11 @@ export type Auto = {
   };
 };
 
-export const TransferPolices = ["GROUP_BY_CHAT", "GROUP_BY_TYPE"] as const;
+export const TransferPolices = [
+  "GROUP_BY_CHAT",
+  "GROUP_BY_TYPE",
+  "TEMPLATE",
+] as const;
 export type TransferPolicy = (typeof TransferPolices)[number];
 export const DuplicationPolicies = [
   "OVERWRITE",
@@ -186,12 +197,16 @@ export const DuplicationPolicies = [
   "HASH",
 ] as const;
 export type DuplicationPolicy = (typeof DuplicationPolicies)[number];
+export const TransferModes = ["MOVE", "HARDLINK", "REFLINK", "COPY"] as const;
+export type TransferMode = (typeof TransferModes)[number];
 
 export type AutoTransferRule = {
   transferHistory: boolean;
   destination: string;
   transferPolicy: TransferPolicy;
+  pathTemplate?: string;
   duplicationPolicy: DuplicationPolicy;
+  transferMode?: TransferMode;
 };
 
 export type AutoDownloadRule = {
@@ -199,4 +214,13 @@ export type AutoDownloadRule = {
   fileTypes: Array<Exclude<FileType, "media">>;
   downloadHistory: boolean;
   downloadCommentFiles: boolean;
+  minSize?: number | null;
+  maxSize?: number | null;
+  fileNamePattern?: string | null;
+  captionPattern?: string | null;
+  mimeTypes?: string[] | null;
+  // unix seconds
+  startDate?: number | null;
+  endDate?: number | null;
+  minReactionCount?: number | null;
 };
@@ -12,6 +12,14 @@ export const WebSocketMessageType = {
   FILE_UPDATE: 3,
   FILE_DOWNLOAD: 4,
   FILE_STATUS: 5,
+  FILE_PROGRESS: 6,
+};
+
+export type FileProgress = {
+  fileId: number;
+  downloadedSize: number;
+  size: number;
+  status: string;
 };
 
 export type TelegramError = {